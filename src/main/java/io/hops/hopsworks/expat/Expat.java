@@ -18,8 +18,13 @@
 package io.hops.hopsworks.expat;
 
 import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
+import io.hops.hopsworks.expat.configuration.ExpatConf;
+import io.hops.hopsworks.expat.db.DbConnectionFactory;
+import io.hops.hopsworks.expat.db.JsonColumnTransformer;
 import io.hops.hopsworks.expat.executor.ProcessExecutor;
 import io.hops.hopsworks.expat.executor.ShutdownManager;
+import io.hops.hopsworks.expat.kubernetes.KubernetesClientFactory;
+import io.hops.hopsworks.expat.migrations.JsonColumnStep;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
@@ -33,6 +38,12 @@ import org.kohsuke.args4j.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.kohsuke.args4j.OptionHandlerFilter.ALL;
 
 public class Expat {
@@ -83,9 +94,21 @@ public class Expat {
     }
 
     String[] migrationClasses = migrations.split("\n");
+    List<MigrateStep> steps = new ArrayList<>();
     for (String migration : migrationClasses) {
-      MigrateStep step = (MigrateStep) Class.forName(migration.trim()).newInstance();
-      if (command.equalsIgnoreCase("migrate")) {
+      steps.add((MigrateStep) Class.forName(migration.trim()).newInstance());
+    }
+    boolean migrate = command.equalsIgnoreCase("migrate");
+    int i = 0;
+    while (i < steps.size()) {
+      List<JsonColumnStep> fused = getFusedSteps(steps, i);
+      if (fused.size() > 1) {
+        runFused(config, fused, migrate);
+        i += fused.size();
+        continue;
+      }
+      MigrateStep step = steps.get(i++);
+      if (migrate) {
         step.migrate();
       } else {
         step.rollback();
@@ -93,9 +116,67 @@ public class Expat {
     }
   }
 
+  /**
+   * @return the consecutive steps starting at from which rewrite the same JSON column
+   */
+  private List<JsonColumnStep> getFusedSteps(List<MigrateStep> steps, int from) {
+    List<JsonColumnStep> fused = new ArrayList<>();
+    for (int i = from; i < steps.size() && steps.get(i) instanceof JsonColumnStep; i++) {
+      JsonColumnStep step = (JsonColumnStep) steps.get(i);
+      if (!fused.isEmpty() && !(fused.get(0).getTable().equals(step.getTable())
+          && fused.get(0).getColumn().equals(step.getColumn()))) {
+        break;
+      }
+      fused.add(step);
+    }
+    return fused;
+  }
+
+  private void runFused(Configuration config, List<JsonColumnStep> steps, boolean migrate)
+      throws ConfigurationException, MigrationException, RollbackException {
+    String table = steps.get(0).getTable();
+    String column = steps.get(0).getColumn();
+    List<String> names = new ArrayList<>();
+    for (JsonColumnStep step : steps) {
+      names.add(step.getClass().getSimpleName());
+    }
+    LOGGER.info("Running " + names + " in a single pass over " + table + "." + column);
+    try (Connection connection = DbConnectionFactory.getConnection()) {
+      JsonColumnTransformer transformer = new JsonColumnTransformer(connection, table, column)
+          .pageSize(config.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT))
+          .dryRun(config.getBoolean(ExpatConf.DRY_RUN));
+      // the pass covers the rows of any of the steps, each transform still skips the rows of the others
+      StringBuilder condition = new StringBuilder();
+      List<Object> params = new ArrayList<>();
+      for (JsonColumnStep step : steps) {
+        if (step.getCondition() == null) {
+          condition = null;
+          break;
+        }
+        condition.append(condition.length() == 0 ? "(" : " OR (").append(step.getCondition()).append(")");
+        params.addAll(Arrays.asList(step.getParams()));
+      }
+      if (condition != null) {
+        transformer.where(condition.toString(), params.toArray());
+      }
+      for (JsonColumnStep step : steps) {
+        step.configure(transformer, migrate);
+      }
+      transformer.run();
+    } catch (SQLException ex) {
+      String errorMsg = "Could not run " + names + " over " + table + "." + column;
+      LOGGER.error(errorMsg);
+      if (migrate) {
+        throw new MigrationException(errorMsg, ex);
+      }
+      throw new RollbackException(errorMsg, ex);
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     Expat e = new Expat(args);
   
+    ShutdownManager.getManager().addShutdownHook(new KubernetesClientFactory.ShutdownHook(), 90);
     ShutdownManager.getManager().addShutdownHook(new ProcessExecutor.ShutdownHook(), 100);
     ShutdownManager.getManager().addShutdownHook(new CreateKagentLogsIndeces.ShutdownHook(), 150);
     ShutdownManager.getManager().addShutdownHook(new BeamKibana.ShutdownHook(), 200);
@@ -21,6 +21,14 @@ public class ExpatConf {
   private static final String EXPAT_PREFIX = "expat.";
   public static final String EXPAT_PATH = EXPAT_PREFIX + "dir";
   public static final String DRY_RUN = EXPAT_PREFIX + "dry_run";
+  public static final String PROCESS_CONCURRENCY = EXPAT_PREFIX + "process_concurrency";
+  public static final int PROCESS_CONCURRENCY_DEFAULT = 4;
+  public static final String VIRTUAL_THREADS = EXPAT_PREFIX + "virtual_threads";
+  public static final boolean VIRTUAL_THREADS_DEFAULT = true;
+  public static final String WORKER_THREADS = EXPAT_PREFIX + "worker_threads";
+  public static final int WORKER_THREADS_DEFAULT = 16;
+  public static final String BATCH_SIZE = EXPAT_PREFIX + "batch_size";
+  public static final int BATCH_SIZE_DEFAULT = 500;
 
   // ------ Database Configuration ------ //
   private static final String DATABASE_PREFIX = "database.";
@@ -44,6 +52,8 @@ public class ExpatConf {
   public static final String KUBE_CERTFILE_KEY = KUBE_PREFIX + "certFile";
   public static final String KUBE_KEYFILE_KEY = KUBE_PREFIX + "keyFile";
   public static final String KUBE_KEYPWD_KEY = KUBE_PREFIX + "keyPwd";
+  public static final String KUBE_CONCURRENCY_KEY = KUBE_PREFIX + "concurrency";
+  public static final int KUBE_CONCURRENCY_DEFAULT = 16;
 
   // ------- X.509 configuration -------- //
   private static final String CERTS_PREFIX = "x509.";
@@ -51,6 +61,8 @@ public class ExpatConf {
   public static final String INTERMEDIATE_CA_PATH = CERTS_PREFIX + "intermediateCA";
   public static final String VALIDITY_DAYS = CERTS_PREFIX + "validityDays";
   public static final String CA_PASSWORD = CERTS_PREFIX + "caPassword";
+  public static final String SIGN_IN_PROCESS = CERTS_PREFIX + "signInProcess";
+  public static final boolean SIGN_IN_PROCESS_DEFAULT = false;
 
   // ------- Conda -------- //
   private static final String CONDA_PREFIX = "conda.";
@@ -69,6 +81,12 @@ public class ExpatConf {
   public static final String LDAP_PRINCIPAL = LDAP_PREFIX + "principal";
   public static final String LDAP_CREDENTIALS = LDAP_PREFIX + "credentials";
   public static final String LDAP_BASE_DN_KEY = LDAP_PREFIX + "base-dn";
+  public static final String LDAP_PAGE_SIZE = LDAP_PREFIX + "page-size";
+  public static final int LDAP_PAGE_SIZE_DEFAULT = 500;
+  public static final String LDAP_FILTER_SIZE = LDAP_PREFIX + "filter-size";
+  public static final int LDAP_FILTER_SIZE_DEFAULT = 100;
+  public static final String LDAP_POOLING = LDAP_PREFIX + "pooling";
+  public static final boolean LDAP_POOLING_DEFAULT = false;
   
   public static final String HOPSWORKS_PREFIX = "hopsworks.";
   public static final String HOPSWORKS_URL  = HOPSWORKS_PREFIX + "url";
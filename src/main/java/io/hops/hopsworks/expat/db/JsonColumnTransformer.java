@@ -0,0 +1,257 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.db;
+
+import io.hops.hopsworks.expat.configuration.ExpatConf;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites a JSON column of a table in a single pass. Rows are read in pages ordered by id, each page starting after
+ * the last id of the previous one, so no result set stays open while a page is written. The transforms are applied
+ * in order to the parsed document of every row and rows whose document did not change are not written. The updates
+ * of a page are sent as one batch. The whole pass is one transaction, committed after the last page, so a failure
+ * leaves the table untouched. Committing every page is an opt-in for transforms which are safe to run again on
+ * rows they already changed.
+ *
+ * Rows with a null document are skipped. In dry run nothing is written, the rows which would change are counted.
+ */
+public final class JsonColumnTransformer {
+  private static final Logger LOGGER = LoggerFactory.getLogger(JsonColumnTransformer.class);
+
+  /**
+   * A change to the document of a row
+   */
+  public interface Transform {
+    /**
+     * @param row the id and the extra selected columns of the row
+     * @param json the document of the row, changed in place
+     */
+    void apply(Row row, JSONObject json) throws SQLException;
+  }
+
+  /**
+   * Writes rows of other tables derived from a page, in the transaction of the pass. Not called in dry run.
+   */
+  public interface PageListener {
+    void afterPage(Connection connection) throws SQLException;
+  }
+
+  private final Connection connection;
+  private final String table;
+  private final String column;
+  private final List<String> columns = new ArrayList<>();
+  private final List<Transform> transforms = new ArrayList<>();
+  private final List<PageListener> listeners = new ArrayList<>();
+  private String condition = null;
+  private List<Object> params = Collections.emptyList();
+  private int pageSize = ExpatConf.BATCH_SIZE_DEFAULT;
+  private boolean commitPerPage = false;
+  private boolean dryRun = false;
+
+  public JsonColumnTransformer(Connection connection, String table, String column) {
+    this.connection = connection;
+    this.table = table;
+    this.column = column;
+  }
+
+  /**
+   * Extra columns to read, available to the transforms through {@link Row#getString(String)}
+   */
+  public JsonColumnTransformer select(String... columns) {
+    for (String column : columns) {
+      if (!this.columns.contains(column)) {
+        this.columns.add(column);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Restrict the pass to the rows matching the condition
+   */
+  public JsonColumnTransformer where(String condition, Object... params) {
+    this.condition = condition;
+    this.params = Arrays.asList(params);
+    return this;
+  }
+
+  public JsonColumnTransformer pageSize(int pageSize) {
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  /**
+   * Commit after every page instead of once at the end of the pass. A failure then leaves the pages before it
+   * committed, so the transforms must be safe to run again on rows they already changed.
+   */
+  public JsonColumnTransformer commitPerPage(boolean commitPerPage) {
+    this.commitPerPage = commitPerPage;
+    return this;
+  }
+
+  public JsonColumnTransformer dryRun(boolean dryRun) {
+    this.dryRun = dryRun;
+    return this;
+  }
+
+  public JsonColumnTransformer transform(Transform transform) {
+    transforms.add(transform);
+    return this;
+  }
+
+  public JsonColumnTransformer onPage(PageListener listener) {
+    listeners.add(listener);
+    return this;
+  }
+
+  /**
+   * @return the number of rows updated, or which would be updated in dry run
+   */
+  public int run() throws SQLException {
+    int scanned = 0;
+    int updated = 0;
+    int lastId = Integer.MIN_VALUE;
+    connection.setAutoCommit(false);
+    try (PreparedStatement selectStmt = connection.prepareStatement(getSelectQuery());
+         PreparedStatement updateStmt = connection.prepareStatement(getUpdateQuery())) {
+      while (true) {
+        int rows = 0;
+        int changed = 0;
+        int idx = 1;
+        selectStmt.setInt(idx++, lastId);
+        for (Object param : params) {
+          selectStmt.setObject(idx++, param);
+        }
+        selectStmt.setInt(idx, pageSize);
+        try (ResultSet resultSet = selectStmt.executeQuery()) {
+          while (resultSet.next()) {
+            rows++;
+            Row row = new Row(resultSet, columns);
+            lastId = row.getId();
+            String value = resultSet.getString(column);
+            if (value == null) {
+              continue;
+            }
+            String newValue = transform(row, value);
+            if (newValue == null) {
+              continue;
+            }
+            changed++;
+            LOGGER.debug("Updating {}.{} of row {}", table, column, row.getId());
+            if (!dryRun) {
+              updateStmt.setString(1, newValue);
+              updateStmt.setInt(2, row.getId());
+              updateStmt.addBatch();
+            }
+          }
+        }
+        if (!dryRun) {
+          if (changed > 0) {
+            updateStmt.executeBatch();
+          }
+          for (PageListener listener : listeners) {
+            listener.afterPage(connection);
+          }
+          if (commitPerPage) {
+            connection.commit();
+          }
+        }
+        scanned += rows;
+        updated += changed;
+        if (rows < pageSize) {
+          break;
+        }
+      }
+      if (!dryRun && !commitPerPage) {
+        connection.commit();
+      }
+    } catch (SQLException | RuntimeException ex) {
+      LOGGER.error("Failed to transform {}.{} after row {}", table, column, lastId);
+      connection.rollback();
+      throw ex;
+    } finally {
+      connection.setAutoCommit(true);
+    }
+    LOGGER.info("{}.{}: {} rows scanned, {} rows {}", table, column, scanned, updated,
+      dryRun ? "would be updated" : "updated");
+    return updated;
+  }
+
+  /**
+   * @return the new document, or null if the transforms did not change it
+   */
+  private String transform(Row row, String value) throws SQLException {
+    JSONObject json = new JSONObject(value);
+    for (Transform transform : transforms) {
+      transform.apply(row, json);
+    }
+    String newValue = json.toString();
+    if (newValue.equals(value) || json.similar(new JSONObject(value))) {
+      return null;
+    }
+    return newValue;
+  }
+
+  private String getSelectQuery() {
+    StringBuilder sql = new StringBuilder("SELECT id, ").append(column);
+    for (String extra : columns) {
+      sql.append(", ").append(extra);
+    }
+    sql.append(" FROM ").append(table).append(" WHERE id > ?");
+    if (condition != null) {
+      sql.append(" AND (").append(condition).append(")");
+    }
+    return sql.append(" ORDER BY id LIMIT ?").toString();
+  }
+
+  private String getUpdateQuery() {
+    return "UPDATE " + table + " SET " + column + " = ? WHERE id = ?";
+  }
+
+  public static final class Row {
+    private final int id;
+    private final Map<String, String> values = new HashMap<>();
+
+    private Row(ResultSet resultSet, List<String> columns) throws SQLException {
+      this.id = resultSet.getInt("id");
+      for (String column : columns) {
+        values.put(column, resultSet.getString(column));
+      }
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public String getString(String column) {
+      return values.get(column);
+    }
+  }
+}
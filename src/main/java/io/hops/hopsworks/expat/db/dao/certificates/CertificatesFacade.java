@@ -29,7 +29,11 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class CertificatesFacade {
 
@@ -39,10 +43,14 @@ public class CertificatesFacade {
       "UPDATE user_certs SET user_key_pwd=? WHERE projectname=? AND username=?";
   private static final String GET_USER_CERT =
       "SELECT * from user_certs WHERE username = ?";
+  private static final String GET_USERS_CERTS =
+      "SELECT projectname, username, user_key_pwd from user_certs";
   private static final String PKI_TABLE_NAME = "pki_certificate";
   private static final String INSERT_PKI_CERTIFICATE = String.format("INSERT INTO %s VALUES(?, ?, ?, ?, ?, ?," +
     " ?)", PKI_TABLE_NAME);
   private static final String GET_PKI_CERTIFICATE = String.format("SELECT * FROM %s WHERE subject = ?", PKI_TABLE_NAME);
+  private static final String GET_PKI_CERTIFICATE_SUBJECTS = String.format("SELECT subject FROM %s", PKI_TABLE_NAME);
+  private static final String PKI_CERTIFICATE_VALUES = "(?, ?, ?, ?, ?, ?, ?)";
 
   public void updateCertPassword(Connection connection,
                                  ExpatCertificate expatCertificate, String newPassword, boolean dryRun)
@@ -61,6 +69,53 @@ public class CertificatesFacade {
     }
   }
 
+  /**
+   * Update the password of many certificates with one batch
+   *
+   * @param newPasswords certificate to its new cipher password
+   */
+  public void updateCertPasswords(Connection connection, Map<ExpatCertificate, String> newPasswords, boolean dryRun)
+      throws SQLException {
+    try (PreparedStatement stmt = connection.prepareStatement(UPDATE_PWD)) {
+      for (Map.Entry<ExpatCertificate, String> newPassword : newPasswords.entrySet()) {
+        stmt.setString(1, newPassword.getValue());
+        stmt.setString(2, newPassword.getKey().getProjectName());
+        stmt.setString(3, newPassword.getKey().getUsername());
+        if (dryRun) {
+          LOGGER.info(stmt.toString());
+        } else {
+          stmt.addBatch();
+        }
+      }
+      if (!dryRun) {
+        stmt.executeBatch();
+      }
+    }
+  }
+
+  /**
+   * @return the certificates of all users, by username
+   */
+  public Map<String, List<ExpatCertificate>> getUsersCertificates(Connection connection) throws SQLException {
+    Map<String, List<ExpatCertificate>> certificates = new HashMap<>();
+    try (PreparedStatement stmt = connection.prepareStatement(GET_USERS_CERTS);
+         ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) {
+        ExpatCertificate certificate = new ExpatCertificate(
+            rs.getString("projectname"),
+            rs.getString("username"),
+            rs.getString("user_key_pwd"));
+        List<ExpatCertificate> userCertificates = certificates.get(certificate.getUsername());
+        if (userCertificates == null) {
+          userCertificates = new ArrayList<>();
+          certificates.put(certificate.getUsername(), userCertificates);
+        }
+        userCertificates.add(certificate);
+      }
+    }
+    return certificates;
+  }
+
   public List<ExpatCertificate> getUserCertificates(Connection connection, ExpatUser expatUser) throws SQLException {
     ResultSet rs = null;
     List<ExpatCertificate> certificates = new ArrayList<>();
@@ -101,6 +156,52 @@ public class CertificatesFacade {
     }
   }
 
+  /**
+   * Insert the certificates with multi-row INSERT statements of at most {@code batchSize} rows.
+   */
+  public void insertPKICertificates(Connection connection, List<ExpatPKICertificate> certificates, int batchSize,
+      boolean dryRun) throws SQLException {
+    for (int from = 0; from < certificates.size(); from += batchSize) {
+      List<ExpatPKICertificate> chunk = certificates.subList(from, Math.min(from + batchSize, certificates.size()));
+      StringBuilder sql = new StringBuilder(String.format("INSERT INTO %s VALUES", PKI_TABLE_NAME));
+      for (int i = 0; i < chunk.size(); i++) {
+        sql.append(i == 0 ? " " : ", ").append(PKI_CERTIFICATE_VALUES);
+      }
+      try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+        int idx = 1;
+        for (ExpatPKICertificate certificate : chunk) {
+          stmt.setInt(idx++, certificate.getCa());
+          stmt.setLong(idx++, certificate.getSerialNumber());
+          stmt.setInt(idx++, certificate.getStatus());
+          stmt.setString(idx++, certificate.getSubject());
+          stmt.setBytes(idx++, certificate.getCertificate());
+          stmt.setTimestamp(idx++, Timestamp.from(certificate.getNotBefore()));
+          stmt.setTimestamp(idx++, Timestamp.from(certificate.getNotAfter()));
+        }
+
+        if (dryRun) {
+          LOGGER.info("Executing: insert of " + chunk.size() + " certificates " + chunk);
+        } else {
+          stmt.execute();
+        }
+      }
+    }
+  }
+
+  /**
+   * Subjects of all the certificates already in the PKI table.
+   */
+  public Set<String> getPKICertificateSubjects(Connection connection) throws SQLException {
+    Set<String> subjects = new HashSet<>();
+    try (Statement stmt = connection.createStatement();
+         ResultSet rs = stmt.executeQuery(GET_PKI_CERTIFICATE_SUBJECTS)) {
+      while (rs.next()) {
+        subjects.add(rs.getString("subject"));
+      }
+    }
+    return subjects;
+  }
+
   public boolean exists(Connection connection, String subject, boolean dryRun) throws SQLException {
     try (PreparedStatement stmt = connection.prepareStatement(GET_PKI_CERTIFICATE)) {
       stmt.setString(1, subject);
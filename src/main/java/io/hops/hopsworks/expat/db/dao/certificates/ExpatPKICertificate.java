@@ -0,0 +1,73 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.db.dao.certificates;
+
+import java.time.Instant;
+
+public class ExpatPKICertificate {
+  private final Integer ca;
+  private final Long serialNumber;
+  private final Integer status;
+  private final String subject;
+  private final byte[] certificate;
+  private final Instant notBefore;
+  private final Instant notAfter;
+
+  public ExpatPKICertificate(Integer ca, Long serialNumber, Integer status, String subject, byte[] certificate,
+      Instant notBefore, Instant notAfter) {
+    this.ca = ca;
+    this.serialNumber = serialNumber;
+    this.status = status;
+    this.subject = subject;
+    this.certificate = certificate;
+    this.notBefore = notBefore;
+    this.notAfter = notAfter;
+  }
+
+  public Integer getCa() {
+    return ca;
+  }
+
+  public Long getSerialNumber() {
+    return serialNumber;
+  }
+
+  public Integer getStatus() {
+    return status;
+  }
+
+  public String getSubject() {
+    return subject;
+  }
+
+  public byte[] getCertificate() {
+    return certificate;
+  }
+
+  public Instant getNotBefore() {
+    return notBefore;
+  }
+
+  public Instant getNotAfter() {
+    return notAfter;
+  }
+
+  @Override
+  public String toString() {
+    return subject;
+  }
+}
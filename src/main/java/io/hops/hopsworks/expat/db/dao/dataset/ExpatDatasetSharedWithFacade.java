@@ -22,8 +22,10 @@ import org.apache.commons.configuration2.ex.ConfigurationException;
 
 import java.sql.Connection;
 import java.sql.JDBCType;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 
 public class ExpatDatasetSharedWithFacade extends ExpatAbstractFacade<ExpatDatasetSharedWith> {
   private static final String GET_DATASET_SHARED_WITH = "SELECT * FROM dataset_shared_with WHERE dataset = ?";
@@ -69,4 +71,23 @@ public class ExpatDatasetSharedWithFacade extends ExpatAbstractFacade<ExpatDatas
     this.update(UPDATE_DATASET_PERMISSION, new Object[]{permission, id},
       new JDBCType[]{JDBCType.VARCHAR, JDBCType.INTEGER});
   }
+  
+  /**
+   * Update the permission of many rows in one batch
+   *
+   * @param permissions new permission keyed by id
+   */
+  public void updatePermissions(Map<Integer, String> permissions) throws SQLException {
+    if (permissions.isEmpty()) {
+      return;
+    }
+    try (PreparedStatement stmt = connection.prepareStatement(UPDATE_DATASET_PERMISSION)) {
+      for (Map.Entry<Integer, String> permission : permissions.entrySet()) {
+        stmt.setString(1, permission.getValue());
+        stmt.setInt(2, permission.getKey());
+        stmt.addBatch();
+      }
+      stmt.executeBatch();
+    }
+  }
 }
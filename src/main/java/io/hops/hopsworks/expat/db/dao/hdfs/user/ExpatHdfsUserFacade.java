@@ -20,13 +20,19 @@ import io.hops.hopsworks.expat.db.dao.ExpatAbstractFacade;
 
 import java.sql.Connection;
 import java.sql.JDBCType;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ExpatHdfsUserFacade extends ExpatAbstractFacade<ExpatHdfsUser> {
   private static final String FIND_BY_NAME = "SELECT * FROM hops.hdfs_users WHERE name = ?";
   private static final String FIND_ALL_IN_GROUP = "SELECT * FROM hops.hdfs_users JOIN hops.hdfs_users_groups ON " +
     "id=user_id WHERE group_id = ?";
+  private static final String FIND_ALL_MEMBERSHIPS = "SELECT group_id, user_id FROM hops.hdfs_users_groups";
   private Connection connection;
   protected ExpatHdfsUserFacade(Class<ExpatHdfsUser> entityClass) {
     super(entityClass);
@@ -72,4 +78,24 @@ public class ExpatHdfsUserFacade extends ExpatAbstractFacade<ExpatHdfsUser> {
     List<ExpatHdfsUser> users = this.findByQuery(FIND_ALL_IN_GROUP, group.getId(), JDBCType.BIGINT);
     return users;
   }
+  
+  /**
+   * @return the ids of the members of every group, keyed by group id
+   */
+  public Map<Integer, List<Integer>> getAllGroupMembers() throws SQLException {
+    Map<Integer, List<Integer>> members = new HashMap<>();
+    try (PreparedStatement stmt = connection.prepareStatement(FIND_ALL_MEMBERSHIPS);
+         ResultSet resultSet = stmt.executeQuery()) {
+      while (resultSet.next()) {
+        int groupId = resultSet.getInt("group_id");
+        List<Integer> users = members.get(groupId);
+        if (users == null) {
+          users = new ArrayList<>();
+          members.put(groupId, users);
+        }
+        users.add(resultSet.getInt("user_id"));
+      }
+    }
+    return members;
+  }
 }
@@ -24,6 +24,8 @@ import java.sql.Connection;
 import java.sql.JDBCType;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.List;
 
 public class ExpatModelVersionFacade extends ExpatAbstractFacade<ExpatModelVersion> {
@@ -36,6 +38,11 @@ public class ExpatModelVersionFacade extends ExpatAbstractFacade<ExpatModelVersi
       "(model_id,version,user_id,created,description,metrics,program,framework,environment,experiment_id," +
       "experiment_project_name) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
     "hopsworks.model_version");
+  private static final String INSERT_MODEL_VERSIONS = String.format("REPLACE INTO %s " +
+      "(model_id,version,user_id,created,description,metrics,program,framework,environment,experiment_id," +
+      "experiment_project_name) VALUES",
+    "hopsworks.model_version");
+  private static final String MODEL_VERSION_VALUES = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
   private Connection connection;
   protected ExpatModelVersionFacade(Class<ExpatModelVersion> entityClass) {
     super(entityClass);
@@ -100,4 +107,44 @@ public class ExpatModelVersionFacade extends ExpatAbstractFacade<ExpatModelVersi
       }
     }
   }
+
+  /**
+   * Insert the model versions with multi-row REPLACE statements of at most {@code batchSize} rows.
+   */
+  public void insertModelVersions(Connection connection, List<ExpatModelVersion> modelVersions, int batchSize,
+                                  boolean dryRun) throws SQLException {
+    for (int from = 0; from < modelVersions.size(); from += batchSize) {
+      List<ExpatModelVersion> chunk = modelVersions.subList(from, Math.min(from + batchSize, modelVersions.size()));
+      StringBuilder sql = new StringBuilder(INSERT_MODEL_VERSIONS);
+      for (int i = 0; i < chunk.size(); i++) {
+        sql.append(i == 0 ? " " : ", ").append(MODEL_VERSION_VALUES);
+      }
+      try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+        int idx = 1;
+        for (ExpatModelVersion modelVersion : chunk) {
+          if (modelVersion.getModelId() == null) {
+            //the model is not created in dry run
+            stmt.setNull(idx++, Types.INTEGER);
+          } else {
+            stmt.setInt(idx++, modelVersion.getModelId());
+          }
+          stmt.setInt(idx++, modelVersion.getVersion());
+          stmt.setInt(idx++, modelVersion.getUserId());
+          stmt.setTimestamp(idx++, new Timestamp(modelVersion.getCreated().getTime()));
+          stmt.setString(idx++, modelVersion.getDescription());
+          stmt.setString(idx++, modelVersion.getMetrics());
+          stmt.setString(idx++, modelVersion.getProgram());
+          stmt.setString(idx++, modelVersion.getFramework());
+          stmt.setString(idx++, modelVersion.getEnvironment());
+          stmt.setString(idx++, modelVersion.getExperimentId());
+          stmt.setString(idx++, modelVersion.getExperimentProjectName());
+        }
+        if (dryRun) {
+          LOGGER.info("Executing: " + stmt);
+        } else {
+          stmt.execute();
+        }
+      }
+    }
+  }
 }
@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
 
 
 public class ExpatModelsController {
@@ -53,4 +54,9 @@ public class ExpatModelsController {
     return modelVersionFacade.insertModelVersion(connection, modelId, version, userId, created, description,
       metrics, program, framework, environment, experimentId, experimentProjectName, dryRun);
   }
+
+  public void insertModelVersions(Connection connection, List<ExpatModelVersion> modelVersions, int batchSize,
+                                  boolean dryRun) throws SQLException {
+    modelVersionFacade.insertModelVersions(connection, modelVersions, batchSize, dryRun);
+  }
 }
@@ -26,9 +26,10 @@ import java.sql.SQLException;
 import java.util.List;
 
 public class ExpatProjectMemberFacade extends ExpatAbstractFacade<ExpatProjectMember> {
-  private static final String GET_PROJECT_TEAM_BY_PROJECT_ID = "SELECT t.project_id, t.team_member, t.added, " +
+  private static final String GET_PROJECT_TEAMS = "SELECT t.project_id, t.team_member, t.added, " +
     "t.team_role, p.projectname, u.username FROM project_team as t JOIN project as p ON " +
-    "project_id=id JOIN users as u ON team_member=email WHERE project_id=?";
+    "project_id=id JOIN users as u ON team_member=email";
+  private static final String GET_PROJECT_TEAM_BY_PROJECT_ID = GET_PROJECT_TEAMS + " WHERE project_id=?";
   private Connection connection;
   
   public ExpatProjectMemberFacade(Class<ExpatProjectMember> entityClass)
@@ -61,4 +62,12 @@ public class ExpatProjectMemberFacade extends ExpatAbstractFacade<ExpatProjectMe
     InstantiationException {
     return this.findByQuery(GET_PROJECT_TEAM_BY_PROJECT_ID, projectId, JDBCType.INTEGER);
   }
+  
+  /**
+   * Members of all projects, with the project name and username filled in like {@link #findByProjectId(Integer)}
+   */
+  public List<ExpatProjectMember> findAllWithNames() throws IllegalAccessException, SQLException,
+    InstantiationException {
+    return this.findByQuery(GET_PROJECT_TEAMS, new Object[0], new JDBCType[0]);
+  }
 }
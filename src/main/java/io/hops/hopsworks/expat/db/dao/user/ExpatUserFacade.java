@@ -25,7 +25,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public class ExpatUserFacade {
 
@@ -135,6 +137,47 @@ public class ExpatUserFacade {
     }
   }
 
+  /**
+   * Update the password of many users with one batch
+   *
+   * @param passwords user to its new password
+   */
+  public void updateUserPasswords(Connection connection, Map<ExpatUser, String> passwords, boolean dryRun)
+      throws SQLException {
+    try (PreparedStatement stmt = connection.prepareStatement(UPDATE_PWD)) {
+      for (Map.Entry<ExpatUser, String> password : passwords.entrySet()) {
+        stmt.setString(1, password.getValue());
+        stmt.setInt(2, password.getKey().getUid());
+        if (dryRun) {
+          LOGGER.info(stmt.toString());
+        } else {
+          stmt.addBatch();
+        }
+      }
+      if (!dryRun) {
+        stmt.executeBatch();
+      }
+    }
+  }
+
+  public void updateModes(Connection connection, Collection<ExpatUser> expatUsers, int mode, boolean dryRun)
+      throws SQLException {
+    try (PreparedStatement stmt = connection.prepareStatement(UPDATE_MODE)) {
+      for (ExpatUser expatUser : expatUsers) {
+        stmt.setInt(1, mode);
+        stmt.setInt(2, expatUser.getUid());
+        if (dryRun) {
+          LOGGER.info(stmt.toString());
+        } else {
+          stmt.addBatch();
+        }
+      }
+      if (!dryRun) {
+        stmt.executeBatch();
+      }
+    }
+  }
+
   public void updateMode(Connection connection,
                          ExpatUser expatUser, int mode, boolean dryRun) throws SQLException {
     try (PreparedStatement stmt = connection.prepareStatement(UPDATE_MODE)) {
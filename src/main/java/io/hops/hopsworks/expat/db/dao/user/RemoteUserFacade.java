@@ -23,6 +23,7 @@ import org.slf4j.LoggerFactory;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collection;
 
 public class RemoteUserFacade {
   private static final Logger LOGGER = LoggerFactory.getLogger(RemoteUserFacade.class);
@@ -43,4 +44,24 @@ public class RemoteUserFacade {
       insertStmt.execute();
     }
   }
+
+  public void insertRemoteUsers(Connection connection, Collection<RemoteUser> remoteUsers, boolean dryRun)
+      throws SQLException {
+    try (PreparedStatement insertStmt = connection.prepareStatement(INSERT_REMOTE)) {
+      for (RemoteUser remoteUser : remoteUsers) {
+        insertStmt.setInt(1, remoteUser.getType());
+        insertStmt.setString(2, remoteUser.getAuth_key());
+        insertStmt.setString(3, remoteUser.getUuid());
+        insertStmt.setInt(4, remoteUser.getUid());
+        if (dryRun) {
+          LOGGER.info(insertStmt.toString());
+        } else {
+          insertStmt.addBatch();
+        }
+      }
+      if (!dryRun) {
+        insertStmt.executeBatch();
+      }
+    }
+  }
 }
@@ -32,14 +32,18 @@ import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import java.util.Optional;
 
 public class ElasticClient {
@@ -598,4 +602,163 @@ public class ElasticClient {
       }
     }
   }
+
+  /**
+   * Names of the indices matching the pattern, listed with the cat API which, unlike
+   * {@link #getIndicesByRegex}, returns neither the settings nor the mappings of the indices.
+   */
+  public static List<String> getIndexNames(CloseableHttpClient httpClient, HttpHost elastic, String elasticUser,
+                                           String elasticPass, String indicesPattern)
+    throws URISyntaxException, IOException {
+    CloseableHttpResponse response = null;
+    try {
+      URIBuilder uriBuilder = new URIBuilder();
+      uriBuilder
+        .setPathSegments("_cat", "indices", indicesPattern)
+        .setParameter("h", "index")
+        .setParameter("format", "json");
+      HttpGet request = new HttpGet(uriBuilder.build());
+      request.addHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+      String encodedAuth = Base64.getEncoder().encodeToString((elasticUser + ":" + elasticPass).getBytes());
+      request.addHeader(HttpHeaders.AUTHORIZATION, "Basic " + encodedAuth);
+      response = httpClient.execute(elastic, request);
+      String body = EntityUtils.toString(response.getEntity());
+      int status = response.getStatusLine().getStatusCode();
+      if (status == 200) {
+        JSONArray indices = new JSONArray(body);
+        List<String> names = new ArrayList<>(indices.length());
+        for (int i = 0; i < indices.length(); i++) {
+          names.add(indices.getJSONObject(i).getString("index"));
+        }
+        LOGGER.info("Query elastic indices with pattern: {} found: {}", indicesPattern, names.size());
+        return names;
+      } else {
+        throw new IllegalStateException("Could not query elastic indices:" + body);
+      }
+    } finally {
+      if (response != null) {
+        response.close();
+      }
+    }
+  }
+
+  /**
+   * Open a scroll over all the documents of the index matching the query, {@code size} documents per page.
+   * Unlike {@link #search} the documents read are not limited by the max result window of the index.
+   * The documents are read in index order, any sort of the query is replaced.
+   *
+   * @param query search body, the size and sort fields are set by the scroll
+   * @param keepAlive time the scroll is kept between two pages, for example 5m
+   */
+  public static Scroll scroll(CloseableHttpClient httpClient, HttpHost elastic, String elasticUser,
+                              String elasticPass, String index, JSONObject query, int size, String keepAlive) {
+    JSONObject body = new JSONObject(query.toString());
+    body.put("size", size);
+    body.put("sort", new JSONArray().put("_doc"));
+    return new Scroll(httpClient, elastic, elasticUser, elasticPass, index, body, keepAlive);
+  }
+
+  private static JSONObject post(CloseableHttpClient httpClient, HttpHost elastic, String elasticUser,
+                                 String elasticPass, URIBuilder uriBuilder, JSONObject body)
+    throws URISyntaxException, IOException {
+    CloseableHttpResponse response = null;
+    try {
+      HttpPost request = new HttpPost(uriBuilder.build());
+      request.addHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+      String encodedAuth = Base64.getEncoder().encodeToString((elasticUser + ":" + elasticPass).getBytes());
+      request.addHeader(HttpHeaders.AUTHORIZATION, "Basic " + encodedAuth);
+      request.setEntity(new ByteArrayEntity(body.toString().getBytes(StandardCharsets.UTF_8)));
+      response = httpClient.execute(elastic, request);
+      JSONObject jsonResponse = new JSONObject(EntityUtils.toString(response.getEntity()));
+      int status = response.getStatusLine().getStatusCode();
+      if (status == 200) {
+        return jsonResponse;
+      } else {
+        throw new IllegalStateException("Could not scroll elastic index:" + jsonResponse.toString(4));
+      }
+    } finally {
+      if (response != null) {
+        response.close();
+      }
+    }
+  }
+
+  /**
+   * Pages of a scroll search. Not thread safe, the scroll is cleared on close.
+   */
+  public static final class Scroll implements Closeable {
+    private final CloseableHttpClient httpClient;
+    private final HttpHost elastic;
+    private final String elasticUser;
+    private final String elasticPass;
+    private final String index;
+    private final JSONObject query;
+    private final String keepAlive;
+    private String scrollId;
+    private boolean done = false;
+
+    private Scroll(CloseableHttpClient httpClient, HttpHost elastic, String elasticUser, String elasticPass,
+                   String index, JSONObject query, String keepAlive) {
+      this.httpClient = httpClient;
+      this.elastic = elastic;
+      this.elasticUser = elasticUser;
+      this.elasticPass = elasticPass;
+      this.index = index;
+      this.query = query;
+      this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @return the hits of the next page, empty once all the documents have been read
+     */
+    public JSONArray next() throws URISyntaxException, IOException {
+      if (done) {
+        return new JSONArray();
+      }
+      JSONObject response;
+      if (scrollId == null) {
+        URIBuilder uriBuilder = new URIBuilder()
+          .setPathSegments(index, "_search")
+          .setParameter("scroll", keepAlive);
+        response = post(httpClient, elastic, elasticUser, elasticPass, uriBuilder, query);
+      } else {
+        URIBuilder uriBuilder = new URIBuilder().setPathSegments("_search", "scroll");
+        JSONObject body = new JSONObject()
+          .put("scroll", keepAlive)
+          .put("scroll_id", scrollId);
+        response = post(httpClient, elastic, elasticUser, elasticPass, uriBuilder, body);
+      }
+      scrollId = response.optString("_scroll_id", scrollId);
+      JSONArray hits = response.getJSONObject("hits").getJSONArray("hits");
+      done = hits.length() == 0;
+      return hits;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (scrollId == null) {
+        return;
+      }
+      CloseableHttpResponse response = null;
+      try {
+        HttpDelete request = new HttpDelete(new URIBuilder().setPathSegments("_search", "scroll", scrollId).build());
+        String encodedAuth = Base64.getEncoder().encodeToString((elasticUser + ":" + elasticPass).getBytes());
+        request.addHeader(HttpHeaders.AUTHORIZATION, "Basic " + encodedAuth);
+        response = httpClient.execute(elastic, request);
+        EntityUtils.consume(response.getEntity());
+        if (response.getStatusLine().getStatusCode() != 200) {
+          //the scroll expires after the keep alive anyway
+          LOGGER.warn("Could not clear scroll of index:{} status:{}", index,
+            response.getStatusLine().getStatusCode());
+        }
+      } catch (URISyntaxException e) {
+        throw new IOException(e);
+      } finally {
+        scrollId = null;
+        if (response != null) {
+          response.close();
+        }
+      }
+    }
+  }
 }
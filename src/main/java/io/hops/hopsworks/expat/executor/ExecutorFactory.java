@@ -0,0 +1,212 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.executor;
+
+import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
+import io.hops.hopsworks.expat.configuration.ExpatConf;
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors used by Expat.
+ *
+ * Blocking executors are meant for work which mostly waits on something else (external processes,
+ * HDFS RPCs, JDBC, HTTP). When running on a JDK with virtual threads and {@code expat.virtual_threads}
+ * is enabled, they start a virtual thread per task, with at most as many tasks running as the platform
+ * threads they would otherwise use. Otherwise they fall back to a pool of platform threads.
+ *
+ * Compute executors are always sized to the number of available processors.
+ */
+public final class ExecutorFactory {
+  private static final Logger LOG = LoggerFactory.getLogger(ExecutorFactory.class);
+  // Expat is compiled for Java 8, look up Executors.newVirtualThreadPerTaskExecutor at runtime
+  private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = lookupVirtualThreadExecutor();
+
+  private static Boolean useVirtualThreads = null;
+  private static int workerThreads = ExpatConf.WORKER_THREADS_DEFAULT;
+
+  private ExecutorFactory() {
+  }
+
+  /**
+   * Executor for blocking work using the configured number of platform threads as fallback.
+   */
+  public static ExecutorService newBlockingExecutor(String name) {
+    init();
+    return newBlockingExecutor(name, workerThreads);
+  }
+
+  /**
+   * Executor for blocking work running at most {@code platformThreads} tasks at once, or any number if
+   * {@code platformThreads} is not positive. If virtual threads are not available it falls back to a pool
+   * of {@code platformThreads} threads, or to a cached pool.
+   */
+  public static ExecutorService newBlockingExecutor(String name, int platformThreads) {
+    init();
+    if (useVirtualThreads) {
+      try {
+        ExecutorService executor = (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        return platformThreads > 0 ? new BoundedExecutor(executor, platformThreads) : executor;
+      } catch (IllegalAccessException | InvocationTargetException ex) {
+        LOG.warn("Could not create virtual thread executor for " + name + ", falling back to platform threads", ex);
+      }
+    }
+    if (platformThreads > 0) {
+      return Executors.newFixedThreadPool(platformThreads, new NamedThreadFactory(name));
+    }
+    return Executors.newCachedThreadPool(new NamedThreadFactory(name));
+  }
+
+  /**
+   * Executor for CPU bound work, such as key generation or parsing.
+   */
+  public static ExecutorService newComputeExecutor(String name) {
+    return Executors.newFixedThreadPool(computeThreads(), new NamedThreadFactory(name));
+  }
+
+  public static int computeThreads() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Number of platform threads blocking executors fall back to, from {@code expat.worker_threads}.
+   */
+  public static int workerThreads() {
+    init();
+    return workerThreads;
+  }
+
+  public static boolean virtualThreadsAvailable() {
+    return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+  }
+
+  private static synchronized void init() {
+    if (useVirtualThreads != null) {
+      return;
+    }
+    boolean enabled = ExpatConf.VIRTUAL_THREADS_DEFAULT;
+    try {
+      Configuration config = ConfigurationBuilder.getConfiguration();
+      enabled = config.getBoolean(ExpatConf.VIRTUAL_THREADS, ExpatConf.VIRTUAL_THREADS_DEFAULT);
+      workerThreads = config.getInt(ExpatConf.WORKER_THREADS, ExpatConf.WORKER_THREADS_DEFAULT);
+    } catch (ConfigurationException ex) {
+      LOG.warn("Could not read executor configuration, using defaults", ex);
+    }
+    useVirtualThreads = enabled && virtualThreadsAvailable();
+    LOG.info("Blocking executors use " + (useVirtualThreads ? "virtual threads"
+        : "up to " + workerThreads + " platform threads"));
+  }
+
+  private static Method lookupVirtualThreadExecutor() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Runs every task on its own thread of the delegate, but lets at most {@code maxRunning} of them past a
+   * semaphore at once. Tasks waiting for a permit are cheap parked virtual threads, the way queued tasks
+   * are in a fixed pool.
+   */
+  private static final class BoundedExecutor extends AbstractExecutorService {
+    private final ExecutorService delegate;
+    private final Semaphore running;
+
+    private BoundedExecutor(ExecutorService delegate, int maxRunning) {
+      this.delegate = delegate;
+      this.running = new Semaphore(maxRunning);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+      delegate.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            running.acquire();
+          } catch (InterruptedException ex) {
+            // shut down while waiting, like a queued task of a pool
+            Thread.currentThread().interrupt();
+            return;
+          }
+          try {
+            command.run();
+          } finally {
+            running.release();
+          }
+        }
+      });
+    }
+
+    @Override
+    public void shutdown() {
+      delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      return delegate.awaitTermination(timeout, unit);
+    }
+  }
+
+  private static final class NamedThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    private NamedThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+      // Do not keep the JVM alive if a migration step forgets to shut down its executor
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.executor;
+
+import io.hops.hopsworks.common.util.ProcessDescriptor;
+import io.hops.hopsworks.common.util.ProcessResult;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs a batch of external processes, one per key (usually a project), on the {@link ProcessExecutor}
+ * with at most {@code concurrency} of them in flight.
+ */
+public final class ProcessBatch<K> extends TaskBatch<K, ProcessResult> {
+
+  public ProcessBatch(String name, int concurrency) {
+    super(name, ProcessExecutor.getExecutor().getExecutorService(), concurrency);
+  }
+
+  /**
+   * Submit a process for the given key. Blocks while {@code concurrency} processes are already running.
+   */
+  public void submit(K key, final ProcessDescriptor processDescriptor) throws InterruptedException {
+    submit(key, new Callable<ProcessResult>() {
+      @Override
+      public ProcessResult call() throws Exception {
+        return ProcessExecutor.getExecutor().execute(processDescriptor);
+      }
+    });
+  }
+
+  public static <K> Map<Integer, Integer> getExitCodes(Report<K, ProcessResult> report) {
+    Map<Integer, Integer> exitCodes = new TreeMap<>();
+    for (ProcessResult result : report.getResults().values()) {
+      Integer count = exitCodes.get(result.getExitCode());
+      exitCodes.put(result.getExitCode(), count == null ? 1 : count + 1);
+    }
+    return exitCodes;
+  }
+
+  @Override
+  protected String summary(Report<K, ProcessResult> report) {
+    return "Processes: " + report.getResults().size() + ", exit codes: " + getExitCodes(report)
+        + ", failed: " + report.getFailures().size() + ", cancelled: " + report.getCancelled().size();
+  }
+}
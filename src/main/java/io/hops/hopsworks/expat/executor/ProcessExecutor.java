@@ -29,7 +29,6 @@ import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -39,11 +38,14 @@ public final class ProcessExecutor {
   private final static int EXECUTOR_THREADS = 20;
   
   private final ExecutorService executorService;
+  // StreamGobblers get their own executor so that they never wait behind the processes they drain
+  private final ExecutorService gobblerService;
   
   private static ProcessExecutor instance;
   
   private ProcessExecutor() {
-    executorService = Executors.newFixedThreadPool(EXECUTOR_THREADS);
+    executorService = ExecutorFactory.newBlockingExecutor("process-executor", EXECUTOR_THREADS);
+    gobblerService = ExecutorFactory.newBlockingExecutor("stream-gobbler", 0);
   }
   
   public static ProcessExecutor getExecutor() {
@@ -55,24 +57,33 @@ public final class ProcessExecutor {
   }
   
   public void stop() {
-    if (executorService != null) {
-      // Messages here may not be printed.
-      // It might happen log4j shutdown hooks are called before
-      // Expat shutdown hooks
-      LOG.debug("Shutting down ProcessExecutor executor service");
-      executorService.shutdown();
+    // Messages here may not be printed.
+    // It might happen log4j shutdown hooks are called before
+    // Expat shutdown hooks
+    LOG.debug("Shutting down ProcessExecutor executor service");
+    shutdown(executorService);
+    shutdown(gobblerService);
+  }
+  
+  private void shutdown(ExecutorService service) {
+    if (service != null) {
+      service.shutdown();
       try {
-        if (!executorService.awaitTermination(30, TimeUnit.SECONDS)) {
-          executorService.shutdownNow();
+        if (!service.awaitTermination(30, TimeUnit.SECONDS)) {
+          service.shutdownNow();
         }
       } catch (InterruptedException ex) {
         LOG.warn("Waited enough to gracefully shutdown. Bye...");
-        executorService.shutdownNow();
+        service.shutdownNow();
         Thread.currentThread().interrupt();
       }
     }
   }
   
+  ExecutorService getExecutorService() {
+    return executorService;
+  }
+  
   public ProcessResult execute(ProcessDescriptor processDescriptor) throws IOException {
     try {
       return runProcess(processDescriptor);
@@ -108,13 +119,25 @@ public final class ProcessExecutor {
 
       if (!processDescriptor.redirectErrorStream()) {
         stderrGobbler = new StreamGobbler(process.getErrorStream(), errStream, ignoreStreams);
-        stderrGobblerFuture = executorService.submit(stderrGobbler);
+        stderrGobblerFuture = gobblerService.submit(stderrGobbler);
       }
 
       StreamGobbler stdoutGobbler = new StreamGobbler(process.getInputStream(), outStream, ignoreStreams);
-      Future stdoutGobblerFuture = executorService.submit(stdoutGobbler);
+      Future stdoutGobblerFuture = gobblerService.submit(stdoutGobbler);
 
-      boolean exited = process.waitFor(processDescriptor.getWaitTimeout(), processDescriptor.getTimeoutUnit());
+      boolean exited;
+      try {
+        exited = process.waitFor(processDescriptor.getWaitTimeout(), processDescriptor.getTimeoutUnit());
+      } catch (InterruptedException ex) {
+        // cancelled, do not leave the process running on its own
+        process.destroyForcibly();
+        stdoutGobblerFuture.cancel(true);
+        if (stderrGobblerFuture != null) {
+          stderrGobblerFuture.cancel(true);
+        }
+        Thread.currentThread().interrupt();
+        throw ex;
+      }
 
       if (exited) {
         waitForGobbler(stdoutGobblerFuture);
@@ -20,8 +20,11 @@ package io.hops.hopsworks.expat.executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
@@ -31,12 +34,15 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class ShutdownManager {
   private static final Logger LOG = LoggerFactory.getLogger(ShutdownManager.class);
   private static volatile ShutdownManager instance;
   private final SortedSet<ShutdownHook> hooks;
   private final AtomicBoolean shuttingDown;
+  // registration order, keeps hooks of equal priority apart in the sorted set
+  private final AtomicLong sequence = new AtomicLong(0);
   private final ExecutorService exec;
   
   private ShutdownManager() {
@@ -45,7 +51,8 @@ public final class ShutdownManager {
     hooks = Collections.synchronizedSortedSet(new TreeSet<>(new Comparator<ShutdownHook>() {
       @Override
       public int compare(ShutdownHook t0, ShutdownHook t1) {
-        return t1.priority - t0.priority;
+        int byPriority = Integer.compare(t1.priority, t0.priority);
+        return byPriority != 0 ? byPriority : Long.compare(t0.sequence, t1.sequence);
       }
     }));
     registerMasterShutdownHook();
@@ -64,10 +71,35 @@ public final class ShutdownManager {
   
   public void addShutdownHook(Runnable hook, int priority) {
     if (!shuttingDown.get()) {
-      hooks.add(new ShutdownHook(hook, priority));
+      hooks.add(new ShutdownHook(hook, priority, sequence.getAndIncrement()));
     }
   }
   
+  public void removeShutdownHook(Runnable hook) {
+    synchronized (hooks) {
+      Iterator<ShutdownHook> it = hooks.iterator();
+      while (it.hasNext()) {
+        if (it.next().hook.equals(hook)) {
+          it.remove();
+        }
+      }
+    }
+  }
+  
+  /**
+   * The registered hooks in the order they run, highest priority first and in registration order for equal
+   * priorities.
+   */
+  List<Runnable> getShutdownHooks() {
+    List<Runnable> ordered = new ArrayList<>();
+    synchronized (hooks) {
+      for (ShutdownHook hook : hooks) {
+        ordered.add(hook.hook);
+      }
+    }
+    return ordered;
+  }
+  
   private void registerMasterShutdownHook() {
     Runtime.getRuntime().addShutdownHook(new MasterHook());
   }
@@ -76,16 +108,17 @@ public final class ShutdownManager {
     @Override
     public void run() {
       shuttingDown.set(true);
-      for (ShutdownHook hook : hooks) {
-        LOG.info("Calling shutdown hook " + hook.hook.getClass().getCanonicalName());
-        Future future = exec.submit(hook.hook);
+      // batches closing meanwhile remove their hooks, run on a copy
+      for (Runnable hook : getShutdownHooks()) {
+        LOG.info("Calling shutdown hook " + hook.getClass().getCanonicalName());
+        Future future = exec.submit(hook);
         try {
           future.get(30L, TimeUnit.SECONDS);
         } catch (TimeoutException ex) {
           future.cancel(true);
-          LOG.warn("Shutdown hook timeout, cancelling " + hook.hook.getClass().getCanonicalName());
+          LOG.warn("Shutdown hook timeout, cancelling " + hook.getClass().getCanonicalName());
         } catch (InterruptedException | ExecutionException ex) {
-          LOG.warn("Exception while executing shutdown hook " + hook.hook.getClass().getCanonicalName());
+          LOG.warn("Exception while executing shutdown hook " + hook.getClass().getCanonicalName());
         }
       }
       
@@ -104,10 +137,12 @@ public final class ShutdownManager {
   private final class ShutdownHook {
     private final Runnable hook;
     private final int priority;
+    private final long sequence;
     
-    private ShutdownHook(Runnable hook, int priority) {
+    private ShutdownHook(Runnable hook, int priority, long sequence) {
       this.hook = hook;
       this.priority = priority;
+      this.sequence = sequence;
     }
   
     @Override
@@ -0,0 +1,266 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a batch of independent work units, one per key (usually a project), with at most
+ * {@code concurrency} of them in flight. Results and failures are collected per key and returned
+ * by {@link #await()}, a failing unit does not stop the others.
+ *
+ * While a batch is open it is registered with the {@link ShutdownManager} so that an interrupted
+ * Expat cancels the running units before the executors are stopped.
+ */
+public class TaskBatch<K, V> implements AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(TaskBatch.class);
+  // Must run before ProcessExecutor.ShutdownHook (100)
+  private static final int SHUTDOWN_HOOK_PRIORITY = 110;
+
+  private final String name;
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+  private final int concurrency;
+  private final Semaphore permits;
+  // one permit per submitted task once its report entry is written
+  private final Semaphore finished = new Semaphore(0);
+  private final AtomicInteger submitted = new AtomicInteger(0);
+  private final Set<Task> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<Task, Boolean>());
+  private final Report<K, V> report = new Report<>();
+  private final Runnable shutdownHook;
+  private volatile boolean cancelled = false;
+
+  /**
+   * Batch running on its own blocking executor, see {@link ExecutorFactory#newBlockingExecutor(String, int)}.
+   * The executor is shut down when the batch is closed.
+   */
+  public TaskBatch(String name, int concurrency) {
+    this(name, ExecutorFactory.newBlockingExecutor(name, Math.max(1, concurrency)), true, concurrency);
+  }
+
+  /**
+   * Batch running on a shared executor. The executor is not shut down when the batch is closed.
+   */
+  public TaskBatch(String name, ExecutorService executor, int concurrency) {
+    this(name, executor, false, concurrency);
+  }
+
+  private TaskBatch(String name, ExecutorService executor, boolean ownsExecutor, int concurrency) {
+    this.name = name;
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+    this.concurrency = Math.max(1, concurrency);
+    this.permits = new Semaphore(this.concurrency);
+    this.shutdownHook = new Runnable() {
+      @Override
+      public void run() {
+        cancel();
+      }
+    };
+    ShutdownManager.getManager().addShutdownHook(shutdownHook, SHUTDOWN_HOOK_PRIORITY);
+    LOG.info("Running " + name + " with up to " + this.concurrency + " concurrent tasks");
+  }
+
+  /**
+   * Submit a work unit for the given key. Blocks while {@code concurrency} units are already running.
+   */
+  public void submit(K key, Callable<V> work) throws InterruptedException {
+    permits.acquire();
+    if (cancelled) {
+      permits.release();
+      report.addCancelled(key);
+      return;
+    }
+    Task task = new Task(key, work);
+    inFlight.add(task);
+    submitted.incrementAndGet();
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException ex) {
+      task.reject(ex);
+    }
+  }
+
+  /**
+   * Wait for all submitted units to finish and return the report of the batch.
+   */
+  public Report<K, V> await() throws InterruptedException {
+    int tasks = submitted.get();
+    finished.acquire(tasks);
+    finished.release(tasks);
+    LOG.info(name + " finished. " + summary(report));
+    for (Map.Entry<K, Throwable> failure : report.getFailures().entrySet()) {
+      LOG.error(name + " failed for " + failure.getKey() + ": " + failure.getValue().getMessage());
+    }
+    return report;
+  }
+
+  /**
+   * Cancel the units still running and reject further submissions.
+   */
+  public void cancel() {
+    cancelled = true;
+    for (Task task : inFlight) {
+      task.cancel(true);
+    }
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public void close() {
+    ShutdownManager.getManager().removeShutdownHook(shutdownHook);
+    if (ownsExecutor) {
+      executor.shutdown();
+      try {
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+          executor.shutdownNow();
+        }
+      } catch (InterruptedException ex) {
+        executor.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  protected String summary(Report<K, V> report) {
+    return "Succeeded: " + report.getResults().size() + ", failed: " + report.getFailures().size()
+        + ", cancelled: " + report.getCancelled().size();
+  }
+
+  private final class Task extends FutureTask<V> {
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int RELEASED = 2;
+
+    private final K key;
+    private final AtomicInteger state;
+
+    private Task(K key, Callable<V> work) {
+      this(key, work, new AtomicInteger(NEW));
+    }
+
+    private Task(K key, final Callable<V> work, final AtomicInteger state) {
+      super(new Callable<V>() {
+        @Override
+        public V call() throws Exception {
+          if (!state.compareAndSet(NEW, RUNNING)) {
+            // cancelled before it started, the permit is already released
+            return null;
+          }
+          try {
+            return work.call();
+          } finally {
+            // released when the work really stops, an interrupted work may outlive its cancellation
+            state.set(RELEASED);
+            permits.release();
+          }
+        }
+      });
+      this.key = key;
+      this.state = state;
+    }
+
+    private void reject(RejectedExecutionException ex) {
+      setException(ex);
+    }
+
+    @Override
+    protected void done() {
+      try {
+        report.addResult(key, get());
+      } catch (CancellationException ex) {
+        report.addCancelled(key);
+      } catch (ExecutionException ex) {
+        report.addFailure(key, ex.getCause() != null ? ex.getCause() : ex);
+      } catch (InterruptedException ex) {
+        // get() does not block once the task is done
+        Thread.currentThread().interrupt();
+      } finally {
+        inFlight.remove(this);
+        if (state.compareAndSet(NEW, RELEASED)) {
+          // never started, nothing else releases its permit
+          permits.release();
+        }
+        finished.release();
+      }
+    }
+  }
+
+  public static final class Report<K, V> {
+    private final Map<K, V> results = new LinkedHashMap<>();
+    private final Map<K, Throwable> failures = new LinkedHashMap<>();
+    private final List<K> cancelled = new ArrayList<>();
+
+    private synchronized void addResult(K key, V result) {
+      results.put(key, result);
+    }
+
+    private synchronized void addFailure(K key, Throwable failure) {
+      failures.put(key, failure);
+    }
+
+    private synchronized void addCancelled(K key) {
+      cancelled.add(key);
+    }
+
+    /**
+     * Results of the units which completed, in completion order.
+     */
+    public synchronized Map<K, V> getResults() {
+      return results;
+    }
+
+    /**
+     * Units which could not be started or that threw while running.
+     */
+    public synchronized Map<K, Throwable> getFailures() {
+      return failures;
+    }
+
+    /**
+     * Keys which were never run or were interrupted because the batch was cancelled.
+     */
+    public synchronized List<K> getCancelled() {
+      return cancelled;
+    }
+  }
+}
@@ -26,14 +26,24 @@ import io.hops.hopsworks.expat.configuration.ExpatConf;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 
+/**
+ * All migrations share a single client, and with it its HTTP connection pool. Callers must not close it,
+ * it is closed by {@link ShutdownHook} when Expat exits.
+ */
 public class KubernetesClientFactory {
 
   private static Config kubeConfig = null;
+  private static KubernetesClient client = null;
+
+  public static synchronized KubernetesClient getClient() throws ConfigurationException {
+    if (client != null) {
+      return client;
+    }
 
-  public static KubernetesClient getClient() throws ConfigurationException {
     Configuration config = ConfigurationBuilder.getConfiguration();
 
     if (kubeConfig == null) {
+      int concurrency = getConcurrency();
       kubeConfig = new ConfigBuilder()
           .withUsername(config.getString(ExpatConf.KUBE_USER_KEY))
           .withMasterUrl(config.getString(ExpatConf.KUBE_MASTER_URL_KEY))
@@ -46,9 +56,33 @@ public class KubernetesClientFactory {
           .withClientKeyFile(config.getString(ExpatConf.KUBE_KEYFILE_KEY))
           .withClientKeyPassphrase(config.getString(ExpatConf.KUBE_KEYPWD_KEY))
           .withHttp2Disable(true)
+          .withMaxConcurrentRequests(Math.max(concurrency, Config.DEFAULT_MAX_CONCURRENT_REQUESTS))
+          .withMaxConcurrentRequestsPerHost(concurrency)
           .build();
     }
 
-    return new DefaultKubernetesClient(kubeConfig);
+    client = new DefaultKubernetesClient(kubeConfig);
+    return client;
+  }
+
+  /**
+   * Maximum number of requests in flight against the API server
+   */
+  public static int getConcurrency() throws ConfigurationException {
+    return Math.max(1, ConfigurationBuilder.getConfiguration()
+        .getInt(ExpatConf.KUBE_CONCURRENCY_KEY, ExpatConf.KUBE_CONCURRENCY_DEFAULT));
+  }
+
+  public static class ShutdownHook implements Runnable {
+
+    @Override
+    public void run() {
+      synchronized (KubernetesClientFactory.class) {
+        if (client != null) {
+          client.close();
+          client = null;
+        }
+      }
+    }
   }
 }
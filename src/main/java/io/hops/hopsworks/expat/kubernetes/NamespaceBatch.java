@@ -0,0 +1,242 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.kubernetes;
+
+import io.fabric8.kubernetes.api.model.ListOptionsBuilder;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.NamespaceBuilder;
+import io.fabric8.kubernetes.api.model.NamespaceList;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.WatcherException;
+import io.hops.hopsworks.expat.executor.TaskBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.HttpURLConnection;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates or deletes many namespaces at once. The namespaces which already exist are listed with a single
+ * request, only the difference is sent to the API server with at most {@code concurrency} requests in flight.
+ * A single watch, started at the version of the list, reports when the namespaces are active or gone.
+ */
+public final class NamespaceBatch {
+  private static final Logger LOG = LoggerFactory.getLogger(NamespaceBatch.class);
+  private static final String ACTIVE = "Active";
+  private static final long READY_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+  private final KubernetesClient client;
+  private final int concurrency;
+  private final boolean dryRun;
+
+  public NamespaceBatch(KubernetesClient client, int concurrency, boolean dryRun) {
+    this.client = client;
+    this.concurrency = concurrency;
+    this.dryRun = dryRun;
+  }
+
+  /**
+   * Create the namespaces which do not exist yet and wait for them to become active.
+   *
+   * @param names namespaces which should exist
+   * @param labels labels of the namespaces to create, also used to select the existing namespaces. May be null
+   * @return the namespaces which could not be created or did not become active in time
+   */
+  public Set<String> create(Collection<String> names, final Map<String, String> labels) throws InterruptedException {
+    NamespaceList existing = list(labels);
+    Set<String> missing = new TreeSet<>(names);
+    missing.removeAll(getNames(existing));
+    LOG.info(names.size() + " namespaces requested, " + missing.size() + " to create");
+    if (missing.isEmpty()) {
+      return missing;
+    }
+    if (dryRun) {
+      LOG.info("Create namespaces: " + missing);
+      return new TreeSet<>();
+    }
+
+    final Pending pending = new Pending(missing);
+    try (Watch watch = watch(existing, pending, false);
+         TaskBatch<String, Void> batch = new TaskBatch<>("Create namespaces", concurrency)) {
+      for (final String name : missing) {
+        batch.submit(name, new Callable<Void>() {
+          @Override
+          public Void call() {
+            try {
+              Namespace ns = client.namespaces().resource(new NamespaceBuilder()
+                  .withNewMetadata()
+                  .withName(name)
+                  .withLabels(labels)
+                  .endMetadata()
+                  .build()).create();
+              if (isActive(ns)) {
+                pending.done(name);
+              }
+            } catch (KubernetesClientException ex) {
+              if (ex.getCode() != HttpURLConnection.HTTP_CONFLICT) {
+                throw ex;
+              }
+              // Created since the list
+              pending.done(name);
+            }
+            return null;
+          }
+        });
+      }
+      return finish(batch.await(), pending);
+    }
+  }
+
+  /**
+   * Delete the namespaces which exist and wait for them to be gone.
+   *
+   * @param names namespaces which should not exist
+   * @param labels selector of the namespaces which may be deleted. May be null
+   * @return the namespaces which could not be deleted or were not gone in time
+   */
+  public Set<String> delete(Collection<String> names, Map<String, String> labels) throws InterruptedException {
+    NamespaceList existing = list(labels);
+    Set<String> present = new TreeSet<>(names);
+    present.retainAll(getNames(existing));
+    LOG.info(names.size() + " namespaces requested, " + present.size() + " to delete");
+    if (present.isEmpty()) {
+      return present;
+    }
+    if (dryRun) {
+      LOG.info("Delete namespaces: " + present);
+      return new TreeSet<>();
+    }
+
+    final Pending pending = new Pending(present);
+    try (Watch watch = watch(existing, pending, true);
+         TaskBatch<String, Void> batch = new TaskBatch<>("Delete namespaces", concurrency)) {
+      for (final String name : present) {
+        batch.submit(name, new Callable<Void>() {
+          @Override
+          public Void call() {
+            try {
+              client.namespaces().withName(name).delete();
+            } catch (KubernetesClientException ex) {
+              if (ex.getCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+                throw ex;
+              }
+              pending.done(name);
+            }
+            return null;
+          }
+        });
+      }
+      return finish(batch.await(), pending);
+    }
+  }
+
+  private NamespaceList list(Map<String, String> labels) {
+    if (labels == null || labels.isEmpty()) {
+      return client.namespaces().list();
+    }
+    return client.namespaces().withLabels(labels).list();
+  }
+
+  private Set<String> getNames(NamespaceList namespaces) {
+    Set<String> names = new HashSet<>();
+    for (Namespace ns : namespaces.getItems()) {
+      names.add(ns.getMetadata().getName());
+    }
+    return names;
+  }
+
+  private Watch watch(NamespaceList from, final Pending pending, final boolean deletion) {
+    return client.namespaces().watch(new ListOptionsBuilder()
+        .withResourceVersion(from.getMetadata().getResourceVersion())
+        .build(), new Watcher<Namespace>() {
+          @Override
+          public void eventReceived(Action action, Namespace ns) {
+            if (deletion ? action == Action.DELETED : action != Action.DELETED && isActive(ns)) {
+              pending.done(ns.getMetadata().getName());
+            }
+          }
+
+          @Override
+          public void onClose(WatcherException cause) {
+            LOG.warn("Namespace watch closed: " + cause.getMessage());
+            pending.abort();
+          }
+        });
+  }
+
+  private Set<String> finish(TaskBatch.Report<String, Void> report, Pending pending) throws InterruptedException {
+    Set<String> failed = new TreeSet<>(report.getFailures().keySet());
+    failed.addAll(report.getCancelled());
+    pending.remove(failed);
+    failed.addAll(pending.await(READY_TIMEOUT_MS));
+    if (!failed.isEmpty()) {
+      LOG.warn("Namespaces not done: " + failed);
+    }
+    return failed;
+  }
+
+  private static boolean isActive(Namespace ns) {
+    return ns != null && ns.getStatus() != null && ACTIVE.equals(ns.getStatus().getPhase());
+  }
+
+  /**
+   * Namespaces the watch has not reported on yet
+   */
+  private static final class Pending {
+    private final Set<String> names;
+    private boolean aborted = false;
+
+    private Pending(Set<String> names) {
+      this.names = new HashSet<>(names);
+    }
+
+    private synchronized void done(String name) {
+      if (names.remove(name) && names.isEmpty()) {
+        notifyAll();
+      }
+    }
+
+    private synchronized void remove(Collection<String> failed) {
+      names.removeAll(failed);
+      notifyAll();
+    }
+
+    private synchronized void abort() {
+      aborted = true;
+      notifyAll();
+    }
+
+    private synchronized Set<String> await(long timeoutMs) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeoutMs;
+      long left = timeoutMs;
+      while (!names.isEmpty() && !aborted && left > 0) {
+        wait(left);
+        left = deadline - System.currentTimeMillis();
+      }
+      return new TreeSet<>(names);
+    }
+  }
+}
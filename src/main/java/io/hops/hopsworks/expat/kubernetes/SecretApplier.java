@@ -0,0 +1,137 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Secret;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.hops.hopsworks.expat.executor.TaskBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+/**
+ * Reconciles Kubernetes secrets with at most {@code concurrency} requests in flight. Secrets are written with
+ * server-side apply, a secret whose data and labels already match is not written again. Conflicts and
+ * throttled requests are retried with a backoff.
+ *
+ * Results are keyed by namespace/name.
+ */
+public final class SecretApplier extends TaskBatch<String, SecretApplier.Result> {
+  private static final Logger LOG = LoggerFactory.getLogger(SecretApplier.class);
+  private static final String FIELD_MANAGER = "expat";
+  private static final int MAX_RETRIES = 5;
+  private static final long BACKOFF_MS = 200L;
+  private static final int TOO_MANY_REQUESTS = 429;
+
+  public enum Result {
+    APPLIED,
+    UNCHANGED,
+    DRY_RUN
+  }
+
+  private final KubernetesClient client;
+  private final boolean dryRun;
+
+  public SecretApplier(String name, KubernetesClient client, int concurrency, boolean dryRun) {
+    super(name, concurrency);
+    this.client = client;
+    this.dryRun = dryRun;
+  }
+
+  /**
+   * Queue a secret for reconciliation. The namespace is taken from the secret metadata. Blocks while
+   * {@code concurrency} secrets are already being applied.
+   */
+  public void apply(final Secret secret) throws InterruptedException {
+    final String namespace = secret.getMetadata().getNamespace();
+    final String name = secret.getMetadata().getName();
+    submit(namespace + "/" + name, new Callable<Result>() {
+      @Override
+      public Result call() throws Exception {
+        if (dryRun) {
+          LOG.info("Apply secret with name " + name + " in namespace: " + namespace);
+          return Result.DRY_RUN;
+        }
+        return reconcile(namespace, name, secret);
+      }
+    });
+  }
+
+  private Result reconcile(String namespace, String name, Secret secret) throws InterruptedException {
+    for (int attempt = 0; ; attempt++) {
+      try {
+        Secret current = client.secrets().inNamespace(namespace).withName(name).get();
+        if (current != null && isUnchanged(current, secret)) {
+          return Result.UNCHANGED;
+        }
+        client.secrets().inNamespace(namespace).resource(secret)
+            .fieldManager(FIELD_MANAGER)
+            .forceConflicts()
+            .serverSideApply();
+        return Result.APPLIED;
+      } catch (KubernetesClientException ex) {
+        if (!isRetriable(ex) || attempt >= MAX_RETRIES) {
+          throw ex;
+        }
+        LOG.debug("Retrying secret " + namespace + "/" + name + " after " + ex.getCode());
+        Thread.sleep(BACKOFF_MS << attempt);
+      }
+    }
+  }
+
+  private boolean isRetriable(KubernetesClientException ex) {
+    return ex.getCode() == HttpURLConnection.HTTP_CONFLICT || ex.getCode() == TOO_MANY_REQUESTS;
+  }
+
+  private boolean isUnchanged(Secret current, Secret desired) {
+    if (!Objects.equals(nullToEmpty(current.getData()), nullToEmpty(desired.getData()))) {
+      return false;
+    }
+    if (desired.getType() != null && !desired.getType().equals(current.getType())) {
+      return false;
+    }
+    Map<String, String> currentLabels = nullToEmpty(current.getMetadata().getLabels());
+    for (Map.Entry<String, String> label : nullToEmpty(desired.getMetadata().getLabels()).entrySet()) {
+      if (!label.getValue().equals(currentLabels.get(label.getKey()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Map<String, String> nullToEmpty(Map<String, String> map) {
+    return map == null ? Collections.<String, String>emptyMap() : map;
+  }
+
+  @Override
+  protected String summary(Report<String, Result> report) {
+    int unchanged = 0;
+    for (Result result : report.getResults().values()) {
+      if (result == Result.UNCHANGED) {
+        unchanged++;
+      }
+    }
+    return "Secrets: " + report.getResults().size() + ", unchanged: " + unchanged
+        + ", failed: " + report.getFailures().size() + ", cancelled: " + report.getCancelled().size();
+  }
+}
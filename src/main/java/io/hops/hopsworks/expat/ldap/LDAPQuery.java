@@ -22,6 +22,17 @@ import io.hops.hopsworks.expat.configuration.ExpatConf;
 import net.sf.michaelo.dirctxsrc.DirContextSource;
 import org.apache.commons.configuration2.Configuration;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
@@ -30,6 +41,10 @@ import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 
 public class LDAPQuery {
 
@@ -37,19 +52,35 @@ public class LDAPQuery {
 
   private static final String OBJECTGUID_KEY = "objectguid";
 
+  private static final String MAIL_KEY = "mail";
+
   private static final String[] DN_ONLY = {"dn", OBJECTGUID_KEY};
+  private static final String[] MAIL_AND_GUID = {MAIL_KEY, OBJECTGUID_KEY};
   private static final String LDAP_ATTR_BINARY = "java.naming.ldap.attributes.binary";
+  private static final String LDAP_CONNECT_POOL = "com.sun.jndi.ldap.connect.pool";
 
   private String baseDN = "";
+  private final int pageSize;
+  private final int filterSize;
+
+  // email (lower case) -> objectGUID of the users resolved by resolveUUIDs
+  private final Map<String, String> uuids = new HashMap<>();
+  private final Set<String> resolved = new HashSet<>();
 
   public LDAPQuery(Configuration config) throws NamingException {
     baseDN = config.getString(ExpatConf.LDAP_BASE_DN_KEY);
+    pageSize = config.getInt(ExpatConf.LDAP_PAGE_SIZE, ExpatConf.LDAP_PAGE_SIZE_DEFAULT);
+    filterSize = config.getInt(ExpatConf.LDAP_FILTER_SIZE, ExpatConf.LDAP_FILTER_SIZE_DEFAULT);
 
     // Set up the environment for creating the initial context
     DirContextSource.Builder builder = new DirContextSource.Builder(config.getString(ExpatConf.LDAP_URL));
     builder.additionalProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory")
         .additionalProperty(LDAP_ATTR_BINARY, "objectGUID")
         .gssApiAuth("com.logicalclocks.expat");
+    if (config.getBoolean(ExpatConf.LDAP_POOLING, ExpatConf.LDAP_POOLING_DEFAULT)) {
+      // GSSAPI connections are only pooled if com.sun.jndi.ldap.connect.pool.authentication allows it
+      builder.additionalProperty(LDAP_CONNECT_POOL, "true");
+    }
 
     ctx = builder.build().getDirContext();
   }
@@ -95,7 +126,137 @@ public class LDAPQuery {
     return "mail=" + expatUser.getEmail();
   }
 
+  private String getEmailsFilter(List<String> emails) {
+    StringBuilder filter = new StringBuilder("(|");
+    for (String email : emails) {
+      filter.append("(").append(MAIL_KEY).append("=").append(escapeFilterValue(email)).append(")");
+    }
+    return filter.append(")").toString();
+  }
+
+  // RFC 4515 escaping of the assertion value
+  private String escapeFilterValue(String value) {
+    StringBuilder escaped = new StringBuilder();
+    for (char c : value.toCharArray()) {
+      switch (c) {
+        case '\\':
+          escaped.append("\\5c");
+          break;
+        case '*':
+          escaped.append("\\2a");
+          break;
+        case '(':
+          escaped.append("\\28");
+          break;
+        case ')':
+          escaped.append("\\29");
+          break;
+        case '\0':
+          escaped.append("\\00");
+          break;
+        default:
+          escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  /**
+   * Look up the objectGUID of many users with a few searches. Emails are OR-ed in filters of
+   * {@code filterSize} and the results are read in pages of {@code pageSize}. The result is kept, later
+   * calls to {@link #getUUID(ExpatUser)} for these users do not go to the directory.
+   *
+   * @return email (lower case) to objectGUID of the users found in the directory
+   */
+  public Map<String, String> resolveUUIDs(Collection<ExpatUser> expatUsers) throws NamingException, IOException {
+    Set<String> unresolved = new LinkedHashSet<>();
+    for (ExpatUser expatUser : expatUsers) {
+      String email = expatUser.getEmail().toLowerCase();
+      if (!resolved.contains(email)) {
+        unresolved.add(email);
+      }
+    }
+    List<String> emails = new ArrayList<>(unresolved);
+
+    SearchControls ctls = new SearchControls();
+    ctls.setReturningAttributes(MAIL_AND_GUID);
+    ctls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+
+    LdapContext ldapCtx = getLdapContext();
+    try {
+      for (int i = 0; i < emails.size(); i += filterSize) {
+        List<String> chunk = emails.subList(i, Math.min(i + filterSize, emails.size()));
+        search(ldapCtx, getEmailsFilter(chunk), ctls);
+        resolved.addAll(chunk);
+      }
+    } finally {
+      if (ldapCtx == ctx) {
+        ldapCtx.setRequestControls(null);
+      } else {
+        ldapCtx.close();
+      }
+    }
+    return Collections.unmodifiableMap(uuids);
+  }
+
+  private void search(LdapContext ldapCtx, String filter, SearchControls ctls) throws NamingException, IOException {
+    byte[] cookie = null;
+    do {
+      ldapCtx.setRequestControls(new Control[]{new PagedResultsControl(pageSize, cookie, Control.CRITICAL)});
+      NamingEnumeration<SearchResult> answer = ldapCtx.search(baseDN, filter, ctls);
+      while (answer.hasMore()) {
+        Attributes attrs = answer.next().getAttributes();
+        Attribute mail = attrs.get(MAIL_KEY);
+        Attribute guid = attrs.get(OBJECTGUID_KEY);
+        // entries without a GUID, such as contacts, are left out and the user is not found
+        if (mail == null || guid == null || !(guid.get() instanceof byte[])
+            || ((byte[]) guid.get()).length < 16) {
+          continue;
+        }
+        String uuid = getUUIDAttribute(attrs, OBJECTGUID_KEY);
+        // the filter matches any of the mails of the entry, map all of them
+        NamingEnumeration<?> mails = mail.getAll();
+        while (mails.hasMore()) {
+          Object value = mails.next();
+          // keep the first match, like the single lookup
+          if (value != null && !uuids.containsKey(value.toString().toLowerCase())) {
+            uuids.put(value.toString().toLowerCase(), uuid);
+          }
+        }
+        mails.close();
+      }
+      answer.close();
+
+      cookie = null;
+      Control[] controls = ldapCtx.getResponseControls();
+      if (controls != null) {
+        for (Control control : controls) {
+          if (control instanceof PagedResultsResponseControl) {
+            cookie = ((PagedResultsResponseControl) control).getCookie();
+          }
+        }
+      }
+    } while (cookie != null && cookie.length > 0);
+  }
+
+  private LdapContext getLdapContext() throws NamingException {
+    if (ctx instanceof LdapContext) {
+      return (LdapContext) ctx;
+    }
+    // Shares the connection of ctx
+    return (LdapContext) ctx.lookup("");
+  }
+
   public String getUUID(ExpatUser expatUser) throws NamingException, LdapUserNotFound {
+    String email = expatUser.getEmail().toLowerCase();
+    if (resolved.contains(email)) {
+      String uuid = uuids.get(email);
+      if (uuid == null) {
+        throw new LdapUserNotFound();
+      }
+      return uuid;
+    }
+
     SearchControls ctls = new SearchControls();
     ctls.setReturningAttributes(DN_ONLY);
     ctls.setSearchScope(SearchControls.SUBTREE_SCOPE);
@@ -0,0 +1,45 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.migrations;
+
+import io.hops.hopsworks.expat.db.JsonColumnTransformer;
+
+/**
+ * A step which only rewrites a JSON column of a table. Consecutive steps of a version declaring the same table and
+ * column are run as a single pass over the table, with the transforms of every step applied in the order of the
+ * steps, instead of calling {@link #migrate()} or {@link #rollback()} on each of them.
+ */
+public interface JsonColumnStep extends MigrateStep {
+  String getTable();
+
+  String getColumn();
+
+  /**
+   * @return the condition of the rows the step applies to, with ? for its parameters, or null for every row
+   */
+  String getCondition();
+
+  Object[] getParams();
+
+  /**
+   * Add the transforms of the step, and the extra columns they read, to the transformer. The transformer may be
+   * shared with other steps, rows the step does not apply to must be skipped by its transforms.
+   *
+   * @param migrate true to add the transforms of the migration, false for the ones of the rollback
+   */
+  void configure(JsonColumnTransformer transformer, boolean migrate);
+}
@@ -10,11 +10,14 @@ import io.hops.hopsworks.common.util.ProcessResult;
 import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
 import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
-import io.hops.hopsworks.expat.executor.ProcessExecutor;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
+import io.hops.hopsworks.expat.executor.ProcessBatch;
+import io.hops.hopsworks.expat.executor.TaskBatch;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
 import io.hops.hopsworks.expat.migrations.projects.util.HopsClient;
+import io.hops.hopsworks.expat.migrations.projects.util.HopsClientPool;
 import io.hops.hopsworks.expat.migrations.projects.util.XAttrException;
 import io.hops.hopsworks.expat.migrations.projects.util.XAttrHelper;
 import io.hops.hopsworks.persistence.entity.hdfs.inode.Inode;
@@ -47,11 +50,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 public class DagsMigration implements MigrateStep {
@@ -65,8 +71,21 @@ public class DagsMigration implements MigrateStep {
       + "\n" + "*%s* DataSet\n" + "===\n" + "\n"
       + "## %s";
   private static final String AIRFLOW_DATASET_DESCRIPTION = "Contains airflow dags";
+  // each worker holds an HDFS client, bound them to limit the load on the namenode
+  private static final int MAX_WORKERS = 8;
+  private static final String GET_PROJECTS = "SELECT project.id, projectname, users.username FROM project " +
+      "JOIN users ON project.username=users.email";
+  private static final String GET_PROJECT_MEMBERS = "SELECT project_team.project_id, users.username FROM users " +
+      "JOIN project_team ON users.email=project_team.team_member";
+  private static final String GET_DATASET_PROJECTS = "SELECT projectId FROM dataset WHERE inode_name=?";
+  private static final String GET_MEMBER_PROJECTS = "SELECT project_id FROM project_team WHERE team_member=?";
+  private static final String INSERT_DATASET = "INSERT INTO " +
+      "dataset (inode_name, projectId, description, searchable, permission) VALUES (?, ?, ?, ?, ?)";
+  private static final String INSERT_PROJECT_TEAM = "INSERT INTO " +
+      "project_team (project_id, team_member, team_role, added) VALUES (?, ?, ?, ?)";
   private Connection connection;
-  DistributedFileSystemOps dfso = null;
+  // thread safe, built once and shared by the workers
+  private JAXBContext jaxbContext;
 
 
   String masterPassword = null;
@@ -75,6 +94,8 @@ public class DagsMigration implements MigrateStep {
   private String hopsClientUser = null;
   private boolean kubernetesInstalled = false;
   private boolean dryRun;
+  private int processConcurrency = ExpatConf.PROCESS_CONCURRENCY_DEFAULT;
+  private int batchSize = ExpatConf.BATCH_SIZE_DEFAULT;
 
 
 
@@ -86,9 +107,10 @@ public class DagsMigration implements MigrateStep {
     if (hopsClientUser == null) {
       throw new ConfigurationException(ExpatConf.HOPS_CLIENT_USER + " cannot be null");
     }
-    dfso = HopsClient.getDFSO(hopsClientUser);
     hadoopHome = System.getenv("HADOOP_HOME");
     dryRun = config.getBoolean(ExpatConf.DRY_RUN);
+    processConcurrency = config.getInt(ExpatConf.PROCESS_CONCURRENCY, ExpatConf.PROCESS_CONCURRENCY_DEFAULT);
+    batchSize = config.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
     java.nio.file.Path masterPwdPath = Paths.get(config.getString(ExpatConf.MASTER_PWD_FILE_KEY));
     masterPassword = FileUtils.readFileToString(masterPwdPath.toFile(), Charset.defaultCharset());
   }
@@ -97,83 +119,215 @@ public class DagsMigration implements MigrateStep {
   public void migrate() throws MigrationException {
     try {
       setup();
-      Statement stmt = connection.createStatement();
-      ResultSet resultSet = stmt.executeQuery("SELECT project.id, projectname,users.username FROM project " +
-          "JOIN users ON project.username=users.email;");
-      while (resultSet.next()) {
-        String projectName = resultSet.getString("projectname");
-        Integer projectId = resultSet.getInt("id");
-        String username = resultSet.getString("username");
-        String hdfsUsername = getHdfsUserName(username, projectName);
-        String projectSecret = DigestUtils.sha256Hex(Integer.toString(projectId));
-        createAirflowDataset(projectId, projectName, hdfsUsername);
-        addAirflowUserToProject(projectId);
-        try {
-          ProcessDescriptor processDescriptor = new ProcessDescriptor.Builder()
-              .addCommand(expatPath + "/bin/dags_migrate.sh")
-              .addCommand(projectName)
-              .addCommand(projectSecret)
-              .addCommand(hdfsUsername)
-              .addCommand(hopsClientUser)
-              .addCommand(hadoopHome)
-              .ignoreOutErrStreams(false)
-              .setWaitTimeout(30, TimeUnit.MINUTES)
-              .build();
-
-          ProcessResult processResult = ProcessExecutor.getExecutor().execute(processDescriptor);
-          if (processResult.getExitCode() == 0) {
-            LOGGER.info("Successfully moved dags for project: " + projectName);
-          } else if (processResult.getExitCode() == 2) {
-            LOGGER.info("Dags directory for project: " + projectName + ", was not configured. So it does " +
-                "not have any dags.");
-          } else {
-            LOGGER.error("Failed to copy dags for project: " + projectName +
-                " " + processResult.getStdout());
-          }
-        } catch (IOException e) {
-          // Keep going
-          LOGGER.error("Failed to copy dags for project: " + projectName + " " + e.getMessage());
+      jaxbContext = jaxbContext();
+      List<Project> projects = getProjects();
+      Map<Integer, List<String>> projectMembers = getProjectMembers();
+      Set<Integer> datasetProjects = getProjectIds(GET_DATASET_PROJECTS, AIRFLOW_DATASET_NAME);
+      Set<Integer> memberProjects = getProjectIds(GET_MEMBER_PROJECTS, AIRFLOW_USER_EMAIL);
+
+      // create the datasets in HDFS in parallel, then the rows of every dataset found in HDFS, also when some of the
+      // projects failed, so that no dataset is left without a row, not even by an earlier run that was interrupted
+      TaskBatch.Report<String, Boolean> report = createAirflowDatasets(projects, projectMembers);
+      List<Integer> newDatasets = new ArrayList<>();
+      List<Integer> newMembers = new ArrayList<>();
+      for (Project project : projects) {
+        if (Boolean.TRUE.equals(report.getResults().get(project.name)) && !datasetProjects.contains(project.id)) {
+          newDatasets.add(project.id);
+        }
+        if (!memberProjects.contains(project.id)) {
+          newMembers.add(project.id);
         }
       }
+      insertPerProject(INSERT_DATASET, newDatasets, new ProjectRow() {
+        @Override
+        public void set(PreparedStatement preparedStatement, Integer projectId) throws SQLException {
+          preparedStatement.setString(1, AIRFLOW_DATASET_NAME);
+          preparedStatement.setInt(2, projectId);
+          preparedStatement.setString(3, AIRFLOW_DATASET_DESCRIPTION);
+          preparedStatement.setInt(4, 1);
+          preparedStatement.setString(5, "EDITABLE");
+        }
+      });
+      if (!report.getFailures().isEmpty()) {
+        throw new MigrationException("Failed to create the airflow dataset of " + report.getFailures().size()
+            + " projects", report.getFailures().values().iterator().next());
+      }
+      final java.sql.Date added = new java.sql.Date(System.currentTimeMillis());
+      insertPerProject(INSERT_PROJECT_TEAM, newMembers, new ProjectRow() {
+        @Override
+        public void set(PreparedStatement preparedStatement, Integer projectId) throws SQLException {
+          preparedStatement.setInt(1, projectId);
+          preparedStatement.setString(2, AIRFLOW_USER_EMAIL);
+          preparedStatement.setString(3, "Data scientist");
+          preparedStatement.setDate(4, added);
+        }
+      });
+
+      migrateDags(projects);
     } catch (Exception ex) {
+      if (ex instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
       throw new MigrationException("Error in migration step " + DagsMigration.class.getSimpleName(), ex);
     } finally {
       close();
     }
   }
 
-  private void addAirflowUserToProject(Integer projectId) throws Exception {
-    Statement stmt = connection.createStatement();
-    ResultSet resultSet = stmt.executeQuery("SELECT project_id FROM project_team WHERE project_id=" + projectId
-        + " AND team_member='" + AIRFLOW_USER_EMAIL  + "';");
-    if (!resultSet.next()) {
-      connection.setAutoCommit(false);
-      PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO " +
-          "project_team (project_id, team_member, team_role, added) VALUES (?, ? ,?, ?)");
-      preparedStatement.setInt(1, projectId);
-      preparedStatement.setString(2, AIRFLOW_USER_EMAIL);
-      preparedStatement.setString(3, "Data scientist");
-      preparedStatement.setDate(4, new java.sql.Date(System.currentTimeMillis()));
-      preparedStatement.execute();
-      preparedStatement.close();
-      connection.commit();
+  private void migrateDags(List<Project> projects) throws InterruptedException, MigrationException {
+    ProcessBatch.Report<String, ProcessResult> report;
+    try (ProcessBatch<String> batch = new ProcessBatch<>(DagsMigration.class.getSimpleName(), processConcurrency)) {
+      for (Project project : projects) {
+        String hdfsUsername = getHdfsUserName(project.owner, project.name);
+        String projectSecret = DigestUtils.sha256Hex(Integer.toString(project.id));
+        ProcessDescriptor processDescriptor = new ProcessDescriptor.Builder()
+            .addCommand(expatPath + "/bin/dags_migrate.sh")
+            .addCommand(project.name)
+            .addCommand(projectSecret)
+            .addCommand(hdfsUsername)
+            .addCommand(hopsClientUser)
+            .addCommand(hadoopHome)
+            .ignoreOutErrStreams(false)
+            .setWaitTimeout(30, TimeUnit.MINUTES)
+            .build();
+        batch.submit(project.name, processDescriptor);
+      }
+      report = batch.await();
+      if (batch.isCancelled()) {
+        throw new MigrationException("Migration step " + DagsMigration.class.getSimpleName() + " was cancelled");
+      }
+    }
+    for (Map.Entry<String, ProcessResult> result : report.getResults().entrySet()) {
+      String projectName = result.getKey();
+      ProcessResult processResult = result.getValue();
+      if (processResult.getExitCode() == 0) {
+        LOGGER.info("Successfully moved dags for project: " + projectName);
+      } else if (processResult.getExitCode() == 2) {
+        LOGGER.info("Dags directory for project: " + projectName + ", was not configured. So it does " +
+            "not have any dags.");
+      } else {
+        LOGGER.error("Failed to copy dags for project: " + projectName +
+            " " + processResult.getStdout());
+      }
+    }
+  }
+
+  private List<Project> getProjects() throws SQLException {
+    List<Project> projects = new ArrayList<>();
+    try (PreparedStatement preparedStatement = connection.prepareStatement(GET_PROJECTS);
+         ResultSet resultSet = preparedStatement.executeQuery()) {
+      while (resultSet.next()) {
+        projects.add(new Project(resultSet.getInt("id"), resultSet.getString("projectname"),
+            resultSet.getString("username")));
+      }
+    }
+    return projects;
+  }
+
+  private Map<Integer, List<String>> getProjectMembers() throws SQLException {
+    Map<Integer, List<String>> projectMembers = new HashMap<>();
+    try (PreparedStatement preparedStatement = connection.prepareStatement(GET_PROJECT_MEMBERS);
+         ResultSet resultSet = preparedStatement.executeQuery()) {
+      while (resultSet.next()) {
+        int projectId = resultSet.getInt("project_id");
+        List<String> members = projectMembers.get(projectId);
+        if (members == null) {
+          members = new ArrayList<>();
+          projectMembers.put(projectId, members);
+        }
+        members.add(resultSet.getString("username"));
+      }
+    }
+    return projectMembers;
+  }
+
+  private Set<Integer> getProjectIds(String query, String param) throws SQLException {
+    Set<Integer> projectIds = new HashSet<>();
+    try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+      preparedStatement.setString(1, param);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        while (resultSet.next()) {
+          projectIds.add(resultSet.getInt(1));
+        }
+      }
+    }
+    return projectIds;
+  }
+
+  private interface ProjectRow {
+    void set(PreparedStatement preparedStatement, Integer projectId) throws SQLException;
+  }
+
+  /**
+   * Insert a row per project, in batches of batch size committed one at a time
+   */
+  private void insertPerProject(String query, List<Integer> projectIds, ProjectRow row) throws SQLException {
+    if (projectIds.isEmpty()) {
+      return;
+    }
+    if (dryRun) {
+      LOGGER.info("Would insert " + projectIds.size() + " rows with: " + query);
+      return;
+    }
+    connection.setAutoCommit(false);
+    try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+      int batched = 0;
+      for (Integer projectId : projectIds) {
+        row.set(preparedStatement, projectId);
+        preparedStatement.addBatch();
+        if (++batched % batchSize == 0 || batched == projectIds.size()) {
+          preparedStatement.executeBatch();
+          connection.commit();
+        }
+      }
+    } finally {
       connection.setAutoCommit(true);
     }
   }
 
-  private void createAirflowDataset(Integer projectId, String projectName, String hdfsUsername)
-      throws IOException, SQLException, MigrationException {
+  /**
+   * Create the airflow datasets in HDFS, one project per worker
+   *
+   * @return per project name, whether its dataset exists in HDFS
+   */
+  private TaskBatch.Report<String, Boolean> createAirflowDatasets(List<Project> projects,
+      final Map<Integer, List<String>> projectMembers) throws InterruptedException {
+    int concurrency = Math.max(1, Math.min(Math.min(ExecutorFactory.workerThreads(), MAX_WORKERS), projects.size()));
+    try (HopsClientPool clients = new HopsClientPool(hopsClientUser, concurrency);
+         TaskBatch<String, Boolean> batch = new TaskBatch<>("Create airflow datasets", concurrency)) {
+      for (final Project project : projects) {
+        batch.submit(project.name, new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            List<String> members = projectMembers.get(project.id);
+            DistributedFileSystemOps dfso = clients.take();
+            try {
+              createAirflowDataset(project, members == null ? Collections.<String>emptyList() : members, dfso);
+              return dryRun || dfso.exists(getAirflowDatasetPath(project.name));
+            } finally {
+              clients.release(dfso);
+            }
+          }
+        });
+      }
+      return batch.await();
+    }
+  }
+
+  private void createAirflowDataset(Project project, List<String> members, DistributedFileSystemOps dfso)
+      throws IOException, MigrationException {
+    String projectName = project.name;
+    String hdfsUsername = getHdfsUserName(project.owner, projectName);
     Path airflowDatasetPath = getAirflowDatasetPath(projectName);
     if (!dfso.exists(airflowDatasetPath) && !dryRun) {
       try {
         LOGGER.info("Creating dataset Airflow in " + projectName);
         FsPermission fsPermission = new FsPermission(FsAction.ALL, FsAction.ALL, FsAction.NONE, false);
         dfso.mkdir(airflowDatasetPath, fsPermission);
-        createAirflowDatasetInDB(projectId);
-        setAirflowDatasetPermissions(projectId, projectName, hdfsUsername);
-        createAirflowDatasetReadme(hdfsUsername, projectName);
-        setAirflowDatasetProvType(projectId, projectName);
-      } catch (IOException | SQLException | MigrationException e) {
+        setAirflowDatasetPermissions(projectName, hdfsUsername, members, dfso);
+        createAirflowDatasetReadme(hdfsUsername, projectName, dfso);
+        setAirflowDatasetProvType(project.id, projectName, dfso);
+      } catch (IOException | MigrationException e) {
         LOGGER.error("Failed to create the airflow dataset in project: " + projectName, e);
         if (dfso.exists(airflowDatasetPath)) {
           LOGGER.info("Deleting the airflow dataset in project: " + projectName);
@@ -182,7 +336,6 @@ public class DagsMigration implements MigrateStep {
           } catch (IOException ex) {
             LOGGER.error("Failed to delete the airflow dataset in project: " + projectName, ex);
           }
-          deleteAirflowDatasetInDB(projectId);
         }
         throw  e;
       }
@@ -191,59 +344,29 @@ public class DagsMigration implements MigrateStep {
     }
   }
 
-  private void createAirflowDatasetInDB(Integer projectId) throws SQLException {
-    // check if it does not already exist
-    Statement stmt = connection.createStatement();
-    ResultSet resultSet = stmt.executeQuery("SELECT id FROM dataset WHERE projectId=" + projectId
-        + " AND inode_name='" + AIRFLOW_DATASET_NAME   + "';");
-    if (!resultSet.next()) {
-      connection.setAutoCommit(false);
-      PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO " +
-          "dataset (inode_name, projectId, description, searchable, permission) VALUES (?, ? ,?, ?, ?)");
-      preparedStatement.setString(1, AIRFLOW_DATASET_NAME);
-      preparedStatement.setInt(2, projectId);
-      preparedStatement.setString(3, AIRFLOW_DATASET_DESCRIPTION);
-      preparedStatement.setInt(4, 1);
-      preparedStatement.setString(5, "EDITABLE");
-      preparedStatement.execute();
-      preparedStatement.close();
-      connection.commit();
-      connection.setAutoCommit(true);
-    }
-  }
-
-  private void deleteAirflowDatasetInDB(Integer projectId) throws SQLException {
-    try {
-      PreparedStatement statement = connection.prepareStatement("DELETE FROM dataset " +
-          "WHERE projectId=? AND inode_name=?");
-      statement.setInt(1, projectId);
-      statement.setString(2, AIRFLOW_DATASET_NAME);
-      statement.execute();
-      statement.close();
-    } catch (SQLException e) {
-      LOGGER.error("Failed to delete airflow database in DB", e);
-    }
-  }
-
-  private void setAirflowDatasetPermissions(Integer projectId, String projectName, String hdfsUsername)
-      throws IOException, MigrationException, SQLException {
+  private void setAirflowDatasetPermissions(String projectName, String hdfsUsername, List<String> members,
+      DistributedFileSystemOps dfso) throws IOException {
     Path airflowDatasetPath = getAirflowDatasetPath(projectName);
     String datasetGroup = getAirflowDatasetGroup(projectName);
     dfso.setOwner(airflowDatasetPath, hdfsUsername, datasetGroup);
     String datasetAclGroup = getAirflowDatasetAclGroup(projectName);
-    addGroup(datasetAclGroup);
-    addUserToGroup(hdfsUsername, datasetAclGroup);
+    addGroup(datasetAclGroup, dfso);
+    addUserToGroup(hdfsUsername, datasetAclGroup, dfso);
     dfso.setPermission(airflowDatasetPath, getDefaultDatasetAcl(datasetAclGroup));
-    addProjectMembersToAirflowDataset(projectId, projectName);
+    // add the project members to the dataset group
+    for (String username : members) {
+      addUserToGroup(getHdfsUserName(username, projectName), datasetGroup, dfso);
+    }
     // set the airflow acls
     dfso.getFilesystem().modifyAclEntries(airflowDatasetPath, getAirflowAcls());
   }
 
-  private void setAirflowDatasetProvType(Integer projectId, String projectName) throws MigrationException {
+  private void setAirflowDatasetProvType(Integer projectId, String projectName, DistributedFileSystemOps dfso)
+      throws MigrationException {
     ProvCoreDTO provCore = new ProvCoreDTO(Provenance.Type.META.dto, projectId.longValue());
     try {
       dfso.setMetaStatus(getAirflowDatasetPath(projectName), Inode.MetaStatus.META_ENABLED);
-      JAXBContext jaxbContext = jaxbContext();
+      // the context is shared, marshallers are not thread safe
       Marshaller marshaller = jaxbContext.createMarshaller();
       StringWriter sw = new StringWriter();
       marshaller.marshal(provCore, sw);
@@ -254,7 +377,7 @@ public class DagsMigration implements MigrateStep {
     }
   }
 
-  private void createAirflowDatasetReadme(String hdfsUsername, String projectName) {
+  private void createAirflowDatasetReadme(String hdfsUsername, String projectName, DistributedFileSystemOps dfso) {
     Path datasetPath = getAirflowDatasetPath(projectName);
     Path readMeFilePath = new Path(datasetPath, "README.md");
     String readmeFile = String.format(README_TEMPLATE, AIRFLOW_DATASET_NAME, AIRFLOW_DATASET_DESCRIPTION);
@@ -268,20 +391,7 @@ public class DagsMigration implements MigrateStep {
     }
   }
 
-  private void addProjectMembersToAirflowDataset(Integer projectId, String projectName)
-      throws SQLException, IOException {
-    // Get the members
-    Statement stmt = connection.createStatement();
-    ResultSet resultSet = stmt.executeQuery("SELECT  username FROM users JOIN project_team WHERE " +
-        "users.email = project_team.team_member AND project_id=" + projectId);
-    while (resultSet.next()) {
-      String username = resultSet.getString("username");
-      String hdfsUserName = getHdfsUserName(username, projectName);
-      addUserToGroup(hdfsUserName, getAirflowDatasetGroup(projectName));
-    }
-  }
-
-  private void addGroup(String group) throws IOException {
+  private void addGroup(String group, DistributedFileSystemOps dfso) throws IOException {
     try {
       dfso.addGroup(group);
     } catch (IOException e) {
@@ -294,7 +404,7 @@ public class DagsMigration implements MigrateStep {
     }
   }
 
-  private void addUserToGroup(String username, String group) throws IOException {
+  private void addUserToGroup(String username, String group, DistributedFileSystemOps dfso) throws IOException {
     try {
       dfso.addUserToGroup(username, group);
     } catch (IOException e) {
@@ -400,9 +510,6 @@ public class DagsMigration implements MigrateStep {
         LOGGER.error("failed to close jdbc connection", ex);
       }
     }
-    if(dfso != null) {
-      dfso.close();
-    }
   }
 
   @Override
@@ -421,17 +528,31 @@ public class DagsMigration implements MigrateStep {
   }
 
   public void projectAirflowDatasetRollback() throws RollbackException {
+    DistributedFileSystemOps dfso = null;
     try {
-      Statement stmt = connection.createStatement();
-      ResultSet resultSet = stmt.executeQuery("SELECT project.id, projectname,users.username FROM project " +
-          "JOIN users ON project.username=users.email;");
-      while (resultSet.next()) {
-        String projectName = resultSet.getString("projectname");
-        LOGGER.info("Deleting airflow dataset for project: " + projectName);
-        dfso.rm(getAirflowDatasetPath(projectName), true);
+      dfso = HopsClient.getDFSO(hopsClientUser);
+      for (Project project : getProjects()) {
+        LOGGER.info("Deleting airflow dataset for project: " + project.name);
+        dfso.rm(getAirflowDatasetPath(project.name), true);
       }
     } catch (SQLException | IOException e) {
       throw new RollbackException("Failed airflow dataset rollback", e);
+    } finally {
+      if (dfso != null) {
+        dfso.close();
+      }
+    }
+  }
+
+  private static final class Project {
+    private final int id;
+    private final String name;
+    private final String owner;
+
+    private Project(int id, String name, String owner) {
+      this.id = id;
+      this.name = name;
+      this.owner = owner;
     }
   }
 }
@@ -5,7 +5,7 @@ import io.hops.hopsworks.common.util.ProcessResult;
 import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
 import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
-import io.hops.hopsworks.expat.executor.ProcessExecutor;
+import io.hops.hopsworks.expat.executor.ProcessBatch;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
@@ -14,10 +14,10 @@ import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 public class DockerConda implements MigrateStep {
@@ -29,6 +29,7 @@ public class DockerConda implements MigrateStep {
   private String expatPath = null;
   private String hadoopHome = null;
   private String hopsClientUser = null;
+  private int processConcurrency = ExpatConf.PROCESS_CONCURRENCY_DEFAULT;
   
   private void setup() throws ConfigurationException {
     Configuration config = ConfigurationBuilder.getConfiguration();
@@ -37,6 +38,7 @@ public class DockerConda implements MigrateStep {
     expatPath = config.getString(ExpatConf.EXPAT_PATH);
     hopsClientUser = config.getString(ExpatConf.HOPS_CLIENT_USER);
     hadoopHome = System.getenv("HADOOP_HOME");
+    processConcurrency = config.getInt(ExpatConf.PROCESS_CONCURRENCY, ExpatConf.PROCESS_CONCURRENCY_DEFAULT);
   }
   
   @Override
@@ -47,13 +49,14 @@ public class DockerConda implements MigrateStep {
          ResultSet resultSet = stmt.executeQuery("SELECT projectname,users.username FROM project " +
                                                     "JOIN users ON project.username=users.email;")) {
       setup();
-      while (resultSet.next()) {
-        String projectName = resultSet.getString("projectname");
-        String username = resultSet.getString("username");
-        //Get username of owner and construct project_user username
-        String projectUser = projectName + "__" + username;
+      ProcessBatch.Report<String, ProcessResult> report;
+      try (ProcessBatch<String> batch = new ProcessBatch<>(DockerConda.class.getSimpleName(), processConcurrency)) {
+        while (resultSet.next()) {
+          String projectName = resultSet.getString("projectname");
+          String username = resultSet.getString("username");
+          //Get username of owner and construct project_user username
+          String projectUser = projectName + "__" + username;
         
-        try {
           ProcessDescriptor convaEnvMigrateProc = new ProcessDescriptor.Builder()
             .addCommand(expatPath + "/bin/conda_env_migrate.sh")
             .addCommand(projectName)
@@ -65,19 +68,24 @@ public class DockerConda implements MigrateStep {
             .ignoreOutErrStreams(false)
             .setWaitTimeout(2, TimeUnit.MINUTES)
             .build();
-          
-          ProcessResult processResult = ProcessExecutor.getExecutor().execute(convaEnvMigrateProc);
-          if (processResult.getExitCode() == 0) {
-            LOGGER.info("Successfully exported Python env for project: " + projectName);
-          } else if (processResult.getExitCode() == 2) {
-            LOGGER.info("Project: " + projectName + " is using the default Python environment");
-          } else {
-            LOGGER.error("Failed to export Python env for project: " + projectName +
-              " " + processResult.getStderr());
-          }
-        } catch (IOException e) {
-          // Keep going
-          LOGGER.error("Failed to export conda env project: " + projectName + " " + e.getMessage());
+          batch.submit(projectName, convaEnvMigrateProc);
+        }
+        report = batch.await();
+        if (batch.isCancelled()) {
+          throw new MigrationException("Migration step " + DockerConda.class.getSimpleName() + " was cancelled");
+        }
+      }
+      
+      for (Map.Entry<String, ProcessResult> result : report.getResults().entrySet()) {
+        String projectName = result.getKey();
+        ProcessResult processResult = result.getValue();
+        if (processResult.getExitCode() == 0) {
+          LOGGER.info("Successfully exported Python env for project: " + projectName);
+        } else if (processResult.getExitCode() == 2) {
+          LOGGER.info("Project: " + projectName + " is using the default Python environment");
+        } else {
+          LOGGER.error("Failed to export Python env for project: " + projectName +
+            " " + processResult.getStderr());
         }
       }
     } catch (Exception ex) {
@@ -22,7 +22,7 @@ import io.hops.hopsworks.common.util.ProcessResult;
 import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
 import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
-import io.hops.hopsworks.expat.executor.ProcessExecutor;
+import io.hops.hopsworks.expat.executor.ProcessBatch;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
@@ -31,12 +31,13 @@ import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 public class JupyterInConda implements MigrateStep {
@@ -46,6 +47,7 @@ public class JupyterInConda implements MigrateStep {
   private String condaDir = null;
   private String condaUser = null;
   private String expatPath = null;
+  private int processConcurrency = ExpatConf.PROCESS_CONCURRENCY_DEFAULT;
 
   private int hdfscontentsId = -1;
   private int sparkmagicId = -1;
@@ -72,14 +74,16 @@ public class JupyterInConda implements MigrateStep {
 
       stmt = dbConn.createStatement();
       resultSet = stmt.executeQuery("SELECT id, projectname FROM project WHERE conda_env = 1");
-      while (resultSet.next()) {
-        String projectName = resultSet.getString("projectname");
-        int projectId = resultSet.getInt("id");
-        ProcessResult processResult = null;
+      Map<String, Integer> projectIds = new HashMap<>();
+      ProcessBatch.Report<String, ProcessResult> report;
+      try (ProcessBatch<String> batch = new ProcessBatch<>(JupyterInConda.class.getSimpleName(),
+          processConcurrency)) {
+        while (resultSet.next()) {
+          String projectName = resultSet.getString("projectname");
+          projectIds.put(projectName, resultSet.getInt("id"));
 
-        LOGGER.info("Installing jupyter & deps for project: " + projectName);
+          LOGGER.info("Installing jupyter & deps for project: " + projectName);
 
-        try {
           ProcessDescriptor jupyterInstallProc = new ProcessDescriptor.Builder()
               .addCommand(expatPath + "/bin/jupyter_migrate.sh")
               .addCommand("install")
@@ -89,20 +93,27 @@ public class JupyterInConda implements MigrateStep {
               .ignoreOutErrStreams(false)
               .setWaitTimeout(5,  TimeUnit.MINUTES)
               .build();
+          batch.submit(projectName, jupyterInstallProc);
+        }
+        report = batch.await();
+        if (batch.isCancelled()) {
+          throw new MigrationException("Migration step " + JupyterInConda.class.getSimpleName() + " was cancelled");
+        }
+      }
 
-          processResult = ProcessExecutor.getExecutor().execute(jupyterInstallProc);
-          if (processResult.getExitCode() == 0) {
-            updateProjectPythonDeps(projectDepsUpdate, projectId);
-          } else {
-            LOGGER.error("Failed to install jupyter for project: " + projectName +
-                " " + processResult.getStdout());
-          }
-        } catch (IOException e) {
-          // Keep going
+      for (Map.Entry<String, ProcessResult> result : report.getResults().entrySet()) {
+        String projectName = result.getKey();
+        ProcessResult processResult = result.getValue();
+        if (processResult.getExitCode() == 0) {
+          updateProjectPythonDeps(projectDepsUpdate, projectIds.get(projectName));
+        } else {
           LOGGER.error("Failed to install jupyter for project: " + projectName +
-              " " + e.getMessage());
+              " " + processResult.getStdout());
         }
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MigrationException("Interrupted while installing jupyter", e);
     } catch (SQLException | ConfigurationException e) {
       throw new MigrationException("Cannot fetch the list of projects from the database", e);
     } finally {
@@ -142,12 +153,15 @@ public class JupyterInConda implements MigrateStep {
       stmt = dbConn.createStatement();
       resultSet = stmt.executeQuery("SELECT id, projectname FROM project WHERE conda_env = 1");
 
-      while (resultSet.next()) {
-        String projectName = resultSet.getString("projectname");
-        int projectId = resultSet.getInt("id");
+      Map<String, Integer> projectIds = new HashMap<>();
+      ProcessBatch.Report<String, ProcessResult> report;
+      try (ProcessBatch<String> batch = new ProcessBatch<>(JupyterInConda.class.getSimpleName(),
+          processConcurrency)) {
+        while (resultSet.next()) {
+          String projectName = resultSet.getString("projectname");
+          projectIds.put(projectName, resultSet.getInt("id"));
 
-        LOGGER.info("Removing jupyter & deps for project: " + projectName);
-        try {
+          LOGGER.info("Removing jupyter & deps for project: " + projectName);
           ProcessDescriptor jupyterInstallProc = new ProcessDescriptor.Builder()
               .addCommand(expatPath + "/bin/jupyter_migrate.sh")
               .addCommand("remove")
@@ -156,15 +170,21 @@ public class JupyterInConda implements MigrateStep {
               .addCommand(condaUser)
               .ignoreOutErrStreams(true)
               .build();
-
-          ProcessExecutor.getExecutor().execute(jupyterInstallProc);
-
-          updateProjectPythonDeps(projectDepsUpdate, projectId);
-        } catch (IOException e) {
-          // Keep going
-          LOGGER.error("Failed to install jupyter for project: " + projectName, e);
+          batch.submit(projectName, jupyterInstallProc);
+        }
+        report = batch.await();
+        if (batch.isCancelled()) {
+          throw new RollbackException("Rollback step " + JupyterInConda.class.getSimpleName() + " was cancelled");
         }
       }
+
+      // Like before, the deps are removed regardless of the script's exit code
+      for (String projectName : report.getResults().keySet()) {
+        updateProjectPythonDeps(projectDepsUpdate, projectIds.get(projectName));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RollbackException("Interrupted while removing jupyter", e);
     } catch (SQLException | ConfigurationException e) {
       throw new RollbackException("Cannot fetch the list of projects from the database", e);
     } finally {
@@ -278,5 +298,6 @@ public class JupyterInConda implements MigrateStep {
     condaDir = config.getString(ExpatConf.CONDA_DIR);
     condaUser = config.getString(ExpatConf.CONDA_USER);
     expatPath = config.getString(ExpatConf.EXPAT_PATH);
+    processConcurrency = config.getInt(ExpatConf.PROCESS_CONCURRENCY, ExpatConf.PROCESS_CONCURRENCY_DEFAULT);
   }
 }
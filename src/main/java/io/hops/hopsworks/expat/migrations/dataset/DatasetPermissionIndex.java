@@ -0,0 +1,164 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.migrations.dataset;
+
+import io.hops.hopsworks.expat.db.dao.dataset.ExpatDatasetSharedWith;
+import io.hops.hopsworks.expat.db.dao.dataset.ExpatDatasetSharedWithFacade;
+import io.hops.hopsworks.expat.db.dao.hdfs.user.ExpatHdfsGroup;
+import io.hops.hopsworks.expat.db.dao.hdfs.user.ExpatHdfsGroupFacade;
+import io.hops.hopsworks.expat.db.dao.hdfs.user.ExpatHdfsUser;
+import io.hops.hopsworks.expat.db.dao.hdfs.user.ExpatHdfsUserFacade;
+import io.hops.hopsworks.expat.db.dao.project.ExpatProjectMember;
+import io.hops.hopsworks.expat.db.dao.project.ExpatProjectMemberFacade;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In memory copy of the hdfs users, groups and group memberships, and of the project teams and dataset shares,
+ * loaded with one query per table. Workers fixing different projects read and update it concurrently instead of
+ * querying the database for every dataset and member.
+ *
+ * The users, groups and memberships are kept up to date with the changes made in HDFS by the workers, also in
+ * dry run, so that they reflect the state the migration leads to.
+ */
+final class DatasetPermissionIndex {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DatasetPermissionIndex.class);
+
+  private final Map<Integer, String> userNames = new HashMap<>();
+  private final Set<String> users = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final Set<String> groups = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final ConcurrentMap<String, Set<String>> members = new ConcurrentHashMap<>();
+  private final Map<Integer, List<ExpatProjectMember>> projectMembers = new HashMap<>();
+  private final Map<Integer, List<ExpatDatasetSharedWith>> sharedWith = new HashMap<>();
+
+  private DatasetPermissionIndex() {
+  }
+
+  static DatasetPermissionIndex load(Connection connection) throws SQLException, IllegalAccessException,
+    InstantiationException {
+    DatasetPermissionIndex index = new DatasetPermissionIndex();
+    ExpatHdfsUserFacade hdfsUserFacade = new ExpatHdfsUserFacade(ExpatHdfsUser.class, connection);
+    ExpatHdfsGroupFacade hdfsGroupFacade = new ExpatHdfsGroupFacade(ExpatHdfsGroup.class, connection);
+    for (ExpatHdfsUser user : hdfsUserFacade.findAll()) {
+      index.userNames.put(user.getId(), user.getName());
+      index.users.add(user.getName());
+    }
+    Map<Integer, String> groupNames = new HashMap<>();
+    for (ExpatHdfsGroup group : hdfsGroupFacade.findAll()) {
+      groupNames.put(group.getId(), group.getName());
+      index.groups.add(group.getName());
+    }
+    int memberships = 0;
+    for (Map.Entry<Integer, List<Integer>> group : hdfsUserFacade.getAllGroupMembers().entrySet()) {
+      String groupName = groupNames.get(group.getKey());
+      if (groupName == null) {
+        continue;
+      }
+      Set<String> groupMembers = index.getMembers(groupName);
+      for (Integer userId : group.getValue()) {
+        String userName = index.userNames.get(userId);
+        if (userName != null) {
+          groupMembers.add(userName);
+          memberships++;
+        }
+      }
+    }
+
+    ExpatProjectMemberFacade projectMemberFacade = new ExpatProjectMemberFacade(ExpatProjectMember.class, connection);
+    for (ExpatProjectMember member : projectMemberFacade.findAllWithNames()) {
+      addTo(index.projectMembers, member.getProjectId(), member);
+    }
+    ExpatDatasetSharedWithFacade datasetSharedWithFacade =
+      new ExpatDatasetSharedWithFacade(ExpatDatasetSharedWith.class, connection);
+    for (ExpatDatasetSharedWith datasetSharedWith : datasetSharedWithFacade.findAll()) {
+      addTo(index.sharedWith, datasetSharedWith.getDatasetId(), datasetSharedWith);
+    }
+    LOGGER.info("Loaded {} hdfs users, {} hdfs groups, {} group memberships, {} project teams and {} shared datasets",
+      index.users.size(), index.groups.size(), memberships, index.projectMembers.size(), index.sharedWith.size());
+    return index;
+  }
+
+  private static <T> void addTo(Map<Integer, List<T>> map, Integer key, T value) {
+    List<T> values = map.get(key);
+    if (values == null) {
+      values = new ArrayList<>();
+      map.put(key, values);
+    }
+    values.add(value);
+  }
+
+  String getUserName(Integer userId) {
+    return userNames.get(userId);
+  }
+
+  boolean hasUser(String name) {
+    return users.contains(name);
+  }
+
+  void addUser(String name) {
+    users.add(name);
+  }
+
+  boolean hasGroup(String name) {
+    return groups.contains(name);
+  }
+
+  void addGroup(String name) {
+    groups.add(name);
+  }
+
+  void removeGroup(String name) {
+    groups.remove(name);
+    members.remove(name);
+  }
+
+  /**
+   * @return the live set of members of the group, empty if the group has no members or does not exist
+   */
+  Set<String> getMembers(String group) {
+    Set<String> groupMembers = members.get(group);
+    if (groupMembers == null) {
+      Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+      groupMembers = members.putIfAbsent(group, created);
+      if (groupMembers == null) {
+        groupMembers = created;
+      }
+    }
+    return groupMembers;
+  }
+
+  List<ExpatProjectMember> getProjectMembers(Integer projectId) {
+    List<ExpatProjectMember> team = projectMembers.get(projectId);
+    return team == null ? Collections.<ExpatProjectMember>emptyList() : team;
+  }
+
+  List<ExpatDatasetSharedWith> getSharedWith(Integer datasetId) {
+    List<ExpatDatasetSharedWith> shares = sharedWith.get(datasetId);
+    return shares == null ? Collections.<ExpatDatasetSharedWith>emptyList() : shares;
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.migrations.dataset;
+
+import io.hops.hopsworks.common.hdfs.DistributedFileSystemOps;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.AclEntry;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The changes needed to bring the datasets to the expected permissions, computed from the current state before
+ * anything is modified. The plan is logged as the dry run report and only the changes it contains are applied.
+ *
+ * Users and groups to create are kept apart from the changes of the projects, they are created first because
+ * the memberships and ACLs of any project may refer to them. The changes of a project are applied in order.
+ */
+final class DatasetPermissionPlan {
+
+  enum Type {
+    ADD_USER,
+    ADD_GROUP,
+    REMOVE_GROUP,
+    ADD_MEMBER,
+    REMOVE_MEMBER,
+    SET_ACL,
+    SET_PERMISSION
+  }
+
+  private final List<Change> creations = Collections.synchronizedList(new ArrayList<Change>());
+  private final ConcurrentMap<String, List<Change>> projectChanges = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, String> datasetPermissions = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, String> sharedWithPermissions = new ConcurrentHashMap<>();
+
+  /**
+   * Changes of a project. A project is planned by a single worker, the list is not thread safe.
+   */
+  List<Change> forProject(String project) {
+    List<Change> changes = new ArrayList<>();
+    List<Change> existing = projectChanges.putIfAbsent(project, changes);
+    return existing == null ? changes : existing;
+  }
+
+  void addCreation(Change change) {
+    creations.add(change);
+  }
+
+  void updateDatasetPermission(Integer datasetId, String permission) {
+    datasetPermissions.put(datasetId, permission);
+  }
+
+  void updateSharedWithPermission(Integer datasetSharedWithId, String permission) {
+    sharedWithPermissions.put(datasetSharedWithId, permission);
+  }
+
+  List<Change> getCreations() {
+    return creations;
+  }
+
+  /**
+   * @return the changes of the projects which have any, sorted by project name
+   */
+  Map<String, List<Change>> getProjectChanges() {
+    Map<String, List<Change>> changes = new TreeMap<>();
+    for (Map.Entry<String, List<Change>> project : projectChanges.entrySet()) {
+      if (!project.getValue().isEmpty()) {
+        changes.put(project.getKey(), project.getValue());
+      }
+    }
+    return changes;
+  }
+
+  Map<Integer, String> getDatasetPermissions() {
+    return datasetPermissions;
+  }
+
+  Map<Integer, String> getSharedWithPermissions() {
+    return sharedWithPermissions;
+  }
+
+  boolean isEmpty() {
+    return creations.isEmpty() && getProjectChanges().isEmpty() && datasetPermissions.isEmpty()
+      && sharedWithPermissions.isEmpty();
+  }
+
+  /**
+   * Log a summary of the plan followed by every change, one per line
+   */
+  void log(Logger logger) {
+    Map<Type, Integer> counts = new EnumMap<>(Type.class);
+    Map<String, List<Change>> changes = getProjectChanges();
+    for (Change change : creations) {
+      count(counts, change);
+    }
+    for (List<Change> project : changes.values()) {
+      for (Change change : project) {
+        count(counts, change);
+      }
+    }
+    logger.info("Dataset permission plan: {} changes in {} projects {}, {} dataset and {} shared dataset "
+      + "permission updates", sum(counts), changes.size(), counts, datasetPermissions.size(),
+      sharedWithPermissions.size());
+    for (Change change : creations) {
+      logger.info("  {}", change);
+    }
+    for (Map.Entry<String, List<Change>> project : changes.entrySet()) {
+      for (Change change : project.getValue()) {
+        logger.info("  project={} {}", project.getKey(), change);
+      }
+    }
+    for (Map.Entry<Integer, String> permission : new TreeMap<>(datasetPermissions).entrySet()) {
+      logger.info("  update dataset id={} permission={}", permission.getKey(), permission.getValue());
+    }
+    for (Map.Entry<Integer, String> permission : new TreeMap<>(sharedWithPermissions).entrySet()) {
+      logger.info("  update dataset_shared_with id={} permission={}", permission.getKey(), permission.getValue());
+    }
+  }
+
+  private static void count(Map<Type, Integer> counts, Change change) {
+    Integer count = counts.get(change.type);
+    counts.put(change.type, count == null ? 1 : count + 1);
+  }
+
+  private static int sum(Map<Type, Integer> counts) {
+    int sum = 0;
+    for (Integer count : counts.values()) {
+      sum += count;
+    }
+    return sum;
+  }
+
+  static Change addUser(String user) {
+    return new Change(Type.ADD_USER, user, null, null, null, null);
+  }
+
+  static Change addGroup(String group) {
+    return new Change(Type.ADD_GROUP, null, group, null, null, null);
+  }
+
+  static Change removeGroup(String group) {
+    return new Change(Type.REMOVE_GROUP, null, group, null, null, null);
+  }
+
+  static Change addMember(String user, String group) {
+    return new Change(Type.ADD_MEMBER, user, group, null, null, null);
+  }
+
+  static Change removeMember(String user, String group) {
+    return new Change(Type.REMOVE_MEMBER, user, group, null, null, null);
+  }
+
+  static Change setAcl(Path path, List<AclEntry> acl) {
+    return new Change(Type.SET_ACL, null, null, path, acl, null);
+  }
+
+  static Change setPermission(Path path, FsPermission permission) {
+    return new Change(Type.SET_PERMISSION, null, null, path, null, permission);
+  }
+
+  static final class Change {
+    private final Type type;
+    private final String user;
+    private final String group;
+    private final Path path;
+    private final List<AclEntry> acl;
+    private final FsPermission permission;
+
+    private Change(Type type, String user, String group, Path path, List<AclEntry> acl, FsPermission permission) {
+      this.type = type;
+      this.user = user;
+      this.group = group;
+      this.path = path;
+      this.acl = acl;
+      this.permission = permission;
+    }
+
+    void apply(DistributedFileSystemOps dfso) throws IOException {
+      switch (type) {
+        case ADD_USER:
+          dfso.addGroup(user);
+          break;
+        case ADD_GROUP:
+          dfso.addGroup(group);
+          break;
+        case REMOVE_GROUP:
+          dfso.removeGroup(group);
+          break;
+        case ADD_MEMBER:
+          dfso.addUserToGroup(user, group);
+          break;
+        case REMOVE_MEMBER:
+          dfso.removeUserFromGroup(user, group);
+          break;
+        case SET_ACL:
+          dfso.getFilesystem().setAcl(path, acl);
+          break;
+        case SET_PERMISSION:
+          dfso.setPermission(path, permission);
+          break;
+        default:
+          throw new IllegalStateException("Unknown change " + type);
+      }
+    }
+
+    @Override
+    public String toString() {
+      switch (type) {
+        case ADD_USER:
+          return "add-user user=" + user;
+        case ADD_GROUP:
+        case REMOVE_GROUP:
+          return type.name().toLowerCase().replace('_', '-') + " group=" + group;
+        case ADD_MEMBER:
+        case REMOVE_MEMBER:
+          return type.name().toLowerCase().replace('_', '-') + " user=" + user + " group=" + group;
+        case SET_ACL:
+          return "set-acl path=" + path + " acl=" + acl;
+        case SET_PERMISSION:
+          return "set-permission path=" + path + " permission=" + permission;
+        default:
+          return type.name();
+      }
+    }
+  }
+}
@@ -30,14 +30,12 @@ import io.hops.hopsworks.expat.db.dao.dataset.ExpatDatasetSharedWith;
 import io.hops.hopsworks.expat.db.dao.dataset.ExpatDatasetSharedWithFacade;
 import io.hops.hopsworks.expat.db.dao.hdfs.inode.ExpatHdfsInode;
 import io.hops.hopsworks.expat.db.dao.hdfs.inode.ExpatHdfsInodeFacade;
-import io.hops.hopsworks.expat.db.dao.hdfs.user.ExpatHdfsGroup;
-import io.hops.hopsworks.expat.db.dao.hdfs.user.ExpatHdfsGroupFacade;
-import io.hops.hopsworks.expat.db.dao.hdfs.user.ExpatHdfsUser;
-import io.hops.hopsworks.expat.db.dao.hdfs.user.ExpatHdfsUserFacade;
 import io.hops.hopsworks.expat.db.dao.project.ExpatProject;
 import io.hops.hopsworks.expat.db.dao.project.ExpatProjectFacade;
 import io.hops.hopsworks.expat.db.dao.project.ExpatProjectMember;
-import io.hops.hopsworks.expat.db.dao.project.ExpatProjectMemberFacade;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
+import io.hops.hopsworks.expat.executor.TaskBatch;
+import io.hops.hopsworks.expat.migrations.dataset.DatasetPermissionPlan.Change;
 import io.hops.hopsworks.expat.migrations.projects.util.HopsClient;
 import io.hops.hopsworks.persistence.entity.dataset.DatasetAccessPermission;
 import io.hops.hopsworks.persistence.entity.project.team.ProjectRoleTypes;
@@ -47,6 +45,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.AclEntry;
 import org.apache.hadoop.fs.permission.AclEntryScope;
 import org.apache.hadoop.fs.permission.AclEntryType;
+import org.apache.hadoop.fs.permission.AclStatus;
 import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.slf4j.Logger;
@@ -57,19 +56,41 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Fixes, or rolls back, the permissions of the datasets of all projects in two phases.
+ *
+ * The planning phase reads the hdfs users, groups and memberships, the project teams and the dataset shares once
+ * into a {@link DatasetPermissionIndex}, and the ACL of every dataset, and computes the changes which are needed
+ * into a {@link DatasetPermissionPlan}. The plan is logged, in dry run this is the report. Otherwise the apply phase
+ * executes only the changes in the plan, so running the migration again on fixed datasets changes nothing.
+ *
+ * Both phases process the projects concurrently, each worker has its own database connection and HDFS client.
+ */
 public class FixDatasetPermissionHelper {
   private static final Logger LOGGER = LoggerFactory.getLogger(FixDatasetPermission.class);
+  // The connection pool holds 10 connections, one of them is used by the main thread
+  private static final int MAX_WORKERS = 8;
   
   private Connection connection;
   private ExpatProjectFacade projectFacade;
   private ExpatDatasetFacade datasetFacade;
   private ExpatDatasetSharedWithFacade datasetSharedWithFacade;
-  private ExpatProjectMemberFacade projectMemberFacade;
-  private ExpatHdfsGroupFacade hdfsGroupFacade;
-  private ExpatHdfsUserFacade hdfsUserFacade;
-  private ExpatHdfsInodeFacade inodeFacade;
+  private DatasetPermissionIndex index;
+  private DatasetPermissionPlan plan;
+  private final ConcurrentMap<Long, String> dirPaths = new ConcurrentHashMap<>();
+  private BlockingQueue<Worker> workers;
+  private int concurrency;
   private String hopsUser;
   
   private boolean dryrun;
@@ -84,35 +105,47 @@ public class FixDatasetPermissionHelper {
     this.projectFacade = new ExpatProjectFacade(ExpatProject.class, this.connection);
     this.datasetFacade = new ExpatDatasetFacade(ExpatDataset.class, this.connection);
     this.datasetSharedWithFacade = new ExpatDatasetSharedWithFacade(ExpatDatasetSharedWith.class, this.connection);
-    this.projectMemberFacade = new ExpatProjectMemberFacade(ExpatProjectMember.class, this.connection);
-    this.hdfsGroupFacade = new ExpatHdfsGroupFacade(ExpatHdfsGroup.class, this.connection);
-    this.hdfsUserFacade = new ExpatHdfsUserFacade(ExpatHdfsUser.class, this.connection);
-    this.inodeFacade = new ExpatHdfsInodeFacade(ExpatHdfsInode.class, this.connection);
     this.dryrun = conf.getBoolean(ExpatConf.DRY_RUN);
   }
   
-  public void fixAllProjects() throws SQLException, InstantiationException, IOException, IllegalAccessException {
-    DistributedFileSystemOps dfso = null;
+  public void fixAllProjects() throws SQLException, ConfigurationException, InstantiationException, IOException,
+    IllegalAccessException, InterruptedException {
+    this.index = DatasetPermissionIndex.load(this.connection);
+    this.plan = new DatasetPermissionPlan();
+    Map<String, ExpatProject> projects = getProjects();
     try {
-      dfso = HopsClient.getDFSO(this.hopsUser);
-      fixPermission(dfso);
+      openWorkers(projects.size());
+      forEach("Plan dataset permissions", projects, new Action<ExpatProject>() {
+        @Override
+        public void run(ExpatProject project, Worker worker) throws Exception {
+          fixPermission(project, worker);
+        }
+      });
+      apply();
     } finally {
-      if (dfso != null) {
-        dfso.close();
-      }
+      closeWorkers();
     }
+    LOGGER.info("Fixed {} projects.", projects.size());
   }
   
-  public void rollbackAllProject() throws SQLException, InstantiationException, IOException, IllegalAccessException {
-    DistributedFileSystemOps dfso = null;
+  public void rollbackAllProject() throws SQLException, ConfigurationException, InstantiationException, IOException,
+    IllegalAccessException, InterruptedException {
+    this.index = DatasetPermissionIndex.load(this.connection);
+    this.plan = new DatasetPermissionPlan();
+    Map<String, ExpatProject> projects = getProjects();
     try {
-      dfso = HopsClient.getDFSO(this.hopsUser);
-      rollbackPermission(dfso);
+      openWorkers(projects.size());
+      forEach("Plan dataset permission rollback", projects, new Action<ExpatProject>() {
+        @Override
+        public void run(ExpatProject project, Worker worker) throws Exception {
+          rollbackPermission(project, worker);
+        }
+      });
+      apply();
     } finally {
-      if (dfso != null) {
-        dfso.close();
-      }
+      closeWorkers();
     }
+    LOGGER.info("Rolledback {} projects.", projects.size());
   }
   
   public void close() {
@@ -125,102 +158,160 @@ public class FixDatasetPermissionHelper {
     }
   }
   
-  private void fixPermission(DistributedFileSystemOps dfso) throws IllegalAccessException, SQLException,
-    InstantiationException, IOException {
-    List<ExpatProject> projects = this.projectFacade.findAll();
-    for (int i = 0; i < projects.size(); i++) {
-      LOGGER.info("====================== Fixing project={} ===========================", projects.get(i).getName());
-      fixPermission(projects.get(i), dfso);
-      LOGGER.info("====================== Done Fixing project={} ======================", projects.get(i).getName());
+  private Map<String, ExpatProject> getProjects() throws SQLException, IllegalAccessException,
+    InstantiationException {
+    Map<String, ExpatProject> projects = new LinkedHashMap<>();
+    for (ExpatProject project : this.projectFacade.findAll()) {
+      projects.put(project.getName(), project);
     }
-    LOGGER.info("Fixed {} projects.", projects.size());
+    return projects;
   }
   
-  private void rollbackPermission(DistributedFileSystemOps dfso) throws IllegalAccessException, SQLException,
-    InstantiationException, IOException {
-    List<ExpatProject> projects = this.projectFacade.findAll();
-    for (int i = 0; i < projects.size(); i++) {
-      LOGGER.info("====================== Rollback project={} ===========================", projects.get(i).getName());
-      rollbackPermission(projects.get(i), dfso);
-      LOGGER.info("====================== Done Rolling back project={} ==================", projects.get(i).getName());
+  private void apply() throws SQLException, IOException, InterruptedException {
+    this.plan.log(LOGGER);
+    if (this.plan.isEmpty()) {
+      LOGGER.info("Dataset permissions are up to date.");
+      return;
     }
-    LOGGER.info("Rolledback {} projects.", projects.size());
+    if (dryrun) {
+      LOGGER.info("Dry run, the dataset permission plan is not applied.");
+      return;
+    }
+    // Users and groups first, the changes of any project may refer to them
+    Map<String, Change> creations = new LinkedHashMap<>();
+    for (Change change : this.plan.getCreations()) {
+      creations.put(change.toString(), change);
+    }
+    forEach("Create hdfs users and groups", creations, new Action<Change>() {
+      @Override
+      public void run(Change change, Worker worker) throws Exception {
+        change.apply(worker.dfso);
+      }
+    });
+    forEach("Apply dataset permissions", this.plan.getProjectChanges(), new Action<List<Change>>() {
+      @Override
+      public void run(List<Change> changes, Worker worker) throws Exception {
+        for (Change change : changes) {
+          change.apply(worker.dfso);
+        }
+      }
+    });
+    this.datasetFacade.updatePermissions(this.plan.getDatasetPermissions());
+    this.datasetSharedWithFacade.updatePermissions(this.plan.getSharedWithPermissions());
   }
   
-  private void rollbackPermission(ExpatProject project, DistributedFileSystemOps dfso) throws IllegalAccessException,
+  private void openWorkers(int projects) throws SQLException, ConfigurationException {
+    this.concurrency = Math.max(1, Math.min(Math.min(ExecutorFactory.workerThreads(), MAX_WORKERS), projects));
+    this.workers = new ArrayBlockingQueue<>(this.concurrency);
+    for (int i = 0; i < this.concurrency; i++) {
+      this.workers.add(new Worker());
+    }
+  }
+  
+  private void closeWorkers() {
+    if (this.workers != null) {
+      for (Worker worker : this.workers) {
+        worker.close();
+      }
+      this.workers = null;
+    }
+  }
+  
+  /**
+   * Run the action for every item on the workers, at most one item per worker at a time
+   */
+  private <T> void forEach(String name, Map<String, T> items, final Action<T> action) throws IOException,
+    InterruptedException {
+    if (items.isEmpty()) {
+      return;
+    }
+    TaskBatch.Report<String, Void> report;
+    try (TaskBatch<String, Void> batch = new TaskBatch<>(name, this.concurrency)) {
+      for (final Map.Entry<String, T> item : items.entrySet()) {
+        batch.submit(item.getKey(), new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            Worker worker = workers.take();
+            try {
+              action.run(item.getValue(), worker);
+            } finally {
+              workers.put(worker);
+            }
+            return null;
+          }
+        });
+      }
+      report = batch.await();
+    }
+    if (!report.getFailures().isEmpty() || !report.getCancelled().isEmpty()) {
+      throw new IOException(name + " failed for " + (report.getFailures().size() + report.getCancelled().size())
+        + " out of " + items.size(),
+        report.getFailures().isEmpty() ? null : report.getFailures().values().iterator().next());
+    }
+  }
+  
+  private void rollbackPermission(ExpatProject project, Worker worker) throws IllegalAccessException,
     SQLException, InstantiationException, IOException {
     if (isUnderRemoval(project)) {
       LOGGER.info("Skipped rollback permission for project={} because it is under removal.", project.getName());
       return;
     }
     LOGGER.info("Rolling back datasets in project={}...", project.getName());
-    List<ExpatDataset> datasetList = this.datasetFacade.findByProjectId(project.getId());
+    List<Change> changes = this.plan.forProject(project.getName());
+    List<ExpatDataset> datasetList = worker.datasetFacade.findByProjectId(project.getId());
     for (ExpatDataset dataset : datasetList) {
-      rollbackDataset(dataset, project, dfso);
+      rollbackDataset(dataset, project, worker, changes);
     }
   }
   
-  private void rollbackDataset(ExpatDataset dataset, ExpatProject project, DistributedFileSystemOps dfso)
-    throws IllegalAccessException, SQLException, InstantiationException, IOException {
+  private void rollbackDataset(ExpatDataset dataset, ExpatProject project, Worker worker, List<Change> changes)
+    throws IllegalAccessException, SQLException, InstantiationException {
     String datasetGroup = getHdfsGroupName(project.getName(), dataset);
     String datasetAclGroup = getHdfsAclGroupName(project.getName(), dataset);
-    ExpatHdfsGroup hdfsDatasetGroup = this.hdfsGroupFacade.findByName(datasetGroup);
-    ExpatHdfsGroup hdfsDatasetAclGroup = this.hdfsGroupFacade.findByName(datasetAclGroup);
-    ExpatHdfsInode inode = this.inodeFacade.find(dataset.getInodeId());
-    ExpatHdfsUser hdfsUser = this.hdfsUserFacade.find(inode.getHdfsUser());
-    Path path = new Path(getPath(inode));
-    if (hdfsDatasetGroup == null) {
+    ExpatHdfsInode inode = worker.inodeFacade.find(dataset.getInodeId());
+    String owner = this.index.getUserName(inode.getHdfsUser());
+    Path path = new Path(getPath(inode, worker.inodeFacade));
+    if (!this.index.hasGroup(datasetGroup)) {
       LOGGER.info("Failed to get group={} for dataset in path={}", datasetGroup, path.toString());
       throw new IllegalStateException("Failed to get group=" + datasetGroup);
     }
     
-    if (hdfsDatasetAclGroup != null) {
-      removeGroup(hdfsDatasetAclGroup, dfso);
+    if (this.index.hasGroup(datasetAclGroup)) {
+      removeGroup(datasetAclGroup, changes);
     }
     
-    rollbackPermission(dataset, path, inode, dfso);
+    rollbackPermission(dataset, path, inode, changes);
     
     List<ExpatProjectMember> datasetTeamCollection = new ArrayList<>();
-    List<ExpatProjectMember> projectMembers = this.projectMemberFacade.findByProjectId(project.getId());
-    datasetTeamCollection.addAll(projectMembers);
+    datasetTeamCollection.addAll(this.index.getProjectMembers(project.getId()));
     
-    List<ExpatDatasetSharedWith> datasetSharedWithList = this.datasetSharedWithFacade.findByDatasetId(dataset.getId());
-    for (ExpatDatasetSharedWith datasetSharedWith : datasetSharedWithList) {
+    for (ExpatDatasetSharedWith datasetSharedWith : this.index.getSharedWith(dataset.getId())) {
       if (datasetSharedWith.isAccepted()) {
-        projectMembers = this.projectMemberFacade.findByProjectId(datasetSharedWith.getProject());
-        datasetTeamCollection.addAll(projectMembers);
+        datasetTeamCollection.addAll(this.index.getProjectMembers(datasetSharedWith.getProject()));
       }
     }
-    addBackToGroup(datasetTeamCollection, hdfsDatasetGroup, hdfsUser, dfso);
+    addBackToGroup(datasetTeamCollection, datasetGroup, owner, changes);
   }
   
-  private void addBackToGroup(List<ExpatProjectMember> datasetTeamCollection, ExpatHdfsGroup hdfsDatasetGroup,
-    ExpatHdfsUser hdfsUser, DistributedFileSystemOps dfso) throws SQLException, InstantiationException,
-    IllegalAccessException, IOException {
-    List<ExpatHdfsUser> hdfsDatasetGroupMembers = getMembers(hdfsDatasetGroup);
+  private void addBackToGroup(List<ExpatProjectMember> datasetTeamCollection, String datasetGroup, String owner,
+    List<Change> changes) {
+    Set<String> datasetGroupMembers = this.index.getMembers(datasetGroup);
     for (ExpatProjectMember projectTeam : datasetTeamCollection) {
-      addBackToGroup(projectTeam, hdfsDatasetGroupMembers, hdfsDatasetGroup, hdfsUser, dfso);
-    }
-  }
-  
-  private void addBackToGroup(ExpatProjectMember projectTeam, List<ExpatHdfsUser> hdfsDatasetGroupMembers,
-    ExpatHdfsGroup hdfsDatasetGroup, ExpatHdfsUser owner, DistributedFileSystemOps dfso) throws SQLException,
-    InstantiationException, IOException, IllegalAccessException {
-    if (projectTeam.getUsername().equals("srvmanager")) {
-      return;//Does this user need to be in groups?
-    }
-    String hdfsUsername = getHdfsUserName(projectTeam.getProjectName(), projectTeam.getUsername());
-    ExpatHdfsUser hdfsUser = getOrCreateUser(hdfsUsername, dfso);
-    if (owner != null && owner.equals(hdfsUser)) {
-      return;
-    }
-    if (!hdfsDatasetGroupMembers.contains(hdfsUser)) {
-      addToGroup(hdfsUser, hdfsDatasetGroup, dfso);
+      if (projectTeam.getUsername().equals("srvmanager")) {
+        continue;//Does this user need to be in groups?
+      }
+      String hdfsUsername = getHdfsUserName(projectTeam.getProjectName(), projectTeam.getUsername());
+      getOrCreateUser(hdfsUsername);
+      if (hdfsUsername.equals(owner)) {
+        continue;
+      }
+      if (!datasetGroupMembers.contains(hdfsUsername)) {
+        addToGroup(hdfsUsername, datasetGroup, changes);
+      }
     }
   }
   
-  private void rollbackPermission(ExpatDataset dataset, Path path, ExpatHdfsInode inode,
-    DistributedFileSystemOps dfso) throws IOException {
+  private void rollbackPermission(ExpatDataset dataset, Path path, ExpatHdfsInode inode, List<Change> changes) {
     FsPermission fsPermission = FsPermission.createImmutable(inode.getPermission());
     FsPermission fsPermissionDefault = FsPermissions.rwxr_x___;
     FsPermission fsPermissionServiceDatasetDefault = FsPermissions.rwxrwx___;
@@ -228,114 +319,78 @@ public class FixDatasetPermissionHelper {
     if (isDefaultDataset(dataset.getName())) {
       if (dataset.getName().endsWith(".db") || dataset.getName().equals("TourData") ||
         dataset.getName().equals("TestJob") || dataset.getName().equals(Settings.BaseDataset.LOGS.getName())) {
-        setPermission(fsPermission, fsPermissionServiceDatasetDefaultT, path, dfso);
+        setPermission(fsPermission, fsPermissionServiceDatasetDefaultT, path, changes);
       } else {
-        setPermission(fsPermission, fsPermissionServiceDatasetDefault, path, dfso);
+        setPermission(fsPermission, fsPermissionServiceDatasetDefault, path, changes);
       }
     } else {
-      setPermission(fsPermission, fsPermissionDefault, path, dfso);
+      setPermission(fsPermission, fsPermissionDefault, path, changes);
     }
     
   }
   
   private void setPermission(FsPermission currentPermission, FsPermission fsPermission, Path path,
-    DistributedFileSystemOps dfso) throws IOException {
-    if (!dryrun && !currentPermission.equals(fsPermission)) {
-      dfso.setPermission(path, fsPermission);
-    }
+    List<Change> changes) {
     if (!currentPermission.equals(fsPermission)) {
-      LOGGER.info("Rolling back permission from={} to={} for dataset in path={}.", currentPermission, fsPermission,
-        path);
+      changes.add(DatasetPermissionPlan.setPermission(path, fsPermission));
     }
   }
   
-  private void fixPermission(ExpatProject expatProject, DistributedFileSystemOps dfso) throws IllegalAccessException,
+  private void fixPermission(ExpatProject expatProject, Worker worker) throws IllegalAccessException,
     SQLException, InstantiationException, IOException {
     if (isUnderRemoval(expatProject)) {
       LOGGER.info("Skipped fix permission for project={} because it is under removal.", expatProject.getName());
       return;
     }
     LOGGER.info("Fixing datasets in project={}...", expatProject.getName());
-    List<ExpatDataset> datasetList = this.datasetFacade.findByProjectId(expatProject.getId());
+    List<Change> changes = this.plan.forProject(expatProject.getName());
+    List<ExpatDataset> datasetList = worker.datasetFacade.findByProjectId(expatProject.getId());
     for (ExpatDataset dataset : datasetList) {
-      fixDataset(dataset, expatProject, dfso);
+      LOGGER.debug("Fixing Dataset={} in project={}", dataset.getName(), expatProject.getName());
+      fixPermission(expatProject, dataset, worker, changes);
     }
   }
   
-  private void fixDataset(ExpatDataset dataset, ExpatProject expatProject, DistributedFileSystemOps dfso )
-    throws IllegalAccessException, SQLException, InstantiationException, IOException {
-    LOGGER.info("Fixing Dataset={} in project={}", dataset.getName(), expatProject.getName());
-    fixPermission(expatProject, dataset, dfso);
-  }
-  
-  private void fixPermission(ExpatProject expatProject, ExpatDataset dataset, DistributedFileSystemOps dfso)
+  private void fixPermission(ExpatProject expatProject, ExpatDataset dataset, Worker worker, List<Change> changes)
     throws IllegalAccessException, SQLException, InstantiationException, IOException {
     String datasetGroup = getHdfsGroupName(expatProject.getName(), dataset);
     String datasetAclGroup = getHdfsAclGroupName(expatProject.getName(), dataset);
-    ExpatHdfsGroup hdfsDatasetGroup = getOrCreateGroup(datasetGroup, dfso);
-    ExpatHdfsGroup hdfsDatasetAclGroup = getOrCreateGroup(datasetAclGroup, dfso);
-    ExpatHdfsInode inode = this.inodeFacade.find(dataset.getInodeId());
-    ExpatHdfsUser hdfsUser = this.hdfsUserFacade.find(inode.getHdfsUser());
-    Path path = new Path(getPath(inode));
-    if (!dryrun && hdfsDatasetGroup == null) {
-      LOGGER.info("Failed to add group={} for dataset in path={}", datasetGroup, path.toString());
-      throw new IllegalStateException("Failed to get group=" + datasetGroup);
-    } else if (hdfsDatasetGroup == null) {
-      hdfsDatasetGroup = new ExpatHdfsGroup();
-      hdfsDatasetGroup.setName(datasetGroup);
-    }
-    if (!dryrun && hdfsDatasetAclGroup == null) {
-      LOGGER.info("Failed to add group={} for dataset in path={}", datasetAclGroup, path.toString());
-      throw new IllegalStateException("Failed to get group=" + datasetAclGroup);
-    } else if (hdfsDatasetAclGroup == null) {
-      hdfsDatasetAclGroup = new ExpatHdfsGroup();
-      hdfsDatasetAclGroup.setName(datasetAclGroup);
-    }
+    getOrCreateGroup(datasetGroup);
+    getOrCreateGroup(datasetAclGroup);
+    ExpatHdfsInode inode = worker.inodeFacade.find(dataset.getInodeId());
+    String owner = this.index.getUserName(inode.getHdfsUser());
+    Path path = new Path(getPath(inode, worker.inodeFacade));
     
-    setDatasetAcl(datasetAclGroup, path, dfso);
+    testDatasetAcl(dataset, datasetAclGroup, path, inode, worker.dfso, changes);
   
-    dataset = setPermission(dataset);
+    setPermission(dataset);
     
     List<ExpatProjectMember> datasetTeamCollection = new ArrayList<>();
-    List<ExpatProjectMember> projectMembers = this.projectMemberFacade.findByProjectId(expatProject.getId());
+    List<ExpatProjectMember> projectMembers = this.index.getProjectMembers(expatProject.getId());
     datasetTeamCollection.addAll(projectMembers);
-    testFsPermission(dataset, path, inode, dfso);
-    testAndFixPermissionForAllMembers(projectMembers, dfso, hdfsDatasetGroup, hdfsDatasetAclGroup, hdfsUser,
+    testAndFixPermissionForAllMembers(projectMembers, changes, datasetGroup, datasetAclGroup, owner,
       DatasetAccessPermission.valueOf(dataset.getPermission()));
-    List<ExpatDatasetSharedWith> datasetSharedWithList = this.datasetSharedWithFacade.findByDatasetId(dataset.getId());
-    for (ExpatDatasetSharedWith datasetSharedWith : datasetSharedWithList) {
-      setPermission(dataset,datasetSharedWith );
+    for (ExpatDatasetSharedWith datasetSharedWith : this.index.getSharedWith(dataset.getId())) {
+      setPermission(dataset, datasetSharedWith);
       if (datasetSharedWith.isAccepted()) {
-        projectMembers = this.projectMemberFacade.findByProjectId(datasetSharedWith.getProject());
+        projectMembers = this.index.getProjectMembers(datasetSharedWith.getProject());
         datasetTeamCollection.addAll(projectMembers);
-        testAndFixPermissionForAllMembers(projectMembers, dfso, hdfsDatasetGroup, hdfsDatasetAclGroup, null,
+        testAndFixPermissionForAllMembers(projectMembers, changes, datasetGroup, datasetAclGroup, null,
           DatasetAccessPermission.valueOf(datasetSharedWith.getPermission()));
       }
     }
-    testAndRemoveUsersFromGroup(datasetTeamCollection, hdfsDatasetGroup, hdfsDatasetAclGroup, hdfsUser, dfso);
+    testAndRemoveUsersFromGroup(datasetTeamCollection, datasetGroup, datasetAclGroup, owner, changes);
   }
   
-  private ExpatDataset setPermission(ExpatDataset dataset) throws SQLException, InstantiationException,
-    IllegalAccessException {
+  private void setPermission(ExpatDataset dataset) {
     if (dataset.getPublicDs() > 0 && !DatasetAccessPermission.READ_ONLY.getValue().equals(dataset.getPermission())) {
-      if (!dryrun) {
-        datasetFacade.updatePermission(dataset.getId(), DatasetAccessPermission.READ_ONLY.getValue());
-        dataset = datasetFacade.find(dataset.getId());
-      } else {
-        dataset.setPermission(DatasetAccessPermission.READ_ONLY.getValue());
-      }
-      LOGGER.info("Updated dataset permission for public dataset id={} to read only.", dataset.getId());
+      this.plan.updateDatasetPermission(dataset.getId(), DatasetAccessPermission.READ_ONLY.getValue());
+      dataset.setPermission(DatasetAccessPermission.READ_ONLY.getValue());
     } else if (isDefaultDataset(dataset.getName()) &&
       !DatasetAccessPermission.EDITABLE.getValue().equals(dataset.getPermission())) {
-      if (!dryrun) {
-        datasetFacade.updatePermission(dataset.getId(), DatasetAccessPermission.EDITABLE.getValue());
-        dataset = datasetFacade.find(dataset.getId());
-      } else {
-        dataset.setPermission(DatasetAccessPermission.EDITABLE.getValue());
-      }
-      LOGGER.info("Updated dataset permission for default dataset id={} to editable.", dataset.getId());
+      this.plan.updateDatasetPermission(dataset.getId(), DatasetAccessPermission.EDITABLE.getValue());
+      dataset.setPermission(DatasetAccessPermission.EDITABLE.getValue());
     }
-    return dataset;
   }
   
   private boolean isDefaultDataset(String datasetName) {
@@ -353,225 +408,167 @@ public class FixDatasetPermissionHelper {
       datasetName.equals("TestJob") || datasetName.equals("TourData");
   }
   
-  private void setPermission(ExpatDataset dataset, ExpatDatasetSharedWith datasetSharedWith) throws SQLException,
-    InstantiationException, IllegalAccessException {
+  private void setPermission(ExpatDataset dataset, ExpatDatasetSharedWith datasetSharedWith) {
     if (dataset.getPublicDs() > 0 &&
       !DatasetAccessPermission.READ_ONLY.getValue().equals(datasetSharedWith.getPermission())) {
-      if (!dryrun) {
-        datasetSharedWithFacade
-          .updatePermission(datasetSharedWith.getId(), DatasetAccessPermission.READ_ONLY.getValue());
-        datasetSharedWith = datasetSharedWithFacade.find(datasetSharedWith.getId());
-      }
-      LOGGER.info("Updated datasetSharedWith permission for shared public dataset id={}", datasetSharedWith.getId());
+      this.plan.updateSharedWithPermission(datasetSharedWith.getId(), DatasetAccessPermission.READ_ONLY.getValue());
+      datasetSharedWith.setPermission(DatasetAccessPermission.READ_ONLY.getValue());
     }
   }
   
-  private void testAndRemoveUsersFromGroup(List<ExpatProjectMember> datasetTeamCollection,
-    ExpatHdfsGroup hdfsDatasetGroup, ExpatHdfsGroup hdfsDatasetAclGroup, ExpatHdfsUser hdfsUser,
-    DistributedFileSystemOps dfso) throws IllegalAccessException, SQLException, InstantiationException, IOException {
+  private void testAndRemoveUsersFromGroup(List<ExpatProjectMember> datasetTeamCollection, String datasetGroup,
+    String datasetAclGroup, String owner, List<Change> changes) {
     //Remove if member is not in team collection
-    List<ExpatHdfsUser> members =  !dryrun? this.hdfsUserFacade.getUsersInGroup(hdfsDatasetGroup) : new ArrayList<>();
-    for (ExpatHdfsUser hdfsUsers : members) {
-      testAndRemoveMember(datasetTeamCollection, hdfsDatasetGroup, hdfsUsers, hdfsUser, dfso);
-    }
-    List<ExpatHdfsUser> aclGroupMembers =  !dryrun? this.hdfsUserFacade.getUsersInGroup(hdfsDatasetAclGroup) :
-      new ArrayList<>();
-    for (ExpatHdfsUser hdfsUsers : aclGroupMembers) {
-      testAndRemoveMember(datasetTeamCollection, hdfsDatasetAclGroup, hdfsUsers, hdfsUser, dfso);
+    Set<String> datasetTeam = new HashSet<>();
+    for (ExpatProjectMember projectTeam : datasetTeamCollection) {
+      datasetTeam.add(getHdfsUserName(projectTeam.getProjectName(), projectTeam.getUsername()));
     }
+    testAndRemoveMembers(datasetTeam, datasetGroup, owner, changes);
+    testAndRemoveMembers(datasetTeam, datasetAclGroup, owner, changes);
   }
   
-  private void testAndRemoveMember(List<ExpatProjectMember> datasetTeamCollection, ExpatHdfsGroup hdfsDatasetGroup,
-    ExpatHdfsUser hdfsUser, ExpatHdfsUser owner, DistributedFileSystemOps dfso) throws IOException {
-    if (hdfsUser == null || hdfsUser.equals(owner)) {
-      return;
-    }
-    boolean found = false;
-    for (ExpatProjectMember projectTeam : datasetTeamCollection) {
-      String hdfsUsername = getHdfsUserName(projectTeam.getProjectName(), projectTeam.getUsername());
-      if (hdfsUser.getName().equals(hdfsUsername)) {
-        found = true;
+  private void testAndRemoveMembers(Set<String> datasetTeam, String group, String owner, List<Change> changes) {
+    for (String member : new ArrayList<>(this.index.getMembers(group))) {
+      if (!member.equals(owner) && !datasetTeam.contains(member)) {
+        removeFromGroup(member, group, changes);
       }
     }
-    if (!found) {
-      removeFromGroup(hdfsUser, hdfsDatasetGroup, dfso);
-    }
   }
   
-  private void removeFromGroup(ExpatHdfsUser hdfsUser, ExpatHdfsGroup hdfsDatasetGroup, DistributedFileSystemOps dfso)
-    throws IOException {
-    if (!dryrun) {
-      dfso.removeUserFromGroup(hdfsUser.getName(), hdfsDatasetGroup.getName());
-    }
-    LOGGER.info("Removed user={} from group={}", hdfsUser.getName(), hdfsDatasetGroup.getName());
+  private void removeFromGroup(String hdfsUser, String group, List<Change> changes) {
+    changes.add(DatasetPermissionPlan.removeMember(hdfsUser, group));
+    this.index.getMembers(group).remove(hdfsUser);
   }
   
-  private void addToGroup(ExpatHdfsUser hdfsUser, ExpatHdfsGroup hdfsDatasetGroup, DistributedFileSystemOps dfso)
-    throws IOException {
-    if (!dryrun) {
-      dfso.addUserToGroup(hdfsUser.getName(), hdfsDatasetGroup.getName());
-    }
-    LOGGER.info("Added user={} to group={}", hdfsUser.getName(), hdfsDatasetGroup.getName());
+  private void addToGroup(String hdfsUser, String group, List<Change> changes) {
+    changes.add(DatasetPermissionPlan.addMember(hdfsUser, group));
+    this.index.getMembers(group).add(hdfsUser);
   }
   
-  private void removeGroup(ExpatHdfsGroup group, DistributedFileSystemOps dfso) throws IOException {
-    if (!dryrun) {
-      dfso.removeGroup(group.getName());
-    }
-    LOGGER.info("Remove group={}", group.getName());
+  private void removeGroup(String group, List<Change> changes) {
+    changes.add(DatasetPermissionPlan.removeGroup(group));
+    this.index.removeGroup(group);
   }
   
   private String getHdfsUserName(String projectName, String username) {
     return projectName + HdfsUsersController.USER_NAME_DELIMITER + username;
   }
   
-  private void testAndFixPermissionForAllMembers(List<ExpatProjectMember> projectMembers, DistributedFileSystemOps dfso,
-    ExpatHdfsGroup hdfsDatasetGroup, ExpatHdfsGroup hdfsDatasetAclGroup, ExpatHdfsUser hdfsUser,
-    DatasetAccessPermission permission) throws SQLException, InstantiationException, IllegalAccessException,
-    IOException {
-    List<ExpatHdfsUser> hdfsDatasetGroupMembers = getMembers(hdfsDatasetGroup);
-    List<ExpatHdfsUser> hdfsDatasetAclGroupMembers = getMembers(hdfsDatasetAclGroup);
+  private void testAndFixPermissionForAllMembers(List<ExpatProjectMember> projectMembers, List<Change> changes,
+    String datasetGroup, String datasetAclGroup, String owner, DatasetAccessPermission permission) {
+    Set<String> datasetGroupMembers = this.index.getMembers(datasetGroup);
+    Set<String> datasetAclGroupMembers = this.index.getMembers(datasetAclGroup);
     for (ExpatProjectMember projectTeam : projectMembers) {
-      testAndFixPermission(projectTeam, dfso, hdfsDatasetGroupMembers, hdfsDatasetAclGroupMembers, hdfsDatasetGroup,
-        hdfsDatasetAclGroup, hdfsUser, permission);
+      testAndFixPermission(projectTeam, changes, datasetGroupMembers, datasetAclGroupMembers, datasetGroup,
+        datasetAclGroup, owner, permission);
     }
   }
   
-  private void testAndFixPermission(ExpatProjectMember projectTeam, DistributedFileSystemOps dfso,
-    List<ExpatHdfsUser> hdfsDatasetGroupMembers, List<ExpatHdfsUser> hdfsDatasetAclGroupMembers,
-    ExpatHdfsGroup hdfsDatasetGroup, ExpatHdfsGroup hdfsDatasetAclGroup, ExpatHdfsUser owner,
-    DatasetAccessPermission permission) throws SQLException, InstantiationException, IOException,
-    IllegalAccessException {
+  private void testAndFixPermission(ExpatProjectMember projectTeam, List<Change> changes,
+    Set<String> datasetGroupMembers, Set<String> datasetAclGroupMembers, String datasetGroup,
+    String datasetAclGroup, String owner, DatasetAccessPermission permission) {
     if (projectTeam.getUsername().equals("srvmanager")) {
       return;//Does this user need to be in groups?
     }
     String hdfsUsername = getHdfsUserName(projectTeam.getProjectName(), projectTeam.getUsername());
-    ExpatHdfsUser hdfsUser = getOrCreateUser(hdfsUsername, dfso);
-    if (owner != null && owner.equals(hdfsUser)) {
+    getOrCreateUser(hdfsUsername);
+    if (hdfsUsername.equals(owner)) {
       return;
     }
     switch (permission) {
       case EDITABLE:
-        if (!hdfsDatasetGroupMembers.contains(hdfsUser)) {
-          addToGroup(hdfsUser, hdfsDatasetGroup, dfso);
+        if (!datasetGroupMembers.contains(hdfsUsername)) {
+          addToGroup(hdfsUsername, datasetGroup, changes);
         }
-        if (hdfsDatasetAclGroupMembers.contains(hdfsUser)) {
-          removeFromGroup(hdfsUser, hdfsDatasetAclGroup, dfso);
+        if (datasetAclGroupMembers.contains(hdfsUsername)) {
+          removeFromGroup(hdfsUsername, datasetAclGroup, changes);
         }
         break;
       case READ_ONLY:
-        if (hdfsDatasetGroupMembers.contains(hdfsUser)) {
-          removeFromGroup(hdfsUser, hdfsDatasetGroup, dfso);
+        if (datasetGroupMembers.contains(hdfsUsername)) {
+          removeFromGroup(hdfsUsername, datasetGroup, changes);
         }
-        if (!hdfsDatasetAclGroupMembers.contains(hdfsUser)) {
-          addToGroup(hdfsUser, hdfsDatasetAclGroup, dfso);
+        if (!datasetAclGroupMembers.contains(hdfsUsername)) {
+          addToGroup(hdfsUsername, datasetAclGroup, changes);
         }
         break;
       case EDITABLE_BY_OWNERS:
         if (AllowedRoles.DATA_OWNER.equals(projectTeam.getTeamRole())) {
-          if (!hdfsDatasetGroupMembers.contains(hdfsUser)) {
-            addToGroup(hdfsUser, hdfsDatasetGroup, dfso);
+          if (!datasetGroupMembers.contains(hdfsUsername)) {
+            addToGroup(hdfsUsername, datasetGroup, changes);
           }
-          if (hdfsDatasetAclGroupMembers.contains(hdfsUser)) {
-            removeFromGroup(hdfsUser, hdfsDatasetAclGroup, dfso);
+          if (datasetAclGroupMembers.contains(hdfsUsername)) {
+            removeFromGroup(hdfsUsername, datasetAclGroup, changes);
           }
         } else {
-          if (hdfsDatasetGroupMembers.contains(hdfsUser)) {
-            removeFromGroup(hdfsUser, hdfsDatasetGroup, dfso);
+          if (datasetGroupMembers.contains(hdfsUsername)) {
+            removeFromGroup(hdfsUsername, datasetGroup, changes);
           }
-          if (!hdfsDatasetAclGroupMembers.contains(hdfsUser)) {
-            addToGroup(hdfsUser, hdfsDatasetAclGroup, dfso);
+          if (!datasetAclGroupMembers.contains(hdfsUsername)) {
+            addToGroup(hdfsUsername, datasetAclGroup, changes);
           }
         }
         break;
       default:
-        LOGGER.warn("Found a dataset with an unknown permission: group={}, project={}", hdfsDatasetGroup,
+        LOGGER.warn("Found a dataset with an unknown permission: group={}, project={}", datasetGroup,
           projectTeam.getProjectName());
     }
   }
   
-  private List<ExpatHdfsUser> getMembers(ExpatHdfsGroup group) throws IllegalAccessException, SQLException,
-    InstantiationException {
-    return this.hdfsUserFacade.getUsersInGroup(group);
-  }
-  
-  private void testFsPermission(ExpatDataset dataset, Path path, ExpatHdfsInode inode, DistributedFileSystemOps dfso)
-    throws IOException {
-    FsPermission fsPermission = FsPermission.createImmutable(inode.getPermission());
-    FsPermission fsPermissionReadOnly = FsPermission.createImmutable((short) 00550);
-    FsPermission fsPermissionReadOnlyT = FsPermission.createImmutable((short) 01550);
-    FsPermission fsPermissionDefault = FsPermissions.rwxrwx___;
-    FsPermission fsPermissionDefaultT = FsPermissions.rwxrwx___T;
-    if (dataset.getPublicDs() > 0 && !fsPermissionReadOnly.equals(fsPermission) &&
-      !fsPermissionReadOnlyT.equals(fsPermission)) {
-      makeImmutable(path, dfso);
-      LOGGER.info("Make public Dataset at path={} immutable.", path.toString());
+  /**
+   * Plan the ACL of the dataset if the current one differs. Public datasets are immutable, the owner and the dataset
+   * group get r-x instead of rwx, the other entries are the same.
+   */
+  private void testDatasetAcl(ExpatDataset dataset, String aclGroup, Path path, ExpatHdfsInode inode,
+    DistributedFileSystemOps dfso, List<Change> changes) throws IOException {
+    FsAction access = dataset.getPublicDs() > 0 ? FsAction.READ_EXECUTE : FsAction.ALL;
+    List<AclEntry> aclEntries = getDatasetAcl(aclGroup, access);
+    AclStatus aclStatus = dfso.getFilesystem().getAclStatus(path);
+    if (!isUpToDate(aclStatus, FsPermission.createImmutable(inode.getPermission()), access, aclEntries)) {
+      changes.add(DatasetPermissionPlan.setAcl(path, aclEntries));
+    }
+  }
+  
+  /**
+   * The permission bits hold the owner, mask and other entries. The unnamed group entry is only listed by HDFS
+   * when the inode has an extended ACL, the default entries HDFS copies from the access entries are not compared.
+   */
+  private boolean isUpToDate(AclStatus aclStatus, FsPermission permission, FsAction access,
+    List<AclEntry> aclEntries) {
+    if (permission.getUserAction() != access || permission.getGroupAction() != access ||
+      permission.getOtherAction() != FsAction.NONE) {
+      return false;
+    }
+    Set<AclEntry> current = new HashSet<>();
+    for (AclEntry aclEntry : aclStatus.getEntries()) {
+      if (aclEntry.getName() != null) {
+        current.add(aclEntry);
+      } else if (aclEntry.getScope() == AclEntryScope.ACCESS && aclEntry.getType() == AclEntryType.GROUP &&
+        aclEntry.getPermission() != access) {
+        return false;
+      }
     }
-    if (dataset.getPublicDs() == 0 && !fsPermissionDefault.equals(fsPermission) &&
-      !fsPermissionDefaultT.equals(fsPermission)) {
-      undoImmutable(path, dfso);
-      LOGGER.info("Set default permission={} for Dataset at path={}.", fsPermissionDefault, path.toString());
+    Set<AclEntry> expected = new HashSet<>();
+    for (AclEntry aclEntry : aclEntries) {
+      if (aclEntry.getName() != null) {
+        expected.add(aclEntry);
+      }
     }
+    return current.equals(expected);
   }
   
-  private void makeImmutable(Path path, DistributedFileSystemOps dfso) throws IOException {
+  private List<AclEntry> getDatasetAcl(String aclGroup, FsAction access) {
     List<AclEntry> aclEntries = new ArrayList<>();
     AclEntry aclEntryUser = new AclEntry.Builder()
       .setType(AclEntryType.USER)
       .setScope(AclEntryScope.ACCESS)
-      .setPermission(FsAction.READ_EXECUTE)
+      .setPermission(access)
       .build();
     aclEntries.add(aclEntryUser);
     AclEntry aclEntryGroup = new AclEntry.Builder()
       .setType(AclEntryType.GROUP)
       .setScope(AclEntryScope.ACCESS)
-      .setPermission(FsAction.READ_EXECUTE)
-      .build();
-    aclEntries.add(aclEntryGroup);
-    AclEntry aclEntryOther = new AclEntry.Builder()
-      .setType(AclEntryType.OTHER)
-      .setScope(AclEntryScope.ACCESS)
-      .setPermission(FsAction.NONE)
-      .build();
-    aclEntries.add(aclEntryOther);
-    addAcl(aclEntries, path, dfso);
-  }
-  
-  private void undoImmutable(Path path, DistributedFileSystemOps dfso) throws IOException {
-    List<AclEntry> aclEntries = new ArrayList<>();
-    AclEntry aclEntryUser = new AclEntry.Builder()
-      .setType(AclEntryType.USER)
-      .setScope(AclEntryScope.ACCESS)
-      .setPermission(FsAction.ALL)
-      .build();
-    aclEntries.add(aclEntryUser);
-    AclEntry aclEntryGroup = new AclEntry.Builder()
-      .setType(AclEntryType.GROUP)
-      .setScope(AclEntryScope.ACCESS)
-      .setPermission(FsAction.ALL)
-      .build();
-    aclEntries.add(aclEntryGroup);
-    AclEntry aclEntryOther = new AclEntry.Builder()
-      .setType(AclEntryType.OTHER)
-      .setScope(AclEntryScope.ACCESS)
-      .setPermission(FsAction.NONE)
-      .build();
-    aclEntries.add(aclEntryOther);
-    addAcl(aclEntries, path, dfso);
-  }
-  
-  private void setDatasetAcl(String aclGroup, Path path, DistributedFileSystemOps dfso) throws IOException {
-    List<AclEntry> aclEntries = new ArrayList<>();
-    AclEntry aclEntryUser = new AclEntry.Builder()
-      .setType(AclEntryType.USER)
-      .setScope(AclEntryScope.ACCESS)
-      .setPermission(FsAction.ALL)
-      .build();
-    aclEntries.add(aclEntryUser);
-    AclEntry aclEntryGroup = new AclEntry.Builder()
-      .setType(AclEntryType.GROUP)
-      .setScope(AclEntryScope.ACCESS)
-      .setPermission(FsAction.ALL)
+      .setPermission(access)
       .build();
     aclEntries.add(aclEntryGroup);
     AclEntry aclEntryDatasetGroup = new AclEntry.Builder()
@@ -594,66 +591,56 @@ public class FixDatasetPermissionHelper {
       .setPermission(FsAction.READ_EXECUTE)
       .build();
     aclEntries.add(aclEntryDefault);
-    addAcl(aclEntries, path, dfso);
+    return aclEntries;
   }
   
-  private void addAcl(List<AclEntry> aclEntries, Path path, DistributedFileSystemOps dfso) throws IOException {
-    if (!dryrun) {
-      dfso.getFilesystem().setAcl(path, aclEntries);
-    }
-    LOGGER.info("Adding acl={} for Dataset at path={}", aclEntries, path.toString());
+  private String getPath(ExpatHdfsInode inode, ExpatHdfsInodeFacade inodeFacade) throws IllegalAccessException,
+    SQLException, InstantiationException {
+    String parentPath = getDirPath(inode.getParentId(), inodeFacade);
+    return parentPath == null ? inode.getName() : parentPath + File.separator + inode.getName();
   }
   
-  private String getPath(ExpatHdfsInode inode) throws IllegalAccessException, SQLException, InstantiationException {
-    StringBuilder path = new StringBuilder(inode.getName());
-    ExpatHdfsInode parentInode = this.inodeFacade.find(inode.getParentId());
-    while (parentInode != null) {
-      path.insert(0, parentInode.getName() + File.separator);
-      parentInode = this.inodeFacade.find(parentInode.getParentId());
+  /**
+   * Path of a directory, the datasets of a project share their parent so it is only resolved once.
+   */
+  private String getDirPath(Long inodeId, ExpatHdfsInodeFacade inodeFacade) throws IllegalAccessException,
+    SQLException, InstantiationException {
+    String path = this.dirPaths.get(inodeId);
+    if (path != null) {
+      return path;
     }
-    return path.toString();
-  }
-  
-  private ExpatHdfsGroup getOrCreateGroup(String group, DistributedFileSystemOps dfso) throws IllegalAccessException,
-    SQLException, InstantiationException, IOException {
-    ExpatHdfsGroup hdfsGroup = this.hdfsGroupFacade.findByName(group);
-    if (!dryrun && hdfsGroup == null) {
-      addGroup(group, dfso);
-      hdfsGroup = this.hdfsGroupFacade.findByName(group);
+    ExpatHdfsInode inode = inodeFacade.find(inodeId);
+    if (inode == null) {
+      return null;
     }
-    return hdfsGroup;
+    path = getPath(inode, inodeFacade);
+    this.dirPaths.put(inodeId, path);
+    return path;
   }
   
-  private ExpatHdfsUser getOrCreateUser(String username, DistributedFileSystemOps dfso) throws IllegalAccessException,
-    SQLException, InstantiationException, IOException {
-    ExpatHdfsUser hdfsUser = this.hdfsUserFacade.findByName(username);
-    if (!dryrun && hdfsUser == null) {
-      addUser(username, dfso);
-      hdfsUser = this.hdfsUserFacade.findByName(username);
+  private void getOrCreateGroup(String group) {
+    if (this.index.hasGroup(group)) {
+      return;
     }
-    return hdfsUser;
-  }
-  
-  private ExpatHdfsGroup addGroup(String group, DistributedFileSystemOps dfso)
-    throws IOException, IllegalAccessException, SQLException, InstantiationException {
-    ExpatHdfsGroup hdfsGroup = null;
-    if (!dryrun) {
-      dfso.addGroup(group);
-      hdfsGroup = this.hdfsGroupFacade.findByName(group);
+    // A group is only planned once even if several workers find it missing
+    synchronized (this.index) {
+      if (!this.index.hasGroup(group)) {
+        this.plan.addCreation(DatasetPermissionPlan.addGroup(group));
+        this.index.addGroup(group);
+      }
     }
-    LOGGER.info("Found and fixed a missing group: group={}", group);
-    return hdfsGroup;
   }
   
-  private ExpatHdfsUser addUser(String username, DistributedFileSystemOps dfso)
-    throws IOException, IllegalAccessException, SQLException, InstantiationException {
-    ExpatHdfsUser hdfsUser = null;
-    if (!dryrun) {
-      dfso.addGroup(username);
-      hdfsUser = this.hdfsUserFacade.findByName(username);
+  private void getOrCreateUser(String username) {
+    if (this.index.hasUser(username)) {
+      return;
+    }
+    synchronized (this.index) {
+      if (!this.index.hasUser(username)) {
+        this.plan.addCreation(DatasetPermissionPlan.addUser(username));
+        this.index.addUser(username);
+      }
     }
-    LOGGER.info("Found and fixed a missing user: username={}", username);
-    return hdfsUser;
   }
   
   private String getHdfsAclGroupName(String projectName, ExpatDataset dataset) {
@@ -664,14 +651,47 @@ public class FixDatasetPermissionHelper {
     return projectName + HdfsUsersController.USER_NAME_DELIMITER + dataset.getName();
   }
   
-  private boolean isUnderRemoval(ExpatProject expatProject) throws IllegalAccessException, SQLException,
-    InstantiationException {
-    List<ExpatProjectMember> members = this.projectMemberFacade.findByProjectId(expatProject.getId());
-    for (ExpatProjectMember member : members) {
+  private boolean isUnderRemoval(ExpatProject expatProject) {
+    for (ExpatProjectMember member : this.index.getProjectMembers(expatProject.getId())) {
       if (ProjectRoleTypes.UNDER_REMOVAL.equals(member.getTeamRole())) {
         return true;
       }
     }
     return false;
   }
+  
+  private interface Action<T> {
+    void run(T item, Worker worker) throws Exception;
+  }
+  
+  /**
+   * Database connection and HDFS client of a worker, with the facades bound to the connection
+   */
+  private final class Worker {
+    private final Connection connection;
+    private final DistributedFileSystemOps dfso;
+    private final ExpatDatasetFacade datasetFacade;
+    private final ExpatHdfsInodeFacade inodeFacade;
+    
+    private Worker() throws SQLException, ConfigurationException {
+      this.connection = DbConnectionFactory.getConnection();
+      try {
+        this.dfso = HopsClient.getDFSO(hopsUser);
+      } catch (RuntimeException e) {
+        this.connection.close();
+        throw e;
+      }
+      this.datasetFacade = new ExpatDatasetFacade(ExpatDataset.class, this.connection);
+      this.inodeFacade = new ExpatHdfsInodeFacade(ExpatHdfsInode.class, this.connection);
+    }
+    
+    private void close() {
+      dfso.close();
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        LOGGER.warn("Failed to close database connection. {}", e.getMessage());
+      }
+    }
+  }
 }
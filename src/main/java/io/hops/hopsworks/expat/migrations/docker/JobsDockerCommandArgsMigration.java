@@ -17,10 +17,14 @@
 
 package io.hops.hopsworks.expat.migrations.docker;
 
+import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
+import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
-import io.hops.hopsworks.expat.migrations.MigrateStep;
+import io.hops.hopsworks.expat.db.JsonColumnTransformer;
+import io.hops.hopsworks.expat.migrations.JsonColumnStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
+import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -28,21 +32,63 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 
 
-public class JobsDockerCommandArgsMigration implements MigrateStep {
+public class JobsDockerCommandArgsMigration implements JsonColumnStep {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(JobsDockerCommandArgsMigration.class);
-  private final static String GET_ALL_DOCKER_CONFIGURATIONS =
-          "SELECT id, json_config FROM jobs WHERE type = ?";
-  private final static String UPDATE_SPECIFIC_JOB_JSON_CONFIG = "UPDATE jobs SET json_config = ? WHERE id = ?";
+  private final static String DOCKER_JOBS = "type = ?";
   protected Connection connection;
+  private boolean dryRun;
+  private int batchSize;
 
   private void setup() throws SQLException, ConfigurationException {
     connection = DbConnectionFactory.getConnection();
+    Configuration conf = ConfigurationBuilder.getConfiguration();
+    dryRun = conf.getBoolean(ExpatConf.DRY_RUN);
+    batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
+  }
+
+  @Override
+  public String getTable() {
+    return "jobs";
+  }
+
+  @Override
+  public String getColumn() {
+    return "json_config";
+  }
+
+  @Override
+  public String getCondition() {
+    return DOCKER_JOBS;
+  }
+
+  @Override
+  public Object[] getParams() {
+    return new Object[]{"DOCKER"};
+  }
+
+  @Override
+  public void configure(JsonColumnTransformer transformer, boolean migrate) {
+    transformer.select("type").transform(getTransform(migrate));
+  }
+
+  private JsonColumnTransformer.Transform getTransform(final boolean migrate) {
+    return new JsonColumnTransformer.Transform() {
+      @Override
+      public void apply(JsonColumnTransformer.Row row, JSONObject config) {
+        if (!"DOCKER".equals(row.getString("type"))) {
+          return;
+        }
+        if (migrate) {
+          migrateCommandArgs(config);
+        } else {
+          rollbackCommandArgs(config);
+        }
+      }
+    };
   }
 
   @Override
@@ -56,60 +102,36 @@ public class JobsDockerCommandArgsMigration implements MigrateStep {
       throw new MigrationException(errorMsg, ex);
     }
 
-    PreparedStatement getAllDockerJobsStmt = null;
-    PreparedStatement updateJSONConfigStmt = null;
     try {
-      connection.setAutoCommit(false);
-      getAllDockerJobsStmt = connection.prepareStatement(GET_ALL_DOCKER_CONFIGURATIONS);
-      getAllDockerJobsStmt.setString(1, "DOCKER");
-      ResultSet jobsResultSet = getAllDockerJobsStmt.executeQuery();
-
-      updateJSONConfigStmt = connection.prepareStatement(UPDATE_SPECIFIC_JOB_JSON_CONFIG);
-      while (jobsResultSet.next()) {
-        String args;
-        String command;
-        int id = jobsResultSet.getInt(1);
-        String oldConfig = jobsResultSet.getString(2);
-        if(oldConfig != null) {
-
-          LOGGER.info("Trying to migrate JobID: " + id);
-          JSONObject config = new JSONObject(oldConfig);
-          LOGGER.info("config:" + config);
-          if (config.has("args")) {
-            args = config.getString("args");
-            config.remove("args");
-            config.put("defaultArgs", args);
-          }
-          if (config.has("command")) {
-            command = config.getString("command");
-            config.remove("command");
-            JSONArray commandList = new JSONArray();
-            commandList.put(command);
-            config.put("command", commandList);
-          }
-
-          String newConfig = config.toString();
-          LOGGER.info("newConfig:" + newConfig);
-          LOGGER.info("Successfully migrated JobID: " + id);
-
-          updateJSONConfigStmt.setString(1, newConfig);
-          updateJSONConfigStmt.setInt(2, id);
-          updateJSONConfigStmt.addBatch();
-        }
-      }
-      updateJSONConfigStmt.executeBatch();
-      connection.commit();
-      connection.setAutoCommit(true);
+      JsonColumnTransformer transformer = new JsonColumnTransformer(connection, getTable(), getColumn())
+        .where(getCondition(), getParams())
+        .pageSize(batchSize)
+        .dryRun(dryRun);
+      configure(transformer, true);
+      transformer.run();
     } catch(SQLException ex) {
       String errorMsg = "Could not migrate job configurations";
       LOGGER.error(errorMsg);
       throw new MigrationException(errorMsg, ex);
-    } finally {
-      closeConnections(getAllDockerJobsStmt, updateJSONConfigStmt);
     }
     LOGGER.info("Finished jobConfig migration");
   }
 
+  private void migrateCommandArgs(JSONObject config) {
+    if (config.has("args")) {
+      String args = config.getString("args");
+      config.remove("args");
+      config.put("defaultArgs", args);
+    }
+    if (config.has("command")) {
+      String command = config.getString("command");
+      config.remove("command");
+      JSONArray commandList = new JSONArray();
+      commandList.put(command);
+      config.put("command", commandList);
+    }
+  }
+
   @Override
   public void rollback() throws RollbackException {
     LOGGER.info("Starting docker jobs command args rollback.");
@@ -121,67 +143,32 @@ public class JobsDockerCommandArgsMigration implements MigrateStep {
       throw new RollbackException(errorMsg, ex);
     }
 
-    PreparedStatement getAllDockerJobsStmt = null;
-    PreparedStatement updateJSONConfigStmt = null;
     try {
-      connection.setAutoCommit(false);
-      getAllDockerJobsStmt = connection.prepareStatement(GET_ALL_DOCKER_CONFIGURATIONS);
-      getAllDockerJobsStmt.setString(1, "DOCKER");
-      ResultSet jobsResultSet = getAllDockerJobsStmt.executeQuery();
-
-      updateJSONConfigStmt = connection.prepareStatement(UPDATE_SPECIFIC_JOB_JSON_CONFIG);
-      while (jobsResultSet.next()) {
-        String defaultArgs;
-        int id = jobsResultSet.getInt(1);
-        String oldConfig = jobsResultSet.getString(2);
-        if(oldConfig != null) {
-
-          LOGGER.info("Trying to rollback JobID: " + id);
-          JSONObject config = new JSONObject(oldConfig);
-
-          if (config.has("defaultArgs")) {
-            defaultArgs = config.getString("defaultArgs");
-            config.remove("defaultArgs");
-            config.put("args", defaultArgs);
-          }
-          if (config.has("command")) {
-            JSONArray command = config.getJSONArray("command");
-            if (command != null && command.length() > 0) {
-              config.put("command", command.getString(0));
-            }
-          }
-          
-          String newConfig = config.toString();
-          LOGGER.info("Successfully rollbacked JobID: " + id);
-
-          updateJSONConfigStmt.setString(1, newConfig);
-          updateJSONConfigStmt.setInt(2, id);
-          updateJSONConfigStmt.addBatch();
-        }
-      }
-      updateJSONConfigStmt.executeBatch();
-      connection.commit();
-      connection.setAutoCommit(true);
+      JsonColumnTransformer transformer = new JsonColumnTransformer(connection, getTable(), getColumn())
+        .where(getCondition(), getParams())
+        .pageSize(batchSize)
+        .dryRun(dryRun);
+      configure(transformer, false);
+      transformer.run();
     } catch(SQLException ex) {
       String errorMsg = "Could not rollback job configurations";
       LOGGER.error(errorMsg);
       throw new RollbackException(errorMsg, ex);
-    } finally {
-      closeConnections(getAllDockerJobsStmt, updateJSONConfigStmt);
     }
     LOGGER.info("Finished jobConfig rollback");
   }
 
-  private void closeConnections(PreparedStatement stmt1, PreparedStatement stmt2) {
-    try {
-      if(stmt1 != null) {
-        stmt1.close();
-      }
-      if(stmt2 != null) {
-        stmt2.close();
+  private void rollbackCommandArgs(JSONObject config) {
+    if (config.has("defaultArgs")) {
+      String defaultArgs = config.getString("defaultArgs");
+      config.remove("defaultArgs");
+      config.put("args", defaultArgs);
+    }
+    if (config.has("command")) {
+      JSONArray command = config.getJSONArray("command");
+      if (command != null && command.length() > 0) {
+        config.put("command", command.getString(0));
       }
-    } catch(SQLException ex) {
-      //do nothing
     }
   }
 }
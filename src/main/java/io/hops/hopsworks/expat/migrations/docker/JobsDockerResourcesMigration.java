@@ -17,33 +17,79 @@
 
 package io.hops.hopsworks.expat.migrations.docker;
 
+import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
+import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
-import io.hops.hopsworks.expat.migrations.MigrateStep;
+import io.hops.hopsworks.expat.db.JsonColumnTransformer;
+import io.hops.hopsworks.expat.migrations.JsonColumnStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
+import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 
-public class JobsDockerResourcesMigration implements MigrateStep {
+public class JobsDockerResourcesMigration implements JsonColumnStep {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(JobsDockerResourcesMigration.class);
-  private final static String GET_ALL_DOCKER_AND_PYTHON_CONFIGURATIONS =
-    "SELECT id, json_config FROM jobs WHERE type = ? OR type = ?";
-  private final static String UPDATE_SPECIFIC_JOB_JSON_CONFIG = "UPDATE jobs SET json_config = ? WHERE id = ?";
+  private final static String DOCKER_AND_PYTHON_JOBS = "type = ? OR type = ?";
   protected Connection connection;
   private final int defaultMemory = 1024;
   private final int defaultCores = 1;
   private final int defaultGPUs = 0;
+  private boolean dryRun;
+  private int batchSize;
 
   private void setup() throws SQLException, ConfigurationException {
     connection = DbConnectionFactory.getConnection();
+    Configuration conf = ConfigurationBuilder.getConfiguration();
+    dryRun = conf.getBoolean(ExpatConf.DRY_RUN);
+    batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
+  }
+
+  @Override
+  public String getTable() {
+    return "jobs";
+  }
+
+  @Override
+  public String getColumn() {
+    return "json_config";
+  }
+
+  @Override
+  public String getCondition() {
+    return DOCKER_AND_PYTHON_JOBS;
+  }
+
+  @Override
+  public Object[] getParams() {
+    return new Object[]{"DOCKER", "PYTHON"};
+  }
+
+  @Override
+  public void configure(JsonColumnTransformer transformer, boolean migrate) {
+    transformer.select("type").transform(getTransform(migrate));
+  }
+
+  private JsonColumnTransformer.Transform getTransform(final boolean migrate) {
+    return new JsonColumnTransformer.Transform() {
+      @Override
+      public void apply(JsonColumnTransformer.Row row, JSONObject config) {
+        if (!"DOCKER".equals(row.getString("type")) && !"PYTHON".equals(row.getString("type"))) {
+          return;
+        }
+        if (migrate) {
+          migrateResources(config);
+        } else {
+          rollbackResources(config);
+        }
+      }
+    };
   }
 
   @Override
@@ -57,74 +103,53 @@ public class JobsDockerResourcesMigration implements MigrateStep {
       throw new MigrationException(errorMsg, ex);
     }
 
-    PreparedStatement getAllDockerAndPythonJobsStmt = null;
-    PreparedStatement updateJSONConfigStmt = null;
     try {
-      connection.setAutoCommit(false);
-      getAllDockerAndPythonJobsStmt = connection.prepareStatement(GET_ALL_DOCKER_AND_PYTHON_CONFIGURATIONS);
-      getAllDockerAndPythonJobsStmt.setString(1, "DOCKER");
-      getAllDockerAndPythonJobsStmt.setString(2, "PYTHON");
-      ResultSet jobsResultSet = getAllDockerAndPythonJobsStmt.executeQuery();
-
-      updateJSONConfigStmt = connection.prepareStatement(UPDATE_SPECIFIC_JOB_JSON_CONFIG);
-      while (jobsResultSet.next()) {
-        Integer memory;
-        Integer cores;
-        Integer gpus;
-        int id = jobsResultSet.getInt(1);
-        String oldConfig = jobsResultSet.getString(2);
-        if(oldConfig != null) {
-
-          LOGGER.info("Trying to migrate JobID: " + id);
-          JSONObject config = new JSONObject(oldConfig);
-          if (config.has("memory")) {
-            memory = config.getInt("memory");
-            config.remove("memory");
-          } else {
-            memory = defaultMemory;
-          }
-          if (config.has("cores")) {
-            cores = config.getInt("cores");
-            config.remove("cores");
-          } else {
-            cores = defaultCores;
-          }
-          if (config.has("gpus")) {
-            gpus = config.getInt("gpus");
-            config.remove("gpus");
-          } else {
-            gpus = defaultGPUs;
-          }
-
-          JSONObject dockerResourcesConfig = new JSONObject();
-          dockerResourcesConfig.put("type", "dockerResourcesConfiguration");
-          dockerResourcesConfig.put("memory", memory);
-          dockerResourcesConfig.put("cores", cores);
-          dockerResourcesConfig.put("gpus", gpus);
-
-          config.put("resourceConfig", dockerResourcesConfig);
-
-          String newConfig = config.toString();
-          LOGGER.info("Successfully migrated JobID: " + id);
-
-          updateJSONConfigStmt.setString(1, newConfig);
-          updateJSONConfigStmt.setInt(2, id);
-          updateJSONConfigStmt.addBatch();
-        }
-      }
-      updateJSONConfigStmt.executeBatch();
-      connection.commit();
-      connection.setAutoCommit(true);
+      JsonColumnTransformer transformer = new JsonColumnTransformer(connection, getTable(), getColumn())
+        .where(getCondition(), getParams())
+        .pageSize(batchSize)
+        .dryRun(dryRun);
+      configure(transformer, true);
+      transformer.run();
     } catch(SQLException ex) {
       String errorMsg = "Could not migrate job configurations";
       LOGGER.error(errorMsg);
       throw new MigrationException(errorMsg, ex);
-    } finally {
-      closeConnections(getAllDockerAndPythonJobsStmt, updateJSONConfigStmt);
     }
     LOGGER.info("Finished jobConfig migration");
   }
 
+  private void migrateResources(JSONObject config) {
+    Integer memory;
+    Integer cores;
+    Integer gpus;
+    if (config.has("memory")) {
+      memory = config.getInt("memory");
+      config.remove("memory");
+    } else {
+      memory = defaultMemory;
+    }
+    if (config.has("cores")) {
+      cores = config.getInt("cores");
+      config.remove("cores");
+    } else {
+      cores = defaultCores;
+    }
+    if (config.has("gpus")) {
+      gpus = config.getInt("gpus");
+      config.remove("gpus");
+    } else {
+      gpus = defaultGPUs;
+    }
+
+    JSONObject dockerResourcesConfig = new JSONObject();
+    dockerResourcesConfig.put("type", "dockerResourcesConfiguration");
+    dockerResourcesConfig.put("memory", memory);
+    dockerResourcesConfig.put("cores", cores);
+    dockerResourcesConfig.put("gpus", gpus);
+
+    config.put("resourceConfig", dockerResourcesConfig);
+  }
+
   @Override
   public void rollback() throws RollbackException {
     LOGGER.info("Starting docker and python docker resources rollback");
@@ -136,80 +161,46 @@ public class JobsDockerResourcesMigration implements MigrateStep {
       throw new RollbackException(errorMsg, ex);
     }
 
-    PreparedStatement getAllDockerAndPythonJobsStmt = null;
-    PreparedStatement updateJSONConfigStmt = null;
     try {
-      connection.setAutoCommit(false);
-      getAllDockerAndPythonJobsStmt = connection.prepareStatement(GET_ALL_DOCKER_AND_PYTHON_CONFIGURATIONS);
-      getAllDockerAndPythonJobsStmt.setString(1, "DOCKER");
-      getAllDockerAndPythonJobsStmt.setString(2, "PYTHON");
-      ResultSet jobsResultSet = getAllDockerAndPythonJobsStmt.executeQuery();
-
-      updateJSONConfigStmt = connection.prepareStatement(UPDATE_SPECIFIC_JOB_JSON_CONFIG);
-      while (jobsResultSet.next()) {
-        Integer memory;
-        Integer cores;
-        Integer gpus;
-        int id = jobsResultSet.getInt(1);
-        String oldConfig = jobsResultSet.getString(2);
-        if(oldConfig != null) {
-
-          LOGGER.info("Trying to rollback JobID: " + id);
-          JSONObject config = new JSONObject(oldConfig);
-          JSONObject dockerResource = config.getJSONObject("resourceConfig");
-
-          if (dockerResource.has("memory")) {
-            memory = dockerResource.getInt("memory");
-          } else {
-            memory = defaultMemory;
-          }
-          if (dockerResource.has("cores")) {
-            cores = dockerResource.getInt("cores");
-          } else {
-            cores = defaultCores;
-          }
-          if (dockerResource.has("gpus")) {
-            gpus = dockerResource.getInt("gpus");
-          } else {
-            gpus = defaultGPUs;
-          }
-          config.remove("resourceConfig");
-
-          config.put("memory", memory);
-          config.put("cores", cores);
-          config.put("gpus", gpus);
-
-          String newConfig = config.toString();
-          LOGGER.info("Successfully rollbacked JobID: " + id);
-
-          updateJSONConfigStmt.setString(1, newConfig);
-          updateJSONConfigStmt.setInt(2, id);
-          updateJSONConfigStmt.addBatch();
-        }
-      }
-      updateJSONConfigStmt.executeBatch();
-      connection.commit();
-      connection.setAutoCommit(true);
+      JsonColumnTransformer transformer = new JsonColumnTransformer(connection, getTable(), getColumn())
+        .where(getCondition(), getParams())
+        .pageSize(batchSize)
+        .dryRun(dryRun);
+      configure(transformer, false);
+      transformer.run();
     } catch(SQLException ex) {
       String errorMsg = "Could not rollback job configurations";
       LOGGER.error(errorMsg);
       throw new RollbackException(errorMsg, ex);
-    } finally {
-      closeConnections(getAllDockerAndPythonJobsStmt, updateJSONConfigStmt);
     }
     LOGGER.info("Finished jobConfig rollback");
   }
 
-  private void closeConnections(PreparedStatement stmt1, PreparedStatement stmt2) {
-    try {
-      if(stmt1 != null) {
-        stmt1.close();
-      }
-      if(stmt2 != null) {
-        stmt2.close();
-      }
-    } catch(SQLException ex) {
-      //do nothing
+  private void rollbackResources(JSONObject config) {
+    Integer memory;
+    Integer cores;
+    Integer gpus;
+    JSONObject dockerResource = config.getJSONObject("resourceConfig");
+
+    if (dockerResource.has("memory")) {
+      memory = dockerResource.getInt("memory");
+    } else {
+      memory = defaultMemory;
+    }
+    if (dockerResource.has("cores")) {
+      cores = dockerResource.getInt("cores");
+    } else {
+      cores = defaultCores;
     }
+    if (dockerResource.has("gpus")) {
+      gpus = dockerResource.getInt("gpus");
+    } else {
+      gpus = defaultGPUs;
+    }
+    config.remove("resourceConfig");
+
+    config.put("memory", memory);
+    config.put("cores", cores);
+    config.put("gpus", gpus);
   }
 }
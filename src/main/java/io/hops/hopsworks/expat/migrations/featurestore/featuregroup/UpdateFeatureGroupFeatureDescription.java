@@ -27,6 +27,7 @@ import io.hops.hopsworks.expat.epipe.EpipeRunner;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
+import io.hops.hopsworks.expat.migrations.projects.search.featurestore.FeaturegroupMetastore;
 import io.hops.hopsworks.expat.migrations.projects.search.featurestore.FeaturegroupXAttr;
 import io.hops.hopsworks.expat.migrations.projects.util.HopsClient;
 import io.hops.hopsworks.expat.migrations.projects.util.XAttrException;
@@ -92,22 +93,6 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
   private final static String GET_USER = "SELECT email FROM users WHERE uid=?";
   private final static int GET_USER_W_ID = 1;
   private final static int GET_USER_S_EMAIL = 1;
-  private final static String GET_FG_DESCRIPTION =
-    "SELECT PARAM_VALUE FROM metastore.TABLE_PARAMS " +
-      "WHERE TBL_ID=? AND PARAM_KEY=?";
-  private final static int GET_FG_DESCRIPTION_W_TBL_ID = 1;
-  private final static int GET_FG_DESCRIPTION_W_PARAM = 2;
-  private final static int GET_FG_DESCRIPTION_S_DESCRIPTION = 1;
-  private final static String GET_FG_FEATURES =
-    "SELECT c.COLUMN_NAME, c.COMMENT FROM metastore.TBLS t " +
-      "JOIN metastore.SDS s JOIN metastore.COLUMNS_V2 c " +
-      "ON t.SD_ID=s.SD_ID AND s.CD_ID=c.CD_ID WHERE t.TBL_ID = ?";
-  private final static String GET_FG_PARTITION_FEATURES =
-    "SELECT t.PKEY_NAME, t.PKEY_COMMENT from metastore.PARTITION_KEYS t " +
-      "WHERE t.TBL_ID = ?";
-  private final static int GET_FG_FEATURES_W_TBL_ID = 1;
-  private final static int GET_FG_FEATURES_S_NAME = 1;
-  private final static int GET_FG_FEATURES_S_COMMENT = 2;
   private final static String GET_PROJECT = "SELECT inode_name FROM project WHERE id=?";
   private final static int GET_PROJECT_W_ID = 1;
   private final static int GET_PROJECT_S_NAME = 1;
@@ -150,6 +135,14 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
   private String elasticPass;
   private CloseableHttpClient httpClient;
   private String epipeLocation;
+  private int batchSize = ExpatConf.BATCH_SIZE_DEFAULT;
+  //of the feature store being traversed
+  private String projectName;
+  private FeaturegroupMetastore metastore;
+  private final Map<Integer, String> creators = new HashMap<>();
+  //cached features of all the feature groups, executed every batchSize features
+  private PreparedStatement insertCachedFeaturesStmt;
+  private int pendingCachedFeatures = 0;
   
   private void setup()
     throws ConfigurationException, SQLException, JAXBException, KeyStoreException, NoSuchAlgorithmException,
@@ -167,6 +160,7 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
     }
     dfso = HopsClient.getDFSO(hopsUser);
     dryrun = conf.getBoolean(ExpatConf.DRY_RUN);
+    batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
   
     String elasticURI = conf.getString(ExpatConf.ELASTIC_URI);
     if (elasticURI == null) {
@@ -279,10 +273,13 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
     PreparedStatement allFSOnDemandFGStmt = null;
     
     try {
+      insertCachedFeaturesStmt = connection.prepareStatement(INSERT_CACHED_FG_DESC);
       allFSStmt = connection.prepareStatement(GET_ALL_FEATURESTORES);
       ResultSet allFSResultSet = allFSStmt.executeQuery();
       
       while (allFSResultSet.next()) {
+        projectName = getProjectName(allFSResultSet);
+        metastore = FeaturegroupMetastore.load(connection, allFSResultSet.getInt(GET_ALL_FEATURESTORES_S_ID));
         allFSCachedFGStmt = getFSCachedFGStmt(allFSResultSet);
         ResultSet allFSCachedFGResultSet = allFSCachedFGStmt.executeQuery();
         while(allFSCachedFGResultSet.next()) {
@@ -297,8 +294,13 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
         }
         allFSOnDemandFGStmt.close();
       }
+      flushCachedFeatures();
       connection.commit();
     } finally {
+      if(insertCachedFeaturesStmt != null) {
+        insertCachedFeaturesStmt.close();
+        insertCachedFeaturesStmt = null;
+      }
       if(allFSCachedFGStmt != null) {
         allFSCachedFGStmt.close();
       }
@@ -313,29 +315,22 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
   
   private CheckedBiConsumer<ResultSet, ResultSet, Exception> dryRunCachedFG() {
     return (ResultSet allFSResultSet, ResultSet allFSCachedFGResultSet) -> {
-      String fgPath = getCachedFGPath(allFSResultSet, allFSCachedFGResultSet);
+      String fgPath = getCachedFGPath(allFSCachedFGResultSet);
       if (fgPath == null) {
         LOGGER.error("faulty cached featuregroup:{}", fgPath);
       } else {
         LOGGER.info("cached featuregroup:{}", fgPath);
-        PreparedStatement insertCachedFeaturesStmt = connection.prepareStatement(INSERT_CACHED_FG_DESC);
         FeaturegroupXAttrV2.FullDTO xattr = baseCachedFGXAttr(allFSResultSet, allFSCachedFGResultSet);
-        List<FeaturegroupXAttrV2.SimpleFeatureDTO> features =
-          getCachedFeaturesMigrate(allFSCachedFGResultSet, insertCachedFeaturesStmt);
+        List<FeaturegroupXAttrV2.SimpleFeatureDTO> features = getCachedFeaturesMigrate(allFSCachedFGResultSet);
   
         dryRunMigrateXAttr(fgPath, xattr, features);
-        try {
-          LOGGER.info("cached feature desc:{}", insertCachedFeaturesStmt.toString());
-        } finally {
-          insertCachedFeaturesStmt.close();
-        }
       }
     };
   }
   
   private CheckedBiConsumer<ResultSet, ResultSet, Exception> dryRunOnDemandFG() {
     return (ResultSet allFSResultSet, ResultSet allFSOnDemandFGResultSet) -> {
-      String fgPath = getOnDemandFGPath(allFSResultSet, allFSOnDemandFGResultSet);
+      String fgPath = getOnDemandFGPath(allFSOnDemandFGResultSet);
       LOGGER.info("on demand featuregroup:{}", fgPath);
       FeaturegroupXAttrV2.FullDTO xattr = baseOnDemandFGXAttr(allFSResultSet, allFSOnDemandFGResultSet);
       List<FeaturegroupXAttrV2.SimpleFeatureDTO> features = getOnDemandFeaturesMigrate(allFSOnDemandFGResultSet);
@@ -345,29 +340,22 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
   
   private CheckedBiConsumer<ResultSet, ResultSet, Exception> migrateCachedFG() {
     return (ResultSet allFSResultSet, ResultSet allFSCachedFGResultSet) -> {
-      String fgPath = getCachedFGPath(allFSResultSet, allFSCachedFGResultSet);
+      String fgPath = getCachedFGPath(allFSCachedFGResultSet);
       if(fgPath == null) {
         LOGGER.error("faulty cached featuregroup:{}", fgPath);
       } else {
-        PreparedStatement insertCachedFeaturesStmt = connection.prepareStatement(INSERT_CACHED_FG_DESC);
         LOGGER.info("cached featuregroup:{}", fgPath);
         FeaturegroupXAttrV2.FullDTO xattr = baseCachedFGXAttr(allFSResultSet, allFSCachedFGResultSet);
-        List<FeaturegroupXAttrV2.SimpleFeatureDTO> features =
-          getCachedFeaturesMigrate(allFSCachedFGResultSet, insertCachedFeaturesStmt);
+        List<FeaturegroupXAttrV2.SimpleFeatureDTO> features = getCachedFeaturesMigrate(allFSCachedFGResultSet);
         xattr.setFeatures(features);
         migrateXAttr(fgPath, xattr);
-        try {
-          insertCachedFeaturesStmt.executeBatch();
-        } finally {
-          insertCachedFeaturesStmt.close();
-        }
       }
     };
   }
   
   private CheckedBiConsumer<ResultSet, ResultSet, Exception> migrateOnDemandFG() {
     return (ResultSet allFSResultSet, ResultSet allFSOnDemandFGResultSet) -> {
-      String fgPath = getOnDemandFGPath(allFSResultSet, allFSOnDemandFGResultSet);
+      String fgPath = getOnDemandFGPath(allFSOnDemandFGResultSet);
       LOGGER.info("on demand featuregroup:{}", fgPath);
       FeaturegroupXAttrV2.FullDTO xattr = baseOnDemandFGXAttr(allFSResultSet, allFSOnDemandFGResultSet);
       List<FeaturegroupXAttrV2.SimpleFeatureDTO> features = getOnDemandFeaturesMigrate(allFSOnDemandFGResultSet);
@@ -378,7 +366,7 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
   
   public CheckedBiConsumer<ResultSet, ResultSet, Exception> rollbackCachedFG() {
     return (ResultSet allFSResultSet, ResultSet allFSCachedFGResultSet) -> {
-      String fgPath = getCachedFGPath(allFSResultSet, allFSCachedFGResultSet);
+      String fgPath = getCachedFGPath(allFSCachedFGResultSet);
       if(fgPath != null) {
         LOGGER.info("cached featuregroup:{}", fgPath);
         FeaturegroupXAttr.FullDTO xattr = readRollbackXAttr(fgPath);
@@ -389,7 +377,7 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
   
   private CheckedBiConsumer<ResultSet, ResultSet, Exception> rollbackOnDemandFG() {
     return (ResultSet allFSResultSet, ResultSet allFSOnDemandFGResultSet) -> {
-      String fgPath = getOnDemandFGPath(allFSResultSet, allFSOnDemandFGResultSet);
+      String fgPath = getOnDemandFGPath(allFSOnDemandFGResultSet);
       LOGGER.info("on demand featuregroup:{}", fgPath);
       FeaturegroupXAttr.FullDTO xattr = readRollbackXAttr(fgPath);
       rollbackXAttr(fgPath, xattr);
@@ -414,8 +402,7 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
     }
   }
   
-  private String getCachedFGPath(ResultSet allFSResultSet, ResultSet allFSCachedFGResultSet) throws SQLException {
-    String projectName = getProjectName(allFSResultSet);
+  private String getCachedFGPath(ResultSet allFSCachedFGResultSet) throws SQLException {
     String featuregroupName = allFSCachedFGResultSet.getString(GET_HIVE_MANAGED_FEATUREGROUPS_S_NAME);
     int featuregroupVersion = allFSCachedFGResultSet.getInt(GET_HIVE_MANAGED_FEATUREGROUPS_S_VERSION);
     String featuregroupLocation = allFSCachedFGResultSet.getString(GET_HIVE_MANAGED_FEATUREGROUPS_S_LOCATION);
@@ -427,9 +414,7 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
     return featuregroupPath;
   }
   
-  private String getOnDemandFGPath(ResultSet allFSResultSet, ResultSet allFSOnDemandFGResultSet)
-    throws SQLException {
-    String projectName = getProjectName(allFSResultSet);
+  private String getOnDemandFGPath(ResultSet allFSOnDemandFGResultSet) throws SQLException {
     String featuregroupName = allFSOnDemandFGResultSet.getString(GET_ALL_ON_DEMAND_FGS_S_NAME);
     int featuregroupVersion = allFSOnDemandFGResultSet.getInt(GET_ALL_ON_DEMAND_FGS_S_VERSION);
     String featuregroupPath = getFeaturegroupPath(projectName, featuregroupName, featuregroupVersion);
@@ -521,19 +506,6 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
     stmt.setInt(GET_USER_W_ID, userId);
     return stmt;
   }
-  private PreparedStatement getFGDescriptionStmt(ResultSet allFSFeaturegroupsResultSet) throws SQLException {
-    PreparedStatement stmt = connection.prepareStatement(GET_FG_DESCRIPTION);
-    stmt.setInt(GET_FG_DESCRIPTION_W_TBL_ID,
-      allFSFeaturegroupsResultSet.getInt(GET_HIVE_MANAGED_FEATUREGROUPS_S_TBL_ID));
-    stmt.setString(GET_FG_DESCRIPTION_W_PARAM, "comment");
-    return stmt;
-  }
-  private PreparedStatement getCachedFGFeaturesStmt(String sql, ResultSet allFSFeaturegroupsResultSet)
-    throws SQLException {
-    PreparedStatement stmt = connection.prepareStatement(sql);
-    stmt.setInt(GET_FG_FEATURES_W_TBL_ID, allFSFeaturegroupsResultSet.getInt(GET_HIVE_MANAGED_FEATUREGROUPS_S_TBL_ID));
-    return stmt;
-  }
   private PreparedStatement getOnDemandFGFeaturesStmt(int fgId) throws SQLException {
     PreparedStatement stmt = connection.prepareStatement(GET_ON_DEMAND_FG_FEATURES);
     stmt.setInt(GET_ON_DEMAND_FG_FEATURES_W_ID, fgId);
@@ -545,12 +517,18 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
     return stmt;
   }
   private String getCreator(int userId) throws SQLException {
+    String creator = creators.get(userId);
+    if (creator != null) {
+      return creator;
+    }
     PreparedStatement fgUserStmt = null;
     try {
       fgUserStmt = getFGUserStmt(userId);
       ResultSet fgUserResultSet = fgUserStmt.executeQuery();
       if (fgUserResultSet.next()) {
-        return fgUserResultSet.getString(GET_USER_S_EMAIL);
+        creator = fgUserResultSet.getString(GET_USER_S_EMAIL);
+        creators.put(userId, creator);
+        return creator;
       } else {
         throw new IllegalStateException("featuregroup creator not found");
       }
@@ -562,61 +540,35 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
   }
   
   private String getDescription(ResultSet allFSFeaturegroupsResultSet) throws SQLException {
-    PreparedStatement fgDescriptionStmt = null;
-    try {
-      fgDescriptionStmt = getFGDescriptionStmt(allFSFeaturegroupsResultSet);
-      ResultSet fgDescriptionResultSet = fgDescriptionStmt.executeQuery();
-      if (fgDescriptionResultSet.next()) {
-        return fgDescriptionResultSet.getString(GET_FG_DESCRIPTION_S_DESCRIPTION);
-      } else {
-        throw new IllegalStateException("featuregroup description not found");
-      }
-    } finally {
-      if(fgDescriptionStmt != null) {
-        fgDescriptionStmt.close();
-      }
-    }
+    return metastore.getDescription(allFSFeaturegroupsResultSet.getLong(GET_HIVE_MANAGED_FEATUREGROUPS_S_TBL_ID));
   }
   
-  private List<FeaturegroupXAttrV2.SimpleFeatureDTO> getCachedFeaturesMigrate(ResultSet allFSCachedFGResultSet,
-                                                                              PreparedStatement insertCachedFStmt)
+  private List<FeaturegroupXAttrV2.SimpleFeatureDTO> getCachedFeaturesMigrate(ResultSet allFSCachedFGResultSet)
       throws SQLException {
+    long tblId = allFSCachedFGResultSet.getLong(GET_HIVE_MANAGED_FEATUREGROUPS_S_TBL_ID);
+    int fgId = allFSCachedFGResultSet.getInt(GET_HIVE_MANAGED_FEATUREGROUPS_S_ID);
     List<FeaturegroupXAttrV2.SimpleFeatureDTO> features = new LinkedList<>();
     // regular features
-    features.addAll(getCachedFeaturesMigrate(GET_FG_FEATURES, allFSCachedFGResultSet, insertCachedFStmt));
+    features.addAll(getCachedFeaturesMigrate(metastore.getColumns(tblId), fgId));
     // features used as partition keys
-    features.addAll(getCachedFeaturesMigrate(GET_FG_PARTITION_FEATURES, allFSCachedFGResultSet, insertCachedFStmt));
+    features.addAll(getCachedFeaturesMigrate(metastore.getPartitionKeys(tblId), fgId));
     // filter hudi columns
     return features.stream()
       .filter(feature -> !HUDI_SPEC_FEATURE_NAMES.contains(feature.getName())).collect(Collectors.toList());
   }
 
-  private List<FeaturegroupXAttrV2.SimpleFeatureDTO> getCachedFeaturesMigrate(String sql,
-                                                                              ResultSet allFSCachedFResultSet,
-                                                                              PreparedStatement insertCachedFStmt)
-      throws SQLException {
-    PreparedStatement fgFeaturesStmt = null;
-    try {
-      fgFeaturesStmt = getCachedFGFeaturesStmt(sql, allFSCachedFResultSet);
-      ResultSet fgFeaturesResultSet = fgFeaturesStmt.executeQuery();
-      List<FeaturegroupXAttrV2.SimpleFeatureDTO> features = new LinkedList<>();
-      // regular features
-      while (fgFeaturesResultSet.next()) {
-        int fgId =  allFSCachedFResultSet.getInt(GET_HIVE_MANAGED_FEATUREGROUPS_S_ID);
-        String featureName = fgFeaturesResultSet.getString(GET_FG_FEATURES_S_NAME);
-        String featureDesc = fgFeaturesResultSet.getString(GET_FG_FEATURES_S_COMMENT);
-        if(featureDesc == null) {
-          featureDesc = "";
-        }
-        features.add(new FeaturegroupXAttrV2.SimpleFeatureDTO(featureName, featureDesc));
-        insertCachedFeature(insertCachedFStmt, fgId, featureName, featureDesc);
-      }
-      return features;
-    } finally {
-      if(fgFeaturesStmt != null) {
-        fgFeaturesStmt.close();
+  private List<FeaturegroupXAttrV2.SimpleFeatureDTO> getCachedFeaturesMigrate(
+    List<FeaturegroupMetastore.Column> columns, int fgId) throws SQLException {
+    List<FeaturegroupXAttrV2.SimpleFeatureDTO> features = new LinkedList<>();
+    for (FeaturegroupMetastore.Column column : columns) {
+      String featureDesc = column.getComment();
+      if(featureDesc == null) {
+        featureDesc = "";
       }
+      features.add(new FeaturegroupXAttrV2.SimpleFeatureDTO(column.getName(), featureDesc));
+      insertCachedFeature(fgId, column.getName(), featureDesc);
     }
+    return features;
   }
   
   private List<FeaturegroupXAttrV2.SimpleFeatureDTO> getOnDemandFeaturesMigrate(ResultSet allFSOnDemandFGResultSet)
@@ -644,12 +596,31 @@ public class UpdateFeatureGroupFeatureDescription implements MigrateStep {
     }
   }
   
-  public void insertCachedFeature(PreparedStatement insertCachedFeaturesStmt, int id, String name, String desc)
-    throws SQLException {
+  public void insertCachedFeature(int id, String name, String desc) throws SQLException {
     insertCachedFeaturesStmt.setInt(INSERT_CACHED_FG_DESC_W_FG_ID, id);
     insertCachedFeaturesStmt.setString(INSERT_CACHED_FG_DESC_W_NAME, name);
     insertCachedFeaturesStmt.setString(INSERT_CACHED_FG_DESC_W_DESC, desc);
+    if (dryrun) {
+      LOGGER.debug("cached feature desc:{}", insertCachedFeaturesStmt);
+    }
     insertCachedFeaturesStmt.addBatch();
+    pendingCachedFeatures++;
+    if (pendingCachedFeatures >= batchSize) {
+      flushCachedFeatures();
+    }
+  }
+  
+  private void flushCachedFeatures() throws SQLException {
+    if (pendingCachedFeatures == 0) {
+      return;
+    }
+    if (dryrun) {
+      LOGGER.info("cached feature desc - insert {} features", pendingCachedFeatures);
+      insertCachedFeaturesStmt.clearBatch();
+    } else {
+      insertCachedFeaturesStmt.executeBatch();
+    }
+    pendingCachedFeatures = 0;
   }
   
   private String getProjectName(ResultSet allFeaturestoreResultSet) throws SQLException {
@@ -1,6 +1,5 @@
 package io.hops.hopsworks.expat.migrations.featurestore.featureview;
 
-import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -9,7 +8,10 @@ import io.hops.hopsworks.common.featurestore.xattr.dto.FeaturegroupXAttr;
 import io.hops.hopsworks.common.featurestore.xattr.dto.FeaturestoreXAttrsConstants;
 import io.hops.hopsworks.common.provenance.core.dto.ProvCoreDTO;
 import io.hops.hopsworks.common.provenance.core.dto.ProvTypeDTO;
+import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.dao.hdfs.inode.ExpatHdfsInode;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
+import io.hops.hopsworks.expat.executor.TaskBatch;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
 import io.hops.hopsworks.expat.migrations.projects.util.XAttrException;
@@ -28,16 +30,13 @@ import java.io.StringWriter;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.Callable;
 
 public class CreateFeatureViewFromTrainingDataset extends FeatureStoreMigration {
 
@@ -54,28 +53,41 @@ public class CreateFeatureViewFromTrainingDataset extends FeatureStoreMigration
           "FROM feature_view AS fv " +
           "INNER JOIN feature_store AS fs ON fv.feature_store_id = fs.id " +
           "INNER JOIN project AS p ON fs.project_id = p.id";
+  private final static String GET_FEATURE_GROUPS = "SELECT id, name, version FROM feature_group";
   private final static String GET_FEATURES =
-      "SELECT fg.name AS fg_name, fg.version AS fg_version, tdf.name AS name " +
+      "SELECT tdf.training_dataset, tdf.feature_group, tdf.name " +
           "FROM training_dataset_feature AS tdf " +
-          "INNER JOIN feature_group AS fg ON tdf.feature_group = fg.id " +
-          "WHERE %s";
+          "INNER JOIN training_dataset AS td ON tdf.training_dataset = td.id " +
+          "WHERE td.feature_view_id is null AND tdf.feature_group is not null";
 
-  private final static String GET_ARRAY_FROM_TD = "SELECT a.id FROM %s AS a WHERE a.training_dataset = %s";
-  private final static String SET_FEATURE_VIEW = "UPDATE %s SET feature_view_id = ? WHERE %s = ?";
+  // feature views are matched to their training dataset by the unique (feature_store_id, name, version)
+  private final static String FEATURE_VIEW_OF_TD =
+      "INNER JOIN feature_view AS fv ON fv.feature_store_id = td.feature_store_id " +
+          "AND fv.name = td.name AND fv.version = td.version ";
+  private final static String SET_FEATURE_VIEW =
+      "UPDATE %s AS a INNER JOIN training_dataset AS td ON a.%s = td.id " + FEATURE_VIEW_OF_TD +
+          "SET a.feature_view_id = fv.id WHERE td.id IN (%s)";
+  private final static String SET_TD_FEATURE_VIEW =
+      "UPDATE training_dataset AS td " + FEATURE_VIEW_OF_TD +
+          "SET td.feature_view_id = fv.id WHERE td.id IN (%s)";
   private final static String REMOVE_FEATURE_VIEW_FROM_TABLES = "UPDATE %s SET %s = null WHERE %s = ?";
   private final static String DELETE_FEATURE_VIEW = "DELETE FROM feature_view WHERE id = ?";
 
-  private final static String INSERT_FEATURE_VIEW =
+  private final static String INSERT_FEATURE_VIEWS =
       "INSERT INTO feature_view(" +
           // 1-5
           "`name`, `feature_store_id`, `created`, `creator`, `version`, " +
           // 6-10
           "`description`, `inode_pid`, `inode_name`, `partition_id`" +
           ") " +
-          "VALUE(" +
+          "VALUES";
+  private final static String FEATURE_VIEW_VALUES =
+      "(" +
           "?, ?, ?, ?, ?, " +
           "?, ?, ?, ?" +
           ")";
+  private final static int FEATURE_VIEW_PARAMS = 9;
+  private final static int MAX_XATTR_SIZE = 13500;
   private JAXBContext jaxbContext;
 
   public CreateFeatureViewFromTrainingDataset() throws JAXBException {
@@ -83,6 +95,11 @@ public class CreateFeatureViewFromTrainingDataset extends FeatureStoreMigration
     jaxbContext = jaxbContextMigrate();
   }
 
+  /**
+   * Feature views are created in chunks of batch size training datasets: one multi-row insert for the feature views
+   * and one UPDATE ... JOIN per dependent table, committed together. The xattrs of a chunk are written by the
+   * workers while the next chunk is inserted.
+   */
   public void runMigration() throws MigrationException {
     // 1. Get all td
     // 2. Create fv from td
@@ -90,64 +107,45 @@ public class CreateFeatureViewFromTrainingDataset extends FeatureStoreMigration
     // 4. set xattr
     // 5. add fv to td, td feature, td join, td filter
     try {
+      int batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
       connection.setAutoCommit(false);
-      PreparedStatement getTrainingDatasetsStatement = connection.prepareStatement(GET_ALL_TRAINING_DATASETS);
-      PreparedStatement insertFeatureViewStatement =
-          connection.prepareStatement(INSERT_FEATURE_VIEW, Statement.RETURN_GENERATED_KEYS);
-      ResultSet trainingDatasets = getTrainingDatasetsStatement.executeQuery();
-      Integer n = 0;
-      while (trainingDatasets.next()) {
-        n += 1;
-        String name = trainingDatasets.getString("name");
-        Integer featurestoreId = trainingDatasets.getInt("feature_store_id");
-        Timestamp created = trainingDatasets.getTimestamp("created");
-        Integer creator = trainingDatasets.getInt("creator");
-        Integer version = trainingDatasets.getInt("version");
-        String description = trainingDatasets.getString("description");
-
-        Integer trainingDatasetId = trainingDatasets.getInt("id");
-        String projectName = trainingDatasets.getString("projectname");
-        String userName = trainingDatasets.getString("username");
-        String email = trainingDatasets.getString("email");
-
-        Integer[] features = getArray("training_dataset_feature", trainingDatasetId);
-
-        insertFeatureViewStatement.setString(1, name);
-        insertFeatureViewStatement.setInt(2, featurestoreId);
-        insertFeatureViewStatement.setTimestamp(3, created);
-        insertFeatureViewStatement.setInt(4, creator);
-        insertFeatureViewStatement.setInt(5, version);
-        insertFeatureViewStatement.setString(6, description);
-        // inode
-        setInode(insertFeatureViewStatement, projectName, userName, name, version);
-        if (!dryRun) {
-          int affectedRows = insertFeatureViewStatement.executeUpdate();
-          // need to commit here, otherwise tables are locked.
-          connection.commit();
-          if (affectedRows != 1) {
-            throw new MigrationException("Creating feature view failed, no rows affected.");
-          } else {
-            ResultSet generatedKeys = insertFeatureViewStatement.getGeneratedKeys();
-            if (generatedKeys.next()) {
-              Integer fvId = generatedKeys.getInt(1);
-              setFeatureView("training_dataset_feature", "training_dataset", trainingDatasetId, fvId);
-              setFeatureView("training_dataset_filter", "training_dataset_id", trainingDatasetId, fvId);
-              setFeatureView("training_dataset_join", "training_dataset", trainingDatasetId, fvId);
-              setFeatureView("training_dataset", "id", trainingDatasetId, fvId);
-              connection.commit();
-              setXAttr(featurestoreId, getFeatureViewFullPath(projectName, name, version).toString(),
-                  description, created, email, features);
-            } else {
-              throw new MigrationException("Creating feature view failed, no ID obtained.");
-            }
+      List<TrainingDataset> trainingDatasets = getTrainingDatasets();
+      Map<Integer, List<FeaturegroupXAttr.SimplifiedDTO>> features = getFeatures(trainingDatasets);
+      TaskBatch.Report<Integer, Void> report;
+      try (TaskBatch<Integer, Void> xattrBatch = new TaskBatch<>("Set feature view xattrs",
+          ExecutorFactory.workerThreads())) {
+        for (int from = 0; from < trainingDatasets.size(); from += batchSize) {
+          List<TrainingDataset> chunk =
+              trainingDatasets.subList(from, Math.min(from + batchSize, trainingDatasets.size()));
+          if (dryRun) {
+            LOGGER.info(chunk.size() + " feature views will be created.");
+            continue;
+          }
+          createFeatureViews(chunk);
+          for (final TrainingDataset td : chunk) {
+            final List<FeaturegroupXAttr.SimplifiedDTO> tdFeatures = features.containsKey(td.id)
+                ? features.get(td.id) : Lists.<FeaturegroupXAttr.SimplifiedDTO>newArrayList();
+            xattrBatch.submit(td.id, new Callable<Void>() {
+              @Override
+              public Void call() throws MigrationException {
+                setXAttr(td, tdFeatures);
+                return null;
+              }
+            });
           }
         }
+        report = xattrBatch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new MigrationException("Interrupted while setting feature view xattrs", e);
+      }
+      if (!report.getFailures().isEmpty()) {
+        throw new MigrationException("Failed to set the xattr of " + report.getFailures().size()
+            + " feature views", report.getFailures().values().iterator().next());
       }
-      insertFeatureViewStatement.close();
-      getTrainingDatasetsStatement.close();
       connection.commit();
       connection.setAutoCommit(true);
-      LOGGER.info(n + " training dataset records have been updated.");
+      LOGGER.info(trainingDatasets.size() + " training dataset records have been updated.");
     } catch (SQLException e) {
       throw new MigrationException("Migration failed. Cannot commit.", e);
     } finally {
@@ -155,6 +153,107 @@ public class CreateFeatureViewFromTrainingDataset extends FeatureStoreMigration
     }
   }
 
+  private List<TrainingDataset> getTrainingDatasets() throws SQLException {
+    List<TrainingDataset> trainingDatasets = new ArrayList<>();
+    try (PreparedStatement getTrainingDatasetsStatement = connection.prepareStatement(GET_ALL_TRAINING_DATASETS);
+         ResultSet resultSet = getTrainingDatasetsStatement.executeQuery()) {
+      while (resultSet.next()) {
+        trainingDatasets.add(new TrainingDataset(resultSet));
+      }
+    }
+    return trainingDatasets;
+  }
+
+  /**
+   * @return the features of the training datasets grouped by feature group, by training dataset id
+   */
+  private Map<Integer, List<FeaturegroupXAttr.SimplifiedDTO>> getFeatures(List<TrainingDataset> trainingDatasets)
+      throws SQLException {
+    Map<Integer, Integer> featurestoreIds = new HashMap<>();
+    for (TrainingDataset td : trainingDatasets) {
+      featurestoreIds.put(td.id, td.featurestoreId);
+    }
+    Map<Integer, String> fgNames = new HashMap<>();
+    Map<Integer, Integer> fgVersions = new HashMap<>();
+    try (PreparedStatement getFeatureGroupsStatement = connection.prepareStatement(GET_FEATURE_GROUPS);
+         ResultSet featureGroups = getFeatureGroupsStatement.executeQuery()) {
+      while (featureGroups.next()) {
+        fgNames.put(featureGroups.getInt("id"), featureGroups.getString("name"));
+        fgVersions.put(featureGroups.getInt("id"), featureGroups.getInt("version"));
+      }
+    }
+
+    Map<Integer, Map<String, FeaturegroupXAttr.SimplifiedDTO>> featureDtos = new HashMap<>();
+    try (PreparedStatement getFeaturesStatement = connection.prepareStatement(GET_FEATURES);
+         ResultSet features = getFeaturesStatement.executeQuery()) {
+      while (features.next()) {
+        Integer trainingDatasetId = features.getInt("training_dataset");
+        Integer featurestoreId = featurestoreIds.get(trainingDatasetId);
+        String featureGroupName = fgNames.get(features.getInt("feature_group"));
+        Integer featureGroupVersion = fgVersions.get(features.getInt("feature_group"));
+        if (featurestoreId == null || featureGroupName == null) {
+          continue;
+        }
+        Map<String, FeaturegroupXAttr.SimplifiedDTO> tdFeatureDtos = featureDtos.get(trainingDatasetId);
+        if (tdFeatureDtos == null) {
+          tdFeatureDtos = Maps.newHashMap();
+          featureDtos.put(trainingDatasetId, tdFeatureDtos);
+        }
+        String key = featurestoreId + featureGroupName + featureGroupVersion;
+        FeaturegroupXAttr.SimplifiedDTO featureDto = tdFeatureDtos.get(key);
+        if (featureDto == null) {
+          featureDto = new FeaturegroupXAttr.SimplifiedDTO(featurestoreId, featureGroupName, featureGroupVersion);
+          featureDto.setFeatures(Lists.newArrayList());
+          tdFeatureDtos.put(key, featureDto);
+        }
+        featureDto.getFeatures().add(features.getString("name"));
+      }
+    }
+
+    Map<Integer, List<FeaturegroupXAttr.SimplifiedDTO>> tdFeatures = new HashMap<>();
+    for (Map.Entry<Integer, Map<String, FeaturegroupXAttr.SimplifiedDTO>> td : featureDtos.entrySet()) {
+      tdFeatures.put(td.getKey(), new ArrayList<>(td.getValue().values()));
+    }
+    return tdFeatures;
+  }
+
+  private void createFeatureViews(List<TrainingDataset> trainingDatasets) throws SQLException, MigrationException {
+    StringBuilder sql = new StringBuilder(INSERT_FEATURE_VIEWS);
+    StringBuilder tdIds = new StringBuilder();
+    for (int i = 0; i < trainingDatasets.size(); i++) {
+      sql.append(i == 0 ? " " : ", ").append(FEATURE_VIEW_VALUES);
+      tdIds.append(i == 0 ? "?" : ", ?");
+    }
+    try (PreparedStatement insertFeatureViewStatement = connection.prepareStatement(sql.toString())) {
+      int offset = 0;
+      for (TrainingDataset td : trainingDatasets) {
+        insertFeatureViewStatement.setString(offset + 1, td.name);
+        insertFeatureViewStatement.setInt(offset + 2, td.featurestoreId);
+        insertFeatureViewStatement.setTimestamp(offset + 3, td.created);
+        insertFeatureViewStatement.setInt(offset + 4, td.creator);
+        insertFeatureViewStatement.setInt(offset + 5, td.version);
+        insertFeatureViewStatement.setString(offset + 6, td.description);
+        // inode
+        setInode(insertFeatureViewStatement, offset, td.projectName, td.userName, td.name, td.version);
+        offset += FEATURE_VIEW_PARAMS;
+      }
+      int affectedRows = insertFeatureViewStatement.executeUpdate();
+      if (affectedRows != trainingDatasets.size()) {
+        throw new MigrationException("Creating feature views failed, " + affectedRows + " of "
+            + trainingDatasets.size() + " rows affected.");
+      }
+    }
+    setFeatureView(String.format(SET_FEATURE_VIEW, "training_dataset_feature", "training_dataset", tdIds),
+        trainingDatasets);
+    setFeatureView(String.format(SET_FEATURE_VIEW, "training_dataset_filter", "training_dataset_id", tdIds),
+        trainingDatasets);
+    setFeatureView(String.format(SET_FEATURE_VIEW, "training_dataset_join", "training_dataset", tdIds),
+        trainingDatasets);
+    setFeatureView(String.format(SET_TD_FEATURE_VIEW, tdIds), trainingDatasets);
+    // need to commit here, otherwise tables are locked.
+    connection.commit();
+  }
+
   public void runRollback() throws RollbackException {
     // 1. remove fv from td, td feature, td join, td filter
     // 2. remove file and inode
@@ -236,77 +335,36 @@ public class CreateFeatureViewFromTrainingDataset extends FeatureStoreMigration
     }
   }
 
-  private void setXAttr(Integer featurestoreId, String featureViewFullPath, String description,
-      Date createDate, String email, Integer[] features)
+  private void setXAttr(TrainingDataset td, List<FeaturegroupXAttr.SimplifiedDTO> features)
       throws MigrationException {
     try {
-      FeatureViewXAttrDTO fv = new FeatureViewXAttrDTO(featurestoreId,
-          description,
-          createDate,
-          email,
-          makeFeatures(featurestoreId, features));
+      FeatureViewXAttrDTO fv = new FeatureViewXAttrDTO(td.featurestoreId,
+          td.description,
+          td.created,
+          td.email,
+          features);
       Marshaller marshaller = jaxbContext.createMarshaller();
       StringWriter sw = new StringWriter();
       marshaller.marshal(fv, sw);
       byte[] val = sw.toString().getBytes();
-      if (val.length > 13500) {
+      if (val.length > MAX_XATTR_SIZE) {
         LOGGER.warn("xattr too large - skipping attaching features to featuregroup.");
         sw = new StringWriter();
-        FeatureViewXAttrDTO fvWithoutFeatures = new FeatureViewXAttrDTO(featurestoreId,
-            description,
-            createDate,
-            email,
+        FeatureViewXAttrDTO fvWithoutFeatures = new FeatureViewXAttrDTO(td.featurestoreId,
+            td.description,
+            td.created,
+            td.email,
             Lists.newArrayList());
         marshaller.marshal(fvWithoutFeatures, sw);
         val = sw.toString().getBytes();
       }
-      if (!dryRun) {
-        XAttrHelper.upsertProvXAttr(dfso, featureViewFullPath,
-            FeaturestoreXAttrsConstants.FEATURESTORE, val);
-      }
+      XAttrHelper.upsertProvXAttr(dfso, getFeatureViewFullPath(td.projectName, td.name, td.version).toString(),
+          FeaturestoreXAttrsConstants.FEATURESTORE, val);
     } catch (JAXBException | XAttrException e) {
       throw new MigrationException("Cannot set attribute.", e);
     }
   }
 
-  private String getFeaturesSql(Integer[] featureIds) {
-    return String.format(GET_FEATURES,
-        Joiner.on(" OR ").join(
-            Stream.of(featureIds).map(feature -> "`tdf`.`id` = " + feature).collect(Collectors.toList())));
-  }
-
-  private List<FeaturegroupXAttr.SimplifiedDTO> makeFeatures(Integer featurestoreId, Integer[] featureIds)
-      throws MigrationException {
-    String getFeaturesSql = getFeaturesSql(featureIds);
-    try {
-      PreparedStatement getFeaturesStatement = connection.prepareStatement(getFeaturesSql);
-      ResultSet features = getFeaturesStatement.executeQuery();
-      Map<String, FeaturegroupXAttr.SimplifiedDTO> featureDtos = Maps.newHashMap();
-
-      while (features.next()) {
-        String featureGroupName = features.getString("fg_name");
-        Integer featureGroupVersion = features.getInt("fg_version");
-        String featureName = features.getString("name");
-        String key = featurestoreId + featureGroupName + featureGroupVersion;
-        if (featureDtos.containsKey(key)) {
-          featureDtos.get(key).getFeatures().add(featureName);
-        } else {
-          featureDtos.put(key,
-              new FeaturegroupXAttr.SimplifiedDTO(
-                  featurestoreId,
-                  featureGroupName,
-                  featureGroupVersion
-              ));
-          featureDtos.get(key).setFeatures(Lists.newArrayList(featureName));
-        }
-      }
-      getFeaturesStatement.close();
-      return new ArrayList<>(featureDtos.values());
-    } catch (SQLException e) {
-      throw new MigrationException("Failed to make featureDTOs.", e);
-    }
-  }
-
   private JAXBContext jaxbContextMigrate() throws JAXBException {
     Map<String, Object> properties = new HashMap<>();
     properties.put(MarshallerProperties.JSON_INCLUDE_ROOT, false);
@@ -322,8 +380,8 @@ public class CreateFeatureViewFromTrainingDataset extends FeatureStoreMigration
     return context;
   }
 
-  private void setInode(PreparedStatement insertFeatureViewStatement, String projectName, String userName,
-      String featureViewName, Integer featureViewVersion)
+  private void setInode(PreparedStatement insertFeatureViewStatement, int offset, String projectName,
+      String userName, String featureViewName, Integer featureViewVersion)
       throws SQLException, MigrationException {
     String owner = projectName + "__" + userName;
     String group = projectName + "__" + projectName + "_Training_Datasets";
@@ -337,9 +395,9 @@ public class CreateFeatureViewFromTrainingDataset extends FeatureStoreMigration
           dfso.setOwner(fvPathHdfs, owner, group);
         }
         ExpatHdfsInode inode = inodeController.getInodeAtPath(fvPath.toString());
-        insertFeatureViewStatement.setLong(7, inode.getParentId());
-        insertFeatureViewStatement.setString(8, inode.getName());
-        insertFeatureViewStatement.setLong(9, inode.getPartitionId());
+        insertFeatureViewStatement.setLong(offset + 7, inode.getParentId());
+        insertFeatureViewStatement.setString(offset + 8, inode.getName());
+        insertFeatureViewStatement.setLong(offset + 9, inode.getPartitionId());
       }
     } catch (IOException e) {
       throw new MigrationException("HDFS operation failed.", e);
@@ -356,33 +414,40 @@ public class CreateFeatureViewFromTrainingDataset extends FeatureStoreMigration
         featureViewName + "_" + featureViewVersion);
   }
 
-  private void setFeatureView(String tableName, String idField, Integer trainingDatasetId, Integer featureViewId)
-      throws MigrationException {
-    String sql = String.format(SET_FEATURE_VIEW, tableName, idField);
-    try {
-      PreparedStatement setFeatureViewStatement = connection.prepareStatement(sql);
-      setFeatureViewStatement.setInt(1, featureViewId);
-      setFeatureViewStatement.setInt(2, trainingDatasetId);
+  private void setFeatureView(String sql, List<TrainingDataset> trainingDatasets) throws MigrationException {
+    try (PreparedStatement setFeatureViewStatement = connection.prepareStatement(sql)) {
+      for (int i = 0; i < trainingDatasets.size(); i++) {
+        setFeatureViewStatement.setInt(i + 1, trainingDatasets.get(i).id);
+      }
       setFeatureViewStatement.execute();
-      setFeatureViewStatement.close();
     } catch (SQLException e) {
-      throw new MigrationException("Failed to make featureDTOs.", e);
+      throw new MigrationException("Failed to set feature view.", e);
     }
   }
 
-  private Integer[] getArray(String tableName, Integer trainingDatasetId) throws MigrationException {
-    String sql = String.format(GET_ARRAY_FROM_TD, tableName, trainingDatasetId);
-    try {
-      PreparedStatement getFeaturesStatement = connection.prepareStatement(sql);
-      ResultSet results = getFeaturesStatement.executeQuery();
-      List<Integer> ids = Lists.newArrayList();
-      while (results.next()) {
-        ids.add(results.getInt("id"));
-      }
-      getFeaturesStatement.close();
-      return ids.toArray(new Integer[0]);
-    } catch (SQLException e) {
-      throw new MigrationException("Failed to make featureDTOs.", e);
+  private static final class TrainingDataset {
+    private final Integer id;
+    private final Integer featurestoreId;
+    private final String name;
+    private final Integer version;
+    private final Timestamp created;
+    private final Integer creator;
+    private final String description;
+    private final String projectName;
+    private final String userName;
+    private final String email;
+
+    private TrainingDataset(ResultSet resultSet) throws SQLException {
+      this.id = resultSet.getInt("id");
+      this.featurestoreId = resultSet.getInt("feature_store_id");
+      this.name = resultSet.getString("name");
+      this.version = resultSet.getInt("version");
+      this.created = resultSet.getTimestamp("created");
+      this.creator = resultSet.getInt("creator");
+      this.description = resultSet.getString("description");
+      this.projectName = resultSet.getString("projectname");
+      this.userName = resultSet.getString("username");
+      this.email = resultSet.getString("email");
     }
   }
 }
@@ -3,21 +3,29 @@ package io.hops.hopsworks.expat.migrations.featurestore.featureview;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import io.hops.hopsworks.expat.configuration.ExpatConf;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
+import io.hops.hopsworks.expat.executor.TaskBatch;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
 import io.hops.hopsworks.persistence.entity.featurestore.featuregroup.Featuregroup;
 import io.hops.hopsworks.persistence.entity.featurestore.featureview.FeatureView;
 import io.hops.hopsworks.persistence.entity.featurestore.featureview.ServingKey;
 
-import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
 public class SetServingKeys extends FeatureStoreMigration {
@@ -27,14 +35,17 @@ public class SetServingKeys extends FeatureStoreMigration {
           "FROM feature_view AS fv " +
           "INNER JOIN feature_store AS fs ON fv.feature_store_id = fs.id " +
           "INNER JOIN project AS p ON fs.project_id = p.id";
-  private final static String GET_TD_JOIN_CONDITION =
-      "SELECT right_feature, left_feature FROM training_dataset_join_condition WHERE td_join = ?";
-  private final static String GET_TD_JOIN =
-      "SELECT id, idx, feature_group, prefix FROM training_dataset_join WHERE feature_view_id = ?";
-  private final static String GET_LABEL_ONLY_FG =
-      "SELECT feature_group FROM training_dataset_feature WHERE feature_view_id = ? AND label > 0";
-  private final static String GET_PRIMARY_KEY =
-      "SELECT cf.name AS cached_feature, sf.name AS stream_feature, odf.name AS on_demand_feature"
+  private final static String GET_ALL_TD_JOIN_CONDITIONS =
+      "SELECT c.td_join, c.right_feature, c.left_feature FROM training_dataset_join_condition AS c " +
+          "INNER JOIN training_dataset_join AS j ON c.td_join = j.id WHERE j.feature_view_id IS NOT NULL";
+  private final static String GET_ALL_TD_JOINS =
+      "SELECT id, feature_view_id, idx, feature_group, prefix FROM training_dataset_join " +
+          "WHERE feature_view_id IS NOT NULL";
+  private final static String GET_ALL_LABEL_ONLY_FGS =
+      "SELECT DISTINCT feature_view_id, feature_group FROM training_dataset_feature " +
+          "WHERE feature_view_id IS NOT NULL AND label > 0";
+  private final static String GET_ALL_PRIMARY_KEYS =
+      "SELECT fg.id, cf.name AS cached_feature, sf.name AS stream_feature, odf.name AS on_demand_feature"
           + " FROM feature_group AS fg"
           + " LEFT JOIN on_demand_feature_group AS odfg ON fg.on_demand_feature_group_id = odfg.id"
           + " LEFT JOIN on_demand_feature AS odf ON odfg.id = odf.on_demand_feature_group_id"
@@ -42,73 +53,83 @@ public class SetServingKeys extends FeatureStoreMigration {
           + " LEFT JOIN cached_feature_extra_constraints AS cf ON cf.cached_feature_group_id = cfg.id"
           + " LEFT JOIN stream_feature_group AS sfg ON fg.stream_feature_group_id = sfg.id"
           + " LEFT JOIN cached_feature_extra_constraints AS sf ON sf.stream_feature_group_id = sfg.id"
-          + " WHERE fg.id = ? AND (cf.primary_column > 0 OR sf.primary_column > 0 OR odf.primary_column > 0)";
+          + " WHERE cf.primary_column > 0 OR sf.primary_column > 0 OR odf.primary_column > 0";
 
-  private final static String INSERT_SERVING_KEY =
+  private final static String INSERT_SERVING_KEYS =
       "INSERT INTO serving_key(" +
           // 1-5
           "`prefix`, `feature_name`, `join_on`, `join_index`, `feature_group_id`, " +
           // 6-10
           "`required`, `feature_view_id`" +
           ") " +
-          "VALUE(" +
+          "VALUES";
+  private final static String SERVING_KEY_VALUES =
+      "(" +
           "?, ?, ?, ?, ?, " +
           "?, ?" +
           ")";
+  private final static int SERVING_KEY_PARAMS = 7;
   private final static String GET_SERVING_KEY = "SELECT * FROM serving_key";
   private final static String DELETE_SERVING_KEY = "DELETE FROM serving_key WHERE id = ?";
 
+  // join graph of all the feature views, read only once loaded
+  private final Map<Integer, List<TrainingDatasetJoin>> tdJoins = new HashMap<>();
+  private final Map<Integer, Set<String>> primaryKeys = new HashMap<>();
+  private final Map<Integer, Set<Integer>> labelOnlyFgs = new HashMap<>();
+
+  /**
+   * The joins, join conditions, label feature groups and primary keys of all the feature views are loaded with
+   * one query each. The serving keys of the feature views are then computed in parallel from memory and inserted
+   * with multi-row inserts.
+   */
   @Override
   public void runMigration() throws MigrationException, SQLException {
+    int batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
     connection.setAutoCommit(false);
-    PreparedStatement getFeatureViewsStatement = connection.prepareStatement(GET_ALL_FEATURE_VIEWS);
-    ResultSet featureViews = getFeatureViewsStatement.executeQuery();
-    PreparedStatement insertServingKeyStatement =
-        connection.prepareStatement(INSERT_SERVING_KEY, Statement.RETURN_GENERATED_KEYS);
-    int n = 0;
-    int numServingKey = 0;
+    Map<Integer, String> featureViews = new LinkedHashMap<>();
+    try (PreparedStatement getFeatureViewsStatement = connection.prepareStatement(GET_ALL_FEATURE_VIEWS);
+         ResultSet featureViewsResultSet = getFeatureViewsStatement.executeQuery()) {
+      while (featureViewsResultSet.next()) {
+        featureViews.put(featureViewsResultSet.getInt("id"), featureViewsResultSet.getString("name"));
+      }
+    }
+    loadJoinGraph();
+
+    Map<Integer, List<ServingKey>> fvServingKeys;
+    try {
+      fvServingKeys = computeServingKeys(featureViews.keySet());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MigrationException("Interrupted while computing serving keys", e);
+    }
+
+    int n = featureViews.size();
     int failedUpdate = 0;
-    while (featureViews.next()) {
-      n += 1;
-      List<ServingKey> servingKeys = null;
-      try {
-        servingKeys = getServingKeyDTO(
-            featureViews.getInt("pid"),
-            featureViews.getInt("feature_store_id"),
-            featureViews.getInt("id")
-        );
-        if (servingKeys.size() == 0) {
-          LOGGER.warn(String.format("No serving keys will be added to fv `%s`.", featureViews.getString("name")));
-          failedUpdate++;
-          continue;
-        }
-      } catch (IOException e) {
-        throw new MigrationException("Cannot get serving key from Hopsworks API.");
+    List<ServingKey> servingKeys = Lists.newArrayList();
+    for (Map.Entry<Integer, String> featureView : featureViews.entrySet()) {
+      List<ServingKey> fvKeys = fvServingKeys.get(featureView.getKey());
+      if (fvKeys.size() == 0) {
+        LOGGER.warn(String.format("No serving keys will be added to fv `%s`.", featureView.getValue()));
+        failedUpdate++;
+        continue;
       }
-      for (ServingKey servingKey : servingKeys) {
-        setupServingKeyPreparedStatement(insertServingKeyStatement, featureViews.getInt("id"), servingKey);
-        if (!dryRun) {
-          int affectedRows = insertServingKeyStatement.executeUpdate();
-          // need to commit here, otherwise tables are locked.
-          connection.commit();
-          if (affectedRows != 1) {
-            throw new MigrationException("Creating serving key failed, no rows affected.");
-          }
-          numServingKey++;
-        } else {
-          insertServingKeyStatement.clearParameters();
-          LOGGER.info(String.format("%d serving keys will be added to fv `%s`.", servingKeys.size(),
-              featureViews.getString("name")));
-        }
+      if (dryRun) {
+        LOGGER.info(String.format("%d serving keys will be added to fv `%s`.", fvKeys.size(),
+            featureView.getValue()));
+      } else {
+        servingKeys.addAll(fvKeys);
       }
     }
+    for (int from = 0; from < servingKeys.size(); from += batchSize) {
+      insertServingKeys(servingKeys.subList(from, Math.min(from + batchSize, servingKeys.size())));
+      // commit every chunk, otherwise tables are locked.
+      connection.commit();
+    }
 
-    getFeatureViewsStatement.close();
-    insertServingKeyStatement.close();
     connection.commit();
     connection.setAutoCommit(true);
     if (!dryRun) {
-      LOGGER.info(String.format("%d feature view have been updated with %d serving keys.", n, numServingKey));
+      LOGGER.info(String.format("%d feature view have been updated with %d serving keys.", n, servingKeys.size()));
       LOGGER.info(
           String.format("%d feature view have been updated successfully but %d feature view have failed to update.",
               n - failedUpdate, failedUpdate));
@@ -120,6 +141,50 @@ public class SetServingKeys extends FeatureStoreMigration {
 
   }
 
+  private Map<Integer, List<ServingKey>> computeServingKeys(Collection<Integer> fvIds)
+      throws InterruptedException, MigrationException {
+    ExecutorService computePool = ExecutorFactory.newComputeExecutor("serving-keys");
+    TaskBatch.Report<Integer, List<ServingKey>> report;
+    try (TaskBatch<Integer, List<ServingKey>> batch = new TaskBatch<>("Compute serving keys", computePool,
+        ExecutorFactory.computeThreads())) {
+      for (final Integer fvId : fvIds) {
+        batch.submit(fvId, new Callable<List<ServingKey>>() {
+          @Override
+          public List<ServingKey> call() {
+            return getServingKeyDTO(fvId);
+          }
+        });
+      }
+      report = batch.await();
+    } finally {
+      computePool.shutdownNow();
+    }
+    if (!report.getFailures().isEmpty()) {
+      throw new MigrationException("Failed to compute the serving keys of " + report.getFailures().size()
+          + " feature views", report.getFailures().values().iterator().next());
+    }
+    return report.getResults();
+  }
+
+  private void insertServingKeys(List<ServingKey> servingKeys) throws SQLException, MigrationException {
+    StringBuilder sql = new StringBuilder(INSERT_SERVING_KEYS);
+    for (int i = 0; i < servingKeys.size(); i++) {
+      sql.append(i == 0 ? " " : ", ").append(SERVING_KEY_VALUES);
+    }
+    try (PreparedStatement insertServingKeyStatement = connection.prepareStatement(sql.toString())) {
+      int offset = 0;
+      for (ServingKey servingKey : servingKeys) {
+        setupServingKeyPreparedStatement(insertServingKeyStatement, offset, servingKey);
+        offset += SERVING_KEY_PARAMS;
+      }
+      int affectedRows = insertServingKeyStatement.executeUpdate();
+      if (affectedRows != servingKeys.size()) {
+        throw new MigrationException("Creating serving keys failed, " + affectedRows + " of " + servingKeys.size()
+            + " rows affected.");
+      }
+    }
+  }
+
   @Override
   public void runRollback() throws RollbackException {
     try {
@@ -200,12 +265,11 @@ public class SetServingKeys extends FeatureStoreMigration {
     }
   }
 
-  private List<ServingKey> getServingKeyDTO(Integer projId, Integer fsId, Integer fvId)
-      throws IOException, SQLException, MigrationException {
+  private List<ServingKey> getServingKeyDTO(Integer fvId) {
     List<ServingKey> servingKeys = Lists.newArrayList();
     Set<String> prefixFeatureNames = Sets.newHashSet();
     List<TrainingDatasetJoin> tdJoinsSorted =
-        getTdJoin(fvId).stream().sorted(Comparator.comparingInt(TrainingDatasetJoin::getIndex)).collect(
+        getOrEmpty(tdJoins, fvId).stream().sorted(Comparator.comparingInt(TrainingDatasetJoin::getIndex)).collect(
             Collectors.toList());
     Optional<TrainingDatasetJoin> leftJoin =
         tdJoinsSorted.stream().filter(join -> join.getIndex().equals(0)).findFirst();
@@ -216,12 +280,12 @@ public class SetServingKeys extends FeatureStoreMigration {
               + fvId);
       return Lists.newArrayList();
     }
-    Set<String> leftPrimaryKeys = getPrimaryKeys(leftJoin.get().getFeatureGroupId());
+    Set<String> leftPrimaryKeys = getOrEmpty(primaryKeys, leftJoin.get().getFeatureGroupId());
     for (TrainingDatasetJoin join : tdJoinsSorted) {
       // This contains join key and pk of feature group
       Set<String> tempPrefixFeatureNames = Sets.newHashSet();
 
-      Set<String> primaryKeyNames = getPrimaryKeys(join.getFeatureGroupId());
+      Set<String> primaryKeyNames = getOrEmpty(primaryKeys, join.getFeatureGroupId());
       List<TrainingDatasetJoinCondition> joinConditions = join.getConditions() == null ?
           Lists.newArrayList() : join.getConditions();
       for (TrainingDatasetJoinCondition condition : joinConditions) {
@@ -270,6 +334,7 @@ public class SetServingKeys extends FeatureStoreMigration {
           servingKey.setJoinIndex(join.getIndex());
           FeatureView fv = new FeatureView();
           fv.setId(fvId);
+          servingKey.setFeatureView(fv);
           servingKeys.add(servingKey);
           prefixFeatureNames.add(
               (servingKey.getPrefix() == null ? "" : servingKey.getPrefix()) + servingKey.getFeatureName());
@@ -278,10 +343,10 @@ public class SetServingKeys extends FeatureStoreMigration {
         }
       }
     }
-    Set<Integer> labelOnlyFgs = getLabelOnlyFeatureGroups(fvId);
+    Set<Integer> fvLabelOnlyFgs = getOrEmpty(labelOnlyFgs, fvId);
     List<ServingKey> filteredServingKeys = Lists.newArrayList();
     for (ServingKey servingKey : servingKeys) {
-      if (labelOnlyFgs.contains(servingKey.getFeatureGroup().getId())) {
+      if (fvLabelOnlyFgs.contains(servingKey.getFeatureGroup().getId())) {
         // Check if the serving key belongs to a left most fg by checking if the key was required by other fg.
         if (servingKeys.stream()
             .anyMatch(key -> ((servingKey.getPrefix() == null ? "" : servingKey.getPrefix())
@@ -295,67 +360,87 @@ public class SetServingKeys extends FeatureStoreMigration {
     return filteredServingKeys;
   }
 
-  private List<TrainingDatasetJoin> getTdJoin(Integer fvId) throws SQLException {
-    PreparedStatement getTdJoinStatement = connection.prepareStatement(GET_TD_JOIN);
-    getTdJoinStatement.setInt(1, fvId);
-    ResultSet tdJoinResultSet = getTdJoinStatement.executeQuery();
-
-    List<TrainingDatasetJoin> tdJoins = Lists.newArrayList();
-    while (tdJoinResultSet.next()) {
-      Integer id = tdJoinResultSet.getInt("id");
-      Integer index = tdJoinResultSet.getInt("idx");
-      Integer fgId = tdJoinResultSet.getInt("feature_group");
-      String prefix = tdJoinResultSet.getString("prefix");
-      List<TrainingDatasetJoinCondition> tdConditions = getTdJoinCondition(id);
-      tdJoins.add(new TrainingDatasetJoin(index, fgId, prefix, tdConditions));
+  private void loadJoinGraph() throws SQLException {
+    Map<Integer, List<TrainingDatasetJoinCondition>> tdJoinConditions = new HashMap<>();
+    try (PreparedStatement getTdJoinConditionStatement = connection.prepareStatement(GET_ALL_TD_JOIN_CONDITIONS);
+         ResultSet tdJoinConditionResultSet = getTdJoinConditionStatement.executeQuery()) {
+      while (tdJoinConditionResultSet.next()) {
+        add(tdJoinConditions, tdJoinConditionResultSet.getInt("td_join"), new TrainingDatasetJoinCondition(
+            tdJoinConditionResultSet.getString("right_feature"),
+            tdJoinConditionResultSet.getString("left_feature"))
+        );
+      }
     }
-    return tdJoins;
-  }
 
-  private List<TrainingDatasetJoinCondition> getTdJoinCondition(Integer tdJoinId) throws SQLException {
-    PreparedStatement getTdJoinConditionStatement = connection.prepareStatement(GET_TD_JOIN_CONDITION);
-    getTdJoinConditionStatement.setInt(1, tdJoinId);
-    ResultSet tdJoinConditionResultSet = getTdJoinConditionStatement.executeQuery();
-    List<TrainingDatasetJoinCondition> tdJoinConditions = Lists.newArrayList();
-    while (tdJoinConditionResultSet.next()) {
-      tdJoinConditions.add(new TrainingDatasetJoinCondition(
-          tdJoinConditionResultSet.getString("right_feature"),
-          tdJoinConditionResultSet.getString("left_feature"))
-      );
+    try (PreparedStatement getTdJoinStatement = connection.prepareStatement(GET_ALL_TD_JOINS);
+         ResultSet tdJoinResultSet = getTdJoinStatement.executeQuery()) {
+      while (tdJoinResultSet.next()) {
+        Integer id = tdJoinResultSet.getInt("id");
+        Integer index = tdJoinResultSet.getInt("idx");
+        Integer fgId = tdJoinResultSet.getInt("feature_group");
+        String prefix = tdJoinResultSet.getString("prefix");
+        List<TrainingDatasetJoinCondition> tdConditions = getOrEmpty(tdJoinConditions, id);
+        add(tdJoins, tdJoinResultSet.getInt("feature_view_id"),
+            new TrainingDatasetJoin(index, fgId, prefix, tdConditions));
+      }
+    }
+
+    try (PreparedStatement getPrimaryKeyStatement = connection.prepareStatement(GET_ALL_PRIMARY_KEYS);
+         ResultSet primaryKeyResultSet = getPrimaryKeyStatement.executeQuery()) {
+      while (primaryKeyResultSet.next()) {
+        Integer fgId = primaryKeyResultSet.getInt("id");
+        String cachedFeature = primaryKeyResultSet.getString("cached_feature");
+        String onDemandFeature = primaryKeyResultSet.getString("on_demand_feature");
+        String streamFeature = primaryKeyResultSet.getString("stream_feature");
+        List<String> tempPk = Lists.newArrayList(cachedFeature, onDemandFeature, streamFeature).stream()
+            .filter(f -> !Strings.isNullOrEmpty(f)).collect(Collectors.toList());
+        if (tempPk.size() == 0) {
+          LOGGER.warn("Cannot get primary key for feature group " + fgId);
+        } else if (tempPk.size() > 1) {
+          LOGGER.warn("Incorrect primary key for feature group " + fgId);
+        }
+        Set<String> fgPrimaryKeys = primaryKeys.get(fgId);
+        if (fgPrimaryKeys == null) {
+          fgPrimaryKeys = Sets.newHashSet();
+          primaryKeys.put(fgId, fgPrimaryKeys);
+        }
+        fgPrimaryKeys.addAll(tempPk);
+      }
     }
-    return tdJoinConditions;
-  }
 
-  private Set<String> getPrimaryKeys(Integer fgId) throws SQLException {
-    PreparedStatement getPrimaryKeyStatement = connection.prepareStatement(GET_PRIMARY_KEY);
-    getPrimaryKeyStatement.setInt(1, fgId);
-    ResultSet primaryKeyResultSet = getPrimaryKeyStatement.executeQuery();
-    Set<String> primaryKeys = Sets.newHashSet();
-    while (primaryKeyResultSet.next()) {
-      String cachedFeature = primaryKeyResultSet.getString("cached_feature");
-      String onDemandFeature = primaryKeyResultSet.getString("on_demand_feature");
-      String streamFeature = primaryKeyResultSet.getString("stream_feature");
-      List<String> tempPk = Lists.newArrayList(cachedFeature, onDemandFeature, streamFeature).stream()
-          .filter(f -> !Strings.isNullOrEmpty(f)).collect(Collectors.toList());
-      if (tempPk.size() == 0) {
-        LOGGER.warn("Cannot get primary key for feature group " + fgId);
-      } else if (tempPk.size() > 1) {
-        LOGGER.warn("Incorrect primary key for feature group " + fgId);
+    try (PreparedStatement getLabelOnlyFgStatement = connection.prepareStatement(GET_ALL_LABEL_ONLY_FGS);
+         ResultSet fgIdResultSet = getLabelOnlyFgStatement.executeQuery()) {
+      while (fgIdResultSet.next()) {
+        Integer fvId = fgIdResultSet.getInt("feature_view_id");
+        Set<Integer> fgIds = labelOnlyFgs.get(fvId);
+        if (fgIds == null) {
+          fgIds = Sets.newHashSet();
+          labelOnlyFgs.put(fvId, fgIds);
+        }
+        fgIds.add(fgIdResultSet.getInt("feature_group"));
       }
-      primaryKeys.addAll(tempPk);
     }
-    return primaryKeys;
+    LOGGER.info(String.format("Loaded the joins of %d feature views and the primary keys of %d feature groups.",
+        tdJoins.size(), primaryKeys.size()));
   }
 
-  private Set<Integer> getLabelOnlyFeatureGroups(Integer fvId) throws SQLException {
-    PreparedStatement getLabelOnlyFgStatement = connection.prepareStatement(GET_LABEL_ONLY_FG);
-    getLabelOnlyFgStatement.setInt(1, fvId);
-    ResultSet fgIdResultSet = getLabelOnlyFgStatement.executeQuery();
-    Set<Integer> fgIds = Sets.newHashSet();
-    while (fgIdResultSet.next()) {
-      fgIds.add(fgIdResultSet.getInt("feature_group"));
+  private static <T> void add(Map<Integer, List<T>> map, Integer key, T value) {
+    List<T> values = map.get(key);
+    if (values == null) {
+      values = Lists.newArrayList();
+      map.put(key, values);
     }
-    return fgIds;
+    values.add(value);
+  }
+
+  private static <T> List<T> getOrEmpty(Map<Integer, List<T>> map, Integer key) {
+    List<T> values = map.get(key);
+    return values == null ? Collections.<T>emptyList() : values;
+  }
+
+  private static <T> Set<T> getOrEmpty(Map<Integer, Set<T>> map, Integer key) {
+    Set<T> values = map.get(key);
+    return values == null ? Collections.<T>emptySet() : values;
   }
 
   private String getPrefixCheckCollision(Set<String> prefixFeatureNames, String featureName, String prefix) {
@@ -381,14 +466,14 @@ public class SetServingKeys extends FeatureStoreMigration {
     }
   }
 
-  private void setupServingKeyPreparedStatement(PreparedStatement insertServingKeyStatement,
-      int featureViewId, ServingKey servingKey) throws SQLException {
-    insertServingKeyStatement.setString(1, servingKey.getPrefix());
-    insertServingKeyStatement.setString(2, servingKey.getFeatureName());
-    insertServingKeyStatement.setString(3, servingKey.getJoinOn());
-    insertServingKeyStatement.setInt(4, servingKey.getJoinIndex());
-    insertServingKeyStatement.setInt(5, servingKey.getFeatureGroup().getId());
-    insertServingKeyStatement.setInt(6, servingKey.getRequired() ? 1 : 0);
-    insertServingKeyStatement.setInt(7, featureViewId);
+  private void setupServingKeyPreparedStatement(PreparedStatement insertServingKeyStatement, int offset,
+      ServingKey servingKey) throws SQLException {
+    insertServingKeyStatement.setString(offset + 1, servingKey.getPrefix());
+    insertServingKeyStatement.setString(offset + 2, servingKey.getFeatureName());
+    insertServingKeyStatement.setString(offset + 3, servingKey.getJoinOn());
+    insertServingKeyStatement.setInt(offset + 4, servingKey.getJoinIndex());
+    insertServingKeyStatement.setInt(offset + 5, servingKey.getFeatureGroup().getId());
+    insertServingKeyStatement.setInt(offset + 6, servingKey.getRequired() ? 1 : 0);
+    insertServingKeyStatement.setInt(offset + 7, servingKey.getFeatureView().getId());
   }
 }
@@ -24,10 +24,13 @@ import io.hops.hopsworks.common.hdfs.DistributedFileSystemOps;
 import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
 import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
+import io.hops.hopsworks.expat.executor.TaskBatch;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
 import io.hops.hopsworks.expat.migrations.projects.util.HopsClient;
+import io.hops.hopsworks.expat.migrations.projects.util.XAttrException;
 import io.hops.hopsworks.expat.migrations.projects.util.XAttrHelper;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
@@ -50,6 +53,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class FeatureStoreMetadataMigration implements MigrateStep {
   private final static Logger LOGGER = LoggerFactory.getLogger(FeatureStoreMetadataMigration.class);
@@ -67,6 +72,17 @@ public class FeatureStoreMetadataMigration implements MigrateStep {
   private final static int GET_ARTIFACT_S_NAME = 2;
   private final static int GET_ARTIFACT_S_VERSION = 3;
   private final static int GET_ARTIFACT_W_FS_ID = 1;
+  private final static String[] ARTIFACT_TYPES = {"feature_group", "feature_view", "training_dataset"};
+  private final static String GET_ALL_ARTIFACTS_PART1 = "SELECT '";
+  private final static String GET_ALL_ARTIFACTS_PART2 = "', a.id, a.name, a.version, fs.name, p.projectname FROM";
+  private final static String GET_ALL_ARTIFACTS_PART3 = "a JOIN feature_store fs JOIN project p " +
+    "ON a.feature_store_id=fs.id AND fs.project_id=p.id";
+  private final static int GET_ALL_ARTIFACTS_S_TYPE = 1;
+  private final static int GET_ALL_ARTIFACTS_S_ID = 2;
+  private final static int GET_ALL_ARTIFACTS_S_NAME = 3;
+  private final static int GET_ALL_ARTIFACTS_S_VERSION = 4;
+  private final static int GET_ALL_ARTIFACTS_S_FS_NAME = 5;
+  private final static int GET_ALL_ARTIFACTS_S_PROJECT_NAME = 6;
   private final static String GET_SCHEMAS = "SELECT id, name FROM feature_store_tag";
   private final static int GET_SCHEMAS_S_ID = 1;
   private final static int GET_SCHEMAS_S_NAME = 2;
@@ -100,6 +116,7 @@ public class FeatureStoreMetadataMigration implements MigrateStep {
   SimpleDateFormat formatter;
   boolean dryrun = false;
   DistributedFileSystemOps dfso = null;
+  private int batchSize = ExpatConf.BATCH_SIZE_DEFAULT;
   
   private void setup()
     throws ConfigurationException, SQLException {
@@ -113,6 +130,7 @@ public class FeatureStoreMetadataMigration implements MigrateStep {
       throw new ConfigurationException(ExpatConf.HOPS_CLIENT_USER + " cannot be null");
     }
     dryrun = conf.getBoolean(ExpatConf.DRY_RUN);
+    batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
   
     dfso = HopsClient.getDFSO(hopsUser);
   }
@@ -129,7 +147,7 @@ public class FeatureStoreMetadataMigration implements MigrateStep {
     try {
       setup();
       connection.setAutoCommit(false);
-      traverseElements(migrateTags(dryrun), migrateKeywords(dryrun));
+      migrateArtifacts();
       connection.setAutoCommit(true);
     } catch (Throwable e) {
       throw new MigrationException("error", e);
@@ -184,9 +202,7 @@ public class FeatureStoreMetadataMigration implements MigrateStep {
     }
   }
   
-  private void traverseElements(CheckedBiConsumer<ProcessState, ResultSet, Exception> tagAction,
-                                CheckedBiConsumer<ProcessState, ResultSet, Exception> keywordAction)
-    throws Exception {
+  private BiMap<String, Integer> getSchemas() throws SQLException {
     BiMap<String, Integer> schemas = HashBiMap.create();
     try(PreparedStatement schemasStmt = connection.prepareStatement(GET_SCHEMAS)) {
       ResultSet schemasResultSet = schemasStmt.executeQuery();
@@ -196,6 +212,13 @@ public class FeatureStoreMetadataMigration implements MigrateStep {
         schemas.put(name, id);
       }
     }
+    return schemas;
+  }
+  
+  private void traverseElements(CheckedBiConsumer<ProcessState, ResultSet, Exception> tagAction,
+                                CheckedBiConsumer<ProcessState, ResultSet, Exception> keywordAction)
+    throws Exception {
+    BiMap<String, Integer> schemas = getSchemas();
     try(PreparedStatement projStmt = connection.prepareStatement(GET_PROJECTS)) {
       ResultSet projResultSet = projStmt.executeQuery();
       while (projResultSet.next()) {
@@ -224,65 +247,189 @@ public class FeatureStoreMetadataMigration implements MigrateStep {
     return GET_ARTIFACT_PART1 + " " + artifactType + " " + GET_ARTIFACT_PART2;
   }
   
-  private CheckedBiConsumer<ProcessState, ResultSet, Exception> migrateTags(boolean dryRun) {
-    return (ProcessState state, ResultSet artifact) -> {
-      try {
-        int id = artifact.getInt(GET_ARTIFACT_S_ID);
-        String name = artifact.getString(GET_ARTIFACT_S_NAME);
-        int version = artifact.getInt(GET_ARTIFACT_S_VERSION);
-        String path = getArtifactPath(state.artifactType, state.projectName, state.fsName, name, version);
-        Map<String, String> tags = readTags(XAttrHelper.getXAttr(dfso, path, "user", "tags"));
-        for (Map.Entry<String, String> tag : tags.entrySet()) {
-          Integer schemaId = state.schemas.get(tag.getKey());
-          if (schemaId == null) {
-            throw new IllegalStateException("schema not found:" + tag.getKey());
-          }
-          LOGGER.info("project:" + state.projectName + " " + state.artifactType
-            + "<" + id + "," + name + "," + version + "> tag:" + tag.getKey());
-          if(!dryRun) {
-            try (PreparedStatement insertTagStmt = connection.prepareStatement(insertTagStmt(state.artifactType))) {
-              insertTagStmt.setInt(INSERT_FS_TAGS_V_SCHEMA_ID, schemaId);
-              insertTagStmt.setString(INSERT_FS_TAGS_V_VALUE, tag.getValue());
-              insertTagStmt.setInt(INSERT_FS_TAGS_V_A_ID, id);
-              insertTagStmt.executeUpdate();
+  /**
+   * Artifact of a feature store and the tags and keywords read from its xattrs
+   */
+  private static class Artifact {
+    final String type;
+    final int id;
+    final String name;
+    final int version;
+    final String projectName;
+    final String path;
+    Map<String, String> tags;
+    Set<String> keywords;
+  
+    Artifact(String type, int id, String name, int version, String projectName, String path) {
+      this.type = type;
+      this.id = id;
+      this.name = name;
+      this.version = version;
+      this.projectName = projectName;
+      this.path = path;
+    }
+  
+    @Override
+    public String toString() {
+      return "project:" + projectName + " " + type + "<" + id + "," + name + "," + version + ">";
+    }
+  }
+  
+  /**
+   * The artifacts of all the feature stores are listed with one query. Their user xattrs are read concurrently,
+   * both the tags and the keywords with a single request, while this thread inserts the tags and keywords read
+   * so far with batched inserts. The xattrs of an artifact are removed once its rows are committed.
+   */
+  private void migrateArtifacts() throws SQLException, InterruptedException, MigrationException {
+    final BiMap<String, Integer> schemas = getSchemas();
+    List<Artifact> artifacts = getArtifacts();
+    LOGGER.info("found {} feature store artifacts", artifacts.size());
+    final LinkedBlockingQueue<Artifact> read = new LinkedBlockingQueue<>();
+    List<Artifact> pending = new ArrayList<>();
+    int pendingRows = 0;
+    TaskBatch.Report<String, Void> readReport;
+    TaskBatch.Report<String, Void> removeReport;
+    try (TaskBatch<String, Void> removeBatch = new TaskBatch<>("Remove feature store tag xattrs",
+      ExecutorFactory.workerThreads())) {
+      try (TaskBatch<String, Void> readBatch = new TaskBatch<>("Read feature store tag xattrs",
+        ExecutorFactory.workerThreads())) {
+        for (final Artifact artifact : artifacts) {
+          readBatch.submit(artifact.path, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              readMetadata(artifact, schemas);
+              if (!artifact.tags.isEmpty() || !artifact.keywords.isEmpty()) {
+                read.add(artifact);
+              }
+              return null;
             }
+          });
+          pendingRows += drain(read, pending);
+          if (pendingRows >= batchSize) {
+            insertMetadata(pending, schemas, removeBatch);
+            pendingRows = 0;
           }
         }
-        if(!dryRun && !tags.isEmpty()) {
-          XAttrHelper.deleteXAttr(dfso, path, "user", "tags");
+        readReport = readBatch.await();
+      }
+      drain(read, pending);
+      insertMetadata(pending, schemas, removeBatch);
+      removeReport = removeBatch.await();
+    }
+    if (!readReport.getFailures().isEmpty()) {
+      throw new MigrationException("Failed to read the tags of " + readReport.getFailures().size() + " artifacts",
+        readReport.getFailures().values().iterator().next());
+    }
+    if (!removeReport.getFailures().isEmpty()) {
+      throw new MigrationException("Failed to remove the tag xattrs of " + removeReport.getFailures().size()
+        + " artifacts", removeReport.getFailures().values().iterator().next());
+    }
+  }
+  
+  private List<Artifact> getArtifacts() throws SQLException {
+    StringBuilder query = new StringBuilder();
+    for (String artifactType : ARTIFACT_TYPES) {
+      if (query.length() > 0) {
+        query.append(" UNION ALL ");
+      }
+      query.append(GET_ALL_ARTIFACTS_PART1).append(artifactType).append(GET_ALL_ARTIFACTS_PART2)
+        .append(" ").append(artifactType).append(" ").append(GET_ALL_ARTIFACTS_PART3);
+    }
+    List<Artifact> artifacts = new ArrayList<>();
+    try (PreparedStatement stmt = connection.prepareStatement(query.toString())) {
+      try (ResultSet resultSet = stmt.executeQuery()) {
+        while (resultSet.next()) {
+          String type = resultSet.getString(GET_ALL_ARTIFACTS_S_TYPE);
+          String name = resultSet.getString(GET_ALL_ARTIFACTS_S_NAME);
+          int version = resultSet.getInt(GET_ALL_ARTIFACTS_S_VERSION);
+          String projectName = resultSet.getString(GET_ALL_ARTIFACTS_S_PROJECT_NAME);
+          String path = getArtifactPath(type, projectName, resultSet.getString(GET_ALL_ARTIFACTS_S_FS_NAME), name,
+            version);
+          artifacts.add(new Artifact(type, resultSet.getInt(GET_ALL_ARTIFACTS_S_ID), name, version, projectName,
+            path));
         }
-      } catch (SQLException e) {
-        throw new MigrationException("error", e);
       }
-    };
+    }
+    return artifacts;
   }
   
-  private CheckedBiConsumer<ProcessState, ResultSet, Exception> migrateKeywords(boolean dryRun) {
-    return (ProcessState state, ResultSet artifact) -> {
-      try {
-        int id = artifact.getInt(GET_ARTIFACT_S_ID);
-        String name = artifact.getString(GET_ARTIFACT_S_NAME);
-        int version = artifact.getInt(GET_ARTIFACT_S_VERSION);
-        String path = getArtifactPath(state.artifactType, state.projectName, state.fsName, name, version);
-        Set<String> keywords = readKeywords(XAttrHelper.getXAttr(dfso, path, "user", "keywords"));
-        for (String keyword : keywords) {
-          LOGGER.info("project:" + state.projectName + " " + state.artifactType
-            + "<" + id + "," + name + "," + version + "> keyword:" + keyword);
-          if(!dryRun) {
-            try (PreparedStatement insertTagStmt = connection.prepareStatement(insertKeywordStmt(state.artifactType))) {
-              insertTagStmt.setString(INSERT_FS_KEYWORDS_V_NAME, keyword);
-              insertTagStmt.setInt(INSERT_FS_KEYWORDS_V_A_ID, id);
-              insertTagStmt.executeUpdate();
-            }
+  private void readMetadata(Artifact artifact, BiMap<String, Integer> schemas) throws XAttrException {
+    Map<String, byte[]> xattrs = XAttrHelper.getXAttrs(dfso, artifact.path, "user");
+    artifact.tags = readTags(xattrs.get("tags"));
+    artifact.keywords = readKeywords(xattrs.get("keywords"));
+    for (String tag : artifact.tags.keySet()) {
+      if (!schemas.containsKey(tag)) {
+        throw new IllegalStateException("schema not found:" + tag);
+      }
+      LOGGER.info(artifact + " tag:" + tag);
+    }
+    for (String keyword : artifact.keywords) {
+      LOGGER.info(artifact + " keyword:" + keyword);
+    }
+  }
+  
+  /**
+   * @return the number of tags and keywords moved to the pending artifacts
+   */
+  private int drain(LinkedBlockingQueue<Artifact> read, List<Artifact> pending) {
+    List<Artifact> drained = new ArrayList<>();
+    read.drainTo(drained);
+    int rows = 0;
+    for (Artifact artifact : drained) {
+      rows += artifact.tags.size() + artifact.keywords.size();
+    }
+    pending.addAll(drained);
+    return rows;
+  }
+  
+  /**
+   * Insert and commit the tags and keywords of the artifacts, then queue the removal of their xattrs
+   */
+  private void insertMetadata(List<Artifact> artifacts, BiMap<String, Integer> schemas,
+                              TaskBatch<String, Void> removeBatch) throws SQLException, InterruptedException {
+    if (artifacts.isEmpty() || dryrun) {
+      artifacts.clear();
+      return;
+    }
+    for (String artifactType : ARTIFACT_TYPES) {
+      try (PreparedStatement insertTagStmt = connection.prepareStatement(insertTagStmt(artifactType));
+           PreparedStatement insertKeywordStmt = connection.prepareStatement(insertKeywordStmt(artifactType))) {
+        for (Artifact artifact : artifacts) {
+          if (!artifact.type.equals(artifactType)) {
+            continue;
+          }
+          for (Map.Entry<String, String> tag : artifact.tags.entrySet()) {
+            insertTagStmt.setInt(INSERT_FS_TAGS_V_SCHEMA_ID, schemas.get(tag.getKey()));
+            insertTagStmt.setString(INSERT_FS_TAGS_V_VALUE, tag.getValue());
+            insertTagStmt.setInt(INSERT_FS_TAGS_V_A_ID, artifact.id);
+            insertTagStmt.addBatch();
+          }
+          for (String keyword : artifact.keywords) {
+            insertKeywordStmt.setString(INSERT_FS_KEYWORDS_V_NAME, keyword);
+            insertKeywordStmt.setInt(INSERT_FS_KEYWORDS_V_A_ID, artifact.id);
+            insertKeywordStmt.addBatch();
           }
         }
-        if(!dryRun && !keywords.isEmpty()) {
-          XAttrHelper.deleteXAttr(dfso, path, "user", "keywords");
-        }
-      } catch (SQLException e) {
-        throw new MigrationException("error", e);
+        insertTagStmt.executeBatch();
+        insertKeywordStmt.executeBatch();
       }
-    };
+    }
+    connection.commit();
+    for (final Artifact artifact : artifacts) {
+      removeBatch.submit(artifact.path, new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          if (!artifact.tags.isEmpty()) {
+            XAttrHelper.deleteXAttr(dfso, artifact.path, "user", "tags");
+          }
+          if (!artifact.keywords.isEmpty()) {
+            XAttrHelper.deleteXAttr(dfso, artifact.path, "user", "keywords");
+          }
+          return null;
+        }
+      });
+    }
+    artifacts.clear();
   }
   
   private CheckedBiConsumer<ProcessState, ResultSet, Exception> rollbackTags(boolean dryRun) {
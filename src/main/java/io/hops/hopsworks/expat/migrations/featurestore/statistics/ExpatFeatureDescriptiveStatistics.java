@@ -17,17 +17,29 @@ package io.hops.hopsworks.expat.migrations.featurestore.statistics;
  *
  */
 
-import org.json.JSONArray;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.json.JsonReadFeature;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.opensearch.common.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ExpatFeatureDescriptiveStatistics {
   
@@ -61,123 +73,189 @@ public class ExpatFeatureDescriptiveStatistics {
   // histogram, correlations, kll <- from hdfs file
   public String extendedStatistics;
   
+  private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+    .enable(JsonReadFeature.ALLOW_NON_NUMERIC_NUMBERS)
+    .build();
+  
+  // keys of the column statistics which are kept in the extended statistics file, in the order they are written
+  private static final List<String> EXTENDED_STATISTICS_KEYS =
+    Arrays.asList("correlations", "histogram", "kll", "unique_values");
+  
   public static Collection<ExpatFeatureDescriptiveStatistics> parseStatisticsJsonString(String content) {
     if (Strings.isNullOrEmpty(content)) {
       LOGGER.info(String.format("[parseStatisticsJsonString] file content is null or empty"));
       return null;
     }
-    try {
-      JSONObject jsonContent = new JSONObject(content);
-      if (!jsonContent.has("columns")) {
-        LOGGER.info(String.format("[parseStatisticsJsonString] statistics json does not contain a 'columns' key"));
+    return parseStatisticsJson(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+  }
+  
+  /**
+   * Parse a legacy statistics file as it is read. Only the statistics of one column are held at a time, the
+   * extended statistics are copied token by token to their own JSON string without building a JSON tree.
+   *
+   * @return statistics per feature, or null if the content is empty or not valid
+   */
+  public static Collection<ExpatFeatureDescriptiveStatistics> parseStatisticsJson(InputStream in) {
+    try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        LOGGER.info(String.format("[parseStatisticsJson] file content is empty or not a JSON object"));
         return null;
       }
-      JSONArray columns = jsonContent.getJSONArray("columns");
-      HashMap<String, ExpatFeatureDescriptiveStatistics> descFdsMap = new HashMap<>();
-      for (int i = 0; i < columns.length(); i++) {
-        JSONObject colStats = (JSONObject) columns.get(i);
-        ExpatFeatureDescriptiveStatistics fds = ExpatFeatureDescriptiveStatistics.fromJSON(colStats);
-        descFdsMap.merge(fds.featureName, fds, (fds1, fds2) -> ExpatFeatureDescriptiveStatistics.merge(fds1, fds2));
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if ("columns".equals(field) && value == JsonToken.START_ARRAY) {
+          HashMap<String, ExpatFeatureDescriptiveStatistics> descFdsMap = new HashMap<>();
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            ExpatFeatureDescriptiveStatistics fds = ExpatFeatureDescriptiveStatistics.fromJSON(parser);
+            descFdsMap.merge(fds.featureName, fds, (fds1, fds2) -> ExpatFeatureDescriptiveStatistics.merge(fds1, fds2));
+          }
+          return descFdsMap.values();
+        }
+        parser.skipChildren();
       }
-      return descFdsMap.values();
-    } catch (JSONException e) {
-      LOGGER.info(String.format("[parseStatisticsJsonString] file content is not a valid JSON"));
+      LOGGER.info(String.format("[parseStatisticsJson] statistics json does not contain a 'columns' key"));
+      return null;
+    } catch (IOException | JSONException e) {
+      LOGGER.info(String.format("[parseStatisticsJson] file content is not a valid JSON"));
       return null;
     }
   }
   
-  public static ExpatFeatureDescriptiveStatistics fromJSON(JSONObject statsJson) {
+  /**
+   * Read the statistics of one column, the parser is positioned at the start of the column object and is left
+   * at its end.
+   */
+  public static ExpatFeatureDescriptiveStatistics fromJSON(JsonParser parser) throws IOException {
     ExpatFeatureDescriptiveStatistics fds = new ExpatFeatureDescriptiveStatistics();
-    fds.featureName = statsJson.getString("column");
-    
-    if (statsJson.has("dataType")) {
-      fds.featureType = statsJson.getString("dataType");
-    }
-    
-    if (statsJson.has("count") && statsJson.getLong("count") == 0) {
-      // if empty data, ignore the rest of statistics
-      fds.count = 0L;
-      return fds;
-    }
+    Long count = null;
+    Long numRecordsNull = null;
+    Long numRecordsNonNull = null;
+    Map<String, String> extendedStatistics = new HashMap<>();
     
-    // common for all data types
-    if (statsJson.has("numRecordsNull")) {
-      fds.numNullValues = statsJson.getLong("numRecordsNull");
-    }
-    if (statsJson.has("numRecordsNonNull")) {
-      fds.numNonNullValues = statsJson.getLong("numRecordsNonNull");
-    }
-    if (statsJson.has("numRecordsNull") && statsJson.has("numRecordsNonNull")) {
-      fds.count = Long.valueOf(statsJson.getInt("numRecordsNull") + statsJson.getInt("numRecordsNonNull"));
-    }
-    if (statsJson.has("count")) {
-      fds.count = statsJson.getLong("count");
-    }
-    if (statsJson.has("completeness")) {
-      fds.completeness = statsJson.getDouble("completeness");
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      switch (field) {
+        case "column":
+          fds.featureName = parser.getValueAsString();
+          break;
+        case "dataType":
+          fds.featureType = parser.getValueAsString();
+          break;
+        // common for all data types
+        case "count":
+          count = parser.getValueAsLong();
+          break;
+        case "numRecordsNull":
+          numRecordsNull = parser.getValueAsLong();
+          break;
+        case "numRecordsNonNull":
+          numRecordsNonNull = parser.getValueAsLong();
+          break;
+        case "completeness":
+          fds.completeness = parser.getValueAsDouble();
+          break;
+        case "approximateNumDistinctValues":
+          fds.approxNumDistinctValues = parser.getValueAsLong();
+          break;
+        // commmon for all data types if exact_uniqueness is enabled
+        case "uniqueness":
+          fds.uniqueness = parser.getValueAsDouble();
+          break;
+        case "entropy":
+          fds.entropy = parser.getValueAsDouble();
+          break;
+        case "distinctness":
+          fds.distinctness = parser.getValueAsDouble();
+          break;
+        case "exactNumDistinctValues":
+          fds.exactNumDistinctValues = parser.getValueAsLong();
+          break;
+        // fractional / integral features
+        case "minimum":
+          fds.min = parser.getValueAsDouble();
+          break;
+        case "maximum":
+          fds.max = parser.getValueAsDouble();
+          break;
+        case "sum":
+          fds.sum = parser.getValueAsDouble();
+          break;
+        case "mean":
+          fds.mean = parser.getValueAsDouble();
+          break;
+        case "stdDev":
+          fds.stddev = parser.getValueAsDouble();
+          break;
+        case "percentiles":
+          if (parser.currentToken() != JsonToken.START_ARRAY) {
+            // null or not a list, no percentiles
+            parser.skipChildren();
+            break;
+          }
+          fds.percentiles = new ArrayList<>();
+          for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            if (token == null) {
+              throw new JsonParseException(parser, "Unexpected end of input in percentiles");
+            }
+            fds.percentiles.add(parser.getValueAsDouble());
+            parser.skipChildren();
+          }
+          break;
+        default:
+          if (EXTENDED_STATISTICS_KEYS.contains(field)) {
+            extendedStatistics.put(field, copyStructure(parser));
+          } else {
+            parser.skipChildren();
+          }
+      }
     }
-    if (statsJson.has("approximateNumDistinctValues")) {
-      fds.approxNumDistinctValues = statsJson.getLong("approximateNumDistinctValues");
+    if (fds.featureName == null) {
+      throw new JSONException("JSONObject[\"column\"] not found.");
     }
     
-    // commmon for all data types if exact_uniqueness is enabled
-    if (statsJson.has("uniqueness")) {
-      fds.uniqueness = statsJson.getDouble("uniqueness");
-    }
-    if (statsJson.has("entropy")) {
-      fds.entropy = statsJson.getDouble("entropy");
+    if (count != null && count == 0) {
+      // if empty data, ignore the rest of statistics
+      ExpatFeatureDescriptiveStatistics empty = new ExpatFeatureDescriptiveStatistics();
+      empty.featureName = fds.featureName;
+      empty.featureType = fds.featureType;
+      empty.count = 0L;
+      return empty;
     }
-    if (statsJson.has("distinctness")) {
-      fds.distinctness = statsJson.getDouble("distinctness");
+    fds.numNullValues = numRecordsNull;
+    fds.numNonNullValues = numRecordsNonNull;
+    if (numRecordsNull != null && numRecordsNonNull != null) {
+      fds.count = numRecordsNull + numRecordsNonNull;
     }
-    if (statsJson.has("exactNumDistinctValues")) {
-      fds.exactNumDistinctValues = statsJson.getLong("exactNumDistinctValues");
+    if (count != null) {
+      fds.count = count;
     }
     
-    // fractional / integral features
-    if (statsJson.has("minimum")) {
-      fds.min = statsJson.getDouble("minimum");
-    }
-    if (statsJson.has("maximum")) {
-      fds.max = statsJson.getDouble("maximum");
-    }
-    if (statsJson.has("sum")) {
-      fds.sum = statsJson.getDouble("sum");
-    }
-    if (statsJson.has("mean")) {
-      fds.mean = statsJson.getDouble("mean");
-    }
-    if (statsJson.has("stdDev")) {
-      fds.stddev = statsJson.getDouble("stdDev");
-    }
-    if (statsJson.has("percentiles")) {
-      JSONArray percJsonArray = statsJson.getJSONArray("percentiles");
-      fds.percentiles = new ArrayList<>();
-      for (int i = 0; i < percJsonArray.length(); i++) {
-        fds.percentiles.add(percJsonArray.getDouble(i));
+    if (!extendedStatistics.isEmpty()) {
+      StringBuilder sb = new StringBuilder("{");
+      for (String key : EXTENDED_STATISTICS_KEYS) {
+        if (extendedStatistics.containsKey(key)) {
+          if (sb.length() > 1) {
+            sb.append(",");
+          }
+          sb.append("\"").append(key).append("\":").append(extendedStatistics.get(key));
+        }
       }
-    }
-    
-    JSONObject extendedStatistics = new JSONObject();
-    if (statsJson.has("correlations")) {
-      extendedStatistics.put("correlations", statsJson.getJSONArray("correlations"));
-    }
-    if (statsJson.has("histogram")) {
-      extendedStatistics.put("histogram", statsJson.getJSONArray("histogram"));
-    }
-    if (statsJson.has("kll")) {
-      extendedStatistics.put("kll", statsJson.getJSONObject("kll"));
-    }
-    if (statsJson.has("unique_values")) {
-      extendedStatistics.put("unique_values", statsJson.getJSONArray("unique_values"));
-    }
-    if (extendedStatistics.length() > 0) {
-      fds.extendedStatistics = extendedStatistics.toString();
+      fds.extendedStatistics = sb.append("}").toString();
     }
     
     return fds;
   }
   
+  private static String copyStructure(JsonParser parser) throws IOException {
+    StringWriter writer = new StringWriter();
+    try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+      generator.copyCurrentStructure(parser);
+    }
+    return writer.toString();
+  }
+  
   public static ExpatFeatureDescriptiveStatistics merge(ExpatFeatureDescriptiveStatistics fds1,
     ExpatFeatureDescriptiveStatistics fds2) {
     // In legacy statistics, unique values are stored in a separate hdfs file, resulting in two files
@@ -22,6 +22,8 @@ import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
 import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
 import io.hops.hopsworks.expat.db.dao.hdfs.inode.ExpatInodeController;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
+import io.hops.hopsworks.expat.executor.TaskBatch;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
@@ -37,6 +39,7 @@ import org.slf4j.LoggerFactory;
 import javax.sql.rowset.serial.SerialBlob;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectOutputStream;
 import java.sql.Blob;
 import java.sql.Connection;
@@ -48,9 +51,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.stream.Collectors;
 
 public class StatisticsMigration implements MigrateStep {
@@ -73,7 +79,6 @@ public class StatisticsMigration implements MigrateStep {
     "training_dataset_descriptive_statistics";
   private static final String TEST_DATASET_DESCRIPTIVE_STATISTICS_TABLE_NAME = "test_dataset_descriptive_statistics";
   private static final String VAL_DATASET_DESCRIPTIVE_STATISTICS_TABLE_NAME = "val_dataset_descriptive_statistics";
-  private static final String FEATURE_STORE_ACTIVITY_TABLE_NAME = "feature_store_activity";
   
   private static final String SPLIT_NAME_TRAIN = "train";
   private static final String SPLIT_NAME_TEST = "test";
@@ -85,6 +90,14 @@ public class StatisticsMigration implements MigrateStep {
     "SELECT id, feature_type, count, num_non_null_values, num_null_values, extended_statistics_path FROM %s WHERE " +
       "feature_name = '%s'", FEATURE_DESCRIPTIVE_STATISTICS_TABLE_NAME, FOR_MIGRATION_FLAG);
   
+  private final static String GET_MIGRATED_FG_STATISTICS = String.format(
+    "SELECT DISTINCT feature_group_statistics_id FROM %s", FEATURE_GROUP_DESCRIPTIVE_STATISTICS_TABLE_NAME);
+  
+  private final static String GET_MIGRATED_TD_STATISTICS = String.format(
+    "SELECT training_dataset_statistics_id FROM %s UNION SELECT training_dataset_statistics_id FROM %s UNION " +
+      "SELECT training_dataset_statistics_id FROM %s", TRAINING_DATASET_DESCRIPTIVE_STATISTICS_TABLE_NAME,
+    TEST_DATASET_DESCRIPTIVE_STATISTICS_TABLE_NAME, VAL_DATASET_DESCRIPTIVE_STATISTICS_TABLE_NAME);
+  
   private final static String GET_EARLIEST_FG_COMMITS_PER_FEATURE_GROUP =
     String.format("SELECT feature_group_id, MIN(commit_id) from %s GROUP BY feature_group_id",
       FEATURE_GROUP_COMMITS_TABLE_NAME);
@@ -120,43 +133,13 @@ public class StatisticsMigration implements MigrateStep {
   private final static String DELETE_FEATURE_GROUP_STATISTICS =
     String.format("DELETE FROM %s WHERE id = ?", FEATURE_GROUP_STATISTICS_TABLE_NAME);
   
-  private final static String DELETE_FEATURE_GROUP_STATISTICS_ACTIVITY =
-    String.format("DELETE FROM %s WHERE feature_group_statistics_id = ?", FEATURE_STORE_ACTIVITY_TABLE_NAME);
-  
   private final static String DELETE_TRAINING_DATASET_STATISTICS =
     String.format("DELETE FROM %s WHERE id = ?", TRAINING_DATASET_STATISTICS_TABLE_NAME);
   
-  private final static String DELETE_TRAINING_DATASET_STATISTICS_ACTIVITY =
-    String.format("DELETE FROM %s WHERE training_dataset_statistics_id = ?", FEATURE_STORE_ACTIVITY_TABLE_NAME);
-  
   private final static String FEATURE_GROUP = "FEATURE_GROUP";
   private final static String TRAINING_DATASET = "TRAINING_DATASET";
   private Integer statisticsMigrationBatchSize;
 
-  private class FeatureGroupStatisticsCommitWindow {
-    private Integer fgStatisticsId;
-    private Long windowStartCommitTime;
-
-    private FeatureGroupStatisticsCommitWindow(Integer fgStatisticsId, Long windowStartCommitTime) {
-      this.fgStatisticsId = fgStatisticsId;
-      this.windowStartCommitTime = windowStartCommitTime;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) return true;
-      if (o == null || getClass() != o.getClass()) return false;
-      FeatureGroupStatisticsCommitWindow that = (FeatureGroupStatisticsCommitWindow) o;
-      return Objects.equals(fgStatisticsId, that.fgStatisticsId)
-          && Objects.equals(windowStartCommitTime, that.windowStartCommitTime);
-    }
-
-    @Override
-    public int hashCode() {
-      return Objects.hash(fgStatisticsId, windowStartCommitTime);
-    }
-  }
-
   public StatisticsMigration() {}
   
   @Override
@@ -172,10 +155,13 @@ public class StatisticsMigration implements MigrateStep {
       LOGGER.error(errorMsg);
       close();
       throw new MigrationException(errorMsg, ex);
-    } catch (IOException | IllegalAccessException | InstantiationException ex) {
+    } catch (IOException ex) {
       String errorMsg = "Could not migrate statistics";
       LOGGER.error(errorMsg);
       throw new MigrationException(errorMsg, ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MigrationException("Interrupted while migrating statistics", ex);
     }
     LOGGER.info("Finished migration of " + super.getClass().getName());
   }
@@ -196,252 +182,176 @@ public class StatisticsMigration implements MigrateStep {
     LOGGER.info("Finished rollback of " + super.toString());
   }
   
-  public void runMigration()
-    throws MigrationException, SQLException, IOException, IllegalAccessException, InstantiationException {
-    PreparedStatement fdsStmt = null;
-    
-    try {
-      connection.setAutoCommit(false);
-      
-      // migrate feature descriptive statistics:
-      // - insert statistics (per feature) into feature descriptive statistics table
-      // - insert intermediate fg/td descriptive statistics rows
-      // - update/remove statistics file. Only histograms, correlations, kll and unique values are kept in the file
-      // - update start_commit_window in affected feature group statistic rows
-      fdsStmt = connection.prepareStatement(GET_FEATURE_DESCRIPTIVE_STATISTICS);
-      ResultSet fdsResultSet = fdsStmt.executeQuery();
-      migrateFeatureDescriptiveStatistics(fdsResultSet);
-      fdsStmt.close();
-      
-      // NOTE: The deletion of orphan fds statistics and files is delegated to the StatisticsCleaner.
-      // There are two possible reasons why stats file are orphan during the migration:
-      // - if multiple FG statistics on the same commit id, only the most recent is migrated, the rest become orphan.
-      // - if multiple TD statistics on the same dataset, only the most recent is migrated, the rest become orphan.
-      
-      connection.commit();
-      connection.setAutoCommit(true);
-    } finally {
-      if (fdsStmt != null) {
-        fdsStmt.close();
+  public void runMigration() throws MigrationException, SQLException, IOException, InterruptedException {
+    // migrate feature descriptive statistics:
+    // - insert statistics (per feature) into feature descriptive statistics table
+    // - insert intermediate fg/td descriptive statistics rows
+    // - update/remove statistics file. Only histograms, correlations, kll and unique values are kept in the file
+    // - update start_commit_window in affected feature group statistic rows
+    //
+    // Statistics files are read, parsed and split in extended statistics files by parallel workers. The extended
+    // statistics file names only depend on the commit times and the feature names, so the statistics of a feature
+    // group or training dataset can write the same files: they are migrated in order by a single worker, and the
+    // workers run in parallel across feature groups and training datasets. The rows are written from this thread,
+    // one transaction per chunk of statistics. Statistics committed by a previous run already have intermediate
+    // rows and are skipped, so an interrupted migration can be resumed.
+    List<LegacyStatistics> legacyStatistics = getLegacyStatistics();
+    Set<Integer> migratedFg = getIds(GET_MIGRATED_FG_STATISTICS);
+    Set<Integer> migratedTd = getIds(GET_MIGRATED_TD_STATISTICS);
+    // <fg id, earliest fg commit id>
+    final HashMap<Integer, Long> fgsEarliestFgCommitIds = getEarliestFgCommitIds();
+
+    // <entity type and id, statistics of the entity in the order of the legacy statistics>
+    Map<String, List<LegacyStatistics>> entityStatistics = new LinkedHashMap<>();
+    int skipped = 0;
+    for (LegacyStatistics legacy : legacyStatistics) {
+      if ((legacy.entityType.equals(FEATURE_GROUP) ? migratedFg : migratedTd).contains(legacy.statisticsId)) {
+        skipped++;
+        continue;
+      }
+      String entity = legacy.entityType + "_" + legacy.entityId;
+      List<LegacyStatistics> statistics = entityStatistics.get(entity);
+      if (statistics == null) {
+        statistics = new ArrayList<>();
+        entityStatistics.put(entity, statistics);
       }
+      statistics.add(legacy);
     }
-  }
-  
-  private void migrateFeatureDescriptiveStatistics(ResultSet fdsResultSet)
-    throws SQLException, MigrationException, IOException, IllegalAccessException, InstantiationException {
-    List<Integer> fdsIds = new ArrayList<>(); // keep track of temporary fds to be removed
-    HashMap<Integer, Long> fgsEarliestFgCommitIds; // <fg id, earliest fg commit id>
-    boolean updateFgStatistics = false; // whether one or more fg stats need to be updated
-    boolean deleteFgStatistics = false; // whether one or more fg stats need to be deleted
-    boolean deleteTdStatistics = false; // whether one or more td stats need to be deleted
-    
-    // connections
-    PreparedStatement insertFdsStmt = null;
-    PreparedStatement insertFgFdsStmt = null;
-    PreparedStatement updateFgsStmt = null;
-    PreparedStatement deleteFgsStmt = null;
-    PreparedStatement deleteFgsActStmt = null;
-    PreparedStatement insertTrainDatasetFdsStmt = null;
-    PreparedStatement insertTestDatasetFdsStmt = null;
-    PreparedStatement insertValDatasetFdsStmt = null;
-    PreparedStatement deleteTdsStmt = null;
-    PreparedStatement deleteTdsActStmt = null;
-    Set<Integer> deleteFGStatisticsIds = new HashSet<>();
-    Set<Integer> deleteTDStatisticsIds = new HashSet<>();
-    Set<FeatureGroupStatisticsCommitWindow> updatedFeatureGroupStatisticsCommitWindows = new HashSet<>();
 
-    try {
-      // earliest fg commit ids
-      fgsEarliestFgCommitIds = getEarliestFgCommitIds();
-      
-      // fds connection
-      insertFdsStmt = connection.prepareStatement(INSERT_FEATURE_DESCRIPTIVE_STATISTICS, new String[]{"id"});
-      // table between fg stats and fds
-      insertFgFdsStmt = connection.prepareStatement(INSERT_FEATURE_GROUP_DESCRIPTIVE_STATISTICS); // intermediate
-      // fg stats connection
-      updateFgsStmt = connection.prepareStatement(UPDATE_FEATURE_GROUP_DESCRIPTIVE_STATISTICS);
-      deleteFgsStmt = connection.prepareStatement(DELETE_FEATURE_GROUP_STATISTICS);
-      deleteFgsActStmt = connection.prepareStatement(DELETE_FEATURE_GROUP_STATISTICS_ACTIVITY);
-      // td stats connections
-      insertTrainDatasetFdsStmt = connection.prepareStatement(INSERT_TRAINING_DATASET_DESCRIPTIVE_STATISTICS);
-      insertTestDatasetFdsStmt = connection.prepareStatement(INSERT_TEST_DATASET_DESCRIPTIVE_STATISTICS);
-      insertValDatasetFdsStmt = connection.prepareStatement(INSERT_VAL_DATASET_DESCRIPTIVE_STATISTICS);
-      deleteTdsStmt = connection.prepareStatement(DELETE_TRAINING_DATASET_STATISTICS);
-      deleteTdsActStmt = connection.prepareStatement(DELETE_TRAINING_DATASET_STATISTICS_ACTIVITY);
-      
-      // per fds - migrate stats
-      while (fdsResultSet.next()) {
-        // extract fds column values
-        int statisticsId = fdsResultSet.getInt(1); // this ID is the same for fg/td statistics and temporary fd stats
-        String entityType = fdsResultSet.getString(2); // entity type is temp. stored in feature_type column
-        int entityId = fdsResultSet.getInt(3); // fg id, used to look for earliest commit id, or td id
-        long commitTime = fdsResultSet.getLong(4); // commit time is temp. stored in count column
-        long windowEndCommitTime = fdsResultSet.getLong(5); // window end commit time
-        String filePath = fdsResultSet.getString(6); // extended_stats_path contains the old stats file path
-        
-        LOGGER.info(
-          String.format("[migrateFeatureDescriptiveStatistics] FdsResult: %s, %s, %s, %s, %s, %s", statisticsId,
-            entityType, entityId, commitTime, windowEndCommitTime, filePath));
-        
-        fdsIds.add(statisticsId); // track temporary fds ids, to be removed after migration
-        
-        if (entityType.equals(FEATURE_GROUP)) {
-          // get window start commit time
-          Long windowStartCommitTime = fgsEarliestFgCommitIds.getOrDefault(entityId, null);
-          LOGGER.info(String.format(
-            "[migrateFeatureDescriptiveStatistics] -- window start commit is %s for feature group with id %s",
-            windowStartCommitTime == null ? "null" : String.valueOf(windowStartCommitTime), entityId));
-          if (windowStartCommitTime == null && windowEndCommitTime == 0) {
-            windowEndCommitTime = commitTime; // for non-time-travel-enabled fgs, set end window as committime
-          }
-          // migrate fg stats
-          boolean fdsInserted = migrateFeatureGroupStatistics(statisticsId, filePath, windowStartCommitTime,
-            windowEndCommitTime, insertFdsStmt, insertFgFdsStmt);
-          
-          if (fdsInserted) {
-            // set window start commit time if time travel-enabled fg
-            if (loadFeatureGroupStatisticsCommitWindow(updatedFeatureGroupStatisticsCommitWindows, statisticsId,
-                windowStartCommitTime)) {
-              updateFgStatistics = true;
+    connection.setAutoCommit(false);
+    final LinkedBlockingQueue<MigratedStatistics> migrated = new LinkedBlockingQueue<>();
+    List<MigratedStatistics> chunk = new ArrayList<>();
+    TaskBatch.Report<String, Void> report;
+    try (ChunkWriter writer = new ChunkWriter();
+         TaskBatch<String, Void> batch = new TaskBatch<>("Migrate statistics", ExecutorFactory.workerThreads())) {
+      for (final Map.Entry<String, List<LegacyStatistics>> entity : entityStatistics.entrySet()) {
+        batch.submit(entity.getKey(), new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (LegacyStatistics legacy : entity.getValue()) {
+              LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] FdsResult: %s, %s, %s, %s, %s, %s",
+                legacy.statisticsId, legacy.entityType, legacy.entityId, legacy.commitTime,
+                legacy.windowEndCommitTime, legacy.filePath));
+              MigratedStatistics statistics = new MigratedStatistics(legacy);
+              try {
+                migrated.add(legacy.entityType.equals(FEATURE_GROUP) ?
+                  migrateFeatureGroupStatistics(statistics, fgsEarliestFgCommitIds.get(legacy.entityId)) :
+                  migrateTrainingDatasetStatistics(statistics));
+              } catch (Exception e) {
+                // the statistics is not written to the database, do not leave the extended statistics files it
+                // created behind. The statistics left of the entity are migrated by the next run.
+                removeExtendedStatisticsFiles(statistics);
+                throw e;
+              }
             }
-          } else {  // if fds not inserted
-            // this fg statistics could not be migrated to DB, so we delete the fg stats row.
-            LOGGER.info(String.format(
-              "[migrateFeatureDescriptiveStatistics] -- marking fg statistics for deletion, with id '%s' and " +
-                "feature group id '%s'", statisticsId, entityId));
-            deleteFGStatisticsIds.add(statisticsId);
-            deleteFgStatistics = true;
+            return null;
           }
-        } else if (entityType.equals(TRAINING_DATASET)) {
-          boolean fdsInserted = migrateTrainingDatasetStatistics(statisticsId, filePath, commitTime, insertFdsStmt,
-            insertTrainDatasetFdsStmt, insertTestDatasetFdsStmt, insertValDatasetFdsStmt);
-          
-          if (!fdsInserted) {   // if fds not inserted
-            // this td statistics could not be migrated to DB, so we delete the td stats row.
-            LOGGER.info(String.format(
-              "[migrateFeatureDescriptiveStatistics] -- marking td statistics for deletion, with id '%s' and " +
-                "training dataset id '%s'", statisticsId, entityId));
-            deleteTDStatisticsIds.add(statisticsId);
-            deleteTdStatistics = true;
-          }
-        } else {
-          throw new MigrationException(
-            "Unknown entity type: " + entityType + ". Expected values are " + FEATURE_GROUP + " or " +
-              TRAINING_DATASET);
+        });
+        migrated.drainTo(chunk);
+        if (chunk.size() >= statisticsMigrationBatchSize) {
+          writer.write(chunk);
         }
       }
-      
-      // update feature group statistics window start commits
-      if (updateFgStatistics) {
-        if (dryRun) {
-          LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] Update FGS: %s", updateFgsStmt.toString()));
-        } else {
-          updateFeatureGroupStatisticsCommitWindow(updateFgsStmt, updatedFeatureGroupStatisticsCommitWindows);
-        }
-      }
-      
-      // delete feature group statistics that failed to be migrated
-      if (deleteFgStatistics) {
-        if (dryRun) {
-          LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] Delete FGS: %s", deleteFgsStmt.toString()));
-          LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] Delete FGS ACTIVITY: %s",
-            deleteFgsActStmt.toString()));
-        } else {
-          deleteStatisticsBatch(deleteFgsStmt, deleteFGStatisticsIds, "FGS");
-        }
-      }
-      
-      // delete training dataset statistics that failed to be migrated
-      if (deleteTdStatistics) {
-        if (dryRun) {
-          LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] Delete TDS: %s", deleteTdsStmt.toString()));
-          LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] Delete TDS ACTIVITY: %s",
-            deleteTdsActStmt.toString()));
-        } else {
-          deleteStatisticsBatch(deleteTdsStmt, deleteTDStatisticsIds, "TDS");
+      report = batch.await();
+      migrated.drainTo(chunk);
+      writer.write(chunk);
+    }
+    connection.setAutoCommit(true);
+    LOGGER.info("[migrateFeatureDescriptiveStatistics] Skipped " + skipped + " statistics migrated by a previous run");
+
+    // NOTE: The deletion of orphan fds statistics and files is delegated to the StatisticsCleaner.
+    // There are two possible reasons why stats file are orphan during the migration:
+    // - if multiple FG statistics on the same commit id, only the most recent is migrated, the rest become orphan.
+    // - if multiple TD statistics on the same dataset, only the most recent is migrated, the rest become orphan.
+    // The temporary feature descriptive statistics have become orphan as well.
+    if (!report.getFailures().isEmpty()) {
+      throw new MigrationException("Could not migrate the statistics of " + report.getFailures().size() +
+        " feature groups or training datasets, the migration can be run again to resume",
+        report.getFailures().values().iterator().next());
+    }
+  }
+
+  private List<LegacyStatistics> getLegacyStatistics() throws SQLException, MigrationException {
+    List<LegacyStatistics> legacyStatistics = new ArrayList<>();
+    try (PreparedStatement fdsStmt = connection.prepareStatement(GET_FEATURE_DESCRIPTIVE_STATISTICS);
+         ResultSet fdsResultSet = fdsStmt.executeQuery()) {
+      while (fdsResultSet.next()) {
+        LegacyStatistics legacy = new LegacyStatistics(
+          fdsResultSet.getInt(1), // this ID is the same for fg/td statistics and temporary fd stats
+          fdsResultSet.getString(2), // entity type is temp. stored in feature_type column
+          fdsResultSet.getInt(3), // fg id, used to look for earliest commit id, or td id
+          fdsResultSet.getLong(4), // commit time is temp. stored in count column
+          fdsResultSet.getLong(5), // window end commit time
+          fdsResultSet.getString(6)); // extended_stats_path contains the old stats file path
+        if (!legacy.entityType.equals(FEATURE_GROUP) && !legacy.entityType.equals(TRAINING_DATASET)) {
+          throw new MigrationException(
+            "Unknown entity type: " + legacy.entityType + ". Expected values are " + FEATURE_GROUP + " or " +
+              TRAINING_DATASET);
         }
+        legacyStatistics.add(legacy);
       }
+    }
+    return legacyStatistics;
+  }
 
-      // delete temporary feature descriptive statistics
-      // NOTE: These feature descriptive statistics have become orphan. The deletion of orphan fds statistics and files
-      // is delegated to the StatisticsCleaner.
-      String fdsIdsStr = fdsIds.stream().map(String::valueOf).collect(Collectors.joining(", "));
-      LOGGER.info(String.format("[deleteFeatureDescriptiveStatistics] Delegate deletion of FDS: %s", fdsIdsStr));
-    } finally {
-      if (insertFdsStmt != null) {
-        insertFdsStmt.close();
-      }
-      if (insertFgFdsStmt != null) {
-        insertFgFdsStmt.close();
-      }
-      if (updateFgsStmt != null) {
-        updateFgsStmt.close();
-      }
-      if (deleteFgsStmt != null) {
-        deleteFgsStmt.close();
-      }
-      if (deleteFgsActStmt != null) {
-        deleteFgsActStmt.close();
-      }
-      if (insertTrainDatasetFdsStmt != null) {
-        insertTrainDatasetFdsStmt.close();
-      }
-      if (insertTestDatasetFdsStmt != null) {
-        insertTestDatasetFdsStmt.close();
-      }
-      if (insertValDatasetFdsStmt != null) {
-        insertValDatasetFdsStmt.close();
-      }
-      if (deleteTdsStmt != null) {
-        deleteTdsStmt.close();
-      }
-      if (deleteTdsActStmt != null) {
-        deleteTdsActStmt.close();
+  private Set<Integer> getIds(String query) throws SQLException {
+    Set<Integer> ids = new HashSet<>();
+    try (PreparedStatement stmt = connection.prepareStatement(query);
+         ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) {
+        ids.add(rs.getInt(1));
       }
     }
+    return ids;
   }
-  
-  private boolean migrateFeatureGroupStatistics(int statisticsId, String filePath, Long windowStartCommitTime,
-    Long windowEndCommitTime, PreparedStatement insertFdsStmt, PreparedStatement insertIntermediateStmt)
-    throws SQLException, IOException, MigrationException, IllegalAccessException, InstantiationException {
+
+  private MigratedStatistics migrateFeatureGroupStatistics(MigratedStatistics migrated, Long windowStartCommitTime)
+    throws IOException {
+    LegacyStatistics legacy = migrated.legacy;
+    long windowEndCommitTime = legacy.windowEndCommitTime;
+    LOGGER.info(String.format(
+      "[migrateFeatureDescriptiveStatistics] -- window start commit is %s for feature group with id %s",
+      windowStartCommitTime == null ? "null" : String.valueOf(windowStartCommitTime), legacy.entityId));
+    if (windowStartCommitTime == null && windowEndCommitTime == 0) {
+      windowEndCommitTime = legacy.commitTime; // for non-time-travel-enabled fgs, set end window as committime
+    }
+
     // read and parse old hdfs file with statistics
-    Collection<ExpatFeatureDescriptiveStatistics> fdsList = readAndParseLegacyStatistics(filePath);
+    Collection<ExpatFeatureDescriptiveStatistics> fdsList = readAndParseLegacyStatistics(legacy.filePath);
     if (fdsList == null) {
       LOGGER.info(String.format("[migrateFeatureGroupStatistics] -- skipping fds row due to invalid " +
-          "statistics file at '%s'", filePath));
-      return false;  // skipping fds
+          "statistics file at '%s'", legacy.filePath));
+      // this fg statistics could not be migrated to DB, so we delete the fg stats row.
+      LOGGER.info(String.format(
+        "[migrateFeatureDescriptiveStatistics] -- marking fg statistics for deletion, with id '%s' and " +
+          "feature group id '%s'", legacy.statisticsId, legacy.entityId));
+      return migrated;  // skipping fds
     }
     
     // get stats file parent directory
-    Path oldFilePath = new Path(filePath);
+    Path oldFilePath = new Path(legacy.filePath);
     Path parentDirPath = oldFilePath.getParent();
     
     // get owner, permissions and group
     FileStatus fileStatus = dfso.getFileStatus(oldFilePath);
     
-    // insert feature descriptive statistics
-    insertFeatureDescriptiveStatistics(statisticsId, fdsList, insertIntermediateStmt, insertFdsStmt,
-      windowStartCommitTime, windowEndCommitTime, false, null, parentDirPath, fileStatus);
-    
-    // remove old hfds file
-    if (dryRun) {
-      LOGGER.info(String.format("[migrateFeatureGroupStatistics] Remove old hdfs stats file at: %s", filePath));
-    } else {
-      LOGGER.info(String.format("[migrateFeatureGroupStatistics] Remove old hdfs stats file at: %s", filePath));
-      dfso.rm(filePath, false);
-    }
-    
-    return true; // fds stored in the database
+    // create extended statistics files
+    writeExtendedStatistics(migrated, fdsList, windowStartCommitTime, windowEndCommitTime, false, null, parentDirPath,
+      fileStatus);
+    migrated.add(INSERT_FEATURE_GROUP_DESCRIPTIVE_STATISTICS, fdsList, legacy.filePath);
+    // set window start commit time if time travel-enabled fg
+    migrated.windowStartCommitTime = windowStartCommitTime;
+    return migrated;
   }
   
-  private boolean migrateTrainingDatasetStatistics(int statisticsId, String filePath, Long commitTime,
-    PreparedStatement insertFdsStmt, PreparedStatement insertTrainDatasetFdsStmt,
-    PreparedStatement insertTestDatasetFdsStmt, PreparedStatement insertValDatasetFdsStmt)
-    throws SQLException, IOException, MigrationException, IllegalAccessException, InstantiationException {
+  private MigratedStatistics migrateTrainingDatasetStatistics(MigratedStatistics migrated) throws IOException {
+    LegacyStatistics legacy = migrated.legacy;
+    String filePath = legacy.filePath;
+    long commitTime = legacy.commitTime;
     
     if (!dfso.exists(filePath)) {
       LOGGER.info("[migrateTrainingDatasetStatistics] statistics file does not exist: " + filePath);
-      return false;
+      return markTdStatisticsForDeletion(migrated);
     }
     
     // get owner, permissions and group
@@ -457,19 +367,11 @@ public class StatisticsMigration implements MigrateStep {
       if (fdsList == null) {
         LOGGER.info(String.format("[migrateTrainingDatasetStatistics] -- skipping fds row due to invalid " +
           "statistics file at '%s'", filePath));
-        return false;  // skipping fds
-      }
-      // inserts fds and intermediate (train_fds) rows
-      insertFeatureDescriptiveStatistics(statisticsId, fdsList, insertTrainDatasetFdsStmt, insertFdsStmt, null,
-        commitTime, false, SPLIT_NAME_TRAIN, parentDirPath, fileStatus);
-      if (dryRun) {
-        LOGGER.info(
-          String.format("[migrateTrainingDatasetStatistics] Remove old hdfs stats file at: %s", trainSplitFilePath));
-      } else {
-        LOGGER.info(
-          String.format("[migrateTrainingDatasetStatistics] Remove old hdfs stats file at: %s", trainSplitFilePath));
-        dfso.rm(trainSplitFilePath, false); // remove old hfds file
+        return markTdStatisticsForDeletion(migrated);  // skipping fds
       }
+      // fds and intermediate (train_fds) rows
+      writeExtendedStatistics(migrated, fdsList, null, commitTime, false, SPLIT_NAME_TRAIN, parentDirPath, fileStatus);
+      migrated.add(INSERT_TRAINING_DATASET_DESCRIPTIVE_STATISTICS, fdsList, trainSplitFilePath);
       
       // test split stats
       String testSplitFilePath = filePath + "/" + SPLIT_NAME_TEST + "_" + commitTime + ".json";
@@ -477,19 +379,11 @@ public class StatisticsMigration implements MigrateStep {
       if (fdsList == null) {
         LOGGER.info(String.format("[migrateTrainingDatasetStatistics] -- skipping fds row due to invalid " +
           "statistics file at '%s'", filePath));
-        return false;  // skipping fds
-      }
-      // inserts fds and intermediate (test_fds) rows
-      insertFeatureDescriptiveStatistics(statisticsId, fdsList, insertTestDatasetFdsStmt, insertFdsStmt, null,
-        commitTime, false, SPLIT_NAME_TEST, parentDirPath, fileStatus);
-      if (dryRun) {
-        LOGGER.info(
-          String.format("[migrateTrainingDatasetStatistics] Remove old hdfs stats file at: %s", testSplitFilePath));
-      } else {
-        LOGGER.info(
-          String.format("[migrateTrainingDatasetStatistics] Remove old hdfs stats file at: %s", testSplitFilePath));
-        dfso.rm(testSplitFilePath, false); // remove old hfds file
+        return markTdStatisticsForDeletion(migrated);  // skipping fds
       }
+      // fds and intermediate (test_fds) rows
+      writeExtendedStatistics(migrated, fdsList, null, commitTime, false, SPLIT_NAME_TEST, parentDirPath, fileStatus);
+      migrated.add(INSERT_TEST_DATASET_DESCRIPTIVE_STATISTICS, fdsList, testSplitFilePath);
       
       // val split stats
       String valSplitFilePath = filePath + "/" + SPLIT_NAME_VALIDATION + "_" + commitTime + ".json";
@@ -498,41 +392,53 @@ public class StatisticsMigration implements MigrateStep {
         if (fdsList == null) {
           LOGGER.info(String.format("[migrateTrainingDatasetStatistics] -- skipping fds row due to invalid " +
             "statistics file at '%s'", filePath));
-          return false;  // skipping fds
-        }
-        // inserts fds and intermediate (val_fds) rows
-        insertFeatureDescriptiveStatistics(statisticsId, fdsList, insertValDatasetFdsStmt, insertFdsStmt, null,
-          commitTime, false, SPLIT_NAME_VALIDATION, parentDirPath, fileStatus);
-        if (dryRun) {
-          LOGGER.info(
-            String.format("[migrateTrainingDatasetStatistics] Remove old hdfs stats file at: %s", valSplitFilePath));
-        } else {
-          LOGGER.info(
-            String.format("[migrateTrainingDatasetStatistics] Remove old hdfs stats file at: %s", valSplitFilePath));
-          dfso.rm(valSplitFilePath, false); // remove old hfds file
+          return markTdStatisticsForDeletion(migrated);  // skipping fds
         }
+        // fds and intermediate (val_fds) rows
+        writeExtendedStatistics(migrated, fdsList, null, commitTime, false, SPLIT_NAME_VALIDATION, parentDirPath,
+          fileStatus);
+        migrated.add(INSERT_VAL_DATASET_DESCRIPTIVE_STATISTICS, fdsList, valSplitFilePath);
       }
     } else { // otherwise, either whole training dataset statistics or tr. functions statistics json file
       Collection<ExpatFeatureDescriptiveStatistics> fdsList = readAndParseLegacyStatistics(filePath);
       if (fdsList == null) {
         LOGGER.info(String.format("[migrateTrainingDatasetStatistics] -- skipping fds row due to invalid " +
           "statistics file at '%s'", filePath));
-        return false;  // skipping fds
+        return markTdStatisticsForDeletion(migrated);  // skipping fds
       }
       boolean beforeTransformation = filePath.contains("transformation_fn");
       Path parentDirPath = oldFilePath.getParent();
-      // inserts fds and intermediate (train_fds) rows
-      insertFeatureDescriptiveStatistics(statisticsId, fdsList, insertTrainDatasetFdsStmt, insertFdsStmt, null,
-        commitTime, beforeTransformation, null, parentDirPath, fileStatus);
-      if (dryRun) {
-        LOGGER.info(String.format("[migrateTrainingDatasetStatistics] Remove old hdfs stats file at: %s", filePath));
-      } else {
-        LOGGER.info(String.format("[migrateTrainingDatasetStatistics] Remove old hdfs stats file at: %s", filePath));
-        dfso.rm(filePath, false); // remove old hfds file
-      }
+      // fds and intermediate (train_fds) rows
+      writeExtendedStatistics(migrated, fdsList, null, commitTime, beforeTransformation, null, parentDirPath,
+        fileStatus);
+      migrated.add(INSERT_TRAINING_DATASET_DESCRIPTIVE_STATISTICS, fdsList, filePath);
     }
     
-    return true;  // fds stored in the database
+    return migrated;  // fds to be stored in the database
+  }
+
+  private MigratedStatistics markTdStatisticsForDeletion(MigratedStatistics migrated) {
+    // this td statistics could not be migrated to DB, so we delete the td stats row.
+    LOGGER.info(String.format(
+      "[migrateFeatureDescriptiveStatistics] -- marking td statistics for deletion, with id '%s' and " +
+        "training dataset id '%s'", migrated.legacy.statisticsId, migrated.legacy.entityId));
+    migrated.splits.clear();
+    migrated.oldFiles.clear();
+    // the extended statistics files of the splits read before are orphan
+    removeExtendedStatisticsFiles(migrated);
+    return migrated;
+  }
+
+  private void removeExtendedStatisticsFiles(MigratedStatistics migrated) {
+    for (Path newFile : migrated.newFiles) {
+      LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] Remove extended stats file at: %s", newFile));
+      try {
+        dfso.rm(newFile, false);
+      } catch (IOException e) {
+        LOGGER.warn("[migrateFeatureDescriptiveStatistics] Could not remove " + newFile + ": " + e.getMessage());
+      }
+    }
+    migrated.newFiles.clear();
   }
   
   private HashMap<Integer, Long> getEarliestFgCommitIds() throws SQLException {
@@ -560,17 +466,16 @@ public class StatisticsMigration implements MigrateStep {
   }
   
   private Collection<ExpatFeatureDescriptiveStatistics> readAndParseLegacyStatistics(String filePath) {
-    // read file content
-    String fileContent;
     try {
       if (!dfso.exists(filePath)) {
         LOGGER.info(String.format("[readAndParseLegacyStatistics] statistics file does not exist at '%s'",filePath));
         return null; // no file content to parse
       }
-      fileContent = dfso.cat(filePath);
       
-      // parse feature descriptive statistics
-      return ExpatFeatureDescriptiveStatistics.parseStatisticsJsonString(fileContent);
+      // parse feature descriptive statistics while reading the file
+      try (InputStream in = dfso.open(new Path(filePath))) {
+        return ExpatFeatureDescriptiveStatistics.parseStatisticsJson(in);
+      }
     } catch (IOException e) {
       LOGGER.info(String.format("[readAndParseLegacyStatistics] failed to read the file '%s' with error '%s'",
         filePath, e.getMessage()));
@@ -578,48 +483,18 @@ public class StatisticsMigration implements MigrateStep {
     }
   }
   
-  private void insertFeatureDescriptiveStatistics(int statisticsId,
-    Collection<ExpatFeatureDescriptiveStatistics> fdsList, PreparedStatement insertIntermediateStmt,
-    PreparedStatement insertFdsStmt, Long windowStartCommitTime, Long windowEndCommitTime, boolean beforeTransformation,
-    String splitName, Path dirPath, FileStatus fileStatus)
-    throws SQLException, MigrationException, IOException, IllegalAccessException, InstantiationException {
-    if (fdsList.isEmpty()) {
-      return; // nothing to insert
-    }
-    
-    // insert feature descriptive statistics rows
+  /**
+   * Write the extended statistics of each feature to its own file. The extended statistics of the fds are replaced
+   * by the path of the file. The files are written by the worker of the entity, one at a time, so the number
+   * of concurrent HDFS writes is bounded by the number of workers.
+   */
+  private void writeExtendedStatistics(MigratedStatistics migrated,
+    Collection<ExpatFeatureDescriptiveStatistics> fdsList, Long windowStartCommitTime, Long windowEndCommitTime,
+    boolean beforeTransformation, String splitName, Path dirPath, FileStatus fileStatus) throws IOException {
     for (ExpatFeatureDescriptiveStatistics fds : fdsList) {
-      // create extended statistics file, if needed
-      fds.extendedStatistics =
-        createExtendedStatisticsFile(windowStartCommitTime, windowEndCommitTime, fds.featureName,
-          fds.extendedStatistics, beforeTransformation, splitName, dirPath, fileStatus);
-      // set statement parameters
-      setFdsStatementParameters(insertFdsStmt, fds);
-      // add to batch
-      insertFdsStmt.addBatch();
-    }
-    
-    if (dryRun) {
-      LOGGER.info(
-        String.format("[insertFeatureDescriptiveStatistics] Insert batch of FDS: %s", insertFdsStmt.toString()));
-    } else {
-      LOGGER.info(
-        String.format("[insertFeatureDescriptiveStatistics] Insert batch of FDS: %s", insertFdsStmt.toString()));
-      
-      // insert fds
-      insertFdsStmt.executeBatch();
-      connection.commit();
-      
-      // insert intermediate table rows
-      ResultSet generatedKeys = insertFdsStmt.getGeneratedKeys();
-      while (generatedKeys.next()) {
-        Integer fdsId = generatedKeys.getInt(1);
-        insertIntermediateStmt.setInt(1, statisticsId);
-        insertIntermediateStmt.setInt(2, fdsId);
-        insertIntermediateStmt.addBatch();
-      }
-      insertIntermediateStmt.executeBatch();
-      connection.commit();
+      fds.extendedStatistics = createExtendedStatisticsFile(windowStartCommitTime, windowEndCommitTime,
+        fds.featureName, fds.extendedStatistics, beforeTransformation, splitName, dirPath, fileStatus,
+        migrated.newFiles);
     }
   }
   
@@ -679,8 +554,8 @@ public class StatisticsMigration implements MigrateStep {
   }
   
   private String createExtendedStatisticsFile(Long windowStartCommitTime, Long windowEndCommitTime, String featureName,
-    String extendedStatistics, Boolean beforeTransformation, String splitName, Path dirPath, FileStatus fileStatus)
-    throws IOException, MigrationException, SQLException, IllegalAccessException, InstantiationException {
+    String extendedStatistics, Boolean beforeTransformation, String splitName, Path dirPath, FileStatus fileStatus,
+    List<Path> newFiles) throws IOException {
     if (extendedStatistics == null || extendedStatistics.isEmpty()) {
       return null; // no extended stats to persist
     }
@@ -708,8 +583,13 @@ public class StatisticsMigration implements MigrateStep {
       LOGGER.info(String.format(
         "[createExtendedStatisticsFile] Create FDS hdfs file at: %s with owner: %s, group: %s and content: %s",
         filePath, owner, group, "extendedStatistics"));
+      // a file which already exists was written for another statistics, it is not removed with this one
+      boolean exists = dfso.exists(filePath);
       // create file
       dfso.create(filePath, extendedStatistics);
+      if (!exists) {
+        newFiles.add(filePath);
+      }
       setOwnershipAndPermissions(filePath, owner, permissions, group, dfso);
     }
     return filePath.toString();
@@ -730,53 +610,199 @@ public class StatisticsMigration implements MigrateStep {
     return name + endCommitTime + "_" + featureName + ".json";
   }
   
-  private boolean loadFeatureGroupStatisticsCommitWindow(Set<FeatureGroupStatisticsCommitWindow> loadList,
-      Integer fgStatisticsId, Long windowStartCommitTime) throws SQLException {
-    if (windowStartCommitTime == null) {
-      return false; // skip update, no time travel-enabled feature group
+  /**
+   * Writes the rows of a chunk of migrated statistics in one transaction. The legacy statistics files are
+   * removed once the transaction is committed.
+   */
+  private class ChunkWriter implements AutoCloseable {
+    private final PreparedStatement insertFdsStmt;
+    private final Map<String, PreparedStatement> insertIntermediateStmts = new HashMap<>();
+    private final PreparedStatement updateFgsStmt;
+    private final PreparedStatement deleteFgsStmt;
+    private final PreparedStatement deleteTdsStmt;
+
+    private ChunkWriter() throws SQLException {
+      // fds connection
+      insertFdsStmt = connection.prepareStatement(INSERT_FEATURE_DESCRIPTIVE_STATISTICS, new String[]{"id"});
+      // tables between fg/td stats and fds
+      for (String insertIntermediate : new String[]{INSERT_FEATURE_GROUP_DESCRIPTIVE_STATISTICS,
+        INSERT_TRAINING_DATASET_DESCRIPTIVE_STATISTICS, INSERT_TEST_DATASET_DESCRIPTIVE_STATISTICS,
+        INSERT_VAL_DATASET_DESCRIPTIVE_STATISTICS}) {
+        insertIntermediateStmts.put(insertIntermediate, connection.prepareStatement(insertIntermediate));
+      }
+      // fg/td stats connections
+      updateFgsStmt = connection.prepareStatement(UPDATE_FEATURE_GROUP_DESCRIPTIVE_STATISTICS);
+      deleteFgsStmt = connection.prepareStatement(DELETE_FEATURE_GROUP_STATISTICS);
+      deleteTdsStmt = connection.prepareStatement(DELETE_TRAINING_DATASET_STATISTICS);
+    }
+
+    private void write(List<MigratedStatistics> chunk) throws SQLException, MigrationException {
+      if (chunk.isEmpty()) {
+        return;
+      }
+      // intermediate table and statistics id of each fds row, in insertion order
+      List<String> rowIntermediates = new ArrayList<>();
+      List<Integer> rowStatisticsIds = new ArrayList<>();
+      Set<Integer> deleteFgStatistics = new HashSet<>();
+      Set<Integer> deleteTdStatistics = new HashSet<>();
+      int updatedFgStatistics = 0;
+      try {
+        for (MigratedStatistics migrated : chunk) {
+          int statisticsId = migrated.legacy.statisticsId;
+          if (migrated.splits.isEmpty()) {
+            // statistics that failed to be migrated
+            PreparedStatement deleteStmt = migrated.legacy.entityType.equals(FEATURE_GROUP) ? deleteFgsStmt :
+              deleteTdsStmt;
+            (migrated.legacy.entityType.equals(FEATURE_GROUP) ? deleteFgStatistics : deleteTdStatistics)
+              .add(statisticsId);
+            deleteStmt.setInt(1, statisticsId);
+            deleteStmt.addBatch();
+            continue;
+          }
+          // update feature group statistics window start commits
+          if (migrated.windowStartCommitTime != null) {
+            updateFgsStmt.setLong(1, migrated.windowStartCommitTime);
+            updateFgsStmt.setInt(2, statisticsId);
+            updateFgsStmt.addBatch();
+            updatedFgStatistics++;
+          }
+          for (SplitStatistics split : migrated.splits) {
+            for (ExpatFeatureDescriptiveStatistics fds : split.fdsList) {
+              setFdsStatementParameters(insertFdsStmt, fds);
+              insertFdsStmt.addBatch();
+              rowIntermediates.add(split.insertIntermediate);
+              rowStatisticsIds.add(statisticsId);
+            }
+          }
+        }
+
+        LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] Chunk of %d statistics: insert %d FDS, " +
+            "update %d FGS, delete FGS %s, delete TDS %s", chunk.size(), rowStatisticsIds.size(),
+          updatedFgStatistics, deleteFgStatistics, deleteTdStatistics));
+        if (dryRun) {
+          insertFdsStmt.clearBatch();
+          updateFgsStmt.clearBatch();
+          deleteFgsStmt.clearBatch();
+          deleteTdsStmt.clearBatch();
+        } else {
+          // insert fds
+          insertFdsStmt.executeBatch();
+          // insert intermediate table rows
+          ResultSet generatedKeys = insertFdsStmt.getGeneratedKeys();
+          int row = 0;
+          while (generatedKeys.next()) {
+            PreparedStatement insertIntermediateStmt = insertIntermediateStmts.get(rowIntermediates.get(row));
+            insertIntermediateStmt.setInt(1, rowStatisticsIds.get(row));
+            insertIntermediateStmt.setInt(2, generatedKeys.getInt(1));
+            insertIntermediateStmt.addBatch();
+            row++;
+          }
+          generatedKeys.close();
+          for (PreparedStatement insertIntermediateStmt : insertIntermediateStmts.values()) {
+            insertIntermediateStmt.executeBatch();
+          }
+          updateFgsStmt.executeBatch();
+          deleteFgsStmt.executeBatch();
+          deleteTdsStmt.executeBatch();
+          connection.commit();
+        }
+      } catch (SQLException | MigrationException e) {
+        if (!dryRun) {
+          connection.rollback();
+        }
+        throw e;
+      }
+
+      removeLegacyFiles(chunk);
+      chunk.clear();
+    }
+
+    private void removeLegacyFiles(List<MigratedStatistics> chunk) {
+      for (MigratedStatistics migrated : chunk) {
+        for (String oldFile : migrated.oldFiles) {
+          LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] Remove old hdfs stats file at: %s",
+            oldFile));
+          if (!dryRun) {
+            try {
+              dfso.rm(oldFile, false);
+            } catch (IOException e) {
+              // The file is orphan, its statistics are already in the database
+              LOGGER.warn("[migrateFeatureDescriptiveStatistics] Could not remove " + oldFile + ": " + e.getMessage());
+            }
+          }
+        }
+      }
     }
-    loadList.add(new FeatureGroupStatisticsCommitWindow(fgStatisticsId, windowStartCommitTime));
-    return true;
-  }
 
-  private void updateFeatureGroupStatisticsCommitWindow(PreparedStatement updateFgsStmt,
-      Set<FeatureGroupStatisticsCommitWindow> listToUpdate) throws SQLException {
-    int c = 1;
-    for (FeatureGroupStatisticsCommitWindow e : listToUpdate) {
-      updateFgsStmt.setLong(1, e.windowStartCommitTime);
-      updateFgsStmt.setInt(2, e.fgStatisticsId);
-      updateFgsStmt.addBatch();
-      if (c % statisticsMigrationBatchSize == 0) {
-        LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] Update FGS: %s", updateFgsStmt.toString()));
-        updateFgsStmt.executeBatch();
-        connection.commit();
+    @Override
+    public void close() throws SQLException {
+      insertFdsStmt.close();
+      for (PreparedStatement insertIntermediateStmt : insertIntermediateStmts.values()) {
+        insertIntermediateStmt.close();
       }
-      c++;
+      updateFgsStmt.close();
+      deleteFgsStmt.close();
+      deleteTdsStmt.close();
     }
-    LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] Update FGS: %s", updateFgsStmt.toString()));
-    updateFgsStmt.executeBatch();
-    connection.commit();
   }
-  
-  private void deleteStatisticsBatch(PreparedStatement deleteStatisticsStmt, Set<Integer> statisticsIdsToDelete,
-      String log)
-      throws SQLException {
-    int c = 1;
-    for (Integer id : statisticsIdsToDelete) {
-      deleteStatisticsStmt.setInt(1, id);
-      deleteStatisticsStmt.addBatch();
-      if (c % statisticsMigrationBatchSize == 0) {
-        LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] Delete %s: %s", log,
-            deleteStatisticsStmt.toString()));
-        deleteStatisticsStmt.executeBatch();
-        connection.commit();
+
+  /**
+   * Row of the temporary feature descriptive statistics table, pointing to a legacy statistics file
+   */
+  private static final class LegacyStatistics {
+    private final int statisticsId;
+    private final String entityType;
+    private final int entityId;
+    private final long commitTime;
+    private final long windowEndCommitTime;
+    private final String filePath;
+
+    private LegacyStatistics(int statisticsId, String entityType, int entityId, long commitTime,
+      long windowEndCommitTime, String filePath) {
+      this.statisticsId = statisticsId;
+      this.entityType = entityType;
+      this.entityId = entityId;
+      this.commitTime = commitTime;
+      this.windowEndCommitTime = windowEndCommitTime;
+      this.filePath = filePath;
+    }
+  }
+
+  /**
+   * Parsed statistics ready to be written to the database. A statistics without splits could not be migrated
+   * and is deleted.
+   */
+  private static final class MigratedStatistics {
+    private final LegacyStatistics legacy;
+    private final List<SplitStatistics> splits = new ArrayList<>();
+    private final List<String> oldFiles = new ArrayList<>();
+    // extended statistics files created by the migration of this statistics, files it overwrote are not included
+    private final List<Path> newFiles = new ArrayList<>();
+    private Long windowStartCommitTime;
+
+    private MigratedStatistics(LegacyStatistics legacy) {
+      this.legacy = legacy;
+    }
+
+    private void add(String insertIntermediate, Collection<ExpatFeatureDescriptiveStatistics> fdsList,
+      String oldFile) {
+      splits.add(new SplitStatistics(insertIntermediate, fdsList));
+      // Statistics without features leave no rows to resume from, their legacy file is left to the
+      // StatisticsCleaner
+      if (!fdsList.isEmpty()) {
+        oldFiles.add(oldFile);
       }
-      c++;
     }
-    LOGGER.info(String.format("[migrateFeatureDescriptiveStatistics] Delete %s: %s", log,
-        deleteStatisticsStmt.toString()));
-    deleteStatisticsStmt.executeBatch();
-    connection.commit();
+  }
+
+  private static final class SplitStatistics {
+    private final String insertIntermediate;
+    private final Collection<ExpatFeatureDescriptiveStatistics> fdsList;
+
+    private SplitStatistics(String insertIntermediate, Collection<ExpatFeatureDescriptiveStatistics> fdsList) {
+      this.insertIntermediate = insertIntermediate;
+      this.fdsList = fdsList;
+    }
   }
   
   private byte[] convertPercentilesToByteArray(List<Double> percentilesList) {
@@ -7,15 +7,17 @@ import io.hops.hopsworks.common.hdfs.DistributedFileSystemOps;
 import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
 import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
+import io.hops.hopsworks.expat.migrations.projects.util.DirectoryTree;
 import io.hops.hopsworks.expat.migrations.projects.util.HopsClient;
+import io.hops.hopsworks.expat.migrations.projects.util.HopsClientPool;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.permission.FsPermission;
 import org.json.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,22 +27,29 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class StorageConnectorMigration implements MigrateStep {
   private static final Logger LOGGER = LoggerFactory.getLogger(StorageConnectorMigration.class);
+  // each worker holds an HDFS client, bound them to limit the load on the namenode
+  private static final int MAX_WORKERS = 8;
   
   protected Connection connection;
   DistributedFileSystemOps dfso = null;
   private boolean dryRun;
   private String hopsUser;
+  private int batchSize;
   
   private ObjectMapper objectMapper = new ObjectMapper();
   
   private final static String STORAGE_CONNECTORS_RESOURCE_SUBDIR= "storage_connector_resources";
-  private final static String FEATURESTORE_HIVE_DB_DIR = "hdfs:///apps/hive/warehouse/%s_featurestore.db";
+  private final static String HIVE_WAREHOUSE_DIR = "hdfs:///apps/hive/warehouse";
+  private final static String FEATURESTORE_HIVE_DB = "%s_featurestore.db";
   
   private final static String GET_ALL_SNOWFLAKE_CONNECTORS =
     "SELECT id, arguments FROM feature_store_snowflake_connector";
@@ -66,6 +75,7 @@ public class StorageConnectorMigration implements MigrateStep {
     }
     dfso = HopsClient.getDFSO(hopsUser);
     dryRun = conf.getBoolean(ExpatConf.DRY_RUN);
+    batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
   }
   
   private void close() {
@@ -143,16 +153,15 @@ public class StorageConnectorMigration implements MigrateStep {
       throws MigrationException {
     LOGGER.info("Starting to migrate " + connector + " Connector Options");
   
-    try {
+    try (PreparedStatement getStatement = connection.prepareStatement(getConnectorsSql);
+         PreparedStatement updateStatement = connection.prepareStatement(updateConnectorSql)) {
       connection.setAutoCommit(false);
-    
-      PreparedStatement getStatement = connection.prepareStatement(getConnectorsSql);
-      PreparedStatement updateStatement = connection.prepareStatement(updateConnectorSql);
       ResultSet connectorArguments = getStatement.executeQuery();
     
       int currentConnectorId;
       String currentArguments;
       List<OptionDTO> arguments;
+      int batched = 0;
     
       while (connectorArguments.next()) {
         currentArguments = connectorArguments.getString("arguments");
@@ -172,11 +181,15 @@ public class StorageConnectorMigration implements MigrateStep {
         if (!dryRun) {
           updateStatement.setString(1, fromOptions(arguments));
           updateStatement.setInt(2, currentConnectorId);
-          updateStatement.execute();
+          updateStatement.addBatch();
+          if (++batched % batchSize == 0) {
+            updateStatement.executeBatch();
+          }
         }
       }
-      getStatement.close();
-      updateStatement.close();
+      if (batched % batchSize != 0) {
+        updateStatement.executeBatch();
+      }
       connection.commit();
     
       connection.setAutoCommit(true);
@@ -190,36 +203,21 @@ public class StorageConnectorMigration implements MigrateStep {
   private void migrateConnectorResourcesDirectory() throws MigrationException {
     LOGGER.info("Starting to migrate connector resources directory");
   
-    try {
-      connection.setAutoCommit(false);
-
-      PreparedStatement projectNamesStatement = connection.prepareStatement(GET_PROJECT_NAMES);
-      ResultSet projectNamesResultSet = projectNamesStatement.executeQuery();
-
-      String currentProjectName;
-
-      while (projectNamesResultSet.next()) {
-        // check if project is feature store enabled by checking if the feature store hive db exists
-        currentProjectName = projectNamesResultSet.getString("projectname");
-        Path featureStorePath = new Path(String.format(FEATURESTORE_HIVE_DB_DIR, currentProjectName));
-        if (dfso.exists(featureStorePath)) {
-          FileStatus fileStatus = dfso.getFileStatus(featureStorePath);
-          FsPermission featureStoreDbPermissions = fileStatus.getPermission();
-          String owner = fileStatus.getOwner();
-          String group = fileStatus.getGroup();
-          Path storageConnectorResourcePath = new Path(featureStorePath + "/" + STORAGE_CONNECTORS_RESOURCE_SUBDIR);
-          if (!dryRun && !dfso.exists(storageConnectorResourcePath)) {
-            dfso.mkdir(storageConnectorResourcePath, featureStoreDbPermissions);
-            dfso.setOwner(storageConnectorResourcePath, owner, group);
-          }
-        }
+    try (HopsClientPool clients = new HopsClientPool(hopsUser,
+      Math.min(ExecutorFactory.workerThreads(), MAX_WORKERS))) {
+      DirectoryTree resourceDirs = new DirectoryTree("Create storage connector resource directories", dryRun);
+      for (FileStatus featureStoreDb : getFeatureStoreDbs()) {
+        resourceDirs.add(new Path(featureStoreDb.getPath(), STORAGE_CONNECTORS_RESOURCE_SUBDIR),
+          featureStoreDb.getPermission(), featureStoreDb.getOwner(), featureStoreDb.getGroup());
       }
-
-      connection.commit();
-      connection.setAutoCommit(true);
+      resourceDirs.ensure(clients);
     } catch (SQLException | IOException e) {
       close();
       throw new MigrationException("error", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      close();
+      throw new MigrationException("interrupted", e);
     }
     
     LOGGER.info("Finished to migrate connector resources directory");
@@ -241,16 +239,15 @@ public class StorageConnectorMigration implements MigrateStep {
       throws RollbackException {
     LOGGER.info("Starting to rollback " + connector + " Connector Options");
     
-    try {
+    try (PreparedStatement getStatement = connection.prepareStatement(getConnectorSql);
+         PreparedStatement updateStatement = connection.prepareStatement(updateConnectorSql)) {
       connection.setAutoCommit(false);
-      
-      PreparedStatement getStatement = connection.prepareStatement(getConnectorSql);
-      PreparedStatement updateStatement = connection.prepareStatement(updateConnectorSql);
       ResultSet connectorArguments = getStatement.executeQuery();
       
       int currentConnectorId;
       String currentArguments;
       List<OptionDTO> arguments;
+      int batched = 0;
       
       while (connectorArguments.next()) {
         currentArguments = connectorArguments.getString("arguments");
@@ -274,11 +271,15 @@ public class StorageConnectorMigration implements MigrateStep {
             updateStatement.setString(1, oldFromOptions(arguments, ";"));
           }
           updateStatement.setInt(2, currentConnectorId);
-          updateStatement.execute();
+          updateStatement.addBatch();
+          if (++batched % batchSize == 0) {
+            updateStatement.executeBatch();
+          }
         }
       }
-      getStatement.close();
-      updateStatement.close();
+      if (batched % batchSize != 0) {
+        updateStatement.executeBatch();
+      }
       connection.commit();
       
       connection.setAutoCommit(true);
@@ -293,27 +294,12 @@ public class StorageConnectorMigration implements MigrateStep {
     LOGGER.info("Starting to rollback connector resources directory");
     
     try {
-      connection.setAutoCommit(false);
-      
-      PreparedStatement projectNamesStatement = connection.prepareStatement(GET_PROJECT_NAMES);
-      ResultSet projectNamesResultSet = projectNamesStatement.executeQuery();
-      
-      String currentProjectName;
-      
-      while (projectNamesResultSet.next()) {
-        // check if project is feature store enabled by checking if the feature store hive db exists
-        currentProjectName = projectNamesResultSet.getString("projectname");
-        Path featureStorePath = new Path(String.format(FEATURESTORE_HIVE_DB_DIR, currentProjectName));
-        if (dfso.exists(featureStorePath)) {
-          Path storageConnectorResourcePath = new Path(featureStorePath + "/" + STORAGE_CONNECTORS_RESOURCE_SUBDIR);
-          if (!dryRun && dfso.exists(storageConnectorResourcePath)) {
-            dfso.rm(storageConnectorResourcePath, true);
-          }
+      for (FileStatus featureStoreDb : getFeatureStoreDbs()) {
+        Path storageConnectorResourcePath = new Path(featureStoreDb.getPath(), STORAGE_CONNECTORS_RESOURCE_SUBDIR);
+        if (!dryRun && dfso.exists(storageConnectorResourcePath)) {
+          dfso.rm(storageConnectorResourcePath, true);
         }
       }
-      
-      connection.commit();
-      connection.setAutoCommit(true);
     } catch (SQLException | IOException e) {
       close();
       throw new RollbackException("error", e);
@@ -322,6 +308,29 @@ public class StorageConnectorMigration implements MigrateStep {
     LOGGER.info("Finished to rollback connector resources directory");
   }
   
+  /**
+   * @return the hive databases of the projects with a feature store, found with a single listing of the warehouse
+   */
+  private List<FileStatus> getFeatureStoreDbs() throws SQLException, IOException {
+    Map<String, FileStatus> databases = new HashMap<>();
+    for (FileStatus database : dfso.listStatus(new Path(HIVE_WAREHOUSE_DIR))) {
+      databases.put(database.getPath().getName(), database);
+    }
+    List<FileStatus> featureStoreDbs = new ArrayList<>();
+    try (PreparedStatement projectNamesStatement = connection.prepareStatement(GET_PROJECT_NAMES);
+         ResultSet projectNamesResultSet = projectNamesStatement.executeQuery()) {
+      while (projectNamesResultSet.next()) {
+        // check if project is feature store enabled by checking if the feature store hive db exists
+        FileStatus featureStoreDb =
+          databases.get(String.format(FEATURESTORE_HIVE_DB, projectNamesResultSet.getString("projectname")));
+        if (featureStoreDb != null) {
+          featureStoreDbs.add(featureStoreDb);
+        }
+      }
+    }
+    return featureStoreDbs;
+  }
+  
   private List<OptionDTO> oldToOptions(String arguments, String separator) {
     if (Strings.isNullOrEmpty(arguments) || arguments.equals("[{}]") || arguments.equals("null")) {
       return null;
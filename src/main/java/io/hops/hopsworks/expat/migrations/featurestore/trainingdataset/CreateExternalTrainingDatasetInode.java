@@ -22,15 +22,16 @@ import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
 import io.hops.hopsworks.expat.db.dao.hdfs.inode.ExpatHdfsInode;
 import io.hops.hopsworks.expat.db.dao.hdfs.inode.ExpatInodeController;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
+import io.hops.hopsworks.expat.migrations.projects.util.DirectoryTree;
 import io.hops.hopsworks.expat.migrations.projects.util.HopsClient;
+import io.hops.hopsworks.expat.migrations.projects.util.HopsClientPool;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
-import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.permission.FsPermission;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,14 +40,19 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class CreateExternalTrainingDatasetInode implements MigrateStep {
   private static final Logger LOGGER = LoggerFactory.getLogger(CreateExternalTrainingDatasetInode.class);
+  // each worker holds an HDFS client, bound them to limit the load on the namenode
+  private static final int MAX_WORKERS = 8;
   
   protected Connection connection;
   DistributedFileSystemOps dfso = null;
   private boolean dryRun;
   private String hopsUser;
+  private int batchSize;
   private ExpatInodeController inodeController;
   
   private final static String PROJECT_TRAINING_DATASETS_DIR = "/Projects/%s/%s_Training_Datasets";
@@ -77,6 +83,7 @@ public class CreateExternalTrainingDatasetInode implements MigrateStep {
     }
     dfso = HopsClient.getDFSO(hopsUser);
     dryRun = conf.getBoolean(ExpatConf.DRY_RUN);
+    batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
     inodeController = new ExpatInodeController(this.connection);
   }
   
@@ -131,64 +138,70 @@ public class CreateExternalTrainingDatasetInode implements MigrateStep {
   }
   
   private void migrateExternalTrainingDatasetInode() throws MigrationException {
-    try {
-      connection.setAutoCommit(false);
-    
-      PreparedStatement getTrainingDatasetsStatement = connection.prepareStatement(GET_ALL_EXTERNAL_TRAINING_DATASETS);
-      PreparedStatement updateExternalTrainingDatasetStatement =
-        connection.prepareStatement(UPDATE_EXTERNAL_TRAINING_DATASET_INODE);
-      ResultSet trainingDatasets = getTrainingDatasetsStatement.executeQuery();
-    
-      int externalTrainingDatasetId;
-      int trainingDatasetVersion;
-      String projectName;
-      String trainingDatasetName;
-      String userName;
-      ExpatHdfsInode externalTdInode;
+    try (PreparedStatement updateExternalTrainingDatasetStatement =
+           connection.prepareStatement(UPDATE_EXTERNAL_TRAINING_DATASET_INODE)) {
+      List<ExternalTrainingDataset> trainingDatasets = getExternalTrainingDatasets();
       
-      while (trainingDatasets.next()) {
-        externalTrainingDatasetId = trainingDatasets.getInt("external_training_dataset_id");
-        projectName = trainingDatasets.getString("projectname");
-        trainingDatasetName = trainingDatasets.getString("name");
-        trainingDatasetVersion = trainingDatasets.getInt("version");
-        userName = trainingDatasets.getString("username");
-        
-        String projectTdDir = String.format(PROJECT_TRAINING_DATASETS_DIR, projectName, projectName);
-        String projectTdDirHdfs = "hdfs://" + projectTdDir;
-        Path tdPath = new Path(projectTdDir,trainingDatasetName + "_" + trainingDatasetVersion);
-        Path tdPathHdfs = new Path(projectTdDirHdfs,trainingDatasetName + "_" + trainingDatasetVersion);
-  
-        if (!dfso.exists(tdPath) && !dryRun) {
-          FileStatus fileStatus = dfso.getFileStatus(new Path(projectTdDirHdfs));
-          FsPermission tdPermissions = fileStatus.getPermission();
-          
-          dfso.mkdir(tdPathHdfs, tdPermissions);
-          String owner = projectName + "__" + userName;
-          String group = projectName + "__" + projectName + "_Training_Datasets";
-  
-          dfso.setOwner(tdPathHdfs, owner, group);
-        }
-        externalTdInode = inodeController.getInodeAtPath(tdPath.toString());
+      // create the missing training dataset directories, with the permission of the training datasets dataset
+      DirectoryTree tdDirs = new DirectoryTree("Create external training dataset directories", dryRun);
+      for (ExternalTrainingDataset td : trainingDatasets) {
+        String owner = td.projectName + "__" + td.userName;
+        String group = td.projectName + "__" + td.projectName + "_Training_Datasets";
+        tdDirs.add(td.getPath(), null, owner, group);
+      }
+      try (HopsClientPool clients = new HopsClientPool(hopsUser,
+        Math.min(ExecutorFactory.workerThreads(), MAX_WORKERS))) {
+        tdDirs.ensure(clients);
+      }
+      
+      connection.setAutoCommit(false);
+      int batched = 0;
+      for (ExternalTrainingDataset td : trainingDatasets) {
+        ExpatHdfsInode externalTdInode = inodeController.getInodeAtPath(td.getPath().toString());
         if (!dryRun) {
           updateExternalTrainingDatasetStatement.setLong(1, externalTdInode.getParentId());
           updateExternalTrainingDatasetStatement.setString(2, externalTdInode.getName());
           updateExternalTrainingDatasetStatement.setLong(3, externalTdInode.getPartitionId());
-          updateExternalTrainingDatasetStatement.setInt(4, externalTrainingDatasetId);
-          
-          updateExternalTrainingDatasetStatement.execute();
+          updateExternalTrainingDatasetStatement.setInt(4, td.externalTrainingDatasetId);
+          updateExternalTrainingDatasetStatement.addBatch();
+          if (++batched % batchSize == 0) {
+            updateExternalTrainingDatasetStatement.executeBatch();
+          }
         }
       }
-      getTrainingDatasetsStatement.close();
-      updateExternalTrainingDatasetStatement.close();
+      if (batched % batchSize != 0) {
+        updateExternalTrainingDatasetStatement.executeBatch();
+      }
       connection.commit();
     
       connection.setAutoCommit(true);
     } catch (SQLException | IOException e) {
       close();
       throw new MigrationException("error", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      close();
+      throw new MigrationException("interrupted", e);
     }
   }
   
+  private List<ExternalTrainingDataset> getExternalTrainingDatasets() throws SQLException {
+    List<ExternalTrainingDataset> trainingDatasets = new ArrayList<>();
+    try (PreparedStatement getTrainingDatasetsStatement =
+           connection.prepareStatement(GET_ALL_EXTERNAL_TRAINING_DATASETS);
+         ResultSet trainingDatasetsResultSet = getTrainingDatasetsStatement.executeQuery()) {
+      while (trainingDatasetsResultSet.next()) {
+        trainingDatasets.add(new ExternalTrainingDataset(
+          trainingDatasetsResultSet.getInt("external_training_dataset_id"),
+          trainingDatasetsResultSet.getString("projectname"),
+          trainingDatasetsResultSet.getString("name"),
+          trainingDatasetsResultSet.getInt("version"),
+          trainingDatasetsResultSet.getString("username")));
+      }
+    }
+    return trainingDatasets;
+  }
+  
   private void rollbackExternalTrainingDatasetInode() throws RollbackException {
     try {
       connection.setAutoCommit(false);
@@ -222,4 +235,25 @@ public class CreateExternalTrainingDatasetInode implements MigrateStep {
       throw new RollbackException("error", e);
     }
   }
+  
+  private static final class ExternalTrainingDataset {
+    private final int externalTrainingDatasetId;
+    private final String projectName;
+    private final String name;
+    private final int version;
+    private final String userName;
+    
+    private ExternalTrainingDataset(int externalTrainingDatasetId, String projectName, String name, int version,
+                                    String userName) {
+      this.externalTrainingDatasetId = externalTrainingDatasetId;
+      this.projectName = projectName;
+      this.name = name;
+      this.version = version;
+      this.userName = userName;
+    }
+    
+    private Path getPath() {
+      return new Path(String.format(PROJECT_TRAINING_DATASETS_DIR, projectName, projectName), name + "_" + version);
+    }
+  }
 }
@@ -1,10 +1,14 @@
 package io.hops.hopsworks.expat.migrations.jobs;
 
 import com.google.common.base.Strings;
+import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
+import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
+import io.hops.hopsworks.expat.db.JsonColumnTransformer;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
+import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -12,21 +16,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 
 
 public class RenameResources implements MigrateStep {
   private final static Logger LOGGER = LoggerFactory.getLogger(RenameResources.class);
 
-  private final static String GET_ALL_JOB_CONFIGURATIONS = "SELECT id, json_config FROM jobs";
-  private final static String UPDATE_SPECIFIC_JOB_JSON_CONFIG = "UPDATE jobs SET json_config = ? WHERE id = ?";
   protected Connection connection;
+  private boolean dryRun;
+  private int batchSize;
 
   private void setup() throws SQLException, ConfigurationException {
     connection = DbConnectionFactory.getConnection();
+    Configuration conf = ConfigurationBuilder.getConfiguration();
+    dryRun = conf.getBoolean(ExpatConf.DRY_RUN);
+    batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
   }
 
   @Override
@@ -40,44 +44,27 @@ public class RenameResources implements MigrateStep {
       throw new MigrationException(errorMsg, ex);
     }
 
-    Statement stmt = null;
-    PreparedStatement updateJSONConfigStmt = null;
     try {
-      connection.setAutoCommit(false);
-      stmt = connection.createStatement();
-      ResultSet allJobsResultSet = stmt.executeQuery(GET_ALL_JOB_CONFIGURATIONS);
-
-      updateJSONConfigStmt = connection.prepareStatement(UPDATE_SPECIFIC_JOB_JSON_CONFIG);
-      while (allJobsResultSet.next()) {
-        int id = allJobsResultSet.getInt(1);
-        String oldConfig = allJobsResultSet.getString(2);
-
-        LOGGER.info("Trying to migrate JobID: " + id);
-        String newConfig = convertJSON(oldConfig, true);
-        LOGGER.info("Successfully migrated JobID: " + id);
-
-        updateJSONConfigStmt.setString(1, newConfig);
-        updateJSONConfigStmt.setInt(2, id);
-        updateJSONConfigStmt.addBatch();
-      }
-      updateJSONConfigStmt.executeBatch();
-      connection.commit();
-      connection.setAutoCommit(true);
+      new JsonColumnTransformer(connection, "jobs", "json_config")
+        .pageSize(batchSize)
+        .dryRun(dryRun)
+        .transform(new JsonColumnTransformer.Transform() {
+          @Override
+          public void apply(JsonColumnTransformer.Row row, JSONObject config) {
+            convertJSON(config, true);
+          }
+        })
+        .run();
     } catch(SQLException ex) {
       String errorMsg = "Could not migrate job configurations";
       LOGGER.error(errorMsg);
       throw new MigrationException(errorMsg, ex);
-    } finally {
-      closeConnections(stmt, updateJSONConfigStmt);
     }
     LOGGER.info("Finished jobConfig migration");
   }
 
   //This function converts an old jobConfig to the new format
-  private String convertJSON(String oldConfig, boolean migrate) {
-
-    JSONObject config = new JSONObject(oldConfig);
-
+  private void convertJSON(JSONObject config, boolean migrate) {
     if(migrate) {
 
       removeKeyIfExists(config, "kafka");
@@ -89,8 +76,6 @@ public class RenameResources implements MigrateStep {
     } else {
       rollbackResources(config);
     }
-
-    return config.toString();
   }
 
   private void removeKeyIfExists(JSONObject config, String key) {
@@ -222,50 +207,22 @@ public class RenameResources implements MigrateStep {
       throw new RollbackException(errorMsg, ex);
     }
 
-    Statement stmt = null;
-    PreparedStatement updateJSONConfigStmt = null;
-
     try {
-      connection.setAutoCommit(false);
-      stmt = connection.createStatement();
-      ResultSet allJobsResultSet = stmt.executeQuery(GET_ALL_JOB_CONFIGURATIONS);
-
-      updateJSONConfigStmt = connection.prepareStatement(UPDATE_SPECIFIC_JOB_JSON_CONFIG);
-      while (allJobsResultSet.next()) {
-        int id = allJobsResultSet.getInt(1);
-        String oldConfig = allJobsResultSet.getString(2);
-
-        LOGGER.info("Trying to rollback JobID: " + id);
-        String newConfig = convertJSON(oldConfig, false);
-        LOGGER.info("Successfully rollbacked JobID: " + id);
-
-        updateJSONConfigStmt.setString(1, newConfig);
-        updateJSONConfigStmt.setInt(2, id);
-        updateJSONConfigStmt.addBatch();
-      }
-      updateJSONConfigStmt.executeBatch();
-      connection.commit();
-      connection.setAutoCommit(true);
+      new JsonColumnTransformer(connection, "jobs", "json_config")
+        .pageSize(batchSize)
+        .dryRun(dryRun)
+        .transform(new JsonColumnTransformer.Transform() {
+          @Override
+          public void apply(JsonColumnTransformer.Row row, JSONObject config) {
+            convertJSON(config, false);
+          }
+        })
+        .run();
     } catch(SQLException ex) {
       String errorMsg = "Could not migrate job configurations";
       LOGGER.error(errorMsg);
       throw new RollbackException(errorMsg, ex);
-    } finally {
-      closeConnections(stmt, updateJSONConfigStmt);
     }
     LOGGER.info("Starting jobConfig rollback");
   }
-
-  private void closeConnections(Statement stmt, PreparedStatement preparedStatement) {
-    try {
-      if(stmt != null) {
-        stmt.close();
-      }
-      if(preparedStatement != null) {
-        preparedStatement.close();
-      }
-    } catch(SQLException ex) {
-      //do nothing
-    }
-  }
 }
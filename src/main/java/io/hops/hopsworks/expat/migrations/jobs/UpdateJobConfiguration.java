@@ -1,9 +1,13 @@
 package io.hops.hopsworks.expat.migrations.jobs;
 
+import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
+import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
+import io.hops.hopsworks.expat.db.JsonColumnTransformer;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
+import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -11,21 +15,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Set;
 
 public class UpdateJobConfiguration implements MigrateStep {
   private final static Logger LOGGER = LoggerFactory.getLogger(UpdateJobConfiguration.class);
   
-  private final static String GET_ALL_JOB_CONFIGURATIONS = "SELECT id, json_config FROM jobs";
-  private final static String UPDATE_SPECIFIC_JOB_JSON_CONFIG = "UPDATE jobs SET json_config = ? WHERE id = ?";
   protected Connection connection;
+  private boolean dryRun;
+  private int batchSize;
   
   private void setup() throws SQLException, ConfigurationException {
     connection = DbConnectionFactory.getConnection();
+    Configuration conf = ConfigurationBuilder.getConfiguration();
+    dryRun = conf.getBoolean(ExpatConf.DRY_RUN);
+    batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
   }
   
   @Override
@@ -39,45 +43,27 @@ public class UpdateJobConfiguration implements MigrateStep {
       throw new MigrationException(errorMsg, ex);
     }
     
-    Statement stmt = null;
-    PreparedStatement updateJSONConfigStmt = null;
     try {
-      connection.setAutoCommit(false);
-      stmt = connection.createStatement();
-      ResultSet allJobsResultSet = stmt.executeQuery(GET_ALL_JOB_CONFIGURATIONS);
-      
-      updateJSONConfigStmt = connection.prepareStatement(UPDATE_SPECIFIC_JOB_JSON_CONFIG);
-      while (allJobsResultSet.next()) {
-        int id = allJobsResultSet.getInt(1);
-        String oldConfig = allJobsResultSet.getString(2);
-        
-        LOGGER.info("Trying to migrate JobID: " + id);
-        String newConfig = convertJSON(oldConfig, true);
-        LOGGER.info("Successfully migrated JobID: " + id);
-        
-        updateJSONConfigStmt.setString(1, newConfig);
-        updateJSONConfigStmt.setInt(2, id);
-        updateJSONConfigStmt.addBatch();
-      }
-      updateJSONConfigStmt.executeBatch();
-      connection.commit();
-      connection.setAutoCommit(true);
+      new JsonColumnTransformer(connection, "jobs", "json_config")
+        .pageSize(batchSize)
+        .dryRun(dryRun)
+        .transform(new JsonColumnTransformer.Transform() {
+          @Override
+          public void apply(JsonColumnTransformer.Row row, JSONObject config) {
+            convertJSON(config, true);
+          }
+        })
+        .run();
     } catch (SQLException ex) {
       String errorMsg = "Could not migrate job configurations";
       LOGGER.error(errorMsg);
       throw new MigrationException(errorMsg, ex);
-    } finally {
-      closeConnections(stmt, updateJSONConfigStmt);
     }
     LOGGER.info("Finished jobConfig migration");
   }
   
   //This function converts an old jobConfig to the new format
-  private String convertJSON(String oldConfig, boolean migrate) {
-    
-    
-    JSONObject config = new JSONObject(oldConfig);
-    
+  private void convertJSON(JSONObject config, boolean migrate) {
     if (migrate) {
       
       renameIfKeyExists(config, "type", "jobType");
@@ -86,7 +72,7 @@ public class UpdateJobConfiguration implements MigrateStep {
         addKeyValue(config, "type", "sparkJobConfiguration");
       } else {
         renameIfKeyExists(config, "jobType", "type");
-        return oldConfig.toString();
+        return;
       }
       
       //These do not exist in new Config, drop them
@@ -178,8 +164,6 @@ public class UpdateJobConfiguration implements MigrateStep {
       }
       
     }
-    
-    return config.toString();
   }
   
   private void renameIfKeyExists(JSONObject config, String oldKey, String newKey) {
@@ -366,50 +350,22 @@ public class UpdateJobConfiguration implements MigrateStep {
       throw new RollbackException(errorMsg, ex);
     }
     
-    Statement stmt = null;
-    PreparedStatement updateJSONConfigStmt = null;
-    
     try {
-      connection.setAutoCommit(false);
-      stmt = connection.createStatement();
-      ResultSet allJobsResultSet = stmt.executeQuery(GET_ALL_JOB_CONFIGURATIONS);
-      
-      updateJSONConfigStmt = connection.prepareStatement(UPDATE_SPECIFIC_JOB_JSON_CONFIG);
-      while (allJobsResultSet.next()) {
-        int id = allJobsResultSet.getInt(1);
-        String oldConfig = allJobsResultSet.getString(2);
-        
-        LOGGER.info("Trying to rollback JobID: " + id);
-        String newConfig = convertJSON(oldConfig, false);
-        LOGGER.info("Successfully rollbacked JobID: " + id);
-        
-        updateJSONConfigStmt.setString(1, newConfig);
-        updateJSONConfigStmt.setInt(2, id);
-        updateJSONConfigStmt.addBatch();
-      }
-      updateJSONConfigStmt.executeBatch();
-      connection.commit();
-      connection.setAutoCommit(true);
+      new JsonColumnTransformer(connection, "jobs", "json_config")
+        .pageSize(batchSize)
+        .dryRun(dryRun)
+        .transform(new JsonColumnTransformer.Transform() {
+          @Override
+          public void apply(JsonColumnTransformer.Row row, JSONObject config) {
+            convertJSON(config, false);
+          }
+        })
+        .run();
     } catch (SQLException ex) {
       String errorMsg = "Could not migrate job configurations";
       LOGGER.error(errorMsg);
       throw new RollbackException(errorMsg, ex);
-    } finally {
-      closeConnections(stmt, updateJSONConfigStmt);
     }
     LOGGER.info("Starting jobConfig rollback");
   }
-  
-  private void closeConnections(Statement stmt, PreparedStatement preparedStatement) {
-    try {
-      if (stmt != null) {
-        stmt.close();
-      }
-      if (preparedStatement != null) {
-        preparedStatement.close();
-      }
-    } catch (SQLException ex) {
-      //do nothing
-    }
-  }
 }
@@ -31,7 +31,6 @@ import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 
 public class InferenceSchemaV4Migration implements MigrateStep {
@@ -41,20 +40,17 @@ public class InferenceSchemaV4Migration implements MigrateStep {
   private boolean dryRun;
   
   // queries
-  private final static String GET_PROJECT_IDS = "SELECT id FROM project";
-  private final static String GET_SUBJECT_COMPATIBILITIES = "SELECT id FROM subjects_compatibility " +
+  private final static String UPDATE_SUBJECT_COMPATIBILITIES = "UPDATE subjects_compatibility SET compatibility = ? " +
     "WHERE subject = ?";
-  private final static String UPDATE_SUBJECT_COMPATIBILITY = "UPDATE subjects_compatibility SET compatibility = ? " +
-    "WHERE id = ?";
-  private final static String INSERT_SUBJECT = "REPLACE INTO subjects " +
-      "(subject, version, schema_id, project_id) VALUES" +
-    " (?, ?, ?, ?)";
-  private final static String INSERT_SCHEMA = "REPLACE INTO `schemas` " +
-      "(`schema`, project_id) VALUES (?, ?)";
-  private final static String GET_SCHEMA = "SELECT id FROM `schemas` WHERE `schema` = ? AND project_id = ?";
-  private final static String DELETE_SUBJECT = "DELETE FROM subjects WHERE subject = ? AND version = ? AND project_id" +
-    " = ?";
-  private final static String DELETE_SCHEMA = "DELETE FROM `schemas` WHERE `schema` = ? AND project_id = ?";
+  // the schemas of all projects are created by one statement, the subjects then get the schema ids with a join
+  private final static String INSERT_SCHEMAS = "REPLACE INTO `schemas` (`schema`, project_id) " +
+    "SELECT ?, id FROM project";
+  private final static String INSERT_SUBJECTS = "REPLACE INTO subjects (subject, version, schema_id, project_id) " +
+    "SELECT ?, ?, s.id, s.project_id FROM `schemas` s JOIN project p ON s.project_id = p.id WHERE s.`schema` = ?";
+  private final static String DELETE_SUBJECTS = "DELETE sub FROM subjects sub " +
+    "JOIN project p ON sub.project_id = p.id WHERE sub.subject = ? AND sub.version = ?";
+  private final static String DELETE_SCHEMAS = "DELETE s FROM `schemas` s JOIN project p ON s.project_id = p.id " +
+    "WHERE s.`schema` = ?";
   
   // kafka const
   private final static String SCHEMA_COMPATIBILITY_NONE = "NONE";
@@ -77,76 +73,26 @@ public class InferenceSchemaV4Migration implements MigrateStep {
       throw new MigrationException(errorMsg, ex);
     }
   
-    PreparedStatement getProjectIdsStmt = null;
-    PreparedStatement getSubjectsCompatibilityStmt = null;
-    PreparedStatement updateSubjectCompatibilityStmt = null;
-    PreparedStatement insertSchemaStmt = null;
-    PreparedStatement getSchemaStmt = null;
-    PreparedStatement insertSubjectStmt = null;
-    try {
+    String inferenceSchemaV4 = (new Schema.Parser().parse(INFERENCE_SCHEMA_VERSION_4)).toString();
+    try (PreparedStatement updateSubjectCompatibilitiesStmt =
+           connection.prepareStatement(UPDATE_SUBJECT_COMPATIBILITIES);
+         PreparedStatement insertSchemasStmt = connection.prepareStatement(INSERT_SCHEMAS);
+         PreparedStatement insertSubjectsStmt = connection.prepareStatement(INSERT_SUBJECTS)) {
       connection.setAutoCommit(false);
       
-      // Update subject compatibility
-      // -- get inferenceschema subject compatibilities
-      getSubjectsCompatibilityStmt = connection.prepareStatement(GET_SUBJECT_COMPATIBILITIES);
-      getSubjectsCompatibilityStmt.setString(1, INFERENCE_SCHEMA_NAME);
-      ResultSet subjectResultSet = getSubjectsCompatibilityStmt.executeQuery();
-      
-      // -- update subject compatibilities to NONE
-      updateSubjectCompatibilityStmt = connection.prepareStatement(UPDATE_SUBJECT_COMPATIBILITY);
-      while (subjectResultSet.next()) {
-        int id = subjectResultSet.getInt(1);
-        updateSubjectCompatibilityStmt.setString(1, SCHEMA_COMPATIBILITY_NONE);
-        updateSubjectCompatibilityStmt.setInt(2, id);
-        updateSubjectCompatibilityStmt.addBatch();
-      }
-      if (dryRun) {
-        LOGGER.info(updateSubjectCompatibilityStmt.toString());
-      } else {
-        updateSubjectCompatibilityStmt.executeBatch();
-      }
+      // Update inferenceschema subject compatibilities to NONE
+      updateSubjectCompatibilitiesStmt.setString(1, SCHEMA_COMPATIBILITY_NONE);
+      updateSubjectCompatibilitiesStmt.setString(2, INFERENCE_SCHEMA_NAME);
+      execute(updateSubjectCompatibilitiesStmt, "Update subject compatibilities");
       
       // Create schema and subject
-      // -- per project
-      getProjectIdsStmt = connection.prepareStatement(GET_PROJECT_IDS);
-      ResultSet projectIdsResultSet = getProjectIdsStmt.executeQuery();
-      String inferenceSchemaV4 = (new Schema.Parser().parse(INFERENCE_SCHEMA_VERSION_4)).toString();
-      while(projectIdsResultSet.next()) {
-        int projectId = projectIdsResultSet.getInt(1);
-  
-        // -- create schema
-        insertSchemaStmt = connection.prepareStatement(INSERT_SCHEMA);
-        insertSchemaStmt.setString(1, inferenceSchemaV4);
-        insertSchemaStmt.setInt(2, projectId);
-        if (dryRun) {
-          LOGGER.info(insertSchemaStmt.toString());
-        } else {
-          insertSchemaStmt.execute();
-        }
-        getSchemaStmt = connection.prepareStatement(GET_SCHEMA);
-        getSchemaStmt.setString(1, inferenceSchemaV4);
-        getSchemaStmt.setInt(2, projectId);
-        int schemaId = -1;
-        if (dryRun) {
-          LOGGER.info(getSchemaStmt.toString());
-        } else {
-          ResultSet schemaResultSet = getSchemaStmt.executeQuery();
-          schemaResultSet.next(); // schema was inserted above
-          schemaId = schemaResultSet.getInt(1);
-        }
-        
-        // -- create subject
-        insertSubjectStmt = connection.prepareStatement(INSERT_SUBJECT);
-        insertSubjectStmt.setString(1, INFERENCE_SCHEMA_NAME);
-        insertSubjectStmt.setInt(2, 4);
-        insertSubjectStmt.setInt(3, schemaId);
-        insertSubjectStmt.setInt(4, projectId);
-        if (dryRun) {
-          LOGGER.info(insertSubjectStmt.toString());
-        } else {
-          insertSubjectStmt.execute();
-        }
-      }
+      // -- of every project
+      insertSchemasStmt.setString(1, inferenceSchemaV4);
+      execute(insertSchemasStmt, "Create schemas");
+      insertSubjectsStmt.setString(1, INFERENCE_SCHEMA_NAME);
+      insertSubjectsStmt.setInt(2, 4);
+      insertSubjectsStmt.setString(3, inferenceSchemaV4);
+      execute(insertSubjectsStmt, "Create subjects");
       
       connection.commit();
       connection.setAutoCommit(true);
@@ -154,9 +100,6 @@ public class InferenceSchemaV4Migration implements MigrateStep {
       String errorMsg = "Could not migrate inferenceschema v4";
       LOGGER.error(errorMsg);
       throw new MigrationException(errorMsg, ex);
-    } finally {
-      closeConnections(getSubjectsCompatibilityStmt, updateSubjectCompatibilityStmt, getProjectIdsStmt,
-        insertSchemaStmt, getSchemaStmt, insertSubjectStmt);
     }
     LOGGER.info("Finished inferenceschema v4 migration");
   }
@@ -172,40 +115,17 @@ public class InferenceSchemaV4Migration implements MigrateStep {
       throw new RollbackException(errorMsg, ex);
     }
   
-    PreparedStatement getProjectIdsStmt = null;
-    PreparedStatement deleteSchemaStmt = null;
-    PreparedStatement deleteSubjectStmt = null;
-    try {
+    try (PreparedStatement deleteSubjectsStmt = connection.prepareStatement(DELETE_SUBJECTS);
+         PreparedStatement deleteSchemasStmt = connection.prepareStatement(DELETE_SCHEMAS)) {
       connection.setAutoCommit(false);
       
       // Delete schema and subject
-      // -- per project
-      getProjectIdsStmt = connection.prepareStatement(GET_PROJECT_IDS);
-      ResultSet projectIdsResultSet = getProjectIdsStmt.executeQuery();
-      while(projectIdsResultSet.next()) {
-        int projectId = projectIdsResultSet.getInt(1);
-  
-        // -- delete subject
-        deleteSubjectStmt = connection.prepareStatement(DELETE_SUBJECT);
-        deleteSubjectStmt.setString(1, INFERENCE_SCHEMA_NAME);
-        deleteSubjectStmt.setInt(2, 4);
-        deleteSubjectStmt.setInt(3, projectId);
-        if (dryRun) {
-          LOGGER.info(deleteSubjectStmt.toString());
-        } else {
-          deleteSubjectStmt.execute();
-        }
-  
-        // -- delete schema
-        deleteSchemaStmt = connection.prepareStatement(DELETE_SCHEMA);
-        deleteSchemaStmt.setString(1, (new Schema.Parser().parse(INFERENCE_SCHEMA_VERSION_4)).toString());
-        deleteSchemaStmt.setInt(2, projectId);
-        if (dryRun) {
-          LOGGER.info(deleteSchemaStmt.toString());
-        } else {
-          deleteSchemaStmt.execute();
-        }
-      }
+      // -- of every project
+      deleteSubjectsStmt.setString(1, INFERENCE_SCHEMA_NAME);
+      deleteSubjectsStmt.setInt(2, 4);
+      execute(deleteSubjectsStmt, "Delete subjects");
+      deleteSchemasStmt.setString(1, (new Schema.Parser().parse(INFERENCE_SCHEMA_VERSION_4)).toString());
+      execute(deleteSchemasStmt, "Delete schemas");
     
       connection.commit();
       connection.setAutoCommit(true);
@@ -213,27 +133,21 @@ public class InferenceSchemaV4Migration implements MigrateStep {
       String errorMsg = "Could not rollback inferenceschema v4";
       LOGGER.error(errorMsg);
       throw new RollbackException(errorMsg, ex);
-    } finally {
-      closeConnections(getProjectIdsStmt, deleteSchemaStmt, deleteSubjectStmt);
     }
     LOGGER.info("Finished inferenceschema v4 rollback");
   }
   
+  private void execute(PreparedStatement stmt, String name) throws SQLException {
+    if (dryRun) {
+      LOGGER.info(stmt.toString());
+    } else {
+      LOGGER.info("{}: {} rows affected", name, stmt.executeUpdate());
+    }
+  }
+  
   private void setup() throws SQLException, ConfigurationException {
     connection = DbConnectionFactory.getConnection();
     Configuration conf = ConfigurationBuilder.getConfiguration();
     dryRun = conf.getBoolean(ExpatConf.DRY_RUN);
   }
-  
-  private void closeConnections(PreparedStatement... stmts) {
-    try {
-      for (PreparedStatement stmt : stmts) {
-        if (stmt != null) {
-          stmt.close();
-        }
-      }
-    } catch(SQLException ex) {
-      //do nothing
-    }
-  }
 }
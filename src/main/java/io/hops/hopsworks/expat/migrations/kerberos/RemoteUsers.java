@@ -28,6 +28,8 @@ import io.hops.hopsworks.expat.db.dao.user.ExpatUser;
 import io.hops.hopsworks.expat.db.dao.user.ExpatUserFacade;
 import io.hops.hopsworks.expat.db.dao.user.RemoteUser;
 import io.hops.hopsworks.expat.db.dao.user.RemoteUserFacade;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
+import io.hops.hopsworks.expat.executor.TaskBatch;
 import io.hops.hopsworks.expat.ldap.LDAPQuery;
 import io.hops.hopsworks.expat.ldap.LdapUserNotFound;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
@@ -46,7 +48,14 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class RemoteUsers implements MigrateStep {
 
@@ -61,6 +70,7 @@ public class RemoteUsers implements MigrateStep {
   private String masterPassword = null;
 
   private boolean dryrun = true;
+  private int batchSize = ExpatConf.BATCH_SIZE_DEFAULT;
 
   private static final Logger LOGGER = LoggerFactory.getLogger(RemoteUsers.class);
 
@@ -69,6 +79,7 @@ public class RemoteUsers implements MigrateStep {
     config = ConfigurationBuilder.getConfiguration();
 
     dryrun = config.getBoolean(ExpatConf.DRY_RUN);
+    batchSize = config.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
 
     dbConnection = DbConnectionFactory.getConnection();
 
@@ -85,35 +96,62 @@ public class RemoteUsers implements MigrateStep {
   @Override
   public void migrate() throws MigrationException {
     LOGGER.info("Starting Kerberos migration");
+    ExecutorService cryptoPool = ExecutorFactory.newComputeExecutor("remote-users-crypto");
     try {
-      if (dryrun){
-        dbConnection.setAutoCommit(false);
-      }
+      dbConnection.setAutoCommit(false);
 
       List<ExpatUser> expatUsers = expatUserFacade.getLocalUsers(dbConnection);
-      for (ExpatUser expatUser : expatUsers) {
-        LOGGER.info("Processing user: " + expatUser.getEmail());
-        try {
-          dbConnection.setAutoCommit(false);
-          String uuid = ldapQuery.getUUID(expatUser);
-          addRemoteUser(dbConnection, uuid, expatUser, dryrun);
-          updateUserPassword(expatUser, dryrun);
-          if (!dryrun) {
-            dbConnection.commit();
+      try {
+        Map<String, String> uuids = ldapQuery.resolveUUIDs(expatUsers);
+        LOGGER.info("Found " + uuids.size() + " LDAP users for " + expatUsers.size() + " local users");
+      } catch (NamingException | IOException e) {
+        // Users are looked up one by one below
+        LOGGER.warn("Could not look up LDAP users in bulk: " + e.getMessage());
+      }
+      Map<String, List<ExpatCertificate>> certificates = certificatesFacade.getUsersCertificates(dbConnection);
+
+      // Passwords are re-encrypted on the compute pool, the updates are written from this thread in chunks
+      final LinkedBlockingQueue<UserUpdate> computed = new LinkedBlockingQueue<>();
+      List<UserUpdate> chunk = new ArrayList<>();
+      try (TaskBatch<String, Void> batch = new TaskBatch<>("Re-encrypt user passwords", cryptoPool,
+          2 * ExecutorFactory.computeThreads())) {
+        for (final ExpatUser expatUser : expatUsers) {
+          LOGGER.info("Processing user: " + expatUser.getEmail());
+          final String uuid;
+          try {
+            uuid = ldapQuery.getUUID(expatUser);
+          } catch (LdapUserNotFound notFound) {
+            LOGGER.warn("Could not find LDAP user for email: " + expatUser.getEmail());
+            continue;
+          } catch (NamingException e) {
+            LOGGER.warn("Error processing password update for user: " + expatUser.getEmail());
+            continue;
           }
-          LOGGER.info("Processed LDAP user for email: " + expatUser.getEmail());
-        } catch (LdapUserNotFound notFound) {
-          LOGGER.warn("Could not find LDAP user for email: " + expatUser.getEmail());
-        } catch (Exception e) {
-          LOGGER.warn("Error processing password update for user: " + expatUser.getEmail());
-          if (!dryrun) {
-            dbConnection.rollback();
-            dbConnection.setAutoCommit(true);
+          final List<ExpatCertificate> userCertificates = certificates.containsKey(expatUser.getUsername()) ?
+              certificates.get(expatUser.getUsername()) : new ArrayList<ExpatCertificate>();
+          batch.submit(expatUser.getEmail(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              computed.add(updateUserPassword(expatUser, uuid, userCertificates));
+              return null;
+            }
+          });
+          computed.drainTo(chunk);
+          if (chunk.size() >= batchSize) {
+            writeChunk(chunk);
           }
         }
+        batch.await();
       }
+      computed.drainTo(chunk);
+      writeChunk(chunk);
     } catch (SQLException e)  {
       throw new MigrationException(e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MigrationException("Interrupted while migrating the users", e);
+    } finally {
+      cryptoPool.shutdownNow();
     }
   }
 
@@ -122,32 +160,85 @@ public class RemoteUsers implements MigrateStep {
     // No rollback. Once you tried krb you never go back
   }
 
-  private void addRemoteUser(Connection connection, String uuid, ExpatUser expatUser, boolean dryRun)
-      throws SQLException {
-    RemoteUser remoteUser = new RemoteUser(2, expatUser.getPassword(), uuid, expatUser.getUid());
-    remoteUserFacade.insertRemoteUser(connection, remoteUser, dryRun);
+  /**
+   * Write the updates of a chunk of users in one transaction. If it fails the users are written one
+   * transaction each, so that a failing user does not prevent the others from being migrated.
+   */
+  private void writeChunk(List<UserUpdate> chunk) throws SQLException {
+    if (chunk.isEmpty()) {
+      return;
+    }
+    try {
+      writeUpdates(chunk);
+    } catch (SQLException e) {
+      LOGGER.warn("Could not update " + chunk.size() + " users in one transaction, updating them one by one");
+      for (UserUpdate update : chunk) {
+        try {
+          writeUpdates(Collections.singletonList(update));
+        } catch (SQLException ex) {
+          LOGGER.warn("Error processing password update for user: " + update.expatUser.getEmail());
+        }
+      }
+    }
+    chunk.clear();
   }
 
-  private void updateUserPassword(ExpatUser expatUser, boolean dryRun) throws Exception {
-    List<ExpatCertificate> userCertificates = certificatesFacade.getUserCertificates(dbConnection, expatUser);
+  private void writeUpdates(List<UserUpdate> updates) throws SQLException {
+    List<RemoteUser> remoteUsers = new ArrayList<>();
+    Map<ExpatCertificate, String> certPasswords = new LinkedHashMap<>();
+    Map<ExpatUser, String> userPasswords = new LinkedHashMap<>();
+    for (UserUpdate update : updates) {
+      remoteUsers.add(update.remoteUser);
+      certPasswords.putAll(update.certPasswords);
+      userPasswords.put(update.expatUser, update.userPassword);
+    }
+    try {
+      remoteUserFacade.insertRemoteUsers(dbConnection, remoteUsers, dryrun);
+      certificatesFacade.updateCertPasswords(dbConnection, certPasswords, dryrun);
+      expatUserFacade.updateUserPasswords(dbConnection, userPasswords, dryrun);
+      expatUserFacade.updateModes(dbConnection, userPasswords.keySet(), 1, dryrun);
+      if (!dryrun) {
+        dbConnection.commit();
+      }
+    } catch (SQLException e) {
+      dbConnection.rollback();
+      throw e;
+    }
+    for (UserUpdate update : updates) {
+      LOGGER.info("Processed LDAP user for email: " + update.expatUser.getEmail());
+    }
+  }
+
+  private UserUpdate updateUserPassword(ExpatUser expatUser, String uuid, List<ExpatCertificate> userCertificates) {
     String newUserPwd = DigestUtils.sha256Hex(expatUser.getPassword() + expatUser.getSalt());
+    Map<ExpatCertificate, String> certPasswords = new LinkedHashMap<>();
 
     for (ExpatCertificate certificate : userCertificates) {
-      LOGGER.info("Updating password for certificate: " + certificate.getProjectName());
       try {
         String decryptedCertPwd =
             HopsUtils.decrypt(expatUser.getPassword(), certificate.getCipherPassword(), masterPassword);
-        LOGGER.info("Certificate PWD: " + decryptedCertPwd);
-        String newCertPwd = HopsUtils.encrypt(newUserPwd, decryptedCertPwd, masterPassword);
-        certificatesFacade.updateCertPassword(dbConnection, certificate, newCertPwd, dryRun);
+        certPasswords.put(certificate, HopsUtils.encrypt(newUserPwd, decryptedCertPwd, masterPassword));
       } catch (Exception e) {
         LOGGER.info("Error Decrypting password for project certificate: " + certificate.getProjectName());
       }
     }
 
-    LOGGER.info("Updating password for user");
-    expatUserFacade.updateUserPassword(dbConnection, expatUser, newUserPwd, dryRun);
-    LOGGER.info("Updating mode for user");
-    expatUserFacade.updateMode(dbConnection, expatUser, 1, dryRun);
+    RemoteUser remoteUser = new RemoteUser(2, expatUser.getPassword(), uuid, expatUser.getUid());
+    return new UserUpdate(expatUser, remoteUser, newUserPwd, certPasswords);
+  }
+
+  private static final class UserUpdate {
+    private final ExpatUser expatUser;
+    private final RemoteUser remoteUser;
+    private final String userPassword;
+    private final Map<ExpatCertificate, String> certPasswords;
+
+    private UserUpdate(ExpatUser expatUser, RemoteUser remoteUser, String userPassword,
+        Map<ExpatCertificate, String> certPasswords) {
+      this.expatUser = expatUser;
+      this.remoteUser = remoteUser;
+      this.userPassword = userPassword;
+      this.certPasswords = certPasswords;
+    }
   }
 }
@@ -28,6 +28,7 @@ import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
 import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
 import io.hops.hopsworks.expat.kubernetes.KubernetesClientFactory;
+import io.hops.hopsworks.expat.kubernetes.SecretApplier;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
@@ -59,8 +60,12 @@ public class CreateCertSecrets implements MigrateStep {
   @Override
   public void migrate() throws MigrationException {
     KubernetesClient client;
+    int concurrency;
+    boolean dryRun;
     try {
       client = KubernetesClientFactory.getClient();
+      concurrency = KubernetesClientFactory.getConcurrency();
+      dryRun = ConfigurationBuilder.getConfiguration().getBoolean(ExpatConf.DRY_RUN);
     } catch (ConfigurationException e) {
       throw new MigrationException("Cannot read the configuration", e);
     }
@@ -77,7 +82,7 @@ public class CreateCertSecrets implements MigrateStep {
     Connection dbConn;
     Statement stmt = null;
     ResultSet resultSet = null;
-    try {
+    try (SecretApplier applier = new SecretApplier("Create certificate secrets", client, concurrency, dryRun)) {
       dbConn = DbConnectionFactory.getConnection();
       stmt = dbConn.createStatement();
       resultSet = stmt.executeQuery("SELECT u.username AS username, projectname, password, user_key, " +
@@ -110,22 +115,28 @@ public class CreateCertSecrets implements MigrateStep {
           Secret secret = new SecretBuilder()
               .withMetadata(new ObjectMetaBuilder()
                   .withName(kubeUsername)
+                  .withNamespace(nsName)
                   .build())
               .withData(secretData)
               .build();
 
-          // Send request
-          client.secrets().inNamespace(nsName).createOrReplace(secret);
-
-          LOGGER.info("Secret " + kubeUsername + " created for project user: " + projectName);
+          // Queue request
+          applier.apply(secret);
+        } catch (InterruptedException e) {
+          throw e;
         } catch (Exception e) {
           LOGGER.error("Could not create secret " + kubeUsername + " for project user: "
               + projectName, e);
         }
 
       }
+      // Secrets which could not be applied are logged by the applier
+      applier.await();
     } catch (SQLException | ConfigurationException e) {
       throw new MigrationException("Cannot fetch the list of projects from the database", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MigrationException("Interrupted while creating the certificate secrets", e);
     } finally {
       if (stmt != null) {
         try {
@@ -17,12 +17,12 @@
 
 package io.hops.hopsworks.expat.migrations.kubernetes;
 
-import io.fabric8.kubernetes.api.model.Namespace;
-import io.fabric8.kubernetes.api.model.NamespaceBuilder;
-import io.fabric8.kubernetes.client.KubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
+import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
 import io.hops.hopsworks.expat.kubernetes.KubernetesClientFactory;
+import io.hops.hopsworks.expat.kubernetes.NamespaceBatch;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
@@ -34,6 +34,8 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
 
 public class CreateNS implements MigrateStep {
   
@@ -41,9 +43,9 @@ public class CreateNS implements MigrateStep {
 
   @Override
   public void migrate() throws MigrationException {
-    KubernetesClient client;
+    NamespaceBatch namespaces;
     try {
-      client = KubernetesClientFactory.getClient();
+      namespaces = getNamespaceBatch();
     } catch (ConfigurationException e) {
       throw new MigrationException("Cannot read the configuration", e);
     }
@@ -56,23 +58,20 @@ public class CreateNS implements MigrateStep {
       stmt = dbConn.createStatement();
       resultSet = stmt.executeQuery("SELECT projectname FROM project");
 
+      Set<String> nsNames = new HashSet<>();
       while (resultSet.next()) {
         String projectName = resultSet.getString(1);
-        String nsName = projectName.toLowerCase().replaceAll("[^a-z0-9-]", "-");
-        try {
-          client.namespaces().resource(new NamespaceBuilder()
-              .withNewMetadata()
-              .withName(nsName)
-              .endMetadata()
-              .build()).create();
-          LOGGER.info("Namespace " + nsName + " created for project: " + projectName);
-        } catch (KubernetesClientException e) {
-          LOGGER.error("Could not create Namespace " + nsName + " for project: " + projectName, e);
-        }
+        nsNames.add(projectName.toLowerCase().replaceAll("[^a-z0-9-]", "-"));
+      }
 
+      Set<String> failed = namespaces.create(nsNames, null);
+      for (String nsName : failed) {
+        LOGGER.error("Could not create Namespace " + nsName);
       }
     } catch (SQLException | ConfigurationException e) {
       throw new MigrationException("Cannot fetch the list of projects from the database", e);
+    } catch (KubernetesClientException | InterruptedException e) {
+      throw new MigrationException("Could not create the project namespaces", e);
     } finally {
       if (stmt != null) {
         try {
@@ -92,11 +91,16 @@ public class CreateNS implements MigrateStep {
     }
   }
 
+  private NamespaceBatch getNamespaceBatch() throws ConfigurationException {
+    boolean dryRun = ConfigurationBuilder.getConfiguration().getBoolean(ExpatConf.DRY_RUN);
+    return new NamespaceBatch(KubernetesClientFactory.getClient(), KubernetesClientFactory.getConcurrency(), dryRun);
+  }
+
   @Override
   public void rollback() throws RollbackException {
-    KubernetesClient client;
+    NamespaceBatch namespaces;
     try {
-      client = KubernetesClientFactory.getClient();
+      namespaces = getNamespaceBatch();
     } catch (ConfigurationException e) {
       throw new RollbackException("Cannot read the configuration", e);
     }
@@ -109,25 +113,20 @@ public class CreateNS implements MigrateStep {
       stmt = dbConn.createStatement();
       resultSet = stmt.executeQuery("SELECT projectname FROM project");
 
+      Set<String> nsNames = new HashSet<>();
       while (resultSet.next()) {
         String projectName = resultSet.getString(1);
-        String nsName = projectName.replace("_", "-");
-        try {
-          Namespace ns = new NamespaceBuilder()
-              .withNewMetadata()
-              .withName(nsName)
-              .endMetadata()
-              .build();
-
-          client.namespaces().delete(ns);
-          LOGGER.info("Namespace " + nsName + " deleted for project: " + projectName);
-        } catch (KubernetesClientException e) {
-          LOGGER.error("Could not delete Namespace " + nsName + " for project: " + projectName, e);
-        }
+        nsNames.add(projectName.replace("_", "-"));
+      }
 
+      Set<String> failed = namespaces.delete(nsNames, null);
+      for (String nsName : failed) {
+        LOGGER.error("Could not delete Namespace " + nsName);
       }
     } catch (SQLException | ConfigurationException e) {
       throw new RollbackException("Cannot fetch the list of projects from the database", e);
+    } catch (KubernetesClientException | InterruptedException e) {
+      throw new RollbackException("Could not delete the project namespaces", e);
     } finally {
       if (stmt != null) {
         try {
@@ -31,6 +31,8 @@ import io.hops.hopsworks.expat.db.dao.project.ExpatProjectFacade;
 import io.hops.hopsworks.expat.db.dao.user.ExpatUser;
 import io.hops.hopsworks.expat.db.dao.user.ExpatUserFacade;
 import io.hops.hopsworks.expat.elastic.ElasticClient;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
+import io.hops.hopsworks.expat.executor.TaskBatch;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
@@ -53,28 +55,36 @@ import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
+/**
+ * Moves the model versions from the file provenance indices of the projects to the model_version table. The
+ * indices are read with a scroll, so that projects with any number of model versions are migrated, and the
+ * projects are migrated in parallel, each with its own database connection. The rows are written with
+ * multi-row statements.
+ */
 public class OpenSearchToRonDBMigration implements MigrateStep {
   private final static Logger LOGGER = LoggerFactory.getLogger(OpenSearchToRonDBMigration.class);
-
-  protected ExpatModelsController expatModelsController;
-  protected ExpatInodeController expatInodeController;
-  protected ExpatProjectFacade expatProjectFacade;
-  protected ExpatHdfsUserFacade expatHdfsUserFacade;
-  protected ExpatUserFacade expatUserFacade;
+  //each worker holds a connection, stay below the size of the connection pool
+  private static final int MAX_WORKERS = 8;
+  private static final int PAGE_SIZE = 1000;
+  private static final String SCROLL_KEEP_ALIVE = "5m";
 
   protected boolean dryRun;
+  protected int batchSize = ExpatConf.BATCH_SIZE_DEFAULT;
 
-  protected Connection connection;
   private CloseableHttpClient httpClient;
   private HttpHost elastic;
   private String elasticUser;
   private String elasticPass;
 
   private void setup()
-    throws SQLException, ConfigurationException, GeneralSecurityException {
-    connection = DbConnectionFactory.getConnection();
+    throws ConfigurationException, GeneralSecurityException {
     Configuration conf = ConfigurationBuilder.getConfiguration();
     String elasticURI = conf.getString(ExpatConf.ELASTIC_URI);
 
@@ -96,19 +106,15 @@ public class OpenSearchToRonDBMigration implements MigrateStep {
       .setDefaultRequestConfig(RequestConfig.custom().setCookieSpec(CookieSpecs.IGNORE_COOKIES).build())
       .setSSLContext(new SSLContextBuilder().loadTrustMaterial((x509Certificates, s) -> true).build())
       .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+      //one connection per worker
+      .setMaxConnPerRoute(MAX_WORKERS)
+      .setMaxConnTotal(MAX_WORKERS)
       .build();
-    this.expatModelsController = new ExpatModelsController(this.connection);
-    this.expatInodeController = new ExpatInodeController(this.connection);
-    this.expatProjectFacade = new ExpatProjectFacade(ExpatProject.class, this.connection);
-    this.expatUserFacade = new ExpatUserFacade();
-    this.expatHdfsUserFacade = new ExpatHdfsUserFacade(ExpatHdfsUser.class, this.connection);
     this.dryRun = conf.getBoolean(ExpatConf.DRY_RUN);
+    this.batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
   }
 
-  private void close() throws SQLException, IOException {
-    if(connection != null) {
-      connection.close();
-    }
+  private void close() throws IOException {
     if(httpClient != null) {
       httpClient.close();
     }
@@ -119,174 +125,260 @@ public class OpenSearchToRonDBMigration implements MigrateStep {
     try {
       setup();
       LOGGER.info("Getting all file provenance indices");
-      JSONObject fileProvIndices = ElasticClient.getIndicesByRegex(httpClient, elastic, elasticUser, elasticPass,
+      List<String> fileProvIndices = ElasticClient.getIndexNames(httpClient, elastic, elasticUser, elasticPass,
         "*__file_prov");
-      if (fileProvIndices.length() == 10000) {
-        throw new MigrationException("Unexpected large amount of file provenance indices detected. This migration " +
-                "does not handle more than 10000 file provenance indices. " +
-                "Migration needs to be fixed to handle pagination");
+      if (fileProvIndices.isEmpty()) {
+        return;
       }
-      if (fileProvIndices.length() > 0) {
-        LOGGER.info("Found {} file provenance indices to migrate", fileProvIndices.keySet().size());
-        for(String fileProvIndexName: fileProvIndices.keySet()) {
-          long projectInodeId = Long.parseLong(fileProvIndexName.substring(0, fileProvIndexName.indexOf("__")));
-          ExpatHdfsInode projectInode = expatInodeController.getInodeById(projectInodeId);
-          if (projectInode == null) {
-            LOGGER.warn("Project inode does not exist " + projectInodeId + ", skipping migration");
-          } else {
-            String projectName = projectInode.getName();
-            ExpatHdfsInode modelDatasetInode = expatInodeController.getInodeAtPath(
-                    String.format("/Projects/%s/Models", projectName));
-            if (modelDatasetInode == null) {
-              LOGGER.info("Project " + projectName + " does NOT have a Models dataset. Continue...");
-              continue;
+      LOGGER.info("Found {} file provenance indices to migrate", fileProvIndices.size());
+      int concurrency = Math.min(Math.min(ExecutorFactory.workerThreads(), MAX_WORKERS), fileProvIndices.size());
+      TaskBatch.Report<String, Integer> report;
+      try (TaskBatch<String, Integer> batch = new TaskBatch<>("Migrate model versions", concurrency)) {
+        for (final String fileProvIndexName : fileProvIndices) {
+          batch.submit(fileProvIndexName, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+              return migrateIndex(fileProvIndexName);
             }
-            String query = "{\"track_total_hits\":true,\"from\":0,\"size\":10000,\"query\":{\"bool\":" +
-                    "{\"must\":[{\"term\":{\"entry_type\":" +
-                    "{\"value\":\"state\",\"boost\":1.0}}},{\"bool\":{\"should\":[{\"term\":{\"project_i_id\":" +
-                    "{\"value\":\"" + projectInode.getId() + "\",\"boost\":1.0}}}]" +
-                    ",\"adjust_pure_negative\":true,\"boost\":1.0}},{\"bool\":" +
-                    "{\"should\":[{\"term\":{\"ml_type\":{\"value\":\"MODEL\",\"boost\":1.0}}}]," +
-                    "\"adjust_pure_negative\":true,\"boost\":1.0}},{\"bool\":{\"should\":[{\"term\":{\"dataset_i_id\":"
-                    +
-                    "{\"value\":\"" + modelDatasetInode.getId() + "\",\"boost\":1.0}}}]" +
-                    ",\"adjust_pure_negative\":true,\"boost\":1.0}},{\"exists\":" +
-                    "{\"field\":\"xattr_prov.model_summary.value\",\"boost\":1.0}}]," +
-                    "\"adjust_pure_negative\":true,\"boost\":1.0}}}";
-
-            JSONObject resp = ElasticClient.search(httpClient, elastic, elasticUser, elasticPass, fileProvIndexName,
-                    query);
-
-            JSONObject modelSearchHits = resp.getJSONObject("hits");
-            int totalHits = modelSearchHits.getJSONObject("total").getInt("value");
-            JSONArray modelHits = modelSearchHits.getJSONArray("hits");
-            if(totalHits > modelHits.length()) {
-              throw new MigrationException("There are more documents in opensearch than what will be consumed by" +
-                      " the migration, totalHits=" + totalHits + ", modelHits=" + modelHits.length());
-            }
-            if (modelHits.length() > 0) {
-              LOGGER.info("Migrating {} model versions for project {}", modelHits.length(), projectInode.getName());
-              for (int y = 0; y < modelHits.length(); y++) {
-                JSONObject modelHit = modelHits.getJSONObject(y);
-                JSONObject source = modelHit.getJSONObject("_source");
-                JSONObject xattrProv = source.getJSONObject("xattr_prov");
-                JSONObject modelSummary = xattrProv.getJSONObject("model_summary");
-                JSONObject value = modelSummary.getJSONObject("value");
-
-                ExpatProject expatProject = expatProjectFacade.findByProjectName(projectInode.getName());
-                Integer userId = getModelVersionCreator(expatProject, source);
-
-                String modelName = null;
-                if (value.has("name")) {
-                  modelName = value.getString("name");
-                } else {
-                  throw new MigrationException("name field missing from model: " + source.toString(4));
-                }
-
-                Integer version = null;
-                if (value.has("version")) {
-                  version = value.getInt("version");
-                } else {
-                  throw new MigrationException("version field missing from model: " + source.toString(4));
-                }
-
-                Long created = new Date().getTime();
-                if (source.has("create_timestamp") && !value.isNull("create_timestamp")) {
-                  created = source.getLong("create_timestamp");
-                }
-
-                String description = null;
-                if (value.has("description") && !value.isNull("description")) {
-                  description = value.getString("description");
-                }
-
-                String metrics = null;
-                if (value.has("metrics") && !value.isNull("metrics")) {
-                  Object metricsObj;
-                  metricsObj = value.get("metrics");
-                  if (metricsObj instanceof JSONObject) {
-                    JSONObject migratedMetrics = new JSONObject();
-                    migratedMetrics.put("attributes", metricsObj);
-                    metrics = migratedMetrics.toString();
-                  }
-                }
-
-                String program = null;
-                if (value.has("program") && !value.isNull("program")) {
-                  program = value.getString("program");
-                }
-
-                String framework = "PYTHON";
-                if (value.has("framework") && !value.isNull("framework")) {
-                  framework = value.getString("framework");
-                }
-
-                String environment = null;
-                if (projectName != null && modelName != null && version != null) {
-                  environment = String.format("/Projects/%s/Models/%s/%s/environment.yml",
-                          projectName, modelName, version);
-                }
-
-                String experimentId = null;
-                if (value.has("experimentId") && !value.isNull("experimentId")) {
-                  experimentId = value.getString("experimentId");
-                }
-
-                String experimentProjectName = null;
-                if (value.has("experimentProjectName") && !value.isNull("experimentProjectName")) {
-                  experimentProjectName = value.getString("experimentProjectName");
-                }
-
-                ExpatModel expatModel = expatModelsController.getByProjectAndName(expatProject.getId(), modelName);
-                if (expatModel == null) {
-                  LOGGER.info("Could not find model {} for project {}, creating it", modelName, expatProject.getName());
-                  expatModel = expatModelsController.insertModel(connection, modelName, expatProject.getId(),
-                          false);
-                }
-                ExpatModelVersion expatModelVersion = expatModelsController.insertModelVersion(connection,
-                        expatModel.getId(), version, userId, created, description, metrics, program,
-                        framework, environment, experimentId, experimentProjectName, dryRun);
-                LOGGER.info("Successfully migrated model {} version {} for project {}", expatModel.getName(), version,
-                        expatProject.getName());
-              }
-            } else {
-              LOGGER.info("Found no model versions to migrate for project {}", projectInode.getName());
-            }
-          }
+          });
         }
+        report = batch.await();
+      }
+      int migrated = 0;
+      for (Integer projectMigrated : report.getResults().values()) {
+        migrated += projectMigrated;
       }
-    } catch (SQLException | ConfigurationException | GeneralSecurityException | IOException | URISyntaxException |
-             IllegalAccessException | InstantiationException e) {
+      LOGGER.info("Migrated {} model versions from {} file provenance indices", migrated,
+        report.getResults().size());
+      if (!report.getFailures().isEmpty()) {
+        throw new MigrationException("Failed to migrate the model versions of " + report.getFailures().size()
+          + " file provenance indices", report.getFailures().values().iterator().next());
+      }
+    } catch (ConfigurationException | GeneralSecurityException | IOException | URISyntaxException e) {
       throw new MigrationException("error", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MigrationException("interrupted", e);
     } finally {
       try {
         close();
-      } catch (SQLException | IOException e) {
+      } catch (IOException e) {
         throw new MigrationException("error on close", e);
       }
     }
   }
 
-  private Integer getModelVersionCreator(ExpatProject project, JSONObject source)
-    throws SQLException, IllegalAccessException, InstantiationException {
-    if(!source.has("user_id")) {
-      return getProjectCreator(project);
+  /**
+   * @return the number of model versions migrated from the index
+   */
+  private int migrateIndex(String fileProvIndexName) throws SQLException, ConfigurationException,
+    MigrationException, URISyntaxException, IOException, IllegalAccessException, InstantiationException {
+    long projectInodeId = Long.parseLong(fileProvIndexName.substring(0, fileProvIndexName.indexOf("__")));
+    try (Connection connection = DbConnectionFactory.getConnection()) {
+      ExpatInodeController expatInodeController = new ExpatInodeController(connection);
+      ExpatHdfsInode projectInode = expatInodeController.getInodeById(projectInodeId);
+      if (projectInode == null) {
+        LOGGER.warn("Project inode does not exist " + projectInodeId + ", skipping migration");
+        return 0;
+      }
+      String projectName = projectInode.getName();
+      ExpatHdfsInode modelDatasetInode = expatInodeController.getInodeAtPath(
+        String.format("/Projects/%s/Models", projectName));
+      if (modelDatasetInode == null) {
+        LOGGER.info("Project " + projectName + " does NOT have a Models dataset. Continue...");
+        return 0;
+      }
+      ExpatProject expatProject = new ExpatProjectFacade(ExpatProject.class, connection)
+        .findByProjectName(projectName);
+      if (expatProject == null) {
+        throw new MigrationException("Project " + projectName + " of inode " + projectInodeId + " does not exist");
+      }
+      String query = "{\"query\":{\"bool\":" +
+        "{\"must\":[{\"term\":{\"entry_type\":" +
+        "{\"value\":\"state\",\"boost\":1.0}}},{\"bool\":{\"should\":[{\"term\":{\"project_i_id\":" +
+        "{\"value\":\"" + projectInode.getId() + "\",\"boost\":1.0}}}]" +
+        ",\"adjust_pure_negative\":true,\"boost\":1.0}},{\"bool\":" +
+        "{\"should\":[{\"term\":{\"ml_type\":{\"value\":\"MODEL\",\"boost\":1.0}}}]," +
+        "\"adjust_pure_negative\":true,\"boost\":1.0}},{\"bool\":{\"should\":[{\"term\":{\"dataset_i_id\":" +
+        "{\"value\":\"" + modelDatasetInode.getId() + "\",\"boost\":1.0}}}]" +
+        ",\"adjust_pure_negative\":true,\"boost\":1.0}},{\"exists\":" +
+        "{\"field\":\"xattr_prov.model_summary.value\",\"boost\":1.0}}]," +
+        "\"adjust_pure_negative\":true,\"boost\":1.0}}}";
+
+      ProjectModels projectModels = new ProjectModels(connection, expatProject);
+      try (ElasticClient.Scroll scroll = ElasticClient.scroll(httpClient, elastic, elasticUser, elasticPass,
+        fileProvIndexName, new JSONObject(query), PAGE_SIZE, SCROLL_KEEP_ALIVE)) {
+        JSONArray modelHits;
+        while ((modelHits = scroll.next()).length() > 0) {
+          for (int y = 0; y < modelHits.length(); y++) {
+            projectModels.add(modelHits.getJSONObject(y).getJSONObject("_source"));
+          }
+        }
+      }
+      projectModels.flush();
+      if (projectModels.migrated > 0) {
+        LOGGER.info("Migrated {} model versions for project {}", projectModels.migrated, projectName);
+      } else {
+        LOGGER.info("Found no model versions to migrate for project {}", projectName);
+      }
+      return projectModels.migrated;
     }
-    ExpatHdfsUser expatHdfsUser = expatHdfsUserFacade.find(source.getInt("user_id"));
-    if(expatHdfsUser == null) {
-      return getProjectCreator(project);
+  }
+
+  /**
+   * Model versions of one project, buffered and inserted {@code batchSize} at a time. The models and the
+   * creators of the versions are looked up once per project.
+   */
+  private final class ProjectModels {
+    private final Connection connection;
+    private final ExpatProject project;
+    private final ExpatModelsController expatModelsController;
+    private final ExpatHdfsUserFacade expatHdfsUserFacade;
+    private final ExpatUserFacade expatUserFacade = new ExpatUserFacade();
+    //model name to model id
+    private final Map<String, Integer> models = new HashMap<>();
+    //hdfs user id to hopsworks user id
+    private final Map<Integer, Integer> creators = new HashMap<>();
+    private final List<ExpatModelVersion> pending = new ArrayList<>();
+    private Integer projectCreator;
+    private int migrated = 0;
+
+    private ProjectModels(Connection connection, ExpatProject project) {
+      this.connection = connection;
+      this.project = project;
+      this.expatModelsController = new ExpatModelsController(connection);
+      this.expatHdfsUserFacade = new ExpatHdfsUserFacade(ExpatHdfsUser.class, connection);
     }
-    String hopsworksUsername = expatHdfsUser.getName().split("__")[1];
-    ExpatUser user = expatUserFacade.getExpatUserByUsername(connection, hopsworksUsername);
-    if(user == null) {
-      return getProjectCreator(project);
+
+    private void add(JSONObject source) throws MigrationException, SQLException, IllegalAccessException,
+      InstantiationException {
+      JSONObject xattrProv = source.getJSONObject("xattr_prov");
+      JSONObject modelSummary = xattrProv.getJSONObject("model_summary");
+      JSONObject value = modelSummary.getJSONObject("value");
+
+      String modelName = null;
+      if (value.has("name")) {
+        modelName = value.getString("name");
+      } else {
+        throw new MigrationException("name field missing from model: " + source.toString(4));
+      }
+
+      Integer version = null;
+      if (value.has("version")) {
+        version = value.getInt("version");
+      } else {
+        throw new MigrationException("version field missing from model: " + source.toString(4));
+      }
+
+      Long created = new Date().getTime();
+      if (source.has("create_timestamp") && !value.isNull("create_timestamp")) {
+        created = source.getLong("create_timestamp");
+      }
+
+      ExpatModelVersion modelVersion = new ExpatModelVersion();
+      modelVersion.setModelId(getModelId(modelName));
+      modelVersion.setVersion(version);
+      modelVersion.setUserId(getModelVersionCreator(source));
+      modelVersion.setCreated(new Date(created));
+
+      if (value.has("description") && !value.isNull("description")) {
+        modelVersion.setDescription(value.getString("description"));
+      }
+
+      if (value.has("metrics") && !value.isNull("metrics")) {
+        Object metricsObj;
+        metricsObj = value.get("metrics");
+        if (metricsObj instanceof JSONObject) {
+          JSONObject migratedMetrics = new JSONObject();
+          migratedMetrics.put("attributes", metricsObj);
+          modelVersion.setMetrics(migratedMetrics.toString());
+        }
+      }
+
+      if (value.has("program") && !value.isNull("program")) {
+        modelVersion.setProgram(value.getString("program"));
+      }
+
+      String framework = "PYTHON";
+      if (value.has("framework") && !value.isNull("framework")) {
+        framework = value.getString("framework");
+      }
+      modelVersion.setFramework(framework);
+
+      modelVersion.setEnvironment(String.format("/Projects/%s/Models/%s/%s/environment.yml",
+        project.getName(), modelName, version));
+
+      if (value.has("experimentId") && !value.isNull("experimentId")) {
+        modelVersion.setExperimentId(value.getString("experimentId"));
+      }
+
+      if (value.has("experimentProjectName") && !value.isNull("experimentProjectName")) {
+        modelVersion.setExperimentProjectName(value.getString("experimentProjectName"));
+      }
+
+      pending.add(modelVersion);
+      if (pending.size() >= batchSize) {
+        flush();
+      }
+    }
+
+    private void flush() throws SQLException {
+      expatModelsController.insertModelVersions(connection, pending, batchSize, dryRun);
+      migrated += pending.size();
+      pending.clear();
+    }
+
+    private Integer getModelId(String modelName) throws SQLException, IllegalAccessException,
+      InstantiationException {
+      if (models.containsKey(modelName)) {
+        return models.get(modelName);
+      }
+      ExpatModel expatModel = expatModelsController.getByProjectAndName(project.getId(), modelName);
+      if (expatModel == null) {
+        LOGGER.info("Could not find model {} for project {}, creating it", modelName, project.getName());
+        expatModel = expatModelsController.insertModel(connection, modelName, project.getId(), dryRun);
+      }
+      //the model is not created in dry run
+      Integer modelId = expatModel == null ? null : expatModel.getId();
+      models.put(modelName, modelId);
+      return modelId;
     }
-    return user.getUid();
-  }
 
-  private Integer getProjectCreator(ExpatProject project) throws SQLException {
-    LOGGER.info("Fallback to project creator for model version " + project.getOwner());
-    return expatUserFacade.getExpatUserByEmail(connection, project.getOwner()).getUid();
+    private Integer getModelVersionCreator(JSONObject source)
+      throws SQLException, IllegalAccessException, InstantiationException {
+      if(!source.has("user_id")) {
+        return getProjectCreator();
+      }
+      Integer hdfsUserId = source.getInt("user_id");
+      Integer creator = creators.get(hdfsUserId);
+      if (creator == null) {
+        creator = findModelVersionCreator(hdfsUserId);
+        creators.put(hdfsUserId, creator);
+      }
+      return creator;
+    }
+
+    private Integer findModelVersionCreator(Integer hdfsUserId)
+      throws SQLException, IllegalAccessException, InstantiationException {
+      ExpatHdfsUser expatHdfsUser = expatHdfsUserFacade.find(hdfsUserId);
+      if(expatHdfsUser == null) {
+        return getProjectCreator();
+      }
+      String hopsworksUsername = expatHdfsUser.getName().split("__")[1];
+      ExpatUser user = expatUserFacade.getExpatUserByUsername(connection, hopsworksUsername);
+      if(user == null) {
+        return getProjectCreator();
+      }
+      return user.getUid();
+    }
+
+    private Integer getProjectCreator() throws SQLException {
+      if (projectCreator == null) {
+        LOGGER.info("Fallback to project creator for model version " + project.getOwner());
+        projectCreator = expatUserFacade.getExpatUserByEmail(connection, project.getOwner()).getUid();
+      }
+      return projectCreator;
+    }
   }
 
   @Override
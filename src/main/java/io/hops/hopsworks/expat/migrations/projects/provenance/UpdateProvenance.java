@@ -25,6 +25,8 @@ import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
 import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
 import io.hops.hopsworks.expat.elastic.ElasticClient;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
+import io.hops.hopsworks.expat.executor.TaskBatch;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
@@ -59,28 +61,29 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 public class UpdateProvenance implements MigrateStep {
   private final static Logger LOGGER = LoggerFactory.getLogger(UpdateProvenance.class);
   
-  private final static String GET_ALL_PROJECTS = "SELECT id, partition_id, inode_pid, inode_name FROM project";
-  private final static int GET_ALL_PROJECTS_S_ID = 1;
-  private final static int GET_ALL_PROJECTS_S_PARTITION_ID = 2;
-  private final static int GET_ALL_PROJECTS_S_INODE_PID = 3;
-  private final static int GET_ALL_PROJECTS_S_INODE_NAME = 4;
-  private final static String GET_INODE =  "SELECT id, meta_enabled FROM hops.hdfs_inodes " +
-    "WHERE partition_id=? && parent_id=? && name=?";
-  private final static int GET_INODE_S_ID = 1;
-  private final static int GET_INODE_S_META_ENABLED = 2;
-  private final static int GET_INODE_W_PARTITION_ID = 1;
-  private final static int GET_INODE_W_PARENT_ID = 2;
-  private final static int GET_INODE_W_NAME = 3;
-  private final static String GET_PROJECT_DATASETS = "SELECT inode_pid, inode_name, partition_id " +
-    "FROM dataset WHERE projectId=?";
-  private final static int GET_PROJECT_DATASETS_S_INODE_PID = 1;
-  private final static int GET_PROJECT_DATASETS_S_INODE_NAME = 2;
-  private final static int GET_PROJECT_DATASETS_S_PARTITION_ID = 3;
-  private final static int GET_PROJECT_DATASETS_W_PROJECT_ID = 1;
+  // One row per dataset, or a single row with null dataset columns for a project without datasets
+  private final static String GET_ELEMENTS = "SELECT p.id, p.inode_name, pi.id, pi.meta_enabled, " +
+    "d.inode_pid, d.inode_name, d.partition_id, di.id, di.meta_enabled FROM project p " +
+    "LEFT JOIN hops.hdfs_inodes pi ON pi.partition_id=p.partition_id && pi.parent_id=p.inode_pid && " +
+    "pi.name=p.inode_name " +
+    "LEFT JOIN dataset d ON d.projectId=p.id " +
+    "LEFT JOIN hops.hdfs_inodes di ON di.partition_id=d.partition_id && di.parent_id=d.inode_pid && " +
+    "di.name=d.inode_name " +
+    "ORDER BY p.id";
+  private final static int GET_ELEMENTS_S_PROJECT_ID = 1;
+  private final static int GET_ELEMENTS_S_PROJECT_NAME = 2;
+  private final static int GET_ELEMENTS_S_PROJECT_INODE_ID = 3;
+  private final static int GET_ELEMENTS_S_PROJECT_META_ENABLED = 4;
+  private final static int GET_ELEMENTS_S_DATASET_INODE_PID = 5;
+  private final static int GET_ELEMENTS_S_DATASET_NAME = 6;
+  private final static int GET_ELEMENTS_S_DATASET_PARTITION_ID = 7;
+  private final static int GET_ELEMENTS_S_DATASET_INODE_ID = 8;
+  private final static int GET_ELEMENTS_S_DATASET_META_ENABLED = 9;
   
   protected Connection connection;
   private CloseableHttpClient httpClient;
@@ -88,6 +91,7 @@ public class UpdateProvenance implements MigrateStep {
   private String elasticUser;
   private String elasticPass;
   private String hopsUser;
+  private JAXBContext jaxbContext;
   
   private void setup()
     throws SQLException, ConfigurationException, GeneralSecurityException {
@@ -136,10 +140,15 @@ public class UpdateProvenance implements MigrateStep {
     DistributedFileSystemOps dfso = null;
     try {
       setup();
+      jaxbContext = jaxbContext();
       dfso = HopsClient.getDFSO(hopsUser);
       traverseElements(projectMigrate(dfso), datasetMigrate(dfso));
-    } catch (IllegalStateException | SQLException | ConfigurationException | GeneralSecurityException | IOException e) {
+    } catch (IllegalStateException | SQLException | ConfigurationException | GeneralSecurityException | IOException
+      | JAXBException e) {
       throw new MigrationException("error", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MigrationException("interrupted", e);
     } finally {
       if (dfso != null) {
         dfso.close();
@@ -163,6 +172,9 @@ public class UpdateProvenance implements MigrateStep {
       ElasticClient.deleteAppProvenanceIndex(httpClient, elastic, elasticUser, elasticPass);
     } catch (IllegalStateException | SQLException | ConfigurationException | GeneralSecurityException | IOException e) {
       throw new RollbackException("error", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RollbackException("interrupted", e);
     } finally {
       if (dfso != null) {
         dfso.close();
@@ -175,77 +187,60 @@ public class UpdateProvenance implements MigrateStep {
     }
   }
   
-  private <E extends Exception> void traverseElements(CheckedConsumer<ProjectParams, E> projectAction,
-    CheckedConsumer<DatasetParams, E> datasetAction)
-    throws E, SQLException, ConfigurationException, IOException, GeneralSecurityException {
-    setup();
-    
-    PreparedStatement allProjectsStmt = null;
-    PreparedStatement projectInodeStmt = null;
-    PreparedStatement allProjectDatasetsStmt = null;
-    PreparedStatement datasetInodeStmt = null;
-    try {
-      connection.setAutoCommit(false);
-      //get all projects
-      allProjectsStmt = connection.prepareStatement(GET_ALL_PROJECTS);
-      ResultSet allProjectsResultSet = allProjectsStmt.executeQuery();
-      
-      while (allProjectsResultSet.next()) {
-        //get project inode
-        projectInodeStmt = getProjectInodeStmt(allProjectsResultSet);
-        ResultSet projectInodeResultSet = projectInodeStmt.executeQuery();
-        if(!projectInodeResultSet.next()) {
-          throw new IllegalStateException("project inode not found");
-        }
-        
-        ProjectParams projectParams = ProjectParams.instance(allProjectsResultSet, projectInodeResultSet);
-        LOGGER.info("processing project:{}", projectParams.projectName);
-        //get all project datasets
-        allProjectDatasetsStmt = getProjectDatasetsStmt(allProjectsResultSet);
-        ResultSet allProjectDatasetsResultSet = allProjectDatasetsStmt.executeQuery();
-  
-        while(allProjectDatasetsResultSet.next()) {
-          //get dataset inode
-          datasetInodeStmt = getDatasetInodeStmt(allProjectDatasetsResultSet);
-          ResultSet datasetInodeResultSet = datasetInodeStmt.executeQuery();
-          if(!datasetInodeResultSet.next()) {
-            throw new IllegalStateException("dataset inode not found");
+  /**
+   * Stream the projects and their datasets, with their inodes, from a single query and hand every element to a
+   * worker as soon as it is read. The xattrs of the elements are updated concurrently.
+   */
+  private <E extends Exception> void traverseElements(final CheckedConsumer<ProjectParams, E> projectAction,
+    final CheckedConsumer<DatasetParams, E> datasetAction) throws SQLException, IOException, InterruptedException {
+    TaskBatch.Report<String, Void> report;
+    try (PreparedStatement elementsStmt = connection.prepareStatement(GET_ELEMENTS, ResultSet.TYPE_FORWARD_ONLY,
+           ResultSet.CONCUR_READ_ONLY);
+         TaskBatch<String, Void> batch = new TaskBatch<>("Update provenance", ExecutorFactory.workerThreads())) {
+      //stream the rows instead of reading all of them into memory
+      elementsStmt.setFetchSize(Integer.MIN_VALUE);
+      try (ResultSet elementsResultSet = elementsStmt.executeQuery()) {
+        ProjectParams projectParams = null;
+        while (elementsResultSet.next()) {
+          if (projectParams == null || projectParams.projectId != elementsResultSet.getInt(GET_ELEMENTS_S_PROJECT_ID)) {
+            if (projectParams != null) {
+              submit(batch, projectParams.projectName, projectAction, projectParams);
+            }
+            projectParams = ProjectParams.instance(elementsResultSet);
+            LOGGER.info("processing project:{}", projectParams.projectName);
+          }
+          if (elementsResultSet.getString(GET_ELEMENTS_S_DATASET_NAME) != null) {
+            //update dataset meta status xattr and meta enabled column
+            DatasetParams datasetParams = DatasetParams.instance(projectParams, elementsResultSet);
+            submit(batch, projectParams.projectName + "/" + datasetParams.datasetName, datasetAction, datasetParams);
           }
-          //update dataset meta status xattr and meta enabled column
-          DatasetParams datasetParams = DatasetParams.instance(projectParams, allProjectDatasetsResultSet,
-            datasetInodeResultSet);
-          LOGGER.debug("processing dataset:{}", datasetParams.datasetName);
-          datasetAction.accept(datasetParams);
-          LOGGER.debug("processed dataset:{}", datasetParams.datasetName);
-          datasetInodeStmt.close();
         }
-        //update project meta status xattr
-        
-        projectAction.accept(projectParams);
-        LOGGER.info("processed project:{}", projectParams.projectName);
-        projectInodeStmt.close();
-        allProjectDatasetsStmt.close();
-      }
-      allProjectsStmt.close();
-      connection.commit();
-      connection.setAutoCommit(true);
-    } finally {
-      if(allProjectsStmt != null) {
-        allProjectsStmt.close();
-      }
-      if(projectInodeStmt != null) {
-        projectInodeStmt.close();
-      }
-      if(allProjectDatasetsStmt != null) {
-        allProjectDatasetsStmt.close();
-      }
-      if(datasetInodeStmt != null) {
-        datasetInodeStmt.close();
+        if (projectParams != null) {
+          //update project meta status xattr
+          submit(batch, projectParams.projectName, projectAction, projectParams);
+        }
       }
-      close();
+      report = batch.await();
+    }
+    if (!report.getFailures().isEmpty()) {
+      throw new IOException("Failed to update the provenance of " + report.getFailures().size() + " elements",
+        report.getFailures().values().iterator().next());
     }
   }
   
+  private <P, E extends Exception> void submit(TaskBatch<String, Void> batch, final String key,
+    final CheckedConsumer<P, E> action, final P params) throws InterruptedException {
+    batch.submit(key, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        LOGGER.debug("processing:{}", key);
+        action.accept(params);
+        LOGGER.debug("processed:{}", key);
+        return null;
+      }
+    });
+  }
+  
   private CheckedConsumer<ProjectParams, MigrationException> projectMigrate(DistributedFileSystemOps dfso) {
     return params -> {
       try {
@@ -254,7 +249,6 @@ public class UpdateProvenance implements MigrateStep {
           LOGGER.warn("project with no directory:{}", projectPath);
           return;
         }
-        JAXBContext jaxbContext = jaxbContext();
         ProvCoreDTO provCore = new ProvCoreDTO(Provenance.Type.MIN.dto, params.projectIId);
         byte[] bProvCore = jaxbParser(jaxbContext, provCore).getBytes();
     
@@ -273,7 +267,6 @@ public class UpdateProvenance implements MigrateStep {
           LOGGER.warn("dataset with no directory:{}", datasetPath);
           return;
         }
-        JAXBContext jaxbContext = jaxbContext();
         ProvCoreDTO provCore;
         if (params.metaStatus == 0) {
           provCore = new ProvCoreDTO(Provenance.Type.DISABLED.dto, params.projectIId);
@@ -342,16 +335,20 @@ public class UpdateProvenance implements MigrateStep {
   }
   
   private static class ProjectParams {
+    int projectId;
     long projectIId;
     String projectName;
     byte metaStatus;
     
-    public static ProjectParams instance(ResultSet allProjectsResultSet, ResultSet projectInodeResultSet)
-      throws SQLException {
+    public static ProjectParams instance(ResultSet elementsResultSet) throws SQLException {
       ProjectParams params = new ProjectParams();
-      params.projectName = allProjectsResultSet.getString(GET_ALL_PROJECTS_S_INODE_NAME);
-      params.projectIId = projectInodeResultSet.getLong(GET_INODE_S_ID);
-      params.metaStatus = projectInodeResultSet.getByte(GET_INODE_S_META_ENABLED);
+      params.projectId = elementsResultSet.getInt(GET_ELEMENTS_S_PROJECT_ID);
+      params.projectName = elementsResultSet.getString(GET_ELEMENTS_S_PROJECT_NAME);
+      params.projectIId = elementsResultSet.getLong(GET_ELEMENTS_S_PROJECT_INODE_ID);
+      if (elementsResultSet.wasNull()) {
+        throw new IllegalStateException("project inode not found");
+      }
+      params.metaStatus = elementsResultSet.getByte(GET_ELEMENTS_S_PROJECT_META_ENABLED);
       return params;
     }
   }
@@ -364,48 +361,23 @@ public class UpdateProvenance implements MigrateStep {
     long datasetPartitionId;
     byte metaStatus;
   
-    public static DatasetParams instance(ProjectParams projectParams, ResultSet allProjectDatasetsResultSet,
-      ResultSet datasetInodeResultSet) throws SQLException {
+    public static DatasetParams instance(ProjectParams projectParams, ResultSet elementsResultSet)
+      throws SQLException {
       DatasetParams params = new DatasetParams();
       params.projectIId = projectParams.projectIId;
       params.projectName = projectParams.projectName;
-      params.datasetPId = allProjectDatasetsResultSet.getLong(GET_PROJECT_DATASETS_S_INODE_PID);
-      params.datasetName = allProjectDatasetsResultSet.getString(GET_PROJECT_DATASETS_S_INODE_NAME);
-      params.datasetPartitionId = allProjectDatasetsResultSet.getLong(GET_PROJECT_DATASETS_S_PARTITION_ID);
-      params.metaStatus = datasetInodeResultSet.getByte(GET_INODE_S_META_ENABLED);
+      params.datasetPId = elementsResultSet.getLong(GET_ELEMENTS_S_DATASET_INODE_PID);
+      params.datasetName = elementsResultSet.getString(GET_ELEMENTS_S_DATASET_NAME);
+      params.datasetPartitionId = elementsResultSet.getLong(GET_ELEMENTS_S_DATASET_PARTITION_ID);
+      elementsResultSet.getLong(GET_ELEMENTS_S_DATASET_INODE_ID);
+      if (elementsResultSet.wasNull()) {
+        throw new IllegalStateException("dataset inode not found");
+      }
+      params.metaStatus = elementsResultSet.getByte(GET_ELEMENTS_S_DATASET_META_ENABLED);
       return params;
     }
   }
   
-  private PreparedStatement getProjectInodeStmt(ResultSet allProjectsResultSet) throws SQLException {
-    PreparedStatement projectInodeStmt = connection.prepareStatement(GET_INODE);
-    projectInodeStmt.setLong(GET_INODE_W_PARTITION_ID,
-      allProjectsResultSet.getLong(GET_ALL_PROJECTS_S_PARTITION_ID));
-    projectInodeStmt.setLong(GET_INODE_W_PARENT_ID,
-      allProjectsResultSet.getLong(GET_ALL_PROJECTS_S_INODE_PID));
-    projectInodeStmt.setString(GET_INODE_W_NAME,
-      allProjectsResultSet.getString(GET_ALL_PROJECTS_S_INODE_NAME));
-    return projectInodeStmt;
-  }
-  
-  private PreparedStatement getDatasetInodeStmt(ResultSet allProjectDatasetsResultSet) throws SQLException {
-    PreparedStatement projectInodeStmt = connection.prepareStatement(GET_INODE);
-    projectInodeStmt.setLong(GET_INODE_W_PARTITION_ID,
-      allProjectDatasetsResultSet.getLong(GET_PROJECT_DATASETS_S_PARTITION_ID));
-    projectInodeStmt.setLong(GET_INODE_W_PARENT_ID,
-      allProjectDatasetsResultSet.getLong(GET_PROJECT_DATASETS_S_INODE_PID));
-    projectInodeStmt.setString(GET_INODE_W_NAME,
-      allProjectDatasetsResultSet.getString(GET_PROJECT_DATASETS_S_INODE_NAME));
-    return projectInodeStmt;
-  }
-  
-  private PreparedStatement getProjectDatasetsStmt(ResultSet allProjectsResultSet) throws SQLException {
-    PreparedStatement allProjectDatasetsStmt = connection.prepareStatement(GET_PROJECT_DATASETS);
-    allProjectDatasetsStmt.setInt(GET_PROJECT_DATASETS_W_PROJECT_ID,
-      allProjectsResultSet.getInt(GET_ALL_PROJECTS_S_ID));
-    return allProjectDatasetsStmt;
-  }
-  
   private JAXBContext jaxbContext() throws JAXBException {
     Map<String, Object> properties = new HashMap<>();
     properties.put(MarshallerProperties.JSON_INCLUDE_ROOT, false);
@@ -0,0 +1,136 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.migrations.projects.search.featurestore;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hive metastore metadata of the cached feature groups of a feature store: the table descriptions, columns and
+ * partition keys, loaded with one query each instead of a few queries per feature group.
+ */
+public final class FeaturegroupMetastore {
+  private final static String CACHED_FEATUREGROUP_TABLES =
+    "FROM hopsworks.feature_group f JOIN hopsworks.cached_feature_group cfg JOIN metastore.TBLS t " +
+    "ON f.cached_feature_group_id=cfg.id AND cfg.offline_feature_group=t.TBL_ID ";
+  private final static String GET_DESCRIPTIONS =
+    "SELECT t.TBL_ID, p.PARAM_VALUE " + CACHED_FEATUREGROUP_TABLES +
+    "JOIN metastore.TABLE_PARAMS p ON t.TBL_ID=p.TBL_ID " +
+    "WHERE f.feature_store_id=? AND p.PARAM_KEY=?";
+  private final static String GET_COLUMNS =
+    "SELECT t.TBL_ID, c.COLUMN_NAME, c.COMMENT " + CACHED_FEATUREGROUP_TABLES +
+    "JOIN metastore.SDS s JOIN metastore.COLUMNS_V2 c ON t.SD_ID=s.SD_ID AND s.CD_ID=c.CD_ID " +
+    "WHERE f.feature_store_id=? ORDER BY t.TBL_ID, c.INTEGER_IDX";
+  private final static String GET_PARTITION_KEYS =
+    "SELECT t.TBL_ID, k.PKEY_NAME, k.PKEY_COMMENT " + CACHED_FEATUREGROUP_TABLES +
+    "JOIN metastore.PARTITION_KEYS k ON t.TBL_ID=k.TBL_ID " +
+    "WHERE f.feature_store_id=? ORDER BY t.TBL_ID, k.INTEGER_IDX";
+  private final static int GET_W_FS_ID = 1;
+  private final static int GET_DESCRIPTIONS_W_PARAM = 2;
+  private final static int GET_S_TBL_ID = 1;
+  private final static int GET_S_NAME = 2;
+  private final static int GET_S_COMMENT = 3;
+  private final static int GET_DESCRIPTIONS_S_DESCRIPTION = 2;
+
+  private final Map<Long, String> descriptions = new HashMap<>();
+  private final Map<Long, List<Column>> columns = new HashMap<>();
+  private final Map<Long, List<Column>> partitionKeys = new HashMap<>();
+
+  private FeaturegroupMetastore() {
+  }
+
+  public static FeaturegroupMetastore load(Connection connection, int featurestoreId) throws SQLException {
+    FeaturegroupMetastore metastore = new FeaturegroupMetastore();
+    try (PreparedStatement stmt = connection.prepareStatement(GET_DESCRIPTIONS)) {
+      stmt.setInt(GET_W_FS_ID, featurestoreId);
+      stmt.setString(GET_DESCRIPTIONS_W_PARAM, "comment");
+      try (ResultSet resultSet = stmt.executeQuery()) {
+        while (resultSet.next()) {
+          metastore.descriptions.put(resultSet.getLong(GET_S_TBL_ID),
+            resultSet.getString(GET_DESCRIPTIONS_S_DESCRIPTION));
+        }
+      }
+    }
+    loadColumns(connection, GET_COLUMNS, featurestoreId, metastore.columns);
+    loadColumns(connection, GET_PARTITION_KEYS, featurestoreId, metastore.partitionKeys);
+    return metastore;
+  }
+
+  private static void loadColumns(Connection connection, String sql, int featurestoreId,
+                                  Map<Long, List<Column>> tableColumns) throws SQLException {
+    try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+      stmt.setInt(GET_W_FS_ID, featurestoreId);
+      try (ResultSet resultSet = stmt.executeQuery()) {
+        while (resultSet.next()) {
+          long tblId = resultSet.getLong(GET_S_TBL_ID);
+          List<Column> table = tableColumns.get(tblId);
+          if (table == null) {
+            table = new ArrayList<>();
+            tableColumns.put(tblId, table);
+          }
+          table.add(new Column(resultSet.getString(GET_S_NAME), resultSet.getString(GET_S_COMMENT)));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the comment table parameter of the table
+   * @throws IllegalStateException if the table has no comment
+   */
+  public String getDescription(long tblId) {
+    if (!descriptions.containsKey(tblId)) {
+      throw new IllegalStateException("featuregroup description not found");
+    }
+    return descriptions.get(tblId);
+  }
+
+  public List<Column> getColumns(long tblId) {
+    List<Column> table = columns.get(tblId);
+    return table == null ? Collections.<Column>emptyList() : table;
+  }
+
+  public List<Column> getPartitionKeys(long tblId) {
+    List<Column> table = partitionKeys.get(tblId);
+    return table == null ? Collections.<Column>emptyList() : table;
+  }
+
+  public static final class Column {
+    private final String name;
+    private final String comment;
+
+    private Column(String name, String comment) {
+      this.name = name;
+      this.comment = comment;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getComment() {
+      return comment;
+    }
+  }
+}
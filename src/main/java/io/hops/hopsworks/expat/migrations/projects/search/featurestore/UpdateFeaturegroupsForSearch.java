@@ -75,18 +75,6 @@ public class UpdateFeaturegroupsForSearch implements MigrateStep {
   private final static String GET_USER = "SELECT email FROM users WHERE uid=?";
   private final static int GET_USER_W_ID = 1;
   private final static int GET_USER_S_EMAIL = 1;
-  private final static String GET_FG_DESCRIPTION =
-    "SELECT PARAM_VALUE FROM metastore.TABLE_PARAMS " +
-    "WHERE TBL_ID=? AND PARAM_KEY=?";
-  private final static int GET_FG_DESCRIPTION_W_TBL_ID = 1;
-  private final static int GET_FG_DESCRIPTION_W_PARAM = 2;
-  private final static int GET_FG_DESCRIPTION_S_DESCRIPTION = 1;
-  private final static String GET_FG_FEATURES =
-    "SELECT c.COLUMN_NAME FROM metastore.TBLS t " +
-    "JOIN metastore.SDS s JOIN metastore.COLUMNS_V2 c " +
-    "ON t.SD_ID=s.SD_ID AND s.CD_ID=c.CD_ID WHERE t.TBL_ID = ?";
-  private final static int GET_FG_FEATURES_W_TBL_ID = 1;
-  private final static int GET_FG_FEATURES_S_NAME = 1;
   private final static String GET_PROJECT = "SELECT inode_name FROM project WHERE id=?";
   private final static int GET_PROJECT_W_ID = 1;
   private final static int GET_PROJECT_S_NAME = 1;
@@ -97,6 +85,10 @@ public class UpdateFeaturegroupsForSearch implements MigrateStep {
   SimpleDateFormat formatter;
   JAXBContext jaxbContext;
   boolean dryrun = false;
+  //of the feature store being traversed
+  private String projectName;
+  private FeaturegroupMetastore metastore;
+  private final Map<Integer, String> creators = new HashMap<>();
   
   public void setup() throws ConfigurationException, SQLException, JAXBException {
     formatter = new SimpleDateFormat("yyyy-M-dd hh:mm:ss", Locale.ENGLISH);
@@ -184,6 +176,9 @@ public class UpdateFeaturegroupsForSearch implements MigrateStep {
       ResultSet allFeaturestoresResultSet = allFeaturestoresStmt.executeQuery();
     
       while (allFeaturestoresResultSet.next()) {
+        projectName = getProjectName(allFeaturestoresResultSet);
+        metastore = FeaturegroupMetastore.load(connection,
+          allFeaturestoresResultSet.getInt(GET_ALL_FEATURESTORES_S_ID));
         allFSFeaturegroupsStmt = getFSFeaturegroupsStmt(allFeaturestoresResultSet);
         ResultSet allFSFeaturegroupsResultSet = allFSFeaturegroupsStmt.executeQuery();
         while(allFSFeaturegroupsResultSet.next()) {
@@ -207,7 +202,6 @@ public class UpdateFeaturegroupsForSearch implements MigrateStep {
   
   private CheckedBiConsumer<ResultSet, ResultSet, Exception> dryRunFeaturegroup() {
     return (ResultSet allFeaturestoresResultSet, ResultSet allFSFeaturegroupsResultSet) -> {
-      String projectName = getProjectName(allFeaturestoresResultSet);
       String featuregroupName = allFSFeaturegroupsResultSet.getString(GET_HIVE_MANAGED_FEATUREGROUPS_S_NAME);
       int featuregroupVersion = allFSFeaturegroupsResultSet.getInt(GET_HIVE_MANAGED_FEATUREGROUPS_S_VERSION);
       String featuregroupLocation = allFSFeaturegroupsResultSet.getString(GET_HIVE_MANAGED_FEATUREGROUPS_S_LOCATION);
@@ -246,7 +240,6 @@ public class UpdateFeaturegroupsForSearch implements MigrateStep {
   
   public CheckedBiConsumer<ResultSet, ResultSet, Exception> migrateFeaturegroup() {
     return (ResultSet allFeaturestoresResultSet, ResultSet allFSFeaturegroupsResultSet) -> {
-      String projectName = getProjectName(allFeaturestoresResultSet);
       String featuregroupName = allFSFeaturegroupsResultSet.getString(GET_HIVE_MANAGED_FEATUREGROUPS_S_NAME);
       int featuregroupVersion = allFSFeaturegroupsResultSet.getInt(GET_HIVE_MANAGED_FEATUREGROUPS_S_VERSION);
       String featuregroupLocation = allFSFeaturegroupsResultSet.getString(GET_HIVE_MANAGED_FEATUREGROUPS_S_LOCATION);
@@ -281,7 +274,6 @@ public class UpdateFeaturegroupsForSearch implements MigrateStep {
   
   private CheckedBiConsumer<ResultSet, ResultSet, Exception> revertFeaturegroup() {
     return (ResultSet allFeaturestoresResultSet, ResultSet allFSFeaturegroupsResultSet) -> {
-      String projectName = getProjectName(allFeaturestoresResultSet);
       String featuregroupName = allFSFeaturegroupsResultSet.getString(GET_HIVE_MANAGED_FEATUREGROUPS_S_NAME);
       int featuregroupVersion = allFSFeaturegroupsResultSet.getInt(GET_HIVE_MANAGED_FEATUREGROUPS_S_VERSION);
       String featuregroupPath = getFeaturegroupPath(projectName, featuregroupName, featuregroupVersion);
@@ -303,21 +295,9 @@ public class UpdateFeaturegroupsForSearch implements MigrateStep {
     stmt.setInt(GET_HIVE_MANAGED_FEATUREGROUPS_W_FS_ID, allFeaturestoresResultSet.getInt(GET_ALL_FEATURESTORES_S_ID));
     return stmt;
   }
-  private PreparedStatement getFGUserStmt(ResultSet allFSFeaturegroupsResultSet) throws SQLException {
+  private PreparedStatement getFGUserStmt(int userId) throws SQLException {
     PreparedStatement stmt = connection.prepareStatement(GET_USER);
-    stmt.setInt(GET_USER_W_ID, allFSFeaturegroupsResultSet.getInt(GET_HIVE_MANAGED_FEATUREGROUPS_S_CREATOR));
-    return stmt;
-  }
-  private PreparedStatement getFGDescriptionStmt(ResultSet allFSFeaturegroupsResultSet) throws SQLException {
-    PreparedStatement stmt = connection.prepareStatement(GET_FG_DESCRIPTION);
-    stmt.setInt(GET_FG_DESCRIPTION_W_TBL_ID,
-      allFSFeaturegroupsResultSet.getInt(GET_HIVE_MANAGED_FEATUREGROUPS_S_TBL_ID));
-    stmt.setString(GET_FG_DESCRIPTION_W_PARAM, "comment");
-    return stmt;
-  }
-  private PreparedStatement getFGFeaturesStmt(ResultSet allFSFeaturegroupsResultSet) throws SQLException {
-    PreparedStatement stmt = connection.prepareStatement(GET_FG_FEATURES);
-    stmt.setInt(GET_FG_FEATURES_W_TBL_ID, allFSFeaturegroupsResultSet.getInt(GET_HIVE_MANAGED_FEATUREGROUPS_S_TBL_ID));
+    stmt.setInt(GET_USER_W_ID, userId);
     return stmt;
   }
   private PreparedStatement getProjectStmt(ResultSet allFeaturestoresResultSet) throws SQLException {
@@ -326,12 +306,19 @@ public class UpdateFeaturegroupsForSearch implements MigrateStep {
     return stmt;
   }
   private String getCreator(ResultSet allFSFeaturegroupsResultSet) throws SQLException {
+    int userId = allFSFeaturegroupsResultSet.getInt(GET_HIVE_MANAGED_FEATUREGROUPS_S_CREATOR);
+    String creator = creators.get(userId);
+    if (creator != null) {
+      return creator;
+    }
     PreparedStatement fgUserStmt = null;
     try {
-      fgUserStmt = getFGUserStmt(allFSFeaturegroupsResultSet);
+      fgUserStmt = getFGUserStmt(userId);
       ResultSet fgUserResultSet = fgUserStmt.executeQuery();
       if (fgUserResultSet.next()) {
-        return fgUserResultSet.getString(GET_USER_S_EMAIL);
+        creator = fgUserResultSet.getString(GET_USER_S_EMAIL);
+        creators.put(userId, creator);
+        return creator;
       } else {
         throw new IllegalStateException("featuregroup creator not found");
       }
@@ -343,37 +330,16 @@ public class UpdateFeaturegroupsForSearch implements MigrateStep {
   }
   
   private String getDescription(ResultSet allFSFeaturegroupsResultSet) throws SQLException {
-    PreparedStatement fgDescriptionStmt = null;
-    try {
-      fgDescriptionStmt = getFGDescriptionStmt(allFSFeaturegroupsResultSet);
-      ResultSet fgDescriptionResultSet = fgDescriptionStmt.executeQuery();
-      if (fgDescriptionResultSet.next()) {
-        return fgDescriptionResultSet.getString(GET_FG_DESCRIPTION_S_DESCRIPTION);
-      } else {
-        throw new IllegalStateException("featuregroup description not found");
-      }
-    } finally {
-      if(fgDescriptionStmt != null) {
-        fgDescriptionStmt.close();
-      }
-    }
+    return metastore.getDescription(allFSFeaturegroupsResultSet.getLong(GET_HIVE_MANAGED_FEATUREGROUPS_S_TBL_ID));
   }
   
   private List<String> getFeatures(ResultSet allFSFeaturegroupsResultSet) throws SQLException {
-    PreparedStatement fgFeaturesStmt = null;
-    try {
-      fgFeaturesStmt = getFGFeaturesStmt(allFSFeaturegroupsResultSet);
-      ResultSet fgFeaturesResultSet = fgFeaturesStmt.executeQuery();
-      List<String> features = new LinkedList<>();
-      while (fgFeaturesResultSet.next()) {
-        features.add(fgFeaturesResultSet.getString(GET_FG_FEATURES_S_NAME));
-      }
-      return features;
-    } finally {
-      if(fgFeaturesStmt != null) {
-        fgFeaturesStmt.close();
-      }
+    List<String> features = new LinkedList<>();
+    for (FeaturegroupMetastore.Column column
+      : metastore.getColumns(allFSFeaturegroupsResultSet.getLong(GET_HIVE_MANAGED_FEATUREGROUPS_S_TBL_ID))) {
+      features.add(column.getName());
     }
+    return features;
   }
   
   private String getProjectName(ResultSet allFeaturestoreResultSet) throws SQLException {
@@ -0,0 +1,175 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.migrations.projects.util;
+
+import io.hops.hopsworks.common.hdfs.DistributedFileSystemOps;
+import io.hops.hopsworks.expat.executor.TaskBatch;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Directories which must exist, created in parallel with their permission and owner. The directories are grouped
+ * by parent. A parent with many requested directories is listed once to find the ones which already exist, the
+ * directories of other parents are checked on their own, which is cheaper than listing a large parent for a few
+ * children. Existing directories are left untouched. Parents are not created, a missing parent fails.
+ *
+ * In dry run nothing is created, the directories which would be created are logged and counted.
+ */
+public final class DirectoryTree {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryTree.class);
+  // below this number of requested children, checking each child costs fewer RPCs than listing the parent
+  private static final int LIST_THRESHOLD = 8;
+
+  private final String name;
+  private final boolean dryRun;
+  private final Map<Path, List<Directory>> parents = new LinkedHashMap<>();
+
+  public DirectoryTree(String name, boolean dryRun) {
+    this.name = name;
+    this.dryRun = dryRun;
+  }
+
+  /**
+   * @param permission the permission of the directory, null for the permission of its parent
+   * @param owner the owner of the directory, null for the owner of its parent
+   * @param group the group of the directory, null for the group of its parent
+   */
+  public DirectoryTree add(Path path, FsPermission permission, String owner, String group) {
+    Path parent = path.getParent();
+    List<Directory> directories = parents.get(parent);
+    if (directories == null) {
+      directories = new ArrayList<>();
+      parents.put(parent, directories);
+    }
+    directories.add(new Directory(path, permission, owner, group));
+    return this;
+  }
+
+  /**
+   * Create the missing directories, one parent at a time on each client of the pool.
+   *
+   * @return the number of directories created, or which would be created in dry run
+   */
+  public int ensure(final HopsClientPool clients) throws IOException, InterruptedException {
+    if (parents.isEmpty()) {
+      return 0;
+    }
+    TaskBatch.Report<Path, Integer> report;
+    try (TaskBatch<Path, Integer> batch = new TaskBatch<>(name, Math.min(clients.size(), parents.size()))) {
+      for (final Map.Entry<Path, List<Directory>> parent : parents.entrySet()) {
+        batch.submit(parent.getKey(), new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            DistributedFileSystemOps dfso = clients.take();
+            try {
+              return ensure(dfso, parent.getKey(), parent.getValue());
+            } finally {
+              clients.release(dfso);
+            }
+          }
+        });
+      }
+      report = batch.await();
+    }
+    if (!report.getFailures().isEmpty()) {
+      throw new IOException(name + ": failed to create the directories of " + report.getFailures().size()
+        + " parent directories", report.getFailures().values().iterator().next());
+    }
+    int created = 0;
+    for (Integer parentCreated : report.getResults().values()) {
+      created += parentCreated;
+    }
+    LOGGER.info("{}: {} directories {}", name, created, dryRun ? "would be created" : "created");
+    return created;
+  }
+
+  private int ensure(DistributedFileSystemOps dfso, Path parent, List<Directory> directories) throws IOException {
+    Set<String> existing = directories.size() >= LIST_THRESHOLD ? listChildren(dfso, parent) : null;
+    Set<String> requested = new HashSet<>();
+    FileStatus parentStatus = null;
+    int created = 0;
+    for (Directory directory : directories) {
+      String name = directory.path.getName();
+      if (!requested.add(name)) {
+        continue;
+      }
+      if (existing != null ? existing.contains(name) : dfso.exists(directory.path)) {
+        continue;
+      }
+      created++;
+      if (dryRun) {
+        LOGGER.info("Create directory: {}", directory.path);
+        continue;
+      }
+      if (parentStatus == null && directory.inheritsFromParent()) {
+        parentStatus = dfso.getFileStatus(parent);
+      }
+      FsPermission permission = directory.permission != null ? directory.permission : parentStatus.getPermission();
+      String owner = directory.owner != null ? directory.owner : parentStatus.getOwner();
+      String group = directory.group != null ? directory.group : parentStatus.getGroup();
+      // not recursive, fails if the parent is missing
+      dfso.mkdir(directory.path, permission);
+      // the umask of the client may have masked the permission
+      dfso.setPermission(directory.path, permission);
+      dfso.setOwner(directory.path, owner, group);
+    }
+    return created;
+  }
+
+  private Set<String> listChildren(DistributedFileSystemOps dfso, Path parent) throws IOException {
+    Set<String> children = new HashSet<>();
+    try {
+      for (FileStatus child : dfso.listStatus(parent)) {
+        children.add(child.getPath().getName());
+      }
+    } catch (FileNotFoundException e) {
+      throw new FileNotFoundException("Parent directory " + parent + " does not exist");
+    }
+    return children;
+  }
+
+  private static final class Directory {
+    private final Path path;
+    private final FsPermission permission;
+    private final String owner;
+    private final String group;
+
+    private Directory(Path path, FsPermission permission, String owner, String group) {
+      this.path = path;
+      this.permission = permission;
+      this.owner = owner;
+      this.group = group;
+    }
+
+    private boolean inheritsFromParent() {
+      return permission == null || owner == null || group == null;
+    }
+  }
+}
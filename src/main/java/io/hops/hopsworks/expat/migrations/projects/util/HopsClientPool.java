@@ -0,0 +1,73 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.migrations.projects.util;
+
+import io.hops.hopsworks.common.hdfs.DistributedFileSystemOps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed number of HDFS clients shared by the workers of a step. A worker takes a client for the duration of a
+ * work unit and gives it back when done, so that no more clients than workers are ever open.
+ */
+public final class HopsClientPool implements AutoCloseable {
+  private final List<DistributedFileSystemOps> clients = new ArrayList<>();
+  private final BlockingQueue<DistributedFileSystemOps> available;
+  private final int size;
+
+  public HopsClientPool(String clientUser, int size) {
+    this.size = size;
+    this.available = new ArrayBlockingQueue<>(size);
+    try {
+      for (int i = 0; i < size; i++) {
+        DistributedFileSystemOps dfso = HopsClient.getDFSO(clientUser);
+        clients.add(dfso);
+        available.add(dfso);
+      }
+    } catch (RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Take a client, blocking until one is available. It must be given back with {@link #release}.
+   */
+  public DistributedFileSystemOps take() throws InterruptedException {
+    return available.take();
+  }
+
+  public void release(DistributedFileSystemOps dfso) {
+    available.add(dfso);
+  }
+
+  @Override
+  public void close() {
+    for (DistributedFileSystemOps dfso : clients) {
+      dfso.close();
+    }
+    clients.clear();
+    available.clear();
+  }
+}
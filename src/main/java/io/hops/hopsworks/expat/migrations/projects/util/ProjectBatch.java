@@ -0,0 +1,95 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.migrations.projects.util;
+
+import io.hops.hopsworks.common.hdfs.DistributedFileSystemOps;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
+import io.hops.hopsworks.expat.executor.TaskBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+
+/**
+ * Work done once per project, in parallel. Each running action holds one of the HDFS clients of a pool shared by the
+ * workers.
+ */
+public final class ProjectBatch {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ProjectBatch.class);
+  // each worker holds an HDFS client, bound them to limit the load on the namenode
+  private static final int MAX_WORKERS = 8;
+
+  private ProjectBatch() {
+  }
+
+  public interface ProjectAction {
+    void run(String projectName, DistributedFileSystemOps dfso) throws Exception;
+  }
+
+  /**
+   * Run the action for every project and wait for all of them
+   *
+   * @param hopsUser the user of the HDFS clients
+   * @throws IOException if the action failed for any of the projects, caused by the first failure
+   */
+  public static void run(String name, String hopsUser, Collection<String> projectNames, final ProjectAction action)
+      throws IOException, InterruptedException {
+    if (projectNames.isEmpty()) {
+      return;
+    }
+    int concurrency = Math.min(Math.min(ExecutorFactory.workerThreads(), MAX_WORKERS), projectNames.size());
+    TaskBatch.Report<String, Void> report;
+    try (HopsClientPool clients = new HopsClientPool(hopsUser, concurrency);
+         TaskBatch<String, Void> batch = new TaskBatch<>(name, concurrency)) {
+      for (final String projectName : projectNames) {
+        batch.submit(projectName, new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            DistributedFileSystemOps dfso = clients.take();
+            try {
+              action.run(projectName, dfso);
+            } finally {
+              clients.release(dfso);
+            }
+            return null;
+          }
+        });
+      }
+      report = batch.await();
+    }
+    if (!report.getFailures().isEmpty()) {
+      throw new IOException(name + " failed for " + report.getFailures().size() + " projects",
+          report.getFailures().values().iterator().next());
+    }
+  }
+
+  /**
+   * Execute the statements batched, or only log them in dry run
+   */
+  public static void executeBatch(PreparedStatement stmt, boolean dryRun) throws SQLException {
+    if (dryRun) {
+      LOGGER.info(stmt.toString());
+      stmt.clearBatch();
+    } else {
+      stmt.executeBatch();
+    }
+  }
+}
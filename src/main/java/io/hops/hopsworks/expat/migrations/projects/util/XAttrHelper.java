@@ -21,6 +21,8 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.ipc.RemoteException;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 public class XAttrHelper {
   private final static String XATTR_PROV_NAMESPACE = "provenance";
@@ -86,6 +88,42 @@ public class XAttrHelper {
     }
   }
   
+  /**
+   * Read all the xattrs of the namespace with a single request.
+   *
+   * @return xattr name, without the namespace, to value. Empty if the path does not exist
+   */
+  public static Map<String, byte[]> getXAttrs(DistributedFileSystemOps udfso, String path, String namespace)
+    throws XAttrException {
+    Map<String, byte[]> xattrs;
+    try {
+      xattrs = udfso.getFilesystem().getXAttrs(new Path(path));
+    } catch (RemoteException e) {
+      if(e.getClassName().equals("io.hops.exception.StorageException")
+        && e.getMessage().startsWith("com.mysql.clusterj.ClusterJUserException: Data length")) {
+        throw new XAttrException("xattr max size exceeded", e);
+      }
+      if(e.getClassName().equals("java.io.FileNotFoundException")){
+        return new HashMap<>();
+      }
+      throw new XAttrException("metadata error", e);
+    } catch (java.io.FileNotFoundException e){
+      return new HashMap<>();
+    } catch (IOException e) {
+      throw new XAttrException("metadata error", e);
+    }
+    String prefix = namespace + ".";
+    Map<String, byte[]> namespaceXAttrs = new HashMap<>();
+    if (xattrs != null) {
+      for (Map.Entry<String, byte[]> xattr : xattrs.entrySet()) {
+        if (xattr.getKey().startsWith(prefix)) {
+          namespaceXAttrs.put(xattr.getKey().substring(prefix.length()), xattr.getValue());
+        }
+      }
+    }
+    return namespaceXAttrs;
+  }
+  
   private static String getXAttrName(String namespace, String name) {
     return namespace + "." + name;
   }
@@ -0,0 +1,69 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.migrations.serving;
+
+import io.hops.hopsworks.common.hdfs.DistributedFileSystemOps;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Zip archive of an artifact version directory, written directly to HDFS. The files are read from HDFS one at a
+ * time and streamed into the archive, nothing is staged on the local disk.
+ */
+final class ArtifactArchive {
+
+  private ArtifactArchive() {
+  }
+
+  /**
+   * Zip the files of the directory, recursively, into the archive. Entries are prefixed with the name of the
+   * directory. Checksum files and the archive itself are left out, empty directories are not kept.
+   */
+  static void create(DistributedFileSystemOps dfso, Path dir, Path archive) throws IOException {
+    Map<Path, String> entries = new LinkedHashMap<>();
+    listFiles(dfso, dir, dir.getName(), Path.getPathWithoutSchemeAndAuthority(archive), entries);
+    try (ZipOutputStream zos = new ZipOutputStream(dfso.create(archive))) {
+      for (Map.Entry<Path, String> entry : entries.entrySet()) {
+        zos.putNextEntry(new ZipEntry(entry.getValue()));
+        try (InputStream in = dfso.open(entry.getKey())) {
+          IOUtils.copy(in, zos);
+        }
+        zos.closeEntry();
+      }
+    }
+  }
+
+  private static void listFiles(DistributedFileSystemOps dfso, Path dir, String prefix, Path archive,
+                                Map<Path, String> entries) throws IOException {
+    for (FileStatus file : dfso.listStatus(dir)) {
+      String name = file.getPath().getName();
+      if (file.isDirectory()) {
+        listFiles(dfso, file.getPath(), prefix + "/" + name, archive, entries);
+      } else if (!name.endsWith(".crc") && !Path.getPathWithoutSchemeAndAuthority(file.getPath()).equals(archive)) {
+        entries.put(file.getPath(), prefix + "/" + name);
+      }
+    }
+  }
+}
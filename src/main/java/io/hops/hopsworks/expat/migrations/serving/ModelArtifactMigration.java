@@ -22,40 +22,34 @@ import io.hops.hopsworks.common.hdfs.HdfsUsersController;
 import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
 import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
-import io.hops.hopsworks.expat.db.dao.user.ExpatUser;
-import io.hops.hopsworks.expat.db.dao.user.ExpatUserFacade;
 import io.hops.hopsworks.expat.db.dao.util.ExpatVariables;
 import io.hops.hopsworks.expat.db.dao.util.ExpatVariablesFacade;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
-import io.hops.hopsworks.expat.migrations.projects.util.HopsClient;
-import org.apache.commons.codec.digest.DigestUtils;
+import io.hops.hopsworks.expat.migrations.projects.util.ProjectBatch;
+import io.hops.hopsworks.expat.migrations.projects.util.ProjectBatch.ProjectAction;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
-import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
-import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 public class ModelArtifactMigration implements MigrateStep {
   private static final Logger LOGGER = LoggerFactory.getLogger(ModelArtifactMigration.class);
@@ -63,12 +57,13 @@ public class ModelArtifactMigration implements MigrateStep {
   protected Connection connection;
   private boolean dryRun;
   private String hopsUser;
+  private int batchSize;
   private ExpatVariablesFacade expatVariablesFacade;
-  private ExpatUserFacade expatUserFacade;
   
   private final static String GET_PROJECT_NAMES = "SELECT projectname FROM project";
-  private final static String GET_SERVINGS = "SELECT id, model_path, model_version, creator, kafka_topic_id FROM " +
-    "serving";
+  private final static String GET_SERVINGS = "SELECT p.projectname, s.id, s.model_path, s.model_version, " +
+    "u.username, s.kafka_topic_id FROM project p LEFT JOIN serving s ON s.project_id = p.id " +
+    "LEFT JOIN users u ON s.creator = u.uid ORDER BY p.id, s.id";
   private final static String UPDATE_SERVING = "UPDATE serving SET artifact_version = ?, inference_logging = ? WHERE " +
     "id = ?";
   
@@ -103,94 +98,27 @@ public class ModelArtifactMigration implements MigrateStep {
       throw new MigrationException(errorMsg, ex);
     }
     
-    PreparedStatement getProjectNamesStmt = null;
-    PreparedStatement getServingsStmt = null;
-    PreparedStatement updateServingStmt = null;
-    DistributedFileSystemOps dfso = null;
     try {
-      connection.setAutoCommit(false);
-      dfso = HopsClient.getDFSO(hopsUser);
+      final Map<String, List<Serving>> projectServings = getProjectServings();
       
-      // Delete old artifacts
       // -- per project
-      getProjectNamesStmt = connection.prepareStatement(GET_PROJECT_NAMES);
-      ResultSet projectNamesResultSet = getProjectNamesStmt.executeQuery();
-      while(projectNamesResultSet.next()) {
-        String projectName = projectNamesResultSet.getString(1);
-        deleteOldArtifacts(projectName, dfso); // artifacts were created in the model version directory in v2.2
-      }
-      
-      // Create new artifacts
-      // -- per serving
-      updateServingStmt = connection.prepareStatement(UPDATE_SERVING);
-      getServingsStmt = connection.prepareStatement(GET_SERVINGS);
-      ResultSet servingsResultSet = getServingsStmt.executeQuery();
-      HashSet<String> createdArtifacts = new HashSet<>();
-      while(servingsResultSet.next()) {
-        // parse query result
-        int servingId = servingsResultSet.getInt(1);
-        String modelPath = servingsResultSet.getString(2);
-        String modelVersion = servingsResultSet.getString(3);
-        int creatorUid = servingsResultSet.getInt(4);
-        Integer kafkaTopicId = servingsResultSet.getObject(5, Integer.class);
-        
-        // create the artifact if it has not been created yet for this model version
-        String modelPathAndVersion = String.format("%s/%s", modelPath, modelVersion);
-        if (!createdArtifacts.contains(modelPathAndVersion)) {
-          // build paths
-          String[] segments = modelPath.split("/"); // /Projects/<projectName>/Models/<modelName>...
-          String projectName = segments[2];
-          String modelName = segments[4];
-          String modelVersionDir = String.format(MODEL_VERSION_PATH, projectName, modelName, modelVersion);
-          String artifactVersionDir = String.format("%s/Artifacts/0", modelVersionDir);
-          String artifactFile = String.format("%s/" + NEW_ARTIFACT_NAME, artifactVersionDir, modelName, modelVersion);
-          Path modelVersionPath = new Path(modelVersionDir);
-          Path artifactVersionDirPath = new Path(artifactVersionDir);
-          Path artifactPath = new Path(artifactFile);
-  
-          // get hdfsuser, permissions, username and group for the artifact files
-          ExpatUser creator = expatUserFacade.getExpatUserByUid(connection, creatorUid);
-          String username = creator.getUsername();
-          String hdfsUser = getHdfsUserName(projectName, username);
-          FsPermission artifactPermission = dfso.getParentPermission(modelVersionPath);
-          String group = dfso.getFileStatus(modelVersionPath.getParent()).getGroup();
-  
-          // copy model files to artifact folder
-          copyFilesToArtifactFolder(modelVersionPath, artifactVersionDirPath, artifactPermission, hdfsUser, group,
-            dfso);
-  
-          // create new artifact
-          createArtifact(artifactVersionDirPath, artifactPath, artifactPermission, hdfsUser, group, dfso);
-  
-          // add model version artifact as created
-          createdArtifacts.add(modelPathAndVersion);
+      ProjectBatch.run("Migrate model artifacts", hopsUser, projectServings.keySet(), new ProjectAction() {
+        @Override
+        public void run(String projectName, DistributedFileSystemOps dfso) throws Exception {
+          deleteOldArtifacts(projectName, dfso); // artifacts were created in the model version directory in v2.2
+          createArtifacts(projectServings.get(projectName), dfso);
         }
-        
-        // add serving update to batch
-        updateServingStmt.setInt(1, 0); // artifact_version -> 0
-        updateServingStmt.setObject(2, kafkaTopicId == null ? null : 2); // inference_logging
-        updateServingStmt.setInt(3, servingId);
-        updateServingStmt.addBatch();
-      }
-  
-      // update servings
-      if (dryRun) {
-        LOGGER.info(updateServingStmt.toString());
-      } else {
-        updateServingStmt.executeBatch();
-      }
+      });
       
-      connection.commit();
-      connection.setAutoCommit(true);
-    } catch(IllegalAccessException | InstantiationException | IllegalStateException | IOException | SQLException ex) {
+      // update servings
+      updateServings(projectServings.values());
+    } catch(IllegalStateException | IOException | SQLException ex) {
       String errorMsg = "Could not migrate model artifact";
       LOGGER.error(errorMsg);
       throw new MigrationException(errorMsg, ex);
-    } finally {
-      closeConnections(getProjectNamesStmt, getServingsStmt, updateServingStmt);
-      if (dfso != null) {
-        dfso.close();
-      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MigrationException("Interrupted while migrating model artifacts", ex);
     }
     LOGGER.info("Finished model artifacts migration");
   }
@@ -219,19 +147,15 @@ public class ModelArtifactMigration implements MigrateStep {
       throw new RollbackException(errorMsg, ex);
     }
   
-    PreparedStatement getProjectNamesStmt = null;
-    DistributedFileSystemOps dfso = null;
     try {
-      dfso = HopsClient.getDFSO(hopsUser);
-    
       // Delete new artifacts
       // -- per project
-      getProjectNamesStmt = connection.prepareStatement(GET_PROJECT_NAMES);
-      ResultSet projectNamesResultSet = getProjectNamesStmt.executeQuery();
-      while(projectNamesResultSet.next()) {
-        String projectName = projectNamesResultSet.getString(1);
-        deleteNewArtifacts(projectName, dfso); // artifacts directory was added in v2.3
-      }
+      ProjectBatch.run("Delete model artifacts", hopsUser, getProjectNames(), new ProjectAction() {
+        @Override
+        public void run(String projectName, DistributedFileSystemOps dfso) throws Exception {
+          deleteNewArtifacts(projectName, dfso); // artifacts directory was added in v2.3
+        }
+      });
     
       // In Hopsworks v2.2, artifacts are created when the serving is started. Therefore, we don't need to recreate
       // old artifacts. Additionally, we don't need to update servings since no attributes were deleted in v2.3.
@@ -240,15 +164,124 @@ public class ModelArtifactMigration implements MigrateStep {
       String errorMsg = "Could not rollback model artifact";
       LOGGER.error(errorMsg);
       throw new RollbackException(errorMsg, ex);
-    } finally {
-      closeConnections(getProjectNamesStmt);
-      if (dfso != null) {
-        dfso.close();
-      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RollbackException("Interrupted while rolling back model artifacts", ex);
     }
     LOGGER.info("Finished model artifacts migration");
   }
   
+  private List<String> getProjectNames() throws SQLException {
+    List<String> projectNames = new ArrayList<>();
+    try (PreparedStatement getProjectNamesStmt = connection.prepareStatement(GET_PROJECT_NAMES);
+         ResultSet projectNamesResultSet = getProjectNamesStmt.executeQuery()) {
+      while (projectNamesResultSet.next()) {
+        projectNames.add(projectNamesResultSet.getString(1));
+      }
+    }
+    return projectNames;
+  }
+  
+  /**
+   * @return the servings grouped by the project of their model, with an entry for every project even if it has no
+   * servings. A serving may use a model shared from another project, its artifact is created in that project.
+   */
+  private Map<String, List<Serving>> getProjectServings() throws SQLException {
+    Map<String, List<Serving>> projectServings = new LinkedHashMap<>();
+    try (PreparedStatement getServingsStmt = connection.prepareStatement(GET_SERVINGS, ResultSet.TYPE_FORWARD_ONLY,
+      ResultSet.CONCUR_READ_ONLY)) {
+      //stream the rows instead of buffering the whole result set in the driver
+      getServingsStmt.setFetchSize(Integer.MIN_VALUE);
+      try (ResultSet servingsResultSet = getServingsStmt.executeQuery()) {
+        while (servingsResultSet.next()) {
+          getServings(projectServings, servingsResultSet.getString(1));
+          int servingId = servingsResultSet.getInt(2);
+          if (servingsResultSet.wasNull()) {
+            continue; // project without servings
+          }
+          Serving serving = new Serving(servingId, servingsResultSet.getString(3), servingsResultSet.getString(4),
+            servingsResultSet.getString(5), servingsResultSet.getObject(6, Integer.class));
+          getServings(projectServings, serving.getProjectName()).add(serving);
+        }
+      }
+    }
+    return projectServings;
+  }
+  
+  private List<Serving> getServings(Map<String, List<Serving>> projectServings, String projectName) {
+    List<Serving> servings = projectServings.get(projectName);
+    if (servings == null) {
+      servings = new ArrayList<>();
+      projectServings.put(projectName, servings);
+    }
+    return servings;
+  }
+  
+  /**
+   * Create the artifact of every model version used by the servings, once per model version
+   */
+  private void createArtifacts(List<Serving> servings, DistributedFileSystemOps dfso) throws IOException {
+    Set<String> createdArtifacts = new HashSet<>();
+    for (Serving serving : servings) {
+      // create the artifact if it has not been created yet for this model version
+      String modelPathAndVersion = String.format("%s/%s", serving.modelPath, serving.modelVersion);
+      if (!createdArtifacts.add(modelPathAndVersion)) {
+        continue;
+      }
+      if (serving.creator == null) {
+        throw new IllegalStateException("Creator of serving " + serving.id + " not found");
+      }
+      
+      // build paths
+      String projectName = serving.getProjectName();
+      String modelName = serving.getModelName();
+      String modelVersionDir = String.format(MODEL_VERSION_PATH, projectName, modelName, serving.modelVersion);
+      String artifactVersionDir = String.format("%s/Artifacts/0", modelVersionDir);
+      String artifactFile = String.format("%s/" + NEW_ARTIFACT_NAME, artifactVersionDir, modelName,
+        serving.modelVersion);
+      Path modelVersionPath = new Path(modelVersionDir);
+      Path artifactVersionDirPath = new Path(artifactVersionDir);
+      Path artifactPath = new Path(artifactFile);
+      
+      // get hdfsuser, permissions, username and group for the artifact files
+      String hdfsUser = getHdfsUserName(projectName, serving.creator);
+      FsPermission artifactPermission = dfso.getParentPermission(modelVersionPath);
+      String group = dfso.getFileStatus(modelVersionPath.getParent()).getGroup();
+      
+      // copy model files to artifact folder
+      copyFilesToArtifactFolder(modelVersionPath, artifactVersionDirPath, artifactPermission, hdfsUser, group,
+        dfso);
+      
+      // create new artifact
+      createArtifact(artifactVersionDirPath, artifactPath, artifactPermission, hdfsUser, group, dfso);
+    }
+  }
+  
+  private void updateServings(Collection<List<Serving>> projectServings) throws SQLException {
+    connection.setAutoCommit(false);
+    try (PreparedStatement updateServingStmt = connection.prepareStatement(UPDATE_SERVING)) {
+      int batched = 0;
+      for (List<Serving> servings : projectServings) {
+        for (Serving serving : servings) {
+          // add serving update to batch
+          updateServingStmt.setInt(1, 0); // artifact_version -> 0
+          updateServingStmt.setObject(2, serving.kafkaTopicId == null ? null : 2); // inference_logging
+          updateServingStmt.setInt(3, serving.id);
+          updateServingStmt.addBatch();
+          if (++batched % batchSize == 0) {
+            ProjectBatch.executeBatch(updateServingStmt, dryRun);
+          }
+        }
+      }
+      if (batched % batchSize != 0) {
+        ProjectBatch.executeBatch(updateServingStmt, dryRun);
+      }
+      connection.commit();
+    } finally {
+      connection.setAutoCommit(true);
+    }
+  }
+  
   private void deleteOldArtifacts(String projectName, DistributedFileSystemOps dfso) throws IOException {
     Path modelsPath = new Path(String.format(MODELS_PATH, projectName));
     if(!dfso.exists(modelsPath)){
@@ -385,45 +418,13 @@ public class ModelArtifactMigration implements MigrateStep {
   }
   
   private void createArtifact(Path artifactVersionDir, Path artifactPath, FsPermission artifactPermission,
-      String username, String group, DistributedFileSystemOps dfso)
-      throws IllegalAccessException, SQLException, InstantiationException, IOException {
+      String username, String group, DistributedFileSystemOps dfso) throws IOException {
     
-    // create local dir
-    String localDir = expatVariablesFacade.findById("staging_dir").getValue() + File.separator +
-      DigestUtils.sha256Hex(artifactVersionDir.toString()) + File.separator + "artifact";
-    File zipDir = new File(localDir);
+    // zip artifact version directory straight into the artifact file
     if (dryRun) {
-      LOGGER.info("Create local directory: " + localDir);
+      LOGGER.info("Create artifact zip file at: " + artifactPath.toString());
     } else {
-      if (zipDir.exists()) {
-        FileUtils.deleteDirectory(zipDir);
-      }
-      if (!zipDir.mkdirs()) {
-        throw new IOException("Local directory could not be created: " + localDir);
-      }
-    }
-    
-    // copy artifact version directory to local
-    if (dryRun) {
-      LOGGER.info("Copy artifact version folder to local: " + artifactVersionDir.toString());
-    } else {
-      dfso.copyToLocal(artifactVersionDir.toString(), localDir);
-    }
-    
-    // zip artifact version directory
-    String artifactDirLocalPath = localDir + File.separator + artifactVersionDir.getName();
-    String artifactFileLocalPath = zipDir.getParent() + File.separator + artifactPath.getName();
-    if (dryRun) {
-      LOGGER.info("Create artifact zip file at: " + artifactFileLocalPath);
-    } else {
-      zipDirectory(artifactDirLocalPath, artifactFileLocalPath);
-    }
-    
-    // copy artifact file to hdfs
-    if (dryRun) {
-      LOGGER.info("Copy artifact file to HDFS at: " + artifactPath.toString());
-    } else {
-      dfso.copyFromLocal(true, new Path(artifactFileLocalPath), artifactPath);
+      ArtifactArchive.create(dfso, artifactVersionDir, artifactPath);
       setOwnershipAndPermissions(artifactPath, artifactPermission, username, group, dfso);
     }
   
@@ -441,58 +442,39 @@ public class ModelArtifactMigration implements MigrateStep {
     return projectName + HdfsUsersController.USER_NAME_DELIMITER + username;
   }
   
-  private void zipDirectory(String dirPath, String zipFilePath) {
-    try {
-      FileOutputStream fos = new FileOutputStream(zipFilePath);
-      ZipOutputStream zos = new ZipOutputStream(fos);
-      
-      List<String> filePaths = Files.walk(Paths.get(dirPath).getParent(), Integer.MAX_VALUE)
-        .filter(file -> !Files.isDirectory(file) && !file.toString().endsWith(".crc"))
-        .map(file -> file.getParent().toString() + File.separator + file.getFileName().toString())
-        .collect(Collectors.toList());
-  
-      File dirFile = new File(dirPath);
-      String parentAbsolutePath = dirFile.getParentFile().getAbsolutePath();
-      for(String filePath : filePaths){
-        ZipEntry ze = new ZipEntry(filePath.substring(parentAbsolutePath.length() + 1));
-        zos.putNextEntry(ze);
-        FileInputStream fis = new FileInputStream(filePath);
-        byte[] buffer = new byte[1024];
-        int len;
-        while ((len = fis.read(buffer)) > 0) {
-          zos.write(buffer, 0, len);
-        }
-        zos.closeEntry();
-        fis.close();
-      }
-      zos.close();
-      fos.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-  }
-  
   private void setup() throws SQLException, ConfigurationException {
     Configuration conf = ConfigurationBuilder.getConfiguration();
     dryRun = conf.getBoolean(ExpatConf.DRY_RUN);
+    batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
     hopsUser = conf.getString(ExpatConf.HOPS_CLIENT_USER);
     if (hopsUser == null) {
       throw new ConfigurationException(ExpatConf.HOPS_CLIENT_USER + " cannot be null");
     }
     connection = DbConnectionFactory.getConnection();
     expatVariablesFacade = new ExpatVariablesFacade(ExpatVariables.class, connection);
-    expatUserFacade = new ExpatUserFacade();
   }
   
-  private void closeConnections(PreparedStatement... stmts) {
-    try {
-      for (PreparedStatement stmt : stmts) {
-        if (stmt != null) {
-          stmt.close();
-        }
-      }
-    } catch(SQLException ex) {
-      //do nothing
+  private static final class Serving {
+    private final int id;
+    private final String modelPath;
+    private final String modelVersion;
+    private final String creator;
+    private final Integer kafkaTopicId;
+    
+    private Serving(int id, String modelPath, String modelVersion, String creator, Integer kafkaTopicId) {
+      this.id = id;
+      this.modelPath = modelPath;
+      this.modelVersion = modelVersion;
+      this.creator = creator;
+      this.kafkaTopicId = kafkaTopicId;
+    }
+    
+    private String getProjectName() {
+      return modelPath.split("/")[2]; // /Projects/<projectName>/Models/<modelName>...
+    }
+    
+    private String getModelName() {
+      return modelPath.split("/")[4];
     }
   }
 }
@@ -14,7 +14,6 @@
  * this program. If not, see <https://www.gnu.org/licenses/>.
  *
  */
-
 package io.hops.hopsworks.expat.migrations.serving;
 
 import io.hops.hopsworks.common.hdfs.DistributedFileSystemOps;
@@ -26,34 +25,30 @@ import io.hops.hopsworks.expat.db.dao.util.ExpatVariablesFacade;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
-import io.hops.hopsworks.expat.migrations.projects.util.HopsClient;
-import org.apache.commons.codec.digest.DigestUtils;
+import io.hops.hopsworks.expat.migrations.projects.util.ProjectBatch;
+import io.hops.hopsworks.expat.migrations.projects.util.ProjectBatch.ProjectAction;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
-import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
-import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PythonArtifactMigration implements MigrateStep {
   private static final Logger LOGGER = LoggerFactory.getLogger(PythonArtifactMigration.class);
@@ -61,13 +56,14 @@ public class PythonArtifactMigration implements MigrateStep {
   protected Connection connection;
   private boolean dryRun;
   private String hopsUser;
+  private int batchSize;
   private ExpatVariablesFacade expatVariablesFacade;
   
-  private final static String GET_PROJECTS = "SELECT id, projectname FROM project";
-  private final static String GET_SERVINGS = "SELECT id, model_path, model_version, artifact_version, model_server " +
-    "FROM serving WHERE project_id = ?";
-  private final static String GET_SERVINGS_WITH_PRED = "SELECT id, model_name, model_version, artifact_version, " +
-    "model_server, predictor FROM serving WHERE project_id = ?";
+  private final static String GET_SERVINGS = "SELECT p.projectname, s.id, s.model_path, s.model_version, " +
+    "s.artifact_version, s.model_server FROM project p LEFT JOIN serving s ON s.project_id = p.id ORDER BY p.id, s.id";
+  private final static String GET_SERVINGS_WITH_PRED = "SELECT p.projectname, s.id, s.model_name, s.model_version, " +
+    "s.artifact_version, s.model_server, s.predictor FROM project p LEFT JOIN serving s ON s.project_id = p.id " +
+    "ORDER BY p.id, s.id";
   
   private final static String UPDATE_SERVING = "UPDATE serving SET model_path = ?, artifact_version = ? WHERE id = ?";
   private final static String UPDATE_SERVING_WITH_PRED = "UPDATE serving SET model_path = ?, artifact_version = ?, " +
@@ -96,7 +92,7 @@ public class PythonArtifactMigration implements MigrateStep {
       throw new MigrationException(errorMsg, ex);
     }
     
-    boolean isKubeInstalled;
+    final boolean isKubeInstalled;
     try {
       // check kubernetes is installed
       ExpatVariables kubernetesInstalled = expatVariablesFacade.findById("kubernetes_installed");
@@ -107,104 +103,28 @@ public class PythonArtifactMigration implements MigrateStep {
       throw new MigrationException(errorMsg, ex);
     }
   
-    PreparedStatement getProjectsStmt = null;
-    PreparedStatement getServingsStmt = null;
-    PreparedStatement updateServingWithPredStmt = null;
-    DistributedFileSystemOps dfso = null;
     try {
-      connection.setAutoCommit(false);
-      dfso = HopsClient.getDFSO(hopsUser);
-  
-      boolean updateServings = false;
-      updateServingWithPredStmt = connection.prepareStatement(UPDATE_SERVING_WITH_PRED);
+      final Map<String, List<Serving>> projectServings = getProjectServings(GET_SERVINGS, false);
+      final Map<String, List<ServingUpdate>> projectUpdates = new ConcurrentHashMap<>();
       
       // -- per project
-      getProjectsStmt = connection.prepareStatement(GET_PROJECTS);
-      ResultSet projectsResultSet = getProjectsStmt.executeQuery();
-      while(projectsResultSet.next()) {
-        // parse project query results
-        int projectId = projectsResultSet.getInt(1);
-        String projectName = projectsResultSet.getString(2);
-        
-        HashSet<String> keepModelArtifacts = new HashSet<>();
-        
-        // -- per serving
-        getServingsStmt = connection.prepareStatement(GET_SERVINGS);
-        getServingsStmt.setInt(1, projectId);
-        ResultSet servingsResultSet = getServingsStmt.executeQuery();
-        while(servingsResultSet.next()) {
-          // parse serving query result
-          int servingId = servingsResultSet.getInt(1);
-          String modelPath = servingsResultSet.getString(2);
-          int modelVersion = servingsResultSet.getInt(3);
-          int artifactVersion = servingsResultSet.getInt(4);
-          int modelServer = servingsResultSet.getInt(5);
-          String newModelPath = extractNewModelPath(projectName, modelPath);
-          String predictor = extractPredictorFilename(modelPath);
-          
-          if (isKubeInstalled) {
-            // if kubernetes is installed
-            if (artifactVersion == 0) {
-              // and artifact is model-only
-              String modelName = extractModelName(projectName, modelPath);
-              if (modelServer == 0) {
-                // if tensorflow serving and artifact version 0, add this model to be ignored when deleting artifacts
-                // with version 0
-                keepModelArtifacts.add(modelName + "/" + modelVersion);
-                continue;
-              }
-              if (modelServer == 1) {
-                // if flask server
-                if (!modelPath.endsWith(".py")) {
-                  // if model path does not point to a script, it's been already updated
-                  keepModelArtifacts.add(modelName + "/" + modelVersion);
-                  continue; // ignore serving
-                }
-                // migrate artifact
-                int newArtifactVersion = migratePythonArtifact(projectName, modelName, modelVersion, predictor, dfso);
-                // update serving
-                updateServing(servingId, newModelPath, newArtifactVersion, predictor, updateServingWithPredStmt);
-                updateServings = true;
-              }
-            }
-          } else {
-            // if kubernetes is not installed, we don't create artifacts but we have to update python servings
-            if (modelServer == 1) {
-              // if flask server
-              if (modelPath.endsWith(".py")) {
-                // if model path points to a script, the serving hasn't been updated yet.
-                // In non-kubernetes installations, predictor contains the full path to the script
-                updateServing(servingId, newModelPath, null, modelPath, updateServingWithPredStmt);
-                updateServings = true;
-              }
-            }
-          }
-        } // -- end -- per serving
-        
-        if (isKubeInstalled) {
-          // delete unused version 0 artifacts
-          deletePythonArtifacts(projectName, keepModelArtifacts, dfso);
+      ProjectBatch.run("Migrate python artifacts", hopsUser, projectServings.keySet(), new ProjectAction() {
+        @Override
+        public void run(String projectName, DistributedFileSystemOps dfso) throws Exception {
+          projectUpdates.put(projectName,
+            migrateProject(projectName, projectServings.get(projectName), isKubeInstalled, dfso));
         }
-      } // -- end -- per project
+      });
       
       // update servings
-      if (dryRun) {
-        LOGGER.info(updateServingWithPredStmt.toString());
-      } else {
-        if (updateServings) { updateServingWithPredStmt.executeBatch(); }
-      }
-      
-      connection.commit();
-      connection.setAutoCommit(true);
-    } catch(IllegalAccessException | InstantiationException | IllegalStateException | IOException | SQLException ex) {
+      updateServings(UPDATE_SERVING_WITH_PRED, projectServings.keySet(), projectUpdates);
+    } catch(IllegalStateException | IOException | SQLException ex) {
       String errorMsg = "Could not migrate python artifact";
       LOGGER.error(errorMsg);
       throw new MigrationException(errorMsg, ex);
-    } finally {
-      closeConnections(getProjectsStmt, getServingsStmt, updateServingWithPredStmt);
-      if (dfso != null) {
-        dfso.close();
-      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MigrationException("Interrupted while migrating python artifacts", ex);
     }
     LOGGER.info("Finished python artifacts migration");
   }
@@ -221,7 +141,7 @@ public class PythonArtifactMigration implements MigrateStep {
       throw new RollbackException(errorMsg, ex);
     }
   
-    boolean isKubeInstalled;
+    final boolean isKubeInstalled;
     try {
       // check kubernetes is installed
       ExpatVariables kubernetesInstalled = expatVariablesFacade.findById("kubernetes_installed");
@@ -232,130 +152,242 @@ public class PythonArtifactMigration implements MigrateStep {
       throw new RollbackException(errorMsg, ex);
     }
   
-    PreparedStatement getProjectsStmt = null;
-    PreparedStatement getServingsWithPredStmt = null;
-    PreparedStatement updateServingStmt = null;
-    PreparedStatement existsServingPredictorStmt = null;
-    DistributedFileSystemOps dfso = null;
     try {
-      connection.setAutoCommit(false);
-      dfso = HopsClient.getDFSO(hopsUser);
-  
-      existsServingPredictorStmt = connection.prepareStatement(EXISTS_SERVING_PREDICTOR_COLUMN);
-      ResultSet existsResultSet = existsServingPredictorStmt.executeQuery();
-      if (!existsResultSet.next()){
-        // if predictor column does not exist, rollback was already done
-        // do nothing
-      } else {
-        boolean updateServings = false;
-        updateServingStmt = connection.prepareStatement(UPDATE_SERVING);
+      // if predictor column does not exist, rollback was already done
+      if (existsServingPredictorColumn()) {
+        final Map<String, List<Serving>> projectServings = getProjectServings(GET_SERVINGS_WITH_PRED, true);
+        final Map<String, List<ServingUpdate>> projectUpdates = new ConcurrentHashMap<>();
         
         // -- per project
-        getProjectsStmt = connection.prepareStatement(GET_PROJECTS);
-        ResultSet projectsResultSet = getProjectsStmt.executeQuery();
-        while(projectsResultSet.next()) {
-          // parse project query results
-          int projectId = projectsResultSet.getInt(1);
-          String projectName = projectsResultSet.getString(2);
+        ProjectBatch.run("Rollback python artifacts", hopsUser, projectServings.keySet(), new ProjectAction() {
+          @Override
+          public void run(String projectName, DistributedFileSystemOps dfso) throws Exception {
+            projectUpdates.put(projectName,
+              rollbackProject(projectName, projectServings.get(projectName), isKubeInstalled, dfso));
+          }
+        });
+  
+        // update servings
+        updateServings(UPDATE_SERVING, projectServings.keySet(), projectUpdates);
+      }
+    } catch(IllegalStateException | IOException | SQLException ex) {
+      String errorMsg = "Could not rollback python artifact";
+      LOGGER.error(errorMsg);
+      throw new RollbackException(errorMsg, ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RollbackException("Interrupted while rolling back python artifacts", ex);
+    }
+    LOGGER.info("Finished python artifacts migration");
+  }
+  
+  /**
+   * @return the updates of the servings of the project
+   */
+  private List<ServingUpdate> migrateProject(String projectName, List<Serving> servings, boolean isKubeInstalled,
+    DistributedFileSystemOps dfso) throws IOException {
+    List<ServingUpdate> updates = new ArrayList<>();
+    HashSet<String> keepModelArtifacts = new HashSet<>();
     
-          HashSet<String> keepModelArtifacts = new HashSet<>();
-          HashSet<String> createModelArtifactV0 = new HashSet<>();
+    // -- per serving
+    for (Serving serving : servings) {
+      int servingId = serving.id;
+      String modelPath = serving.model;
+      int modelVersion = serving.modelVersion;
+      int artifactVersion = serving.artifactVersion;
+      int modelServer = serving.modelServer;
+      String newModelPath = extractNewModelPath(projectName, modelPath);
+      String predictor = extractPredictorFilename(modelPath);
+      
+      if (isKubeInstalled) {
+        // if kubernetes is installed
+        if (artifactVersion == 0) {
+          // and artifact is model-only
+          String modelName = extractModelName(projectName, modelPath);
+          if (modelServer == 0) {
+            // if tensorflow serving and artifact version 0, add this model to be ignored when deleting artifacts
+            // with version 0
+            keepModelArtifacts.add(modelName + "/" + modelVersion);
+            continue;
+          }
+          if (modelServer == 1) {
+            // if flask server
+            if (!modelPath.endsWith(".py")) {
+              // if model path does not point to a script, it's been already updated
+              keepModelArtifacts.add(modelName + "/" + modelVersion);
+              continue; // ignore serving
+            }
+            // migrate artifact
+            int newArtifactVersion = migratePythonArtifact(projectName, modelName, modelVersion, predictor, dfso);
+            // update serving
+            updates.add(new ServingUpdate(servingId, newModelPath, newArtifactVersion, predictor));
+          }
+        }
+      } else {
+        // if kubernetes is not installed, we don't create artifacts but we have to update python servings
+        if (modelServer == 1) {
+          // if flask server
+          if (modelPath.endsWith(".py")) {
+            // if model path points to a script, the serving hasn't been updated yet.
+            // In non-kubernetes installations, predictor contains the full path to the script
+            updates.add(new ServingUpdate(servingId, newModelPath, null, modelPath));
+          }
+        }
+      }
+    } // -- end -- per serving
     
-          // -- per serving
-          getServingsWithPredStmt = connection.prepareStatement(GET_SERVINGS_WITH_PRED);
-          getServingsWithPredStmt.setInt(1, projectId);
-          ResultSet servingsResultSet = getServingsWithPredStmt.executeQuery();
-          while (servingsResultSet.next()) {
-            // parse serving query result
-            int servingId = servingsResultSet.getInt(1);
-            String modelName = servingsResultSet.getString(2);
-            int modelVersion = servingsResultSet.getInt(3);
-            int artifactVersion = servingsResultSet.getInt(4);
-            int modelServer = servingsResultSet.getInt(5);
-            String predictor = servingsResultSet.getString(6);
-            String newPredictor = String.format(NEW_PREDICTOR_NAME, artifactVersion, predictor);
+    if (isKubeInstalled) {
+      // delete unused version 0 artifacts
+      deletePythonArtifacts(projectName, keepModelArtifacts, dfso);
+    }
+    return updates;
+  }
+  
+  /**
+   * @return the updates of the servings of the project
+   */
+  private List<ServingUpdate> rollbackProject(String projectName, List<Serving> servings, boolean isKubeInstalled,
+    DistributedFileSystemOps dfso) throws IOException {
+    List<ServingUpdate> updates = new ArrayList<>();
+    HashSet<String> keepModelArtifacts = new HashSet<>();
+    HashSet<String> createModelArtifactV0 = new HashSet<>();
+    
+    // -- per serving
+    for (Serving serving : servings) {
+      int servingId = serving.id;
+      String modelName = serving.model;
+      int modelVersion = serving.modelVersion;
+      int artifactVersion = serving.artifactVersion;
+      int modelServer = serving.modelServer;
+      String predictor = serving.predictor;
+      String newPredictor = String.format(NEW_PREDICTOR_NAME, artifactVersion, predictor);
+      
+      if (modelServer == 1) {
+        // if flask
+        if (artifactVersion > 0) {
+          // and artifact version > 0
+          if (isKubeInstalled) {
+            // Keep track of model name for later creation of artifact version 0
+            createModelArtifactV0.add(modelName + "/" + modelVersion);
             
-            if (modelServer == 1) {
-              // if flask
-              if (artifactVersion > 0) {
-                // and artifact version > 0
-                if (isKubeInstalled) {
-                  // Keep track of model name for later creation of artifact version 0
-                  createModelArtifactV0.add(modelName + "/" + modelVersion);
-  
-                  // Copy predictor script to model version folder if it doesn't already exists.
-                  Path modelVersionPath = new Path(String.format(MODEL_VERSION_PATH, projectName, modelName,
-                    modelVersion));
-                  FileStatus fileStatus = dfso.getFileStatus(modelVersionPath);
-                  FsPermission permission = fileStatus.getPermission();
-                  String username = fileStatus.getOwner();
-                  String group = fileStatus.getGroup();
-                  Path artifactVersionPath = new Path(String.format(ARTIFACT_VERSION_PATH, projectName, modelName,
-                    modelVersion, artifactVersion));
-                  
-                  copyPredictorFileToModelVersionFolder(modelVersionPath, artifactVersionPath, predictor, newPredictor,
-                    permission, username, group, dfso);
-  
-                  // Delete artifact version
-                  if (dryRun) {
-                    LOGGER.info("Delete artifact version directory: " + artifactVersionPath.toString());
-                  } else {
-                    dfso.rm(artifactVersionPath, true);
-                  }
-                }
-                
-                // Update serving
-                // - modelPath -> predictor script in model version folder
-                // - artifactVersion -> 0 or null (no k8s)
-                // - predictor -> will be removed
-                String scriptPath = String.format(MODEL_VERSION_PATH + "/%s", projectName, modelName, modelVersion,
-                  newPredictor);
-                updateServing(servingId, scriptPath, isKubeInstalled ? 0 : null, null, updateServingStmt);
-                updateServings = true;
-              } else {
-                // and artifact version = 0
-                LOGGER.info(String.format("Migration of MODEL-ONLY artifact ignored for model %s and version " +
-                  "%s in project %s", modelName, modelVersion, projectName));
-              }
-            } else if(modelServer == 0) {
-              if (isKubeInstalled) {
-                // if tensorflow serving, keep track of model name/version to avoid removing its artifacts
-                keepModelArtifacts.add(modelName + "/" + modelVersion);
-              }
+            // Copy predictor script to model version folder if it doesn't already exists.
+            Path modelVersionPath = new Path(String.format(MODEL_VERSION_PATH, projectName, modelName,
+              modelVersion));
+            FileStatus fileStatus = dfso.getFileStatus(modelVersionPath);
+            FsPermission permission = fileStatus.getPermission();
+            String username = fileStatus.getOwner();
+            String group = fileStatus.getGroup();
+            Path artifactVersionPath = new Path(String.format(ARTIFACT_VERSION_PATH, projectName, modelName,
+              modelVersion, artifactVersion));
+            
+            copyPredictorFileToModelVersionFolder(modelVersionPath, artifactVersionPath, predictor, newPredictor,
+              permission, username, group, dfso);
+            
+            // Delete artifact version
+            if (dryRun) {
+              LOGGER.info("Delete artifact version directory: " + artifactVersionPath.toString());
+            } else {
+              dfso.rm(artifactVersionPath, true);
             }
-          } // -- end -- per serving
+          }
+          
+          // Update serving
+          // - modelPath -> predictor script in model version folder
+          // - artifactVersion -> 0 or null (no k8s)
+          // - predictor -> will be removed
+          String scriptPath = String.format(MODEL_VERSION_PATH + "/%s", projectName, modelName, modelVersion,
+            newPredictor);
+          updates.add(new ServingUpdate(servingId, scriptPath, isKubeInstalled ? 0 : null, null));
+        } else {
+          // and artifact version = 0
+          LOGGER.info(String.format("Migration of MODEL-ONLY artifact ignored for model %s and version " +
+            "%s in project %s", modelName, modelVersion, projectName));
+        }
+      } else if(modelServer == 0) {
+        if (isKubeInstalled) {
+          // if tensorflow serving, keep track of model name/version to avoid removing its artifacts
+          keepModelArtifacts.add(modelName + "/" + modelVersion);
+        }
+      }
+    } // -- end -- per serving
+    
+    if (isKubeInstalled) {
+      // Delete unused artifacts and create artifact version 0 for python servings
+      deleteNewAndCreateV0Artifacts(projectName, keepModelArtifacts, createModelArtifactV0, dfso);
+    }
+    return updates;
+  }
   
-          if (isKubeInstalled) {
-            // Delete unused artifacts and create artifact version 0 for python servings
-            deleteNewAndCreateV0Artifacts(projectName, keepModelArtifacts, createModelArtifactV0, dfso);
+  private boolean existsServingPredictorColumn() throws SQLException {
+    try (PreparedStatement existsServingPredictorStmt = connection.prepareStatement(EXISTS_SERVING_PREDICTOR_COLUMN);
+         ResultSet existsResultSet = existsServingPredictorStmt.executeQuery()) {
+      return existsResultSet.next();
+    }
+  }
+  
+  /**
+   * @return the servings grouped by project, with an entry for every project even if it has no servings
+   */
+  private Map<String, List<Serving>> getProjectServings(String query, boolean withPredictor) throws SQLException {
+    Map<String, List<Serving>> projectServings = new LinkedHashMap<>();
+    try (PreparedStatement getServingsStmt = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+      ResultSet.CONCUR_READ_ONLY)) {
+      //stream the rows instead of buffering the whole result set in the driver
+      getServingsStmt.setFetchSize(Integer.MIN_VALUE);
+      try (ResultSet servingsResultSet = getServingsStmt.executeQuery()) {
+        List<Serving> servings = null;
+        String projectName = null;
+        while (servingsResultSet.next()) {
+          if (projectName == null || !projectName.equals(servingsResultSet.getString(1))) {
+            projectName = servingsResultSet.getString(1);
+            servings = new ArrayList<>();
+            projectServings.put(projectName, servings);
           }
-        } // -- end -- per project
+          int servingId = servingsResultSet.getInt(2);
+          if (servingsResultSet.wasNull()) {
+            continue; // project without servings
+          }
+          servings.add(new Serving(servingId, servingsResultSet.getString(3), servingsResultSet.getInt(4),
+            servingsResultSet.getInt(5), servingsResultSet.getInt(6),
+            withPredictor ? servingsResultSet.getString(7) : null));
+        }
+      }
+    }
+    return projectServings;
+  }
   
-        // update servings
-        if (dryRun) {
-          LOGGER.info(updateServingStmt.toString());
-        } else {
-          if (updateServings) { updateServingStmt.executeBatch(); }
+  /**
+   * Run the updates of the servings, in the order of the projects, in batches of batch size
+   */
+  private void updateServings(String query, Collection<String> projectNames,
+    Map<String, List<ServingUpdate>> projectUpdates) throws SQLException {
+    connection.setAutoCommit(false);
+    try (PreparedStatement updateServingStmt = connection.prepareStatement(query)) {
+      int batched = 0;
+      for (String projectName : projectNames) {
+        List<ServingUpdate> updates = projectUpdates.get(projectName);
+        if (updates == null) {
+          continue;
+        }
+        for (ServingUpdate update : updates) {
+          updateServing(update.servingId, update.modelPath, update.artifactVersion, update.predictor,
+            updateServingStmt);
+          if (++batched % batchSize == 0) {
+            ProjectBatch.executeBatch(updateServingStmt, dryRun);
+          }
         }
       }
-      
+      if (batched % batchSize != 0) {
+        ProjectBatch.executeBatch(updateServingStmt, dryRun);
+      }
       connection.commit();
-      connection.setAutoCommit(true);
-    } catch(IllegalStateException | SQLException | IOException | IllegalAccessException | InstantiationException ex) {
-      String errorMsg = "Could not rollback python artifact";
-      LOGGER.error(errorMsg);
-      throw new RollbackException(errorMsg, ex);
     } finally {
-      closeConnections(getProjectsStmt, getServingsWithPredStmt, updateServingStmt, existsServingPredictorStmt);
-      if (dfso != null) {
-        dfso.close();
-      }
+      connection.setAutoCommit(true);
     }
-    LOGGER.info("Finished python artifacts migration");
   }
   
   private int migratePythonArtifact(String projectName, String modelName, int modelVersion, String predictor,
-    DistributedFileSystemOps dfso) throws IOException, IllegalAccessException, SQLException, InstantiationException {
+    DistributedFileSystemOps dfso) throws IOException {
     LOGGER.info(String.format("Migration of artifact for model %s and version %s with predictor %s in project %s",
       modelName, modelVersion, predictor, projectName));
     
@@ -517,45 +549,13 @@ public class PythonArtifactMigration implements MigrateStep {
   }
   
   private void createArtifact(Path artifactVersionDir, Path artifactPath, FsPermission artifactPermission,
-    String username, String group, DistributedFileSystemOps dfso)
-    throws IllegalAccessException, SQLException, InstantiationException, IOException {
+    String username, String group, DistributedFileSystemOps dfso) throws IOException {
     
-    // create local dir
-    String localDir = expatVariablesFacade.findById("staging_dir").getValue() + File.separator +
-      DigestUtils.sha256Hex(artifactVersionDir.toString()) + File.separator + "artifact";
-    File zipDir = new File(localDir);
+    // zip artifact version directory straight into the artifact file
     if (dryRun) {
-      LOGGER.info("Create local directory: " + localDir);
+      LOGGER.info("Create artifact zip file at: " + artifactPath.toString());
     } else {
-      if (zipDir.exists()) {
-        FileUtils.deleteDirectory(zipDir);
-      }
-      if (!zipDir.mkdirs()) {
-        throw new IOException("Local directory could not be created: " + localDir);
-      }
-    }
-    
-    // copy artifact version directory to local
-    if (dryRun) {
-      LOGGER.info("Copy artifact version folder to local: " + artifactVersionDir.toString());
-    } else {
-      dfso.copyToLocal(artifactVersionDir.toString(), localDir);
-    }
-    
-    // zip artifact version directory
-    String artifactDirLocalPath = localDir + File.separator + artifactVersionDir.getName();
-    String artifactFileLocalPath = zipDir.getParent() + File.separator + artifactPath.getName();
-    if (dryRun) {
-      LOGGER.info("Create artifact zip file at: " + artifactFileLocalPath);
-    } else {
-      zipDirectory(artifactDirLocalPath, artifactFileLocalPath);
-    }
-    
-    // copy artifact file to hdfs
-    if (dryRun) {
-      LOGGER.info("Copy artifact file to HDFS at: " + artifactPath.toString());
-    } else {
-      dfso.copyFromLocal(true, new Path(artifactFileLocalPath), artifactPath);
+      ArtifactArchive.create(dfso, artifactVersionDir, artifactPath);
       setOwnershipAndPermissions(artifactPath, artifactPermission, username, group, dfso);
     }
     
@@ -569,37 +569,6 @@ public class PythonArtifactMigration implements MigrateStep {
       dfso.setPermission(filePath, permissions);
   }
   
-  private void zipDirectory(String dirPath, String zipFilePath) {
-    try {
-      FileOutputStream fos = new FileOutputStream(zipFilePath);
-      ZipOutputStream zos = new ZipOutputStream(fos);
-      
-      List<String> filePaths = Files.walk(Paths.get(dirPath).getParent(), Integer.MAX_VALUE)
-        .filter(file -> !Files.isDirectory(file) && !file.toString().endsWith(".crc"))
-        .map(file -> file.getParent().toString() + File.separator + file.getFileName().toString())
-        .collect(Collectors.toList());
-      
-      File dirFile = new File(dirPath);
-      String parentAbsolutePath = dirFile.getParentFile().getAbsolutePath();
-      for(String filePath : filePaths){
-        ZipEntry ze = new ZipEntry(filePath.substring(parentAbsolutePath.length() + 1));
-        zos.putNextEntry(ze);
-        FileInputStream fis = new FileInputStream(filePath);
-        byte[] buffer = new byte[1024];
-        int len;
-        while ((len = fis.read(buffer)) > 0) {
-          zos.write(buffer, 0, len);
-        }
-        zos.closeEntry();
-        fis.close();
-      }
-      zos.close();
-      fos.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-  }
-  
   private String extractModelName(String projectName, String modelPath) {
     String prefix = "/Projects/" + projectName + "/Models/";
     if (modelPath.endsWith(".py")) {
@@ -676,8 +645,7 @@ public class PythonArtifactMigration implements MigrateStep {
   }
   
   private void deleteNewAndCreateV0Artifacts(String projectName, HashSet<String> ignoreModels,
-    HashSet<String> createModelArtifactV0, DistributedFileSystemOps dfso)
-    throws IOException, IllegalAccessException, SQLException, InstantiationException {
+    HashSet<String> createModelArtifactV0, DistributedFileSystemOps dfso) throws IOException {
     Path modelsPath = new Path(String.format(MODELS_PATH, projectName));
     if(!dfso.exists(modelsPath)){
       LOGGER.info("Project " + projectName + " doesn't have models directory.");
@@ -814,6 +782,7 @@ public class PythonArtifactMigration implements MigrateStep {
   private void setup() throws SQLException, ConfigurationException {
     Configuration conf = ConfigurationBuilder.getConfiguration();
     dryRun = conf.getBoolean(ExpatConf.DRY_RUN);
+    batchSize = conf.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
     hopsUser = conf.getString(ExpatConf.HOPS_CLIENT_USER);
     if (hopsUser == null) {
       throw new ConfigurationException(ExpatConf.HOPS_CLIENT_USER + " cannot be null");
@@ -822,15 +791,36 @@ public class PythonArtifactMigration implements MigrateStep {
     expatVariablesFacade = new ExpatVariablesFacade(ExpatVariables.class, connection);
   }
   
-  private void closeConnections(PreparedStatement... stmts) {
-    try {
-      for (PreparedStatement stmt : stmts) {
-        if (stmt != null) {
-          stmt.close();
-        }
-      }
-    } catch(SQLException ex) {
-      //do nothing
+  private static final class Serving {
+    private final int id;
+    // the model path when migrating, the model name when rolling back
+    private final String model;
+    private final int modelVersion;
+    private final int artifactVersion;
+    private final int modelServer;
+    private final String predictor;
+    
+    private Serving(int id, String model, int modelVersion, int artifactVersion, int modelServer, String predictor) {
+      this.id = id;
+      this.model = model;
+      this.modelVersion = modelVersion;
+      this.artifactVersion = artifactVersion;
+      this.modelServer = modelServer;
+      this.predictor = predictor;
+    }
+  }
+  
+  private static final class ServingUpdate {
+    private final int servingId;
+    private final String modelPath;
+    private final Integer artifactVersion;
+    private final String predictor;
+    
+    private ServingUpdate(int servingId, String modelPath, Integer artifactVersion, String predictor) {
+      this.servingId = servingId;
+      this.modelPath = modelPath;
+      this.artifactVersion = artifactVersion;
+      this.predictor = predictor;
     }
   }
 }
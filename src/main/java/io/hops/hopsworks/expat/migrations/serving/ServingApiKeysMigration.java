@@ -20,13 +20,13 @@ import io.fabric8.kubernetes.api.model.ObjectMetaBuilder;
 import io.fabric8.kubernetes.api.model.Secret;
 import io.fabric8.kubernetes.api.model.SecretBuilder;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
 import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
 import io.hops.hopsworks.expat.db.dao.util.ExpatVariables;
 import io.hops.hopsworks.expat.db.dao.util.ExpatVariablesFacade;
 import io.hops.hopsworks.expat.kubernetes.KubernetesClientFactory;
+import io.hops.hopsworks.expat.kubernetes.SecretApplier;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
@@ -56,6 +56,7 @@ public class ServingApiKeysMigration implements MigrateStep {
   
   protected Connection connection;
   private KubernetesClient kubeClient;
+  private SecretApplier secretApplier;
   private boolean dryRun;
   private ExpatVariablesFacade expatVariablesFacade;
   private SecureRandom secureRandom;
@@ -151,6 +152,8 @@ public class ServingApiKeysMigration implements MigrateStep {
       if (isKFServingInstalled) {
         try {
           kubeClient = KubernetesClientFactory.getClient();
+          secretApplier = new SecretApplier("Create serving api key secrets", kubeClient,
+            KubernetesClientFactory.getConcurrency(), dryRun);
         } catch (ConfigurationException e) {
           throw new MigrationException("Cannot read kube client configuration", e);
         }
@@ -197,11 +200,18 @@ public class ServingApiKeysMigration implements MigrateStep {
           getProjectsByUserStmt.close();
         }
         activatedUsersResultSet.close();
+        
+        // -- wait for the kube secrets before committing the api keys they refer to
+        SecretApplier.Report<String, SecretApplier.Result> report = secretApplier.await();
+        if (!report.getFailures().isEmpty()) {
+          throw new MigrationException("Could not create " + report.getFailures().size() + " serving api key secrets",
+            report.getFailures().values().iterator().next());
+        }
       }
       
       connection.commit();
       connection.setAutoCommit(true);
-    } catch (IllegalStateException | SQLException ex) {
+    } catch (IllegalStateException | SQLException | InterruptedException ex) {
       String errorMsg = "Could not migrate serving api keys";
       LOGGER.error(errorMsg);
       throw new MigrationException(errorMsg, ex);
@@ -209,7 +219,9 @@ public class ServingApiKeysMigration implements MigrateStep {
       closeConnections(updateApiKeyScopesStmt, getActivatedUsersStmt, insertServingApiKeyStmt,
         insertServingApiKeyScopesStmt, getProjectsByUserStmt, getApiKeyByPrefixStmt, getApiKeyWithServingByUserStmt,
         deleteApiKeyScopesStmt, deleteApiKeysStmt, getApiKeyByNameStmt);
-      if (kubeClient != null) { kubeClient.close(); }
+      if (secretApplier != null) {
+        secretApplier.close();
+      }
     }
     LOGGER.info("Finished serving api keys migration");
   }
@@ -300,7 +312,6 @@ public class ServingApiKeysMigration implements MigrateStep {
     } finally {
       closeConnections(updateApiKeyScopesStmt, deleteApiKeyScopesStmt, deleteApiKeysStmt,
         getActivatedUsersStmt, getApiKeyByNameStmt);
-      kubeClient.close();
     }
     LOGGER.info("Finished serving api keys rollback");
   }
@@ -381,14 +392,13 @@ public class ServingApiKeysMigration implements MigrateStep {
   }
   
   private void createKubeServingApiKeySecrets(String name, Triplet<String, String, String> secret, String hash,
-    String username, Date date, PreparedStatement getProjectsByUserStmt) throws SQLException {
+    String username, Date date, PreparedStatement getProjectsByUserStmt) throws SQLException, InterruptedException {
     
     // -- create kube secret in hops-system
     String secretName = getServingApiKeySecretName(secret.getValue0());
     Map<String, String> labels = getApiKeySecretLabels(true, name, username, date);
     Map<String, byte[]> data = getApiKeySecretData(secret.getValue2(), hash, username, getApiKey(secret));
     createKubeSecret(HOPS_SYSTEM_NAMESPACE, secretName, data, labels);
-    LOGGER.info("Serving api key secret created for user " + username + " in hops-system");
     
     // -- per user's project
     ResultSet projectsResultSet = getProjectsByUserStmt.executeQuery();
@@ -400,13 +410,12 @@ public class ServingApiKeysMigration implements MigrateStep {
       data = new HashMap<>();
       data.put(SERVING_API_KEY_SECRET_KEY, getApiKey(secret).getBytes());
       createKubeSecret(namespace, secretName, data, labels);
-      LOGGER.info("Serving api key secret created for user " + username + " in project " + projectName);
     }
     projectsResultSet.close();
   }
   
   private void createKubeApiKeySecrets(String username, PreparedStatement getApiKeyWithServingStmt)
-      throws SQLException {
+      throws SQLException, InterruptedException {
     ResultSet apiKeyWithServing = getApiKeyWithServingStmt.executeQuery();
     while (apiKeyWithServing.next()) {
       String prefix = apiKeyWithServing.getString(1);
@@ -419,27 +428,24 @@ public class ServingApiKeysMigration implements MigrateStep {
       Map<String, String> labels = getApiKeySecretLabels(false, name, username, date);
       Map<String, byte[]> data = getApiKeySecretData(salt, hash, username, null);
       createKubeSecret(HOPS_SYSTEM_NAMESPACE, secretName, data, labels);
-      LOGGER.info("Personal api key secret created for user " + username + " with name " + secretName);
     }
     apiKeyWithServing.close();
   }
   
   private void createKubeSecret(String namespace, String name, Map<String, byte[]> filenameToContent, Map<String,
-    String> labels) throws KubernetesClientException {
+    String> labels) throws InterruptedException {
     Secret secret = new SecretBuilder()
       .withMetadata(
         new ObjectMetaBuilder()
           .withName(name)
+          .withNamespace(namespace)
           .withLabels(labels)
           .build())
       .withData(filenameToContent.entrySet().stream()
         .collect(Collectors.toMap(Map.Entry::getKey, e -> Base64.getEncoder().encodeToString(e.getValue()))))
       .build();
-    if (dryRun) {
-      LOGGER.info("Create secret with name " + name + " in namespace: " + namespace);
-    } else {
-      kubeClient.secrets().inNamespace(namespace).createOrReplace(secret);
-    }
+    // applied in the background, the result is checked by migrate() before committing
+    secretApplier.apply(secret);
   }
   
   private String getServingApiKeyName(String username, int uid) {
@@ -0,0 +1,73 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.migrations.x509;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Identifiers of the certificates which have been regenerated and committed to the database by a previous,
+ * interrupted, run. The file is removed once all certificates of a step have been regenerated.
+ */
+class CertificateCheckpoint {
+  private final Path path;
+  private final Set<String> done = new HashSet<>();
+
+  CertificateCheckpoint(Path path) throws IOException {
+    this.path = path;
+    if (Files.exists(path)) {
+      for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+        if (!line.trim().isEmpty()) {
+          done.add(line.trim());
+        }
+      }
+    }
+  }
+
+  boolean isDone(String id) {
+    return done.contains(id);
+  }
+
+  int size() {
+    return done.size();
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  void markDone(Collection<String> ids) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (String id : ids) {
+      sb.append(id).append("\n");
+    }
+    Files.write(path, sb.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+    done.addAll(ids);
+  }
+
+  void clear() throws IOException {
+    Files.deleteIfExists(path);
+    done.clear();
+  }
+}
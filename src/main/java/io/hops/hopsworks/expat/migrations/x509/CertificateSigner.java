@@ -0,0 +1,256 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.migrations.x509;
+
+import org.apache.commons.io.FileUtils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMDecryptorProvider;
+import org.bouncycastle.openssl.PEMEncryptedKeyPair;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcePEMDecryptorProviderBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.bouncycastle.pkcs.PKCSException;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues user and project certificates signed by the intermediate CA inside the JVM. It does what
+ * {@code generate_user_certificates.sh} does with openssl and keytool: generates a key pair, signs a
+ * certificate request with the intermediate CA key using the {@code usr_cert} extensions, stores the
+ * certificate and the key in the intermediate CA directory and builds the keystore and truststore.
+ *
+ * The intermediate CA serial and index files are kept up to date so that certificates issued here can be
+ * revoked with openssl. Key generation and keystore creation can run concurrently, issuing serial numbers
+ * is serialized.
+ */
+public class CertificateSigner {
+  private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+  private static final int KEY_SIZE = 2048;
+  private static final String TRUSTSTORE_ROOT_CA_ALIAS = "hops_root_ca";
+
+  static {
+    Security.addProvider(new BouncyCastleProvider());
+  }
+
+  private final Path intermediateCADir;
+  private final int validityDays;
+  private final KeyPair intermediateKeyPair;
+  private final X509Certificate intermediateCert;
+  private final X509Certificate rootCert;
+  private final Path serialFile;
+  private final Path indexFile;
+  private final JcaX509CertificateConverter certificateConverter;
+  private BigInteger nextSerial;
+
+  public CertificateSigner(String intermediateCA, String caPassword, int validityDays)
+      throws IOException, GeneralSecurityException {
+    this.intermediateCADir = Paths.get(intermediateCA);
+    this.validityDays = validityDays;
+    this.certificateConverter = new JcaX509CertificateConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME);
+    this.intermediateKeyPair = loadKeyPair(intermediateCADir.resolve("private").resolve("intermediate.key.pem"),
+        caPassword);
+    this.intermediateCert = loadCertificate(intermediateCADir.resolve("certs").resolve("intermediate.cert.pem"));
+    this.rootCert = loadCertificate(intermediateCADir.getParent().resolve("certs").resolve("ca.cert.pem"));
+    this.serialFile = intermediateCADir.resolve("serial");
+    this.indexFile = intermediateCADir.resolve("index.txt");
+    this.nextSerial = new BigInteger(FileUtils.readFileToString(serialFile.toFile(), Charset.defaultCharset()).trim(),
+        16);
+  }
+
+  /**
+   * CPU heavy, safe to call concurrently.
+   */
+  public KeyPair generateKeyPair() throws GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(KEY_SIZE);
+    return generator.generateKeyPair();
+  }
+
+  /**
+   * Create a certificate request for {@code CN=identifier} and sign it with the intermediate CA. The certificate
+   * and the private key are written in the intermediate CA certs and private directories.
+   */
+  public X509Certificate sign(String identifier, KeyPair keyPair) throws IOException, GeneralSecurityException {
+    try {
+      X500Name subject = new X500Name("CN=" + identifier);
+      PKCS10CertificationRequest csr = new JcaPKCS10CertificationRequestBuilder(subject, keyPair.getPublic())
+          .build(contentSigner(keyPair));
+      if (!csr.isSignatureValid(new JcaContentVerifierProviderBuilder().build(csr.getSubjectPublicKeyInfo()))) {
+        throw new GeneralSecurityException("Invalid signature of certificate request for " + identifier);
+      }
+
+      Date notBefore = new Date();
+      Date notAfter = new Date(notBefore.getTime() + TimeUnit.DAYS.toMillis(validityDays));
+      JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+      BigInteger serial = nextSerial();
+      X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(intermediateCert, serial, notBefore,
+          notAfter, csr.getSubject(), keyPair.getPublic())
+          .addExtension(Extension.basicConstraints, false, new BasicConstraints(false))
+          .addExtension(Extension.keyUsage, true,
+              new KeyUsage(KeyUsage.digitalSignature | KeyUsage.nonRepudiation | KeyUsage.keyEncipherment))
+          .addExtension(Extension.extendedKeyUsage, false,
+              new ExtendedKeyUsage(new KeyPurposeId[]{KeyPurposeId.id_kp_clientAuth,
+                KeyPurposeId.id_kp_emailProtection}))
+          .addExtension(Extension.subjectKeyIdentifier, false,
+              extensionUtils.createSubjectKeyIdentifier(keyPair.getPublic()))
+          .addExtension(Extension.authorityKeyIdentifier, false,
+              extensionUtils.createAuthorityKeyIdentifier(intermediateCert));
+      X509CertificateHolder holder = builder.build(contentSigner(intermediateKeyPair));
+      X509Certificate certificate = certificateConverter.getCertificate(holder);
+
+      writePem(intermediateCADir.resolve("private").resolve(identifier + ".key.pem"), keyPair.getPrivate(),
+          "r--------");
+      writePem(intermediateCADir.resolve("certs").resolve(identifier + ".cert.pem"), certificate, "r--r--r--");
+      appendToIndex(certificate, serial, identifier);
+      return certificate;
+    } catch (OperatorCreationException | PKCSException ex) {
+      throw new GeneralSecurityException("Could not sign certificate for " + identifier, ex);
+    }
+  }
+
+  /**
+   * JKS keystore with the private key and the chain of the certificate up to the intermediate CA.
+   */
+  public byte[] keyStore(String identifier, KeyPair keyPair, X509Certificate certificate, String password)
+      throws IOException, GeneralSecurityException {
+    KeyStore keyStore = KeyStore.getInstance("JKS");
+    keyStore.load(null, null);
+    keyStore.setKeyEntry(identifier, keyPair.getPrivate(), password.toCharArray(),
+        new Certificate[]{certificate, intermediateCert});
+    return toBytes(keyStore, password);
+  }
+
+  /**
+   * JKS truststore with the root CA.
+   */
+  public byte[] trustStore(String password) throws IOException, GeneralSecurityException {
+    KeyStore trustStore = KeyStore.getInstance("JKS");
+    trustStore.load(null, null);
+    trustStore.setCertificateEntry(TRUSTSTORE_ROOT_CA_ALIAS, rootCert);
+    return toBytes(trustStore, password);
+  }
+
+  private synchronized BigInteger nextSerial() throws IOException {
+    BigInteger serial = nextSerial;
+    nextSerial = nextSerial.add(BigInteger.ONE);
+    String hex = nextSerial.toString(16).toUpperCase();
+    // openssl keeps an even number of hex digits
+    if (hex.length() % 2 != 0) {
+      hex = "0" + hex;
+    }
+    FileUtils.writeStringToFile(serialFile.toFile(), hex + "\n", Charset.defaultCharset());
+    return serial;
+  }
+
+  private synchronized void appendToIndex(X509Certificate certificate, BigInteger serial, String identifier)
+      throws IOException {
+    SimpleDateFormat format = new SimpleDateFormat("yyMMddHHmmss'Z'");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    String hexSerial = serial.toString(16).toUpperCase();
+    if (hexSerial.length() % 2 != 0) {
+      hexSerial = "0" + hexSerial;
+    }
+    String entry = "V\t" + format.format(certificate.getNotAfter()) + "\t\t" + hexSerial + "\tunknown\t/CN="
+        + identifier + "\n";
+    Files.write(indexFile, entry.getBytes(Charset.defaultCharset()), StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND);
+  }
+
+  private ContentSigner contentSigner(KeyPair keyPair) throws OperatorCreationException {
+    return new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).setProvider(BouncyCastleProvider.PROVIDER_NAME)
+        .build(keyPair.getPrivate());
+  }
+
+  private void writePem(Path path, Object object, String permissions) throws IOException {
+    StringWriter sw = new StringWriter();
+    try (JcaPEMWriter pemWriter = new JcaPEMWriter(sw)) {
+      pemWriter.writeObject(object);
+    }
+    File file = path.toFile();
+    FileUtils.writeStringToFile(file, sw.toString(), Charset.defaultCharset());
+    Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+  }
+
+  private byte[] toBytes(KeyStore keyStore, String password) throws IOException, GeneralSecurityException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    keyStore.store(out, password.toCharArray());
+    return out.toByteArray();
+  }
+
+  private KeyPair loadKeyPair(Path path, String password) throws IOException {
+    try (PEMParser pemParser = new PEMParser(new FileReader(path.toFile()))) {
+      Object object = pemParser.readObject();
+      JcaPEMKeyConverter pemKeyConverter = new JcaPEMKeyConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME);
+      if (object instanceof PEMEncryptedKeyPair) {
+        PEMDecryptorProvider decryptorProvider = new JcePEMDecryptorProviderBuilder().build(password.toCharArray());
+        return pemKeyConverter.getKeyPair(((PEMEncryptedKeyPair) object).decryptKeyPair(decryptorProvider));
+      }
+      return pemKeyConverter.getKeyPair((PEMKeyPair) object);
+    }
+  }
+
+  private X509Certificate loadCertificate(Path path) throws IOException, GeneralSecurityException {
+    try (PEMParser pemParser = new PEMParser(new FileReader(path.toFile()))) {
+      Object object = pemParser.readObject();
+      if (!(object instanceof X509CertificateHolder)) {
+        throw new GeneralSecurityException("Could not load certificate " + path);
+      }
+      return certificateConverter.getCertificate((X509CertificateHolder) object);
+    }
+  }
+}
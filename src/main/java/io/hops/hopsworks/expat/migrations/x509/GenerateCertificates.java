@@ -26,7 +26,9 @@ import io.hops.hopsworks.expat.configuration.ConfigurationBuilder;
 import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
 import io.hops.hopsworks.expat.db.dao.user.ExpatUserFacade;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
 import io.hops.hopsworks.expat.executor.ProcessExecutor;
+import io.hops.hopsworks.expat.executor.TaskBatch;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
@@ -40,11 +42,24 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class GenerateCertificates {
   private static final Logger LOGGER = LoggerFactory.getLogger(GenerateCertificates.class);
@@ -57,6 +72,7 @@ public abstract class GenerateCertificates {
   private Path generateUserCertificatesSh;
   protected Connection connection;
   protected ExpatUserFacade expatUserFacade;
+  private CertificateCheckpoint checkpoint;
 
   protected void setup(String backupDirPrefix)
       throws MigrationException, ConfigurationException, IOException, SQLException {
@@ -81,27 +97,104 @@ public abstract class GenerateCertificates {
         "generate_user_certificates.sh");
     connection = DbConnectionFactory.getConnection();
     expatUserFacade = new ExpatUserFacade();
+    checkpoint = new CertificateCheckpoint(Paths.get(userHome, backupDirPrefix + "_certs_checkpoint"));
   }
   
   protected void generateNewCertsAndUpdateDb(Map<ExpatCertificate, ExpatUser> certificates, String print)
-      throws SQLException, IOException {
-    int total = certificates.size();
+      throws SQLException, IOException, GeneralSecurityException, InterruptedException {
+    Map<ExpatCertificate, ExpatUser> pending = new HashMap<>();
+    for (Map.Entry<ExpatCertificate, ExpatUser> entry : certificates.entrySet()) {
+      if (!checkpoint.isDone(certificateId(entry.getKey()))) {
+        pending.put(entry.getKey(), entry.getValue());
+      }
+    }
+    if (pending.size() < certificates.size()) {
+      LOGGER.info("Skipping " + (certificates.size() - pending.size()) + " certificates already regenerated, "
+          + "according to " + checkpoint.getPath());
+    }
+    int total = pending.size();
     LOGGER.info("Going to regenerate " + total + " certificates");
     LOGGER.info("Start generating new " + print + " Certificates");
-    int idx = 1;
-    for (Map.Entry<ExpatCertificate, ExpatUser> entry : certificates.entrySet()) {
-      generateCertificate(entry.getKey(), entry.getValue(), idx, total);
-      idx++;
+    ChunkedUpdater updater = new ChunkedUpdater(config.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT));
+    if (config.getBoolean(ExpatConf.SIGN_IN_PROCESS, ExpatConf.SIGN_IN_PROCESS_DEFAULT)) {
+      generateCertificatesInProcess(pending.keySet(), print, updater);
+    } else {
+      // openssl ca and the script share files in the intermediate CA directory, they cannot run concurrently
+      int idx = 1;
+      try {
+        for (Map.Entry<ExpatCertificate, ExpatUser> entry : pending.entrySet()) {
+          generateCertificate(entry.getKey(), entry.getValue(), idx, total);
+          updater.add(entry.getKey());
+          idx++;
+        }
+      } finally {
+        // Keep what has already been generated, a new run continues from there
+        updater.flush();
+      }
     }
-    LOGGER.info("Start updating certificates");
-    updateCertificatesInDB(certificates.keySet(), connection);
+    LOGGER.info("Finished updating database");
+    checkpoint.clear();
   }
   
-  private void generateCertificate(ExpatCertificate userCert, ExpatUser user, int idx, int total) throws IOException {
-    // Move previous certificates for backup
-    String id = userCert.getProjectName() + "__" + userCert.getUsername();
-    LOGGER.info("Generating new certificate for " + userCert);
+  /**
+   * Keys are generated on a CPU sized pool, ahead of the bounded number of certificates being signed. Signed
+   * certificates are written to the database in chunks while the rest are still being generated.
+   */
+  private void generateCertificatesInProcess(Set<ExpatCertificate> certificates, String print,
+      ChunkedUpdater updater) throws IOException, GeneralSecurityException, InterruptedException, SQLException {
+    final CertificateSigner signer = new CertificateSigner(intermediateCA, config.getString(ExpatConf.CA_PASSWORD),
+        config.getInt(ExpatConf.VALIDITY_DAYS, 3650));
+    final int total = certificates.size();
+    final AtomicInteger generated = new AtomicInteger(0);
+    final LinkedBlockingQueue<ExpatCertificate> completed = new LinkedBlockingQueue<>();
+    ExecutorService keyPool = ExecutorFactory.newComputeExecutor("certificate-keygen");
+    TaskBatch.Report<ExpatCertificate, Void> report;
+    try (TaskBatch<ExpatCertificate, Void> batch = new TaskBatch<>("Generate " + print + " certificates",
+        2 * ExecutorFactory.computeThreads())) {
+      for (final ExpatCertificate certificate : certificates) {
+        final Future<KeyPair> keyPair = keyPool.submit(new Callable<KeyPair>() {
+          @Override
+          public KeyPair call() throws Exception {
+            return signer.generateKeyPair();
+          }
+        });
+        batch.submit(certificate, new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            generateCertificate(signer, certificate, keyPair.get());
+            completed.add(certificate);
+            LOGGER.info("Finished generating new certificate for " + certificate + " - "
+                + generated.incrementAndGet() + "/" + total);
+            return null;
+          }
+        });
+        updater.addAll(completed);
+      }
+      report = batch.await();
+    } finally {
+      keyPool.shutdownNow();
+      updater.addAll(completed);
+      updater.flush();
+    }
+    if (!report.getFailures().isEmpty() || !report.getCancelled().isEmpty()) {
+      throw new IOException("Failed to generate " + (report.getFailures().size() + report.getCancelled().size())
+          + " out of " + total + " certificates");
+    }
+  }
+  
+  private void generateCertificate(CertificateSigner signer, ExpatCertificate certificate, KeyPair keyPair)
+      throws IOException, GeneralSecurityException {
+    String id = certificateId(certificate);
+    LOGGER.info("Generating new certificate for " + certificate);
+    backupPreviousCertificate(id);
     
+    X509Certificate x509Certificate = signer.sign(id, keyPair);
+    certificate.setKeyStore(signer.keyStore(id, keyPair, x509Certificate, certificate.getPlainPassword()));
+    certificate.setTrustStore(signer.trustStore(certificate.getPlainPassword()));
+  }
+  
+  private void backupPreviousCertificate(String id) throws IOException {
+    // Move previous certificates for backup
     String certId = id + ".cert.pem";
     File oldCert = Paths.get(intermediateCA, "certs", certId).toFile();
     File backupCert = Paths.get(certsBackupDir.toString(), certId).toFile();
@@ -115,6 +208,12 @@ public abstract class GenerateCertificates {
     if (oldKey.exists()) {
       FileUtils.moveFile(oldKey, backupKey);
     }
+  }
+  
+  private void generateCertificate(ExpatCertificate userCert, ExpatUser user, int idx, int total) throws IOException {
+    String id = certificateId(userCert);
+    LOGGER.info("Generating new certificate for " + userCert);
+    backupPreviousCertificate(id);
     
     // Generate certificate
     ProcessDescriptor processDescriptor = new ProcessDescriptor.Builder()
@@ -146,6 +245,51 @@ public abstract class GenerateCertificates {
     LOGGER.info("Finished generating new certificate for " + userCert + " - " + idx + "/" + total);
   }
 
+  private String certificateId(ExpatCertificate certificate) {
+    return certificate.getProjectName() + "__" + certificate.getUsername();
+  }
+  
+  /**
+   * Commits regenerated certificates in chunks of {@code batchSize} and records them in the checkpoint.
+   */
+  private final class ChunkedUpdater {
+    private final int batchSize;
+    private final List<ExpatCertificate> chunk = new ArrayList<>();
+    
+    private ChunkedUpdater(int batchSize) {
+      this.batchSize = Math.max(1, batchSize);
+    }
+    
+    private void addAll(BlockingQueue<ExpatCertificate> completed) throws SQLException, IOException {
+      List<ExpatCertificate> drained = new ArrayList<>();
+      completed.drainTo(drained);
+      for (ExpatCertificate certificate : drained) {
+        add(certificate);
+      }
+    }
+    
+    private void add(ExpatCertificate certificate) throws SQLException, IOException {
+      chunk.add(certificate);
+      if (chunk.size() >= batchSize) {
+        flush();
+      }
+    }
+    
+    private void flush() throws SQLException, IOException {
+      if (chunk.isEmpty()) {
+        return;
+      }
+      updateCertificatesInDB(new HashSet<>(chunk), connection);
+      List<String> ids = new ArrayList<>(chunk.size());
+      for (ExpatCertificate certificate : chunk) {
+        ids.add(certificateId(certificate));
+      }
+      checkpoint.markDone(ids);
+      LOGGER.info("Committed " + chunk.size() + " certificates, " + checkpoint.size() + " in total");
+      chunk.clear();
+    }
+  }
+  
   abstract void updateCertificatesInDB(Set<ExpatCertificate> certificates, Connection connection)
       throws SQLException;
 }
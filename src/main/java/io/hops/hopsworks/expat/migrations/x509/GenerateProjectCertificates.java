@@ -151,7 +151,6 @@ public class GenerateProjectCertificates extends GenerateCertificates implements
       }
       updateStmt.executeBatch();
       connection.commit();
-      LOGGER.info("Finished updating database");
     } finally {
       if (updateStmt != null) {
         updateStmt.close();
@@ -126,7 +126,6 @@ public class GenerateUserCertificates extends GenerateCertificates implements Mi
       }
       updateStmt.executeBatch();
       conn.commit();
-      LOGGER.info("Finished updating database");
     } finally {
       if (updateStmt != null) {
         updateStmt.close();
@@ -21,8 +21,11 @@ import io.hops.hopsworks.expat.configuration.ExpatConf;
 import io.hops.hopsworks.expat.db.DbConnectionFactory;
 import io.hops.hopsworks.expat.db.dao.certificates.CRLFacade;
 import io.hops.hopsworks.expat.db.dao.certificates.CertificatesFacade;
+import io.hops.hopsworks.expat.db.dao.certificates.ExpatPKICertificate;
 import io.hops.hopsworks.expat.db.dao.certificates.KeysFacade;
 import io.hops.hopsworks.expat.db.dao.certificates.SerialNumberFacade;
+import io.hops.hopsworks.expat.executor.ExecutorFactory;
+import io.hops.hopsworks.expat.executor.TaskBatch;
 import io.hops.hopsworks.expat.migrations.MigrateStep;
 import io.hops.hopsworks.expat.migrations.MigrationException;
 import io.hops.hopsworks.expat.migrations.RollbackException;
@@ -46,6 +49,7 @@ import org.slf4j.LoggerFactory;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -57,10 +61,16 @@ import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.stream.Stream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class MigrateToBouncyCastle implements MigrateStep {
   private static final Logger LOGGER = LoggerFactory.getLogger(MigrateToBouncyCastle.class);
@@ -74,6 +84,7 @@ public class MigrateToBouncyCastle implements MigrateStep {
   private CRLFacade crlFacade;
   private Configuration config;
   private boolean dryRun = true;
+  private int batchSize = ExpatConf.BATCH_SIZE_DEFAULT;
   private final Set<String> certificatesToIgnore = new HashSet<>();
 
   static {
@@ -170,6 +181,7 @@ public class MigrateToBouncyCastle implements MigrateStep {
   private void setup() throws ConfigurationException, SQLException {
     config = ConfigurationBuilder.getConfiguration();
     dryRun = config.getBoolean(ExpatConf.DRY_RUN);
+    batchSize = config.getInt(ExpatConf.BATCH_SIZE, ExpatConf.BATCH_SIZE_DEFAULT);
 
     dbConnection = DbConnectionFactory.getConnection();
     keysFacade = new KeysFacade(dbConnection, dryRun);
@@ -274,7 +286,7 @@ public class MigrateToBouncyCastle implements MigrateStep {
   /*
    * x.509
    */
-  private void migrateCertificates() throws IOException {
+  private void migrateCertificates() throws IOException, SQLException, InterruptedException {
 
     // ROOT
     LOGGER.info("Migrating certificates for ROOT CA");
@@ -295,56 +307,90 @@ public class MigrateToBouncyCastle implements MigrateStep {
     }
   }
 
-  private void migrateCertificatesForCA(Path path, Integer ca) throws IOException {
-    try (Stream<Path> files = Files.walk(path, 1)) {
-      files
-          .filter(Files::isRegularFile)
-          .filter(f -> f.toString().endsWith(".pem"))
-          .filter(f -> !certificatesToIgnore.contains(f.toString()))
-          .forEach(f -> {
-            try {
-              LOGGER.info("Migrating certificate " + f);
-              migrateCertificate(f, ca);
-            } catch (IOException | CertificateException | SQLException ex) {
-              throw new RuntimeException(ex);
+  /**
+   * Certificates are parsed in parallel while the directory is being listed. Parsed certificates are inserted
+   * from this thread with multi-row inserts, skipping subjects which are already in the database.
+   */
+  private void migrateCertificatesForCA(Path path, final Integer ca) throws IOException, SQLException,
+      InterruptedException {
+    final Set<String> subjects = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    subjects.addAll(certificatesFacade.getPKICertificateSubjects(dbConnection));
+    final LinkedBlockingQueue<ExpatPKICertificate> parsed = new LinkedBlockingQueue<>();
+    List<ExpatPKICertificate> pending = new ArrayList<>();
+    int migrated = 0;
+    ExecutorService parserPool = ExecutorFactory.newComputeExecutor("certificate-parser");
+    TaskBatch.Report<Path, Void> report;
+    try (TaskBatch<Path, Void> batch = new TaskBatch<>("Migrate certificates in " + path, parserPool,
+        2 * ExecutorFactory.computeThreads());
+         DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.pem")) {
+      for (final Path f : files) {
+        if (!Files.isRegularFile(f) || certificatesToIgnore.contains(f.toString())) {
+          continue;
+        }
+        batch.submit(f, new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            LOGGER.debug("Migrating certificate " + f);
+            ExpatPKICertificate certificate = parseCertificate(f, ca);
+            if (certificate == null) {
+              return null;
+            }
+            if (subjects.add(certificate.getSubject())) {
+              parsed.add(certificate);
+            } else {
+              LOGGER.info("Certificate for " + certificate.getSubject() + " has already been migrated. Skipping...");
             }
-          });
+            return null;
+          }
+        });
+        parsed.drainTo(pending);
+        if (pending.size() >= batchSize) {
+          migrated += insertCertificates(pending);
+        }
+      }
+      report = batch.await();
+    } finally {
+      parserPool.shutdownNow();
+    }
+    parsed.drainTo(pending);
+    migrated += insertCertificates(pending);
+    LOGGER.info("Migrated " + migrated + " certificates from " + path);
+    if (!report.getFailures().isEmpty()) {
+      throw new IOException("Failed to parse " + report.getFailures().size() + " certificates in " + path,
+          report.getFailures().values().iterator().next());
     }
   }
-  private void migrateCertificate(Path path, Integer ca) throws IOException, CertificateException, SQLException {
+
+  private int insertCertificates(List<ExpatPKICertificate> certificates) throws SQLException {
+    int inserted = certificates.size();
+    certificatesFacade.insertPKICertificates(dbConnection, certificates, batchSize, dryRun);
+    certificates.clear();
+    return inserted;
+  }
+
+  private ExpatPKICertificate parseCertificate(Path path, Integer ca) throws IOException, CertificateException {
     X509Certificate certificate = loadCertificate(path);
-    if (certificate != null) {
-      Long serialNumber = certificate.getSerialNumber().longValue();
-      Integer status = 0;
-      String subject = certificate.getSubjectDN().toString();
-      byte[] encoded = certificate.getEncoded();
-      Date notBefore = certificate.getNotBefore();
-      Date notAfter = certificate.getNotAfter();
-
-      if (certificatesFacade.exists(dbConnection, subject, dryRun)) {
-        LOGGER.info("Certificate for " + subject + " has already been migrated. Skipping...");
-        return;
-      }
-      certificatesFacade.insertPKICertificate(
-          dbConnection,
-          ca,
-          serialNumber,
-          status,
-          subject,
-          encoded,
-          notBefore.toInstant(),
-          notAfter.toInstant(),
-          dryRun);
+    if (certificate == null) {
+      return null;
     }
+    Long serialNumber = certificate.getSerialNumber().longValue();
+    Integer status = 0;
+    String subject = certificate.getSubjectDN().toString();
+    byte[] encoded = certificate.getEncoded();
+    Date notBefore = certificate.getNotBefore();
+    Date notAfter = certificate.getNotAfter();
+    return new ExpatPKICertificate(ca, serialNumber, status, subject, encoded, notBefore.toInstant(),
+        notAfter.toInstant());
   }
 
   private X509Certificate loadCertificate(Path path) throws IOException, CertificateException {
-    PEMParser pemParser = new PEMParser(new FileReader(path.toFile()));
-    Object object = pemParser.readObject();
-    if (object instanceof X509CertificateHolder) {
-      return x509CertificateConverter.getCertificate((X509CertificateHolder) object);
+    try (PEMParser pemParser = new PEMParser(new FileReader(path.toFile()))) {
+      Object object = pemParser.readObject();
+      if (object instanceof X509CertificateHolder) {
+        return x509CertificateConverter.getCertificate((X509CertificateHolder) object);
+      }
+      return null;
     }
-    return null;
   }
 
   /*
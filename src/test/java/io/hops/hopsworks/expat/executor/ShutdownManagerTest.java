@@ -0,0 +1,79 @@
+/*
+ * This file is part of Expat
+ * Copyright (C) 2024, Hopsworks AB. All rights reserved
+ *
+ * Expat is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * Expat is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+package io.hops.hopsworks.expat.executor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ShutdownManagerTest {
+  private final List<Runnable> registered = new ArrayList<>();
+
+  @After
+  public void removeHooks() {
+    for (Runnable hook : registered) {
+      ShutdownManager.getManager().removeShutdownHook(hook);
+    }
+  }
+
+  @Test
+  public void testEqualPriorityHooksAreKept() {
+    Runnable first = register(110);
+    Runnable second = register(110);
+
+    List<Runnable> hooks = ShutdownManager.getManager().getShutdownHooks();
+    Assert.assertTrue(hooks.contains(first));
+    Assert.assertTrue(hooks.contains(second));
+    Assert.assertTrue(hooks.indexOf(first) < hooks.indexOf(second));
+  }
+
+  @Test
+  public void testRemoveOnlyRemovesTheGivenHook() {
+    Runnable first = register(110);
+    Runnable second = register(110);
+
+    ShutdownManager.getManager().removeShutdownHook(first);
+
+    List<Runnable> hooks = ShutdownManager.getManager().getShutdownHooks();
+    Assert.assertFalse(hooks.contains(first));
+    Assert.assertTrue(hooks.contains(second));
+  }
+
+  @Test
+  public void testHigherPriorityRunsFirst() {
+    Runnable low = register(100);
+    Runnable high = register(110);
+
+    List<Runnable> hooks = ShutdownManager.getManager().getShutdownHooks();
+    Assert.assertEquals(Arrays.asList(high, low), hooks.subList(hooks.indexOf(high), hooks.indexOf(low) + 1));
+  }
+
+  private Runnable register(int priority) {
+    Runnable hook = new Runnable() {
+      @Override
+      public void run() {
+      }
+    };
+    ShutdownManager.getManager().addShutdownHook(hook, priority);
+    registered.add(hook);
+    return hook;
+  }
+}